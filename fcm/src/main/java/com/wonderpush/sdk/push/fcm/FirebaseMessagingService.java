@@ -3,6 +3,7 @@ package com.wonderpush.sdk.push.fcm;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.firebase.FirebaseApp;
@@ -119,6 +120,7 @@ public class FirebaseMessagingService extends com.google.firebase.messaging.Fire
      * @return Whether the notification has been handled by WonderPush
      */
     public static boolean onMessageReceived(Context context, RemoteMessage message) {
+        long receivedAtMillis = SystemClock.elapsedRealtime();
         try {
             WonderPush.initialize(context);
             if (WonderPush.getLogging()) Log.d(TAG, "Received a push notification!");
@@ -134,7 +136,7 @@ public class FirebaseMessagingService extends com.google.firebase.messaging.Fire
                 return false;
             }
 
-            NotificationManager.onReceivedNotification(context, message.toIntent(), notif);
+            NotificationManager.onReceivedNotification(context, message.toIntent(), notif, receivedAtMillis);
             return true;
         } catch (Exception e) {
             Log.e(TAG, "Unexpected error while handling FCM message from:" + message.getFrom() + " bundle:" + message.getData(), e);
@@ -2,6 +2,7 @@ package com.wonderpush.sdk.push.hcm;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -120,6 +121,7 @@ public class HuaweiMessagingService extends HmsMessageService {
      * @return Whether the notification has been handled by WonderPush
      */
     public static boolean onMessageReceived(Context context, RemoteMessage message) {
+        long receivedAtMillis = SystemClock.elapsedRealtime();
         try {
             WonderPush.initialize(context);
             if (WonderPush.getLogging()) Log.d(TAG, "Received a push notification!");
@@ -182,7 +184,7 @@ public class HuaweiMessagingService extends HmsMessageService {
             intent.putExtra("urgency", message.getUrgency());
             intent.putExtra("device_token", message.getToken());
             intent.putExtra("notification", message.getNotification());
-            NotificationManager.onReceivedNotification(context, intent, notif);
+            NotificationManager.onReceivedNotification(context, intent, notif, receivedAtMillis);
             return true;
         } catch (Exception e) {
             Log.e(TAG, "Unexpected error while handling HCM message from:" + message.getFrom() + " bundle:" + message.getData(), e);
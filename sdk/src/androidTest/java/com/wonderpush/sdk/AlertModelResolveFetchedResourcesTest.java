@@ -0,0 +1,166 @@
+package com.wonderpush.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Note: decoding the fetched images and sharing the fetched sound need the emulator
+@RunWith(AndroidJUnit4.class)
+public class AlertModelResolveFetchedResourcesTest {
+
+    private String baseUrl;
+    private final Map<String, File> fetchedFiles = new HashMap<>();
+    private int fetchedFilesLookups;
+
+    @BeforeClass
+    public static void initContext() {
+        WonderPush.ensureInitialized(ApplicationProvider.getApplicationContext());
+    }
+
+    @Before
+    public void setUp() {
+        // Never in the cache, so that every resource is left to fetch
+        baseUrl = "https://example.invalid/" + UUID.randomUUID() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : fetchedFiles.values()) {
+            file.delete();
+        }
+    }
+
+    private File fetchedFile(CacheUtil.FetchWork work) {
+        ++fetchedFilesLookups;
+        return fetchedFiles.get(work.uri.toString());
+    }
+
+    private void fetchImage(String name, int size) throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        File file = File.createTempFile("fetched-", ".png", context.getCacheDir());
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        try (OutputStream os = new FileOutputStream(file)) {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.PNG, 100, os));
+        }
+        fetchedFiles.put(baseUrl + name, file);
+    }
+
+    private void fetchSound(String name) throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        // Where the file provider shares sounds from
+        File directory = new File(context.getCacheDir(), "sounds");
+        assertTrue(directory.isDirectory() || directory.mkdirs());
+        File file = File.createTempFile("fetched-", ".mp3", directory);
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(new byte[]{1, 2, 3});
+        }
+        fetchedFiles.put(baseUrl + name, file);
+    }
+
+    private AlertBigPictureModel newAlert() throws JSONException {
+        AlertModel alert = AlertModel.fromJSON(new JSONObject()
+                .put("type", "bigPicture")
+                .put("text", "Text")
+                .put("largeIcon", baseUrl + "large-icon.png")
+                .put("bigPicture", baseUrl + "big-picture.png")
+                .put("sound", baseUrl + "sound.mp3")
+                .put("foreground", new JSONObject()
+                        .put("largeIcon", baseUrl + "foreground-large-icon.png")
+                        .put("sound", baseUrl + "foreground-sound.mp3")));
+        assertTrue(alert instanceof AlertBigPictureModel);
+        return (AlertBigPictureModel) alert;
+    }
+
+    @Test
+    public void testItShouldPlugInTheFetchedResources() throws Exception {
+        AlertBigPictureModel alert = newAlert();
+        assertNull(alert.getLargeIcon());
+        assertNull(alert.getBigPicture());
+        assertNull(alert.getForeground().getLargeIcon());
+        // The resources of the foreground variant are fetched along
+        assertEquals(5, alert.getResourcesToFetch().size());
+
+        fetchImage("large-icon.png", 40);
+        fetchImage("big-picture.png", 60);
+        fetchSound("sound.mp3");
+        fetchImage("foreground-large-icon.png", 20);
+        fetchSound("foreground-sound.mp3");
+        alert.resolveFetchedResources(this::fetchedFile);
+
+        assertNotNull(alert.getLargeIcon());
+        assertEquals(40, alert.getLargeIcon().getWidth());
+        assertNotNull(alert.getBigPicture());
+        assertEquals(60, alert.getBigPicture().getWidth());
+        assertEquals("content", alert.getSoundUri().getScheme());
+        assertNotNull(alert.getForeground().getLargeIcon());
+        assertEquals(20, alert.getForeground().getLargeIcon().getWidth());
+        assertEquals("content", alert.getForeground().getSoundUri().getScheme());
+        assertTrue(alert.getResourcesToFetch().isEmpty());
+
+        // The foreground variant wins when the application is in the foreground
+        assertEquals(20, alert.forCurrentSettings(true).getLargeIcon().getWidth());
+        assertEquals(40, alert.forCurrentSettings(false).getLargeIcon().getWidth());
+    }
+
+    @Test
+    public void testMissingResourcesShouldBeLeftUnset() throws Exception {
+        AlertBigPictureModel alert = newAlert();
+        fetchImage("large-icon.png", 40);
+        alert.resolveFetchedResources(this::fetchedFile);
+
+        assertNotNull(alert.getLargeIcon());
+        assertNull(alert.getBigPicture());
+        assertNull(alert.getForeground().getLargeIcon());
+        // Resolving is done once, later fetches are not plugged in
+        fetchImage("big-picture.png", 60);
+        alert.resolveFetchedResources(this::fetchedFile);
+        assertNull(alert.getBigPicture());
+    }
+
+    @Test
+    public void testClonesShouldLeavePendingResourcesToTheOriginal() throws Exception {
+        AlertBigPictureModel alert = newAlert();
+        AlertBigPictureModel clone = (AlertBigPictureModel) alert.clone();
+        assertEquals(5, alert.getResourcesToFetch().size());
+        assertTrue(clone.getResourcesToFetch().isEmpty());
+
+        fetchImage("large-icon.png", 40);
+        fetchImage("big-picture.png", 60);
+        fetchImage("foreground-large-icon.png", 20);
+        clone.resolveFetchedResources(this::fetchedFile);
+        assertEquals(0, fetchedFilesLookups);
+        assertNull(clone.getLargeIcon());
+
+        alert.resolveFetchedResources(this::fetchedFile);
+        assertNotNull(alert.getLargeIcon());
+        assertNotNull(alert.getBigPicture());
+        assertNotNull(alert.getForeground().getLargeIcon());
+        assertNull(clone.getLargeIcon());
+        assertNull(clone.getBigPicture());
+        assertNull(clone.getForeground().getLargeIcon());
+    }
+
+}
@@ -7,6 +7,16 @@ import android.util.Log;
 public abstract class WonderPushJobIntentService extends JobIntentService {
 
     private static final String TAG = WonderPushJobIntentService.class.getSimpleName();
+    private static final long IDLE_POLL_MS = 250;
+
+    private WorkDispatcher mDispatcher;
+
+    /**
+     * The number of works handled in parallel, {@link #onHandleWork} must be thread-safe when above 1.
+     */
+    protected int getMaxConcurrentWork() {
+        return 1;
+    }
 
     @Override
     public void onDestroy() {
@@ -20,6 +30,53 @@ public abstract class WonderPushJobIntentService extends JobIntentService {
 
     @Override
     GenericWorkItem dequeueWork() {
+        int maxConcurrentWork = getMaxConcurrentWork();
+        if (maxConcurrentWork <= 1) {
+            return safeDequeueWork();
+        }
+        if (mDispatcher == null) {
+            mDispatcher = new WorkDispatcher(maxConcurrentWork, getClass().getSimpleName());
+        }
+        // Dispatch the works from the processor thread, and only let it finish the job
+        // once the works being handled are complete and no new work was enqueued meanwhile
+        while (!isStopped()) {
+            GenericWorkItem work = safeDequeueWork();
+            if (work == null) {
+                try {
+                    if (!mDispatcher.awaitIdle(IDLE_POLL_MS)) continue;
+                } catch (InterruptedException ex) {
+                    return null;
+                }
+                work = safeDequeueWork();
+                if (work == null) return null;
+            }
+            try {
+                dispatch(work);
+            } catch (InterruptedException | RuntimeException ex) {
+                Log.e(TAG, "Unexpected error while dispatching work, handling it sequentially", ex);
+                return work;
+            }
+        }
+        return null;
+    }
+
+    private void dispatch(final GenericWorkItem work) throws InterruptedException {
+        mDispatcher.dispatch(() -> {
+            try {
+                onHandleWork(work.getIntent());
+            } catch (Exception ex) {
+                Log.e(TAG, "Unexpected error while handling work", ex);
+            }
+            try {
+                work.complete();
+            } catch (Exception ex) {
+                // The job may have been stopped meanwhile
+                Log.e(TAG, "Unexpected error while completing work", ex);
+            }
+        });
+    }
+
+    private GenericWorkItem safeDequeueWork() {
         try {
             return super.dequeueWork();
         } catch (Exception ex) {
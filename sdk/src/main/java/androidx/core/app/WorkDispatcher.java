@@ -0,0 +1,88 @@
+package androidx.core.app;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs works on a bounded number of threads, making the caller wait while all of them are busy.
+ */
+class WorkDispatcher {
+
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+    private final Object lock = new Object();
+    private int inFlight; // guarded by lock
+
+    WorkDispatcher(int maxConcurrency, String threadName) {
+        permits = new Semaphore(maxConcurrency);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, threadName + "-" + threadNumber.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the given work as soon as a thread is available.
+     *
+     * @throws InterruptedException if interrupted while waiting for a thread, the work is not run
+     */
+    void dispatch(Runnable work) throws InterruptedException {
+        permits.acquire();
+        synchronized (lock) {
+            inFlight++;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    work.run();
+                } finally {
+                    finished();
+                }
+            });
+        } catch (RuntimeException ex) {
+            finished();
+            throw ex;
+        }
+    }
+
+    private void finished() {
+        permits.release();
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until no work is running.
+     *
+     * @return {@code false} if works are still running after the given time
+     */
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (inFlight > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    int getInFlightCount() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+}
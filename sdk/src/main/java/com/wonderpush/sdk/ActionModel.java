@@ -41,6 +41,7 @@ public class ActionModel implements Cloneable {
         CLOSE_NOTIFICATIONS("closeNotifications"),
         SUBSCRIBE_TO_NOTIFICATIONS("subscribeToNotifications"),
         UNSUBSCRIBE_FROM_NOTIFICATIONS("unsubscribeFromNotifications"),
+        PREFETCH_RESOURCES("prefetchResources"),
         _DUMP_STATE("_dumpState"),
         _OVERRIDE_SET_LOGGING("_overrideSetLogging"),
         _OVERRIDE_NOTIFICATION_RECEIPT("_overrideNotificationReceipt"),
@@ -93,6 +94,7 @@ public class ActionModel implements Cloneable {
     private boolean hasSortKey; // for CLOSE_NOTIFICATIONS
     private String sortKey; // for CLOSE_NOTIFICATIONS
     private JSONObject extras; // for CLOSE_NOTIFICATIONS
+    private JSONArray resources; // for PREFETCH_RESOURCES
 
     public ActionModel() {
     }
@@ -129,6 +131,7 @@ public class ActionModel implements Cloneable {
         hasSortKey = data.has("sortKey");
         sortKey = JSONUtil.getString(data, "sortKey");
         extras = data.optJSONObject("extras");
+        resources = data.optJSONArray("resources");
     }
 
     private static Boolean optBool(JSONObject object, String field, Boolean defaultValue) {
@@ -165,6 +168,11 @@ public class ActionModel implements Cloneable {
                 rtn.extras = new JSONObject(extras.toString());
             } catch (JSONException ignored) {}
         }
+        if (resources != null) {
+            try {
+                rtn.resources = new JSONArray(resources.toString());
+            } catch (JSONException ignored) {}
+        }
         return rtn;
     }
 
@@ -364,4 +372,12 @@ public class ActionModel implements Cloneable {
         this.extras = extras;
     }
 
+    public JSONArray getResources() {
+        return resources;
+    }
+
+    public void setResources(JSONArray resources) {
+        this.resources = resources;
+    }
+
 }
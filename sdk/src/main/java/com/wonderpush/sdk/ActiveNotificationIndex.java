@@ -0,0 +1,218 @@
+package com.wonderpush.sdk;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the active notifications of the app, to find the ones to close without inspecting them all.
+ *
+ * <p>The index is kept in sync with the notifications the system reports:
+ * between {@link #beginSync()} and {@link #endSync()}, each active notification is either
+ * confirmed by {@link #touch(String, int, long)} or indexed anew with {@link #put(Entry)},
+ * and the notifications that were not reported are forgotten.
+ * Entries are only built, and their extras stringified, when a notification is posted or updated.</p>
+ */
+class ActiveNotificationIndex {
+
+    /**
+     * An indexed notification.
+     */
+    static class Entry {
+        final String tag;
+        final int id;
+        final long postTime;
+        String channelId;
+        String group;
+        String category;
+        String sortKey;
+        /**
+         * The string representation of the extras of the notification, {@code null} for null values.
+         */
+        final Map<String, String> extras = new HashMap<>();
+
+        Entry(@Nullable String tag, int id, long postTime) {
+            this.tag = tag;
+            this.id = id;
+            this.postTime = postTime;
+        }
+    }
+
+    /**
+     * Criteria to find notifications, criteria that are not set match any notification.
+     */
+    static class Query {
+        boolean hasChannel;
+        String channelId;
+        String defaultChannelId; // matched by a null channelId as well
+        boolean hasGroup;
+        String group;
+        boolean hasTag;
+        String tag;
+        boolean hasCategory;
+        String category;
+        boolean hasSortKey;
+        String sortKey;
+        /**
+         * The extras to match, a {@code null} value matches notifications without the key.
+         */
+        final Map<String, String> extras = new HashMap<>();
+    }
+
+    private static final class Key {
+        final String tag;
+        final int id;
+
+        Key(String tag, int id) {
+            this.tag = tag;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return id == key.id && (tag == null ? key.tag == null : tag.equals(key.tag));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (tag == null ? 0 : tag.hashCode()) + id;
+        }
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Set<Key>> byTag = new HashMap<>();
+    private final Map<String, Set<Key>> byGroup = new HashMap<>();
+    private Set<Key> seen;
+
+    synchronized void beginSync() {
+        seen = new HashSet<>();
+    }
+
+    /**
+     * Confirms an active notification.
+     *
+     * @return {@code false} if the notification is not indexed in this version and must be {@link #put(Entry)}
+     */
+    synchronized boolean touch(@Nullable String tag, int id, long postTime) {
+        Key key = new Key(tag, id);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.postTime != postTime) return false;
+        if (seen != null) seen.add(key);
+        return true;
+    }
+
+    synchronized void put(Entry entry) {
+        Key key = new Key(entry.tag, entry.id);
+        remove(key);
+        entries.put(key, entry);
+        addTo(byTag, entry.tag, key);
+        addTo(byGroup, entry.group, key);
+        if (seen != null) seen.add(key);
+    }
+
+    /**
+     * Forgets the notifications that were not reported since {@link #beginSync()}.
+     */
+    synchronized void endSync() {
+        if (seen == null) return;
+        for (Key key : new ArrayList<>(entries.keySet())) {
+            if (!seen.contains(key)) remove(key);
+        }
+        seen = null;
+    }
+
+    synchronized void remove(@Nullable String tag, int id) {
+        remove(new Key(tag, id));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the notifications matching the given query.
+     */
+    synchronized List<Entry> find(Query query) {
+        Collection<Key> candidates;
+        if (query.hasTag) {
+            candidates = get(byTag, query.tag);
+        } else if (query.hasGroup) {
+            candidates = get(byGroup, query.group);
+        } else {
+            candidates = entries.keySet();
+        }
+        List<Entry> rtn = new ArrayList<>();
+        for (Key key : candidates) {
+            Entry entry = entries.get(key);
+            if (entry != null && matches(entry, query)) rtn.add(entry);
+        }
+        return rtn;
+    }
+
+    static boolean matches(Entry entry, Query query) {
+        if (query.hasChannel) {
+            if (query.channelId == null) {
+                if (entry.channelId != null && !entry.channelId.equals(query.defaultChannelId)) return false;
+            } else if (!query.channelId.equals(entry.channelId)) {
+                return false;
+            }
+        }
+        if (query.hasGroup && !equals(query.group, entry.group)) return false;
+        if (query.hasTag && !equals(query.tag, entry.tag)) return false;
+        if (query.hasCategory && !equals(query.category, entry.category)) return false;
+        if (query.hasSortKey && !equals(query.sortKey, entry.sortKey)) return false;
+        for (Map.Entry<String, String> extra : query.extras.entrySet()) {
+            if (extra.getValue() == null) {
+                if (entry.extras.containsKey(extra.getKey())) return false;
+            } else if (!extra.getValue().equals(entry.extras.get(extra.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) return;
+        removeFrom(byTag, entry.tag, key);
+        removeFrom(byGroup, entry.group, key);
+    }
+
+    private static Set<Key> get(Map<String, Set<Key>> index, String value) {
+        Set<Key> keys = index.get(value);
+        return keys == null ? Collections.emptySet() : keys;
+    }
+
+    private static void addTo(Map<String, Set<Key>> index, String value, Key key) {
+        Set<Key> keys = index.get(value);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            index.put(value, keys);
+        }
+        keys.add(key);
+    }
+
+    private static void removeFrom(Map<String, Set<Key>> index, String value, Key key) {
+        Set<Key> keys = index.get(value);
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty()) index.remove(value);
+    }
+
+}
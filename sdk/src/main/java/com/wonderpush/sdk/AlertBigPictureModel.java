@@ -91,7 +91,7 @@ class AlertBigPictureModel extends AlertModel {
     }
 
     public void setBigLargeIcon(String bigLargeIcon) {
-        setBigLargeIcon(resolveLargeIconFromString(bigLargeIcon, "Big large icon"));
+        setBigLargeIcon(resolveLargeIconFromString(bigLargeIcon, "Big large icon", this::setBigLargeIcon));
     }
 
     public Bitmap getBigPicture() {
@@ -106,7 +106,7 @@ class AlertBigPictureModel extends AlertModel {
     }
 
     public void setBigPicture(String bigPicture) {
-        setBigPicture(resolveBigPictureFromString(bigPicture, "Big picture"));
+        setBigPicture(resolveBigPictureFromString(bigPicture, "Big picture", this::setBigPicture));
     }
 
     public CharSequence getBigTitle() {
@@ -11,6 +11,7 @@ import android.net.Uri;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.FileProvider;
 import android.util.Base64InputStream;
+import android.util.DisplayMetrics;
 import android.util.Log;
 
 import org.json.JSONArray;
@@ -35,6 +36,7 @@ import java.util.Locale;
 class AlertModel implements Cloneable {
 
     private static final String TAG = WonderPush.TAG;
+    private static final int BIG_PICTURE_MAX_HEIGHT_DP = 256;
 
     interface Builder {
         AlertModel build(JSONObject inputJSON);
@@ -199,7 +201,27 @@ class AlertModel implements Cloneable {
     // Modify forCurrentSettings() and clone() when adding a field above
     private AlertModel foreground;
 
-    private Collection<CacheUtil.FetchWork> resourcesToFetch = new ArrayList<>();
+    /**
+     * Receives a resource once resolved.
+     */
+    protected interface ResourceSetter<T> {
+        void set(T value);
+    }
+
+    /**
+     * A resource missing from the cache while building the model, and how to plug it in once fetched.
+     */
+    private static class PendingResource {
+        final CacheUtil.FetchWork work;
+        final ResourceSetter<File> resolver;
+
+        PendingResource(CacheUtil.FetchWork work, ResourceSetter<File> resolver) {
+            this.work = work;
+            this.resolver = resolver;
+        }
+    }
+
+    private List<PendingResource> pendingResources = new ArrayList<>();
 
     public static AlertModel fromOldFormatStringExtra(String alert) {
         if (alert == null) return null;
@@ -601,6 +623,8 @@ class AlertModel implements Cloneable {
     @Override
     protected Object clone() throws CloneNotSupportedException {
         AlertModel rtn = (AlertModel) super.clone();
+        // Pending resources resolve into the original model
+        rtn.pendingResources = new ArrayList<>();
         if (foreground != null) {
             rtn.foreground = (AlertModel) foreground.clone();
         }
@@ -702,60 +726,116 @@ class AlertModel implements Cloneable {
         return null;
     }
 
-    protected Bitmap resolveLargeIconFromString(String value, String logPrefix) {
+    protected Bitmap resolveLargeIconFromString(String value, String logPrefix, ResourceSetter<Bitmap> onFetched) {
         if (value == null) {
             return null;
         }
-        return resolveBitmapFromStringWithFetchResult(value, CacheUtil.fetchLargeIcon(Uri.parse(value), logPrefix), logPrefix);
+        Resources resources = WonderPush.getApplicationContext().getResources();
+        int width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        return resolveBitmapFromStringWithFetchResult(value, CacheUtil.fetchLargeIcon(Uri.parse(value), logPrefix), width, height, logPrefix, onFetched);
     }
 
-    protected Bitmap resolveBigPictureFromString(String value, String logPrefix) {
+    protected Bitmap resolveBigPictureFromString(String value, String logPrefix, ResourceSetter<Bitmap> onFetched) {
         if (value == null) {
             return null;
         }
-        return resolveBitmapFromStringWithFetchResult(value, CacheUtil.fetchBigPicture(Uri.parse(value), logPrefix), logPrefix);
+        // The big picture style renders the picture across the notification width, with a 2:1 aspect ratio at most
+        DisplayMetrics displayMetrics = WonderPush.getApplicationContext().getResources().getDisplayMetrics();
+        int width = Math.min(displayMetrics.widthPixels, displayMetrics.heightPixels);
+        int height = Math.min(width / 2, (int) (BIG_PICTURE_MAX_HEIGHT_DP * displayMetrics.density));
+        return resolveBitmapFromStringWithFetchResult(value, CacheUtil.fetchBigPicture(Uri.parse(value), logPrefix), width, height, logPrefix, onFetched);
     }
 
-    private Bitmap resolveBitmapFromStringWithFetchResult(String value, CacheUtil.FetchResult fetchResult, String logPrefix) {
+    private Bitmap resolveBitmapFromStringWithFetchResult(String value, CacheUtil.FetchResult fetchResult, int reqWidth, int reqHeight, String logPrefix, ResourceSetter<Bitmap> onFetched) {
         if (!fetchResult.needsWork()) {
-            return resolveBitmapFromString(value, fetchResult.getResult(), logPrefix);
+            return resolveBitmapFromString(value, fetchResult.getResult(), reqWidth, reqHeight, logPrefix);
         } else {
-            resourcesToFetch.add(fetchResult.getWork());
+            pendingResources.add(new PendingResource(fetchResult.getWork(),
+                    file -> onFetched.set(resolveBitmapFromString(value, file, reqWidth, reqHeight, logPrefix))));
+            return null;
+        }
+    }
+
+    private interface BitmapSource {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+    }
+
+    /**
+     * Decodes the bounds of the image first, to only allocate the pixels needed to render it at the requested size.
+     */
+    private static Bitmap decodeSampled(BitmapSource source, BitmapFactory.Options options, int reqWidth, int reqHeight, String logPrefix) throws IOException {
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
             return null;
         }
+        options.inSampleSize = BitmapSampling.computeInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        if (options.inSampleSize > 1) {
+            WonderPush.logDebug(logPrefix + ": Decoding " + options.outWidth + "x" + options.outHeight + " with sample size " + options.inSampleSize
+                    + " for " + reqWidth + "x" + reqHeight + ", saving "
+                    + (BitmapSampling.decodedBytes(options.outWidth, options.outHeight, 1) - BitmapSampling.decodedBytes(options.outWidth, options.outHeight, options.inSampleSize))
+                    + " bytes");
+        }
+        return source.decode(options);
     }
 
-    private Bitmap resolveBitmapFromString(String value, File httpResolvedFile, String logPrefix) {
+    private Bitmap resolveBitmapFromString(String value, File httpResolvedFile, int reqWidth, int reqHeight, String logPrefix) {
         if (value == null) {
             return null;
         }
         Uri uri = Uri.parse(value);
         InputStream stream;
         int resId;
-        if (httpResolvedFile != null) {
-            return BitmapFactory.decodeFile(httpResolvedFile.getAbsolutePath());
-        } else if ((stream = decodeDataUri(uri, logPrefix)) != null) {
-            return BitmapFactory.decodeStream(stream);
-        } else if ((resId = resolveResourceIdentifier(value, "drawable")) != 0) {
-            WonderPush.logDebug(logPrefix + ": Resolved as drawable");
-            return BitmapFactory.decodeResource(WonderPush.getApplicationContext().getResources(), resId);
-        } else if ((resId = resolveResourceIdentifier(value, "mipmap")) != 0) {
-            WonderPush.logDebug(logPrefix + ": Resolved as mipmap");
-            return BitmapFactory.decodeResource(WonderPush.getApplicationContext().getResources(), resId);
-        } else {
-            for (String suffix : new String[]{"", ".webp", ".png", ".jpg", ".jpeg", ".gif", ".bmp"}) {
-                try {
-                    Bitmap bm = BitmapFactory.decodeStream(WonderPush.getApplicationContext().getResources().getAssets().open(value + suffix));
-                    if (bm != null) {
-                        WonderPush.logDebug(logPrefix + ": Resolved as asset with suffix: \"" + suffix + "\"");
-                        return bm;
+        try {
+            if (httpResolvedFile != null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                Bitmap bitmap = decodeSampled(o -> BitmapFactory.decodeFile(httpResolvedFile.getAbsolutePath(), o), options, reqWidth, reqHeight, logPrefix);
+                if (bitmap != null && options.inSampleSize > 1) {
+                    // Next displays will not need to decode the full image again
+                    CacheUtil.storeDownsampled(httpResolvedFile, bitmap);
+                }
+                return bitmap;
+            } else if ((stream = decodeDataUri(uri, logPrefix)) != null) {
+                stream.close();
+                return decodeSampled(o -> {
+                    try (InputStream in = decodeDataUri(uri, logPrefix)) {
+                        return BitmapFactory.decodeStream(in, null, o);
                     }
-                } catch (IOException ignored) {}
+                }, new BitmapFactory.Options(), reqWidth, reqHeight, logPrefix);
+            } else if ((resId = resolveResourceIdentifier(value, "drawable")) != 0) {
+                WonderPush.logDebug(logPrefix + ": Resolved as drawable");
+                return decodeResourceSampled(resId, reqWidth, reqHeight, logPrefix);
+            } else if ((resId = resolveResourceIdentifier(value, "mipmap")) != 0) {
+                WonderPush.logDebug(logPrefix + ": Resolved as mipmap");
+                return decodeResourceSampled(resId, reqWidth, reqHeight, logPrefix);
+            } else {
+                for (String suffix : new String[]{"", ".webp", ".png", ".jpg", ".jpeg", ".gif", ".bmp"}) {
+                    try {
+                        Bitmap bm = decodeSampled(o -> {
+                            try (InputStream in = WonderPush.getApplicationContext().getResources().getAssets().open(value + suffix)) {
+                                return BitmapFactory.decodeStream(in, null, o);
+                            }
+                        }, new BitmapFactory.Options(), reqWidth, reqHeight, logPrefix);
+                        if (bm != null) {
+                            WonderPush.logDebug(logPrefix + ": Resolved as asset with suffix: \"" + suffix + "\"");
+                            return bm;
+                        }
+                    } catch (IOException ignored) {}
+                }
             }
+        } catch (IOException | OutOfMemoryError ex) {
+            Log.e(WonderPush.TAG, logPrefix + ": Failed to decode " + value, ex);
         }
         return null;
     }
 
+    private static Bitmap decodeResourceSampled(int resId, int reqWidth, int reqHeight, String logPrefix) throws IOException {
+        Resources resources = WonderPush.getApplicationContext().getResources();
+        return decodeSampled(o -> BitmapFactory.decodeResource(resources, resId, o), new BitmapFactory.Options(), reqWidth, reqHeight, logPrefix);
+    }
+
     protected CharSequence handleHtml(CharSequence input) {
         if (isHtml() && input instanceof String) {
             return WonderPushCompatibilityHelper.fromHtml((String) input); // images are unsupported in text, but unicode smileys are
@@ -764,8 +844,57 @@ class AlertModel implements Cloneable {
         }
     }
 
+    /**
+     * Lists the resources missing from the cache, of this alert and its foreground variant.
+     */
     public Collection<CacheUtil.FetchWork> getResourcesToFetch() {
-        return Collections.unmodifiableCollection(resourcesToFetch);
+        List<CacheUtil.FetchWork> rtn = new ArrayList<>(pendingResources.size());
+        for (PendingResource pendingResource : pendingResources) {
+            rtn.add(pendingResource.work);
+        }
+        if (foreground != null) {
+            rtn.addAll(foreground.getResourcesToFetch());
+        }
+        return Collections.unmodifiableCollection(rtn);
+    }
+
+    /**
+     * Gives the file fetched by a work, or {@code null} if it is still missing.
+     */
+    interface FetchedFiles {
+        File get(CacheUtil.FetchWork work);
+    }
+
+    /**
+     * Plugs the resources fetched since the model was built, from their work or from the cache,
+     * in this alert and its foreground variant.
+     * Resources that are still missing are left unset.
+     */
+    public void resolveFetchedResources() {
+        resolveFetchedResources(AlertModel::getFetchedFile);
+    }
+
+    void resolveFetchedResources(FetchedFiles fetchedFiles) {
+        List<PendingResource> resolving = pendingResources;
+        pendingResources = new ArrayList<>();
+        for (PendingResource pendingResource : resolving) {
+            File file = fetchedFiles.get(pendingResource.work);
+            if (file != null) {
+                pendingResource.resolver.set(file);
+            }
+        }
+        if (foreground != null) {
+            foreground.resolveFetchedResources(fetchedFiles);
+        }
+    }
+
+    private static File getFetchedFile(CacheUtil.FetchWork work) {
+        File file = work.getResult();
+        if (file == null) {
+            CacheUtil.FetchResult fetchResult = CacheUtil.fetch(work);
+            file = fetchResult.needsWork() ? null : fetchResult.getResult();
+        }
+        return file;
     }
 
     public JSONObject getInputJson() {
@@ -1225,16 +1354,15 @@ class AlertModel implements Cloneable {
                 // and convert it to a URI
                 CacheUtil.FetchResult fetchResult = CacheUtil.fetchSound(soundUri, "Sound");
                 if (fetchResult.needsWork()) {
-                    resourcesToFetch.add(fetchResult.getWork());
+                    final Boolean soundBeforeFetch = sound;
+                    pendingResources.add(new PendingResource(fetchResult.getWork(), file -> {
+                        setSound(soundBeforeFetch);
+                        this.soundUri = uriForCachedSound(file);
+                    }));
                 } // let the following code set the default sound meanwhile
                 File soundCached = fetchResult.getResult();
                 if (soundCached != null) {
-                    soundUri = FileProvider.getUriForFile(
-                            WonderPush.getApplicationContext(),
-                            WonderPush.getApplicationContext().getPackageName() + ".wonderpush.fileprovider",
-                            soundCached);
-                    WonderPush.getApplicationContext().grantUriPermission("com.android.systemui", soundUri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                    WonderPush.logDebug("Sound: new URI: " + soundUri);
+                    soundUri = uriForCachedSound(soundCached);
                 } else {
                     setSound(true);
                     setSoundUri((Uri) null);
@@ -1244,6 +1372,16 @@ class AlertModel implements Cloneable {
         this.soundUri = soundUri;
     }
 
+    private static Uri uriForCachedSound(File soundCached) {
+        Uri rtn = FileProvider.getUriForFile(
+                WonderPush.getApplicationContext(),
+                WonderPush.getApplicationContext().getPackageName() + ".wonderpush.fileprovider",
+                soundCached);
+        WonderPush.getApplicationContext().grantUriPermission("com.android.systemui", rtn, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        WonderPush.logDebug("Sound: new URI: " + rtn);
+        return rtn;
+    }
+
     public void setSoundUri(String soundUri) {
         if (soundUri == null) {
             setSoundUri((Uri) null);
@@ -1341,7 +1479,7 @@ class AlertModel implements Cloneable {
     }
 
     public void setLargeIcon(String largeIcon) {
-        setLargeIcon(resolveLargeIconFromString(largeIcon, "Large icon"));
+        setLargeIcon(resolveLargeIconFromString(largeIcon, "Large icon", this::setLargeIcon));
     }
 
     public List<NotificationButtonModel> getButtons() {
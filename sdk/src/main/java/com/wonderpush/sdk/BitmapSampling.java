@@ -0,0 +1,38 @@
+package com.wonderpush.sdk;
+
+/**
+ * Chooses how much to subsample images when decoding them, so that notifications
+ * do not hold pixels they cannot render.
+ */
+class BitmapSampling {
+
+    static final int BYTES_PER_PIXEL = 4; // ARGB_8888
+
+    /**
+     * Returns the largest power of two sample size that keeps both dimensions
+     * at or above the requested ones.
+     */
+    static int computeInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0) return inSampleSize;
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Returns a dimension of an image decoded with the given sample size, partial pixels counting as whole ones.
+     */
+    static int decodedDimension(int dimension, int inSampleSize) {
+        return (dimension + inSampleSize - 1) / inSampleSize;
+    }
+
+    /**
+     * Returns the memory used by the pixels of an image decoded with the given sample size.
+     */
+    static long decodedBytes(int width, int height, int inSampleSize) {
+        return (long) decodedDimension(width, inSampleSize) * decodedDimension(height, inSampleSize) * BYTES_PER_PIXEL;
+    }
+
+}
@@ -1,23 +1,24 @@
 package com.wonderpush.sdk;
 
-import android.net.TrafficStats;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import android.os.Looper;
-import android.os.Process;
 import android.util.Log;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import okhttp3.OkHttpClient;
 
 class CacheUtil {
 
@@ -29,12 +30,20 @@ class CacheUtil {
     protected static final int MAX_LARGEICON_CACHE_SIZE = 5 * MAX_LARGEICON_FILE_SIZE;
     protected static final int MAX_BIGPICTURE_CACHE_SIZE = 3 * MAX_BIGPICTURE_FILE_SIZE;
 
-    static class FetchWork {
+    private static final String BIG_PICTURES_SUBFOLDER = "bigPictures";
+
+    private static final ResourceFetchExecutor sFetchExecutor = new ResourceFetchExecutor();
+
+    static class FetchWork extends ResourceFetchExecutor.Task<File> {
         final Uri uri;
         final int maxFileSize;
         final String cacheSubfolder;
         final int maxCacheSize;
         final String logPrefix;
+        private volatile long bytes = -1;
+        private volatile boolean downloaded;
+        private volatile File result;
+        private volatile boolean joined;
 
         public FetchWork(Uri uri, int maxFileSize, String cacheSubfolder, int maxCacheSize, String logPrefix) {
             this.uri = uri;
@@ -44,8 +53,57 @@ class CacheUtil {
             this.logPrefix = logPrefix;
         }
 
-        public File execute() {
-            return doFetch(this);
+        @Override
+        protected File run() {
+            result = doFetch(this);
+            return result;
+        }
+
+        /**
+         * Runs this work on the resource fetching executor.
+         * A fetch of a resource already in progress waits for it in {@link ResourceCache#fetch}, and shares its result.
+         */
+        public Future<File> submit() throws RejectedExecutionException {
+            return sFetchExecutor.submit(this);
+        }
+
+        private void recordResult(ResourceCache.Result result) {
+            if (result.getDownloadedBytes() >= 0) {
+                bytes = result.getDownloadedBytes();
+                downloaded = true;
+            }
+            joined = result.isJoined();
+        }
+
+        /**
+         * Number of bytes downloaded, or -1 if served from cache or failed.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean isDownloaded() {
+            return downloaded;
+        }
+
+        public boolean isBigPicture() {
+            return BIG_PICTURES_SUBFOLDER.equals(cacheSubfolder);
+        }
+
+        /**
+         * The fetched file, or {@code null} if not executed or failed.
+         */
+        public File getResult() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return logPrefix + " " + uri
+                    + " queued=" + getQueuedMillis() + "ms"
+                    + " fetch=" + getFetchMillis() + "ms"
+                    + (downloaded ? " downloaded=" + bytes + "B" : "")
+                    + (joined ? " joined" : "");
         }
     }
 
@@ -79,44 +137,102 @@ class CacheUtil {
         }
     }
 
+    static FetchWork soundWork(Uri uri, String logPrefix) {
+        return new FetchWork(uri, MAX_SOUND_FILE_SIZE, "sounds", MAX_SOUND_CACHE_SIZE, logPrefix);
+    }
+
+    static FetchWork largeIconWork(Uri uri, String logPrefix) {
+        return new FetchWork(uri, MAX_LARGEICON_FILE_SIZE, "largeIcons", MAX_LARGEICON_CACHE_SIZE, logPrefix);
+    }
+
+    static FetchWork bigPictureWork(Uri uri, String logPrefix) {
+        return new FetchWork(uri, MAX_BIGPICTURE_FILE_SIZE, BIG_PICTURES_SUBFOLDER, MAX_BIGPICTURE_CACHE_SIZE, logPrefix);
+    }
+
     protected static FetchResult fetchSound(Uri uri, String logPrefix) {
-        return fetch(new FetchWork(uri, MAX_SOUND_FILE_SIZE, "sounds", MAX_SOUND_CACHE_SIZE, logPrefix));
+        return fetch(soundWork(uri, logPrefix));
     }
 
     protected static FetchResult fetchLargeIcon(Uri uri, String logPrefix) {
-        return fetch(new FetchWork(uri, MAX_LARGEICON_FILE_SIZE, "largeIcons", MAX_LARGEICON_CACHE_SIZE, logPrefix));
+        return fetch(largeIconWork(uri, logPrefix));
     }
 
     protected static FetchResult fetchBigPicture(Uri uri, String logPrefix) {
-        return fetch(new FetchWork(uri, MAX_BIGPICTURE_FILE_SIZE, "bigPictures", MAX_BIGPICTURE_CACHE_SIZE, logPrefix));
+        return fetch(bigPictureWork(uri, logPrefix));
+    }
+
+    /**
+     * Downloads a resource ahead of its display, and keeps it fresh in its cache until the given date.
+     * Must be called off the main thread.
+     *
+     * @return Whether the resource is cached and pinned
+     */
+    static boolean prefetch(FetchWork work, long pinnedUntil) {
+        ResourceCache cache = getCache(work);
+        if (cache == null) return false;
+        String url = work.uri.toString();
+        try {
+            ResourceCache.Result result = cache.fetch(url, work.maxFileSize, work.logPrefix);
+            if (result == null) return false;
+            work.recordResult(result);
+            return cache.pin(url, pinnedUntil);
+        } catch (Exception ex) {
+            Log.e(WonderPush.TAG, work.logPrefix + ": Failed to prefetch from URI " + work.uri, ex);
+            return false;
+        }
     }
 
-    private static FetchResult fetch(FetchWork work) {
+    private static final Map<String, ResourceCache> sCaches = new HashMap<>();
+
+    static FetchResult fetch(FetchWork work) {
         if (Looper.getMainLooper() != null && Looper.getMainLooper().getThread() == Thread.currentThread()) {
             return FetchResult.workTask(work);
         }
-        File cached = getCachedFile(work);
-        if (cached == null || isUsable(work, cached)) {
-            return FetchResult.immediate(cached);
+        ResourceCache cache = getCache(work);
+        if (cache == null) {
+            return FetchResult.immediate(null);
+        }
+        File fresh = cache.getFresh(work.uri.toString());
+        if (fresh != null) {
+            return FetchResult.immediate(fresh);
         } else {
             return FetchResult.workTask(work);
         }
     }
 
-    private static boolean isUsable(FetchWork work, @NonNull File cached) {
-        // TODO handle caching
-        return cached.exists();
+    private static OkHttpClient sUncachedClient;
+
+    /**
+     * The resources client without its HTTP cache, sharing its connections.
+     */
+    private static synchronized OkHttpClient getUncachedClient() {
+        if (sUncachedClient == null) {
+            sUncachedClient = ResourcesHttpClient.get(WonderPush.getApplicationContext()).newBuilder()
+                    .cache(null)
+                    .build();
+        }
+        return sUncachedClient;
     }
 
-    private static File getCachedFile(FetchWork work) {
+    /**
+     * Returns the cache for the given work, or {@code null} on invalid work request.
+     */
+    private static ResourceCache getCache(FetchWork work) {
         String scheme = work.uri.getScheme() == null ? null : work.uri.getScheme().toLowerCase(Locale.ROOT);
         if ("http".equals(scheme) || "https".equals(scheme)) {
             try {
-                String filename = Integer.toHexString(work.uri.toString().hashCode());
-                File cacheLargeIconsDir = new File(WonderPush.getApplicationContext().getCacheDir(), work.cacheSubfolder);
-                cacheLargeIconsDir.mkdirs();
-                final File cached = new File(cacheLargeIconsDir, filename);
-                return cached;
+                synchronized (sCaches) {
+                    ResourceCache cache = sCaches.get(work.cacheSubfolder);
+                    if (cache == null) {
+                        // The resource cache stores the files itself, the HTTP cache would keep a second copy of them
+                        cache = new ResourceCache(
+                                new File(WonderPush.getApplicationContext().getCacheDir(), work.cacheSubfolder),
+                                work.maxCacheSize,
+                                getUncachedClient());
+                        sCaches.put(work.cacheSubfolder, cache);
+                    }
+                    return cache;
+                }
             } catch (Exception ex) {
                 Log.e(WonderPush.TAG, work.logPrefix + ": Failed to fetch from URI " + work.uri, ex);
             }
@@ -124,78 +240,50 @@ class CacheUtil {
         return null;
     }
 
-    private static File doFetch(FetchWork work) {
-        try {
-            File cached = getCachedFile(work); // returns null on invalid work request
-            if (cached != null && !isUsable(work, cached)) {
-                boolean success = false;
-                try {
-                    WonderPush.logDebug(work.logPrefix + ": Will open URL: " + work.uri);
-                    TrafficStats.setThreadStatsTag(Process.myTid());
-                    URLConnection conn = new URL(work.uri.toString()).openConnection();
-                    InputStream is = (InputStream) conn.getContent();
-                    WonderPush.logDebug(work.logPrefix + ": Content-Type: " + conn.getContentType());
-                    WonderPush.logDebug(work.logPrefix + ": Content-Length: " + conn.getContentLength() + " bytes");
-                    if (conn.getContentLength() > work.maxFileSize) {
-                        throw new RuntimeException(work.logPrefix + " file too large (" + conn.getContentLength() + " is over " + work.maxFileSize + " bytes)");
-                    }
-
-                    FileOutputStream outputStream = new FileOutputStream(cached);
-                    int read, ttl = 0;
-                    byte[] buffer = new byte[2048];
-                    while ((read = is.read(buffer)) != -1) {
-                        ttl += read;
-                        if (ttl > work.maxFileSize) {
-                            throw new RuntimeException(work.logPrefix + " file too large (max " + work.maxFileSize + " bytes allowed)");
-                        }
-                        outputStream.write(buffer, 0, read);
-                    }
-                    outputStream.close();
-                    is.close();
-                    success = true;
-                    WonderPush.logDebug(work.logPrefix + ": Finished reading " + ttl + " bytes");
-                } catch (IOException ex) {
-                    Log.e(WonderPush.TAG, "Error while fetching resource " + work.uri, ex);
+    /**
+     * Replaces a cached image with a downsampled version of it.
+     */
+    static void storeDownsampled(File cachedFile, Bitmap bitmap) {
+        ResourceCache cache = null;
+        synchronized (sCaches) {
+            for (ResourceCache candidate : sCaches.values()) {
+                if (candidate.getDirectory().equals(cachedFile.getParentFile())) {
+                    cache = candidate;
+                    break;
                 }
-
-                if (!success) {
-                    cached.delete();
-                    cached = null;
+            }
+        }
+        if (cache == null) return;
+        File temp = null;
+        try {
+            temp = File.createTempFile(cachedFile.getName(), ".tmp", cachedFile.getParentFile());
+            try (OutputStream os = new FileOutputStream(temp)) {
+                if (!bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90, os)) {
+                    return;
                 }
-                expireCache(work.cacheSubfolder, work.maxCacheSize);
             }
-            return cached;
-        } catch (Exception ex) {
-            Log.e(WonderPush.TAG, work.logPrefix + ": Failed to fetch from URI " + work.uri, ex);
-            return null;
+            if (temp.length() < cachedFile.length() && cache.replace(cachedFile.getName(), temp)) {
+                WonderPush.logDebug("Stored downsampled " + bitmap.getWidth() + "x" + bitmap.getHeight() + " image in " + cachedFile);
+                temp = null;
+            }
+        } catch (IOException ex) {
+            Log.e(WonderPush.TAG, "Failed to store downsampled image " + cachedFile, ex);
+        } finally {
+            if (temp != null) temp.delete();
         }
     }
 
-    private static void expireCache(String cacheSubfolder, int maxCacheSize) {
-        File dir = new File(WonderPush.getApplicationContext().getCacheDir(), cacheSubfolder);
-        if (!dir.isDirectory()) return;
-
-        // Sort from most recently modified to least recently modified
-        File[] files = dir.listFiles();
-        Arrays.sort(files, new Comparator<File>() {
-            @Override
-            public int compare(File lhs, File rhs) {
-                // TODO Once minSdkVersion is 19, we can return Long.compare(rhs.lastModified(), lhs.lastModified())
-                long lvalue = lhs.lastModified();
-                long rvalue = rhs.lastModified();
-                if (rvalue == lvalue) return 0;
-                if (rvalue < lvalue) return -1;
-                return 1;
-            }
-        });
-
-        int totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-            // Delete any older files above the desired limit
-            if (totalSize > maxCacheSize) {
-                file.delete();
-            }
+    private static File doFetch(FetchWork work) {
+        try {
+            ResourceCache cache = getCache(work);
+            if (cache == null) return null;
+            ResourceCache.Result result = cache.fetch(work.uri.toString(), work.maxFileSize, work.logPrefix);
+            if (result == null) return null;
+            work.recordResult(result);
+            return result.getFile();
+        } catch (Exception ex) {
+            Log.e(WonderPush.TAG, work.logPrefix + ": Failed to fetch from URI " + work.uri, ex);
+            return null;
         }
     }
 
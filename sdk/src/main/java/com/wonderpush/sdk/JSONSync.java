@@ -16,6 +16,9 @@ abstract class JSONSync {
     protected abstract void doServerPatchInstallation(JSONObject diff, ResponseHandler handler);
     protected abstract void doUpgrade(JSONObject upgradeMeta, JSONObject sdkState, JSONObject serverState, JSONObject putAccumulator, JSONObject inflightDiff, JSONObject inflightPutAccumulator);
 
+    // Called with the diff merged into sdkState, or null when sdkState was replaced as a whole
+    protected void doSdkStateChanged(JSONObject diff) {}
+
     private static final int SAVED_STATE_STATE_VERSION_1 = 1;
     private static final int SAVED_STATE_STATE_VERSION_2 = 2;
     private static final String SAVED_STATE_FIELD__SYNC_STATE_VERSION = "_syncStateVersion";
@@ -29,6 +32,7 @@ abstract class JSONSync {
     private static final String SAVED_STATE_FIELD_INFLIGHT_PATCH_CALL = "inflightPatchCall";
 
     private JSONObject sdkState;
+    private JSONObject sdkStateSnapshot;
     private JSONObject serverState;
     private JSONObject putAccumulator;
     private JSONObject inflightDiff;
@@ -123,6 +127,28 @@ abstract class JSONSync {
         return JSONUtil.deepCopy(sdkState);
     }
 
+    /**
+     * Returns an immutable snapshot of the sdkState.
+     *
+     * The same object is returned until the sdkState changes, so it can be shared between readers.
+     * It must not be modified.
+     */
+    public synchronized JSONObject getSdkStateSnapshot() throws JSONException {
+        if (sdkStateSnapshot == null) {
+            sdkStateSnapshot = buildSdkStateSnapshot();
+        }
+        return sdkStateSnapshot;
+    }
+
+    protected JSONObject buildSdkStateSnapshot() throws JSONException {
+        return JSONUtil.deepCopy(sdkState);
+    }
+
+    private void sdkStateChanged(JSONObject diff) {
+        sdkStateSnapshot = null;
+        doSdkStateChanged(diff);
+    }
+
     synchronized JSONObject walkSdkStateJSONObjectExceptLast(String... path) throws JSONException {
         JSONObject rtn = sdkState;
         for (int i = 0; rtn != null && i < path.length - 1; i++) {
@@ -189,6 +215,7 @@ abstract class JSONSync {
         if (diff == null) diff = new JSONObject();
         JSONUtil.merge(sdkState, diff);
         JSONUtil.merge(putAccumulator, diff, false);
+        sdkStateChanged(diff);
         if (putAndFlushSynchronously()) {
             schedulePatchCallAndSave();
         } else if (!schedulingPatchCall) {
@@ -215,6 +242,7 @@ abstract class JSONSync {
             JSONUtil.merge(sdkState, inflightDiff);
             JSONUtil.merge(sdkState, putAccumulator);
         }
+        sdkStateChanged(null);
         schedulePatchCallAndSave();
     }
 
@@ -3,6 +3,8 @@ package com.wonderpush.sdk;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.wonderpush.sdk.segmentation.SegmentMembershipCache;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -238,6 +240,19 @@ public class JSONSyncInstallation extends JSONSync {
         WonderPushConfiguration.setInstallationCustomSyncStatePerUserId(installationCustomSyncStatePerUserId);
     }
 
+    @Override
+    protected void doSdkStateChanged(JSONObject diff) {
+        SegmentMembershipCache.getInstance().invalidateInstallationDiff(diff);
+    }
+
+    @Override
+    protected JSONObject buildSdkStateSnapshot() throws JSONException {
+        JSONObject snapshot = super.buildSdkStateSnapshot();
+        // Segmentation reads the userId along with the installation properties
+        snapshot.putOpt("userId", userId);
+        return snapshot;
+    }
+
     @Override
     protected synchronized void doSchedulePatchCall() {
         WonderPush.logDebug("Scheduling patch call for installation custom state for userId " + userId);
@@ -0,0 +1,189 @@
+package com.wonderpush.sdk;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces notification posts under the rate the system accepts from an app, and merges bursts.
+ *
+ * <p>The system silently drops the posts of an app beyond a few per second.
+ * Posts wait here instead, an update of a notification that is still waiting replaces it,
+ * and group summaries are posted once at the end of a burst rather than after each notification.
+ * No post is ever dropped: the callers wait for their posts with {@link #await(Post, long)},
+ * polling the due ones meanwhile, so that the process is kept alive until they are shown.
+ * Only the last caller to {@link #leave()} waits for the remaining posts, like the summaries.</p>
+ *
+ * @param <T> The content to post
+ */
+class NotificationCoalescer<T> {
+
+    static final int MAX_POSTS_PER_SECOND = 5; // the enqueue rate enforced by the system since Android 8
+    static final long SUMMARY_WINDOW_MS = 500;
+
+    static class Post<T> {
+        final String tag;
+        final int id;
+        final boolean summary;
+        T content;
+        final long dueAt;
+        // Guarded by the coalescer
+        private boolean done;
+        private boolean shown;
+
+        Post(String tag, int id, boolean summary, T content, long dueAt) {
+            this.tag = tag;
+            this.id = id;
+            this.summary = summary;
+            this.content = content;
+            this.dueAt = dueAt;
+        }
+
+        boolean sameNotification(String tag, int id) {
+            return this.id == id && (this.tag == null ? tag == null : this.tag.equals(tag));
+        }
+    }
+
+    private final NotificationPipelineMetrics metrics;
+    private final LinkedList<Post<T>> pending = new LinkedList<>();
+    private final ArrayDeque<Long> recentPosts = new ArrayDeque<>();
+    private int callers;
+
+    NotificationCoalescer(NotificationPipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Queues a notification to post, replacing the waiting update of the same notification, if any.
+     * Summaries wait for the end of the burst.
+     *
+     * @return The waiting post, now carrying the given content
+     */
+    synchronized Post<T> enqueue(@Nullable String tag, int id, boolean summary, T content) {
+        for (Post<T> post : pending) {
+            if (post.sameNotification(tag, id)) {
+                post.content = content;
+                metrics.notificationCoalesced();
+                return post;
+            }
+        }
+        Post<T> post = new Post<>(tag, id, summary, content, summary ? now() + SUMMARY_WINDOW_MS : now());
+        pending.add(post);
+        return post;
+    }
+
+    /**
+     * Takes the posts that are due, as long as the rate allows.
+     */
+    synchronized List<Post<T>> poll() {
+        long now = now();
+        while (!recentPosts.isEmpty() && recentPosts.peekFirst() <= now - 1000) recentPosts.pollFirst();
+        List<Post<T>> rtn = new ArrayList<>();
+        Iterator<Post<T>> it = pending.iterator();
+        while (it.hasNext() && recentPosts.size() < MAX_POSTS_PER_SECOND) {
+            Post<T> post = it.next();
+            if (post.dueAt > now) continue;
+            it.remove();
+            recentPosts.addLast(now);
+            rtn.add(post);
+        }
+        return rtn;
+    }
+
+    /**
+     * Registers a caller about to enqueue posts.
+     */
+    synchronized void enter() {
+        ++callers;
+    }
+
+    /**
+     * Unregisters the caller, unless it is the last one and posts are still waiting.
+     *
+     * @param force Whether to leave anyway, when the caller cannot wait
+     * @return The last waiting post, that the last caller must wait for before leaving again,
+     *         or {@code null} if the caller left
+     */
+    @Nullable
+    synchronized Post<T> leave(boolean force) {
+        if (force || callers > 1 || pending.isEmpty()) {
+            --callers;
+            return null;
+        }
+        return pending.getLast();
+    }
+
+    /**
+     * Takes the given post regardless of the rate, when its caller cannot wait any longer.
+     *
+     * @return {@code false} if the post is not waiting anymore, having been taken by another caller
+     */
+    synchronized boolean take(Post<T> post) {
+        if (!pending.remove(post)) return false;
+        recentPosts.addLast(now());
+        return true;
+    }
+
+    /**
+     * Records that a post taken by {@link #poll()} has been handed to the system, or failed to,
+     * and wakes up the callers waiting for it.
+     */
+    synchronized void posted(Post<T> post, boolean shown) {
+        post.done = true;
+        post.shown = shown;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the given post to be handed to the system, at most the given time.
+     *
+     * @return Whether the post is done
+     */
+    synchronized boolean await(Post<T> post, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!post.done) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) return false;
+            wait(remainingMs);
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the given content has been shown by its post, rather than replaced by a newer update.
+     */
+    synchronized boolean isShown(Post<T> post, T content) {
+        return post.done && post.shown && post.content == content;
+    }
+
+    /**
+     * Returns how long to wait before the next post can be taken, or -1 if none is waiting.
+     */
+    synchronized long getNextDelayMillis() {
+        if (pending.isEmpty()) return -1;
+        long now = now();
+        long dueAt = Long.MAX_VALUE;
+        for (Post<T> post : pending) {
+            dueAt = Math.min(dueAt, post.dueAt);
+        }
+        while (!recentPosts.isEmpty() && recentPosts.peekFirst() <= now - 1000) recentPosts.pollFirst();
+        if (recentPosts.size() >= MAX_POSTS_PER_SECOND) {
+            dueAt = Math.max(dueAt, recentPosts.peekFirst() + 1000);
+        }
+        return Math.max(0, dueAt - now);
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+}
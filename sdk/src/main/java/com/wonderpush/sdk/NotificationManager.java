@@ -12,6 +12,7 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Build;
@@ -19,6 +20,10 @@ import android.os.Bundle;
 import android.os.Parcelable;
 import android.os.SystemClock;
 import android.service.notification.StatusBarNotification;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 import androidx.core.app.TaskStackBuilder;
@@ -37,6 +42,7 @@ import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -47,6 +53,7 @@ public class NotificationManager {
     private static WeakReference<Intent> sLastHandledIntentRef;
 
     static final String LAST_RECEIVED_NOTIFICATION_CHECK_DATE_PROPERTY = "lastReceivedNotificationCheckDate";
+    private static final long FETCH_DEADLINE_POLL_MS = 250;
 
     private static NotificationMetadata sLastClickedNotificationMetadata;
 
@@ -58,10 +65,33 @@ public class NotificationManager {
     }
 
     public static void onReceivedNotification(Context context, Intent intent, NotificationModel notif) {
+        onReceivedNotification(context, intent, notif, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param receivedAtMillis The {@link SystemClock#elapsedRealtime()} at which the push service received the notification,
+     *                         from which the notification has {@link NotificationPipelineSpan#DEFAULT_BUDGET_MS} to be shown
+     */
+    public static void onReceivedNotification(Context context, Intent intent, NotificationModel notif, long receivedAtMillis) {
+        NotificationPipelineSpan span = NotificationPipelineMetrics.getInstance().start(notif.getCampaignId(), receivedAtMillis);
+        boolean enqueued = false;
+        try {
+            enqueued = handleReceivedNotification(context, intent, notif, span);
+        } finally {
+            // The span of an enqueued notification is ended by the resources service
+            if (!enqueued) span.ended(false);
+        }
+    }
+
+    /**
+     * @return Whether the notification has been handed to {@link WonderPushResourcesService}
+     */
+    private static boolean handleReceivedNotification(Context context, Intent intent, NotificationModel notif, NotificationPipelineSpan span) {
+        span.stageEnded(NotificationPipelineSpan.Stage.RECEIVE);
         String loggedInstallationId = WonderPushConfiguration.getInstallationId();
         if (notif.getTargetedInstallation() != null && !notif.getTargetedInstallation().equals(loggedInstallationId)) {
             WonderPush.logDebug("Received notification is not targeted at the current installation (" + notif.getTargetedInstallation() + " does not match current installation " + loggedInstallationId + ")");
-            return;
+            return false;
         }
 
         NotificationMetadata metadata = new NotificationMetadata(notif);
@@ -139,18 +169,21 @@ public class NotificationManager {
                 Log.e(WonderPush.TAG, "Could not show notification", e);
             }
         }
-        if (!automaticallyHandled) {
-            WonderPushResourcesService.Work work =
-                    new WonderPushResourcesService.Work(
-                            notif, tag, localNotificationId, intent);
-            if (shouldWorkInBackground(notif)) {
-                WonderPush.logDebug("Fetching resources and displaying notification asynchronously");
-                WonderPushResourcesService.enqueueWork(context, work);
-            } else {
-                WonderPush.logDebug("Fetching resources and displaying notification");
-                fetchResourcesAndDisplay(context, work, WonderPushResourcesService.TIMEOUT_MS);
-            }
+        span.stageEnded(NotificationPipelineSpan.Stage.HANDLE);
+        if (automaticallyHandled) {
+            return false;
+        }
+        WonderPushResourcesService.Work work =
+                new WonderPushResourcesService.Work(
+                        notif, tag, localNotificationId, intent, span);
+        if (shouldWorkInBackground(notif)) {
+            WonderPush.logDebug("Fetching resources and displaying notification asynchronously");
+            WonderPushResourcesService.enqueueWork(context, work);
+            return true;
         }
+        WonderPush.logDebug("Fetching resources and displaying notification");
+        fetchResourcesAndDisplay(context, work, WonderPushResourcesService.TIMEOUT_MS);
+        return false;
     }
 
     private static boolean shouldWorkInBackground(NotificationModel notif) {
@@ -159,41 +192,68 @@ public class NotificationManager {
 
     protected static void fetchResourcesAndDisplay(Context context, WonderPushResourcesService.Work work, long timeoutMs) {
         NotificationModel notif = work.getNotif();
-        if (notif == null) return;
+        NotificationPipelineSpan span = work.getSpan();
+        if (notif == null) {
+            span.ended(false);
+            return;
+        }
 
         if (notif.getAlert() != null && !notif.getAlert().getResourcesToFetch().isEmpty()) {
             WonderPush.logDebug("Start fetching resources");
             long start = SystemClock.elapsedRealtime();
-            Collection<Future<File>> tasks = new ArrayList<>(notif.getAlert().getResourcesToFetch().size());
-            int i = 0;
-            for (CacheUtil.FetchWork fetchWork : notif.getAlert().getResourcesToFetch()) {
-                ++i;
-                tasks.add(WonderPush.safeDefer(fetchWork::execute, 0));
+            long fetchBudgetMs = Math.min(timeoutMs, span.getFetchBudgetMillis());
+            boolean fetchBigPicture = span.canFetchBigPicture();
+            List<CacheUtil.FetchWork> fetchWorks = new ArrayList<>(notif.getAlert().getResourcesToFetch());
+            List<Future<File>> tasks = new ArrayList<>(fetchWorks.size());
+            for (CacheUtil.FetchWork fetchWork : fetchWorks) {
+                if (fetchBudgetMs <= 0) {
+                    span.degraded("skipped " + fetchWork.logPrefix.toLowerCase(Locale.ROOT));
+                    tasks.add(null);
+                    continue;
+                }
+                if (fetchWork.isBigPicture() && !fetchBigPicture) {
+                    span.degraded("skipped big picture");
+                    tasks.add(null);
+                    continue;
+                }
+                try {
+                    tasks.add(fetchWork.submit());
+                } catch (RejectedExecutionException e) {
+                    WonderPush.logDebug("Too many resources being fetched, skipping " + fetchWork.uri);
+                    tasks.add(null);
+                }
             }
-            i = 0;
-            for (Future<File> task : tasks) {
-                ++i;
+            for (int i = 0; i < tasks.size(); ++i) {
+                Future<File> task = tasks.get(i);
+                if (task == null) continue;
                 try {
-                    task.get(Math.max(0, start + timeoutMs - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+                    // Wait in slices, so that an expired deadline is noticed
+                    while (true) {
+                        long remainingMs = Math.min(start + fetchBudgetMs - SystemClock.elapsedRealtime(), span.getFetchBudgetMillis());
+                        if (remainingMs <= 0) throw new TimeoutException("Deadline reached");
+                        try {
+                            task.get(Math.min(remainingMs, FETCH_DEADLINE_POLL_MS), TimeUnit.MILLISECONDS);
+                            break;
+                        } catch (TimeoutException ignored) {
+                        }
+                    }
                 } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                    WonderPush.logDebug("Failed to fetch resource " + i, e);
+                    WonderPush.logDebug("Failed to fetch resource " + (i + 1), e);
                 }
+                WonderPush.logDebug("Fetched resource " + (i + 1) + ": " + fetchWorks.get(i));
             }
-            // Now we must reparse the notification to have it pick up the fetched resources
+            WonderPush.logDebug("Fetched resources in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            span.stageEnded(NotificationPipelineSpan.Stage.FETCH);
             WonderPush.logDebug("Inserting resources inside the notification");
-            try {
-                JSONObject json = new JSONObject(notif.getInputJSONString());
-                notif = NotificationModel.fromNotificationJSONObject(json);
-                if (notif == null) return;
-            } catch (NotificationModel.NotTargetedForThisInstallationException | JSONException ex) {
-                Log.e(TAG, "Unexpected error while reparsing notification", ex);
-            }
+            notif.getAlert().resolveFetchedResources();
+            span.stageEnded(NotificationPipelineSpan.Stage.RESOLVE);
         }
 
         if (notif.getAlert() != null) {
             AlertModel alternative = notif.getAlert().getAlternativeIfNeeded();
             if (alternative != null) {
                 WonderPush.logDebug("Using an alternative alert");
+                span.degraded("alternative alert");
                 notif.setAlert(alternative);
                 // Do not try to fetch resources for the new alternative,
                 // we are likely to choose it because one resource fetch was interrupted,
@@ -204,6 +264,7 @@ public class NotificationManager {
 
         WonderPush.logDebug("Building notification");
         Notification notification = buildNotification(notif, context, work.getPendingIntentBuilder(context));
+        span.stageEnded(NotificationPipelineSpan.Stage.BUILD);
 
         if (notification == null) {
             WonderPush.logDebug("No notification is to be displayed");
@@ -219,16 +280,34 @@ public class NotificationManager {
             } catch (PendingIntent.CanceledException e) {
                 Log.e(WonderPush.TAG, "Could not broadcast the notification will open intent", e);
             }
-        } else {
-            notify(context, work.getTag(), work.getLocalNotificationId(), notification);
-            // Display group summary notification, if any
-            Notification groupSummaryNotification = buildNotificationGroupSummary(notif, context, work.getPendingIntentBuilder(context));
-            if (groupSummaryNotification != null) {
-                String tag = null; // should not stay null, but null is a legal value anyway
-                if (notif.getAlert() != null && notif.getAlert().getGroup() != null) {
-                    tag = notif.getAlert().getGroup() + "-GROUP_SUMMARY_NOTIFICATION";
+            span.ended(false);
+            return;
+        }
+
+        sCoalescer.enter();
+        try {
+            NotificationSource source = () -> notification;
+            NotificationCoalescer.Post<NotificationSource> post = sCoalescer.enqueue(work.getTag(), work.getLocalNotificationId(), false, source);
+            // Display group summary notification, if any, once the burst of notifications of its group ends
+            final String group = notif.getAlert() != null ? notif.getAlert().getGroup() : null;
+            if (group != null) {
+                final NotificationModel summaryNotif = notif;
+                final PendingIntentBuilder summaryPendingIntentBuilder = work.getPendingIntentBuilder(context);
+                sCoalescer.enqueue(group + "-GROUP_SUMMARY_NOTIFICATION", 0, true,
+                        () -> buildNotificationGroupSummaryFromActiveNotifications(summaryNotif, context, summaryPendingIntentBuilder, group));
+            }
+            // Wait for the post within the caller, the process may be killed once the resources service returns
+            awaitPosted(context, post, span);
+            span.stageEnded(NotificationPipelineSpan.Stage.NOTIFY);
+            span.ended(sCoalescer.isShown(post, source));
+        } finally {
+            // The summaries are left to the callers still running, the last one waits for them
+            NotificationCoalescer.Post<NotificationSource> remaining;
+            while ((remaining = sCoalescer.leave(false)) != null) {
+                if (!awaitPosted(context, remaining, span)) {
+                    sCoalescer.leave(true);
+                    break;
                 }
-                notify(context, tag, 0, groupSummaryNotification);
             }
         }
     }
@@ -246,13 +325,123 @@ public class NotificationManager {
         }
     }
 
-    protected static void notify(Context context, String tag, int localNotificationId, Notification notification) {
+    /**
+     * Builds a notification to post, possibly later.
+     */
+    private interface NotificationSource {
+        Notification build();
+    }
+
+    private static final NotificationCoalescer<NotificationSource> sCoalescer = new NotificationCoalescer<>(NotificationPipelineMetrics.getInstance());
+    private static final long POSTED_POLL_MS = 100;
+    private static final int MAX_SUMMARY_LINES = 5;
+
+    /**
+     * Waits until the given post has been handed to the system, posting the waiting notifications as soon as
+     * the system rate limit allows meanwhile. Either the caller or a concurrent one posts it.
+     * Once the deadline of the span passes, the post is handed to the system right away instead.
+     *
+     * @return {@code false} if the caller was interrupted
+     */
+    private static boolean awaitPosted(Context context, NotificationCoalescer.Post<NotificationSource> post, NotificationPipelineSpan span) {
+        Context applicationContext = context.getApplicationContext();
+        try {
+            while (true) {
+                flushNotifications(applicationContext);
+                long remainingMs = span.getRemainingMillis();
+                if (remainingMs <= 0) {
+                    if (sCoalescer.take(post)) {
+                        if (!post.summary) span.degraded("posted over the rate limit");
+                        postNow(applicationContext, post);
+                    } else {
+                        // A concurrent caller is building it
+                        sCoalescer.await(post, POSTED_POLL_MS);
+                    }
+                    return true;
+                }
+                long delayMs = sCoalescer.getNextDelayMillis();
+                // Nothing is waiting when a concurrent caller took the post and is building it
+                long waitMs = Math.min(remainingMs, delayMs < 0 ? POSTED_POLL_MS : Math.max(1, delayMs));
+                if (sCoalescer.await(post, waitMs)) return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void flushNotifications(Context context) {
+        for (NotificationCoalescer.Post<NotificationSource> post : sCoalescer.poll()) {
+            postNow(context, post);
+        }
+    }
+
+    private static void postNow(Context context, NotificationCoalescer.Post<NotificationSource> post) {
+        boolean shown = false;
+        try {
+            Notification notification = post.content.build();
+            if (notification != null) {
+                shown = notify(context, post.tag, post.id, notification);
+            }
+        } catch (Exception ex) {
+            Log.e(WonderPush.TAG, "Failed to build the notification", ex);
+        } finally {
+            sCoalescer.posted(post, shown);
+        }
+    }
+
+    /**
+     * Builds the summary of a group from its notifications that are still shown, so that dismissed ones are left out.
+     */
+    private static Notification buildNotificationGroupSummaryFromActiveNotifications(NotificationModel notif, Context context,
+                                                                                      PendingIntentBuilder pendingIntentBuilder, String group) {
+        List<CharSequence> lines = new ArrayList<>();
+        int count = 0;
+        // Summaries are only shown from Android 7.0 (N, API 24), active notifications are listed from API 23
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            android.app.NotificationManager notificationManager = (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            List<StatusBarNotification> active = new ArrayList<>();
+            for (StatusBarNotification sbn : notificationManager.getActiveNotifications()) {
+                Notification notification = sbn.getNotification();
+                if (!group.equals(notification.getGroup())) continue;
+                if ((notification.flags & Notification.FLAG_GROUP_SUMMARY) != 0) continue;
+                active.add(sbn);
+            }
+            // Most recent first
+            Collections.sort(active, (a, b) -> Long.compare(b.getPostTime(), a.getPostTime()));
+            count = active.size();
+            for (StatusBarNotification sbn : active) {
+                if (lines.size() >= MAX_SUMMARY_LINES) break;
+                Bundle extras = sbn.getNotification().extras;
+                if (extras == null) continue;
+                CharSequence line = summaryLine(extras.getCharSequence(Notification.EXTRA_TITLE), extras.getCharSequence(Notification.EXTRA_TEXT));
+                if (line != null) lines.add(line);
+            }
+        }
+        return buildNotificationGroupSummary(notif, context, pendingIntentBuilder, lines, count);
+    }
+
+    @Nullable
+    private static CharSequence summaryLine(@Nullable CharSequence title, @Nullable CharSequence text) {
+        if (title == null) return text;
+        if (text == null) return title;
+        SpannableStringBuilder line = new SpannableStringBuilder(title);
+        line.setSpan(new StyleSpan(Typeface.BOLD), 0, line.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return line.append("  ").append(text);
+    }
+
+    /**
+     * @return Whether the notification has been handed to the system
+     */
+    protected static boolean notify(Context context, String tag, int localNotificationId, Notification notification) {
         try {
             WonderPush.logDebug("Showing notification with tag " + (tag == null ? "(null)" : "\"" + tag + "\"") + " and id " + localNotificationId);
             android.app.NotificationManager mNotificationManager = (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
             mNotificationManager.notify(tag, localNotificationId, notification);
+            return true;
         } catch (Exception ex) {
             Log.e(WonderPush.TAG, "Failed to show the notification", ex);
+            return false;
         }
     }
 
@@ -499,17 +688,27 @@ public class NotificationManager {
 
     protected static Notification buildNotificationGroupSummary(NotificationModel notif, Context context,
                                                                 PendingIntentBuilder pendingIntentBuilder) {
-        return buildNotification_inner(notif, context, pendingIntentBuilder, true);
+        return buildNotification_inner(notif, context, pendingIntentBuilder, true, Collections.emptyList(), 0);
+    }
+
+    /**
+     * Builds the summary of a group, listing its latest notifications when it has several.
+     */
+    protected static Notification buildNotificationGroupSummary(NotificationModel notif, Context context,
+                                                                PendingIntentBuilder pendingIntentBuilder,
+                                                                List<CharSequence> groupLines, int groupCount) {
+        return buildNotification_inner(notif, context, pendingIntentBuilder, true, groupLines, groupCount);
     }
 
     protected static Notification buildNotification(NotificationModel notif, Context context,
                                                     PendingIntentBuilder pendingIntentBuilder) {
-        return buildNotification_inner(notif, context, pendingIntentBuilder, false);
+        return buildNotification_inner(notif, context, pendingIntentBuilder, false, Collections.emptyList(), 0);
     }
 
     protected static Notification buildNotification_inner(NotificationModel notif, Context context,
                                                           PendingIntentBuilder pendingIntentBuilder,
-                                                          boolean buildGroupSummary) {
+                                                          boolean buildGroupSummary,
+                                                          List<CharSequence> groupLines, int groupCount) {
         if (NotificationModel.Type.DATA.equals(notif.getType())) {
             return null;
         }
@@ -891,6 +1090,18 @@ public class NotificationManager {
                 break;
         }
 
+        if (buildGroupSummary && groupLines.size() > 1) {
+            NotificationCompat.InboxStyle summaryStyle = new NotificationCompat.InboxStyle();
+            for (CharSequence line : groupLines) {
+                summaryStyle.addLine(line);
+            }
+            if (groupCount > groupLines.size()) {
+                summaryStyle.setSummaryText("+" + (groupCount - groupLines.size()));
+            }
+            builder.setStyle(summaryStyle);
+            builder.setNumber(groupCount);
+        }
+
         return builder.build();
     }
 
@@ -1169,6 +1380,9 @@ public class NotificationManager {
                 case CLOSE_NOTIFICATIONS:
                     handleCloseNotifications(context, action);
                     break;
+                case PREFETCH_RESOURCES:
+                    NotificationResourcePrefetcher.prefetch(context, action.getResources());
+                    break;
                 case _DUMP_STATE:
                     handleDumpStateAction(action);
                     break;
@@ -1510,75 +1724,76 @@ public class NotificationManager {
         }
     }
 
+    private static final ActiveNotificationIndex sActiveNotifications = new ActiveNotificationIndex();
+
     protected static void handleCloseNotifications(Context context, ActionModel action) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             android.app.NotificationManager notificationManager = (android.app.NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            ActiveNotificationIndex.Query query = new ActiveNotificationIndex.Query();
+            // Filter notification channel
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                query.hasChannel = action.hasChannel();
+                query.channelId = action.getChannel();
+                query.defaultChannelId = WonderPushUserPreferences.getDefaultChannelId();
+            }
+            query.hasGroup = action.hasGroup();
+            query.group = action.getGroup();
+            query.hasTag = action.hasTag();
+            query.tag = action.getTag();
+            query.hasCategory = action.hasCategory();
+            query.category = action.getCategory();
+            query.hasSortKey = action.hasSortKey();
+            query.sortKey = action.getSortKey();
+            // Filter on extras
+            Bundle extras = JSONUtil.toBundle(action.getExtras());
+            if (extras != null) {
+                for (String key : extras.keySet()) {
+                    Object value = extras.get(key);
+                    // TODO Proper per-type comparison
+                    query.extras.put(key, value == null ? null : value.toString());
+                }
+            }
+            List<ActiveNotificationIndex.Entry> toCancel;
+            synchronized (sActiveNotifications) {
+                syncActiveNotifications(notificationManager);
+                toCancel = sActiveNotifications.find(query);
+                for (ActiveNotificationIndex.Entry entry : toCancel) {
+                    sActiveNotifications.remove(entry.tag, entry.id);
+                }
+            }
+            for (ActiveNotificationIndex.Entry entry : toCancel) {
+                notificationManager.cancel(entry.tag, entry.id);
+            }
+        }
+    }
+
+    /**
+     * Updates the index of active notifications, only inspecting the notifications that were posted or updated since last time.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static void syncActiveNotifications(android.app.NotificationManager notificationManager) {
+        sActiveNotifications.beginSync();
+        try {
             for (StatusBarNotification sbn : notificationManager.getActiveNotifications()) {
+                if (sActiveNotifications.touch(sbn.getTag(), sbn.getId(), sbn.getPostTime())) continue;
                 Notification notification = sbn.getNotification();
-                // Filter notification channel
+                ActiveNotificationIndex.Entry entry = new ActiveNotificationIndex.Entry(sbn.getTag(), sbn.getId(), sbn.getPostTime());
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    if (action.hasChannel()) {
-                        if (action.getChannel() == null && !(notification.getChannelId() == null || notification.getChannelId().equals(WonderPushUserPreferences.getDefaultChannelId()))) {
-                            continue;
-                        } else if (action.getChannel() != null && !action.getChannel().equals(notification.getChannelId())) {
-                            continue;
-                        }
-                    }
-                }
-                // Filter group
-                if (action.hasGroup()) {
-                    if (action.getGroup() == null && notification.getGroup() != null
-                            || action.getGroup() != null && !action.getGroup().equals(notification.getGroup())) {
-                        continue;
-                    }
-                }
-                // Filter tag
-                if (action.hasTag()) {
-                    if (action.getTag() == null && sbn.getTag() != null
-                            || action.getTag() != null && !action.getTag().equals(sbn.getTag())) {
-                        continue;
-                    }
-                }
-                // Filter category
-                if (action.hasCategory()) {
-                    if (action.getCategory() == null && notification.category != null
-                            || action.getCategory() != null && !action.getCategory().equals(notification.category)) {
-                        continue;
-                    }
-                }
-                // Filter sort key
-                if (action.hasSortKey()) {
-                    if (action.getSortKey() == null && notification.getSortKey() != null
-                            || action.getSortKey() != null && !action.getSortKey().equals(notification.getSortKey())) {
-                        continue;
-                    }
+                    entry.channelId = notification.getChannelId();
                 }
-                // Filter on extras
-                Bundle extras = JSONUtil.toBundle(action.getExtras());
-                if (extras != null && !extras.isEmpty()) {
-                    if (notification.extras == null) {
-                        continue;
-                    }
-                    boolean remove = true;
-                    for (String key : extras.keySet()) {
-                        Object value = extras.get(key);
-                        if (value == null && (notification.extras.containsKey(key) || notification.extras.get(key) != null)) {
-                            remove = false;
-                        // TODO Proper per-type comparison
-                        } else if (value != null && (notification.extras.get(key) == null || !value.toString().equals(notification.extras.get(key).toString()))) {
-                            remove = false;
-                        }
-                        if (!remove) {
-                            break;
-                        }
-                    }
-                    if (!remove) {
-                        continue;
+                entry.group = notification.getGroup();
+                entry.category = notification.category;
+                entry.sortKey = notification.getSortKey();
+                if (notification.extras != null) {
+                    for (String key : notification.extras.keySet()) {
+                        Object value = notification.extras.get(key);
+                        entry.extras.put(key, value == null ? null : value.toString());
                     }
                 }
-                // All filters passed, cancel this notification
-                notificationManager.cancel(sbn.getTag(), sbn.getId());
+                sActiveNotifications.put(entry);
             }
+        } finally {
+            sActiveNotifications.endSync();
         }
     }
 
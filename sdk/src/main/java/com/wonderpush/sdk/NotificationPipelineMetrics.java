@@ -0,0 +1,148 @@
+package com.wonderpush.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Collects the {@link NotificationPipelineSpan} of received notifications, keeping the most recent timings
+ * of each stage in memory to compute percentiles.
+ *
+ * @hide
+ */
+public class NotificationPipelineMetrics {
+
+    static final int SAMPLES_PER_STAGE = 128;
+
+    private static final NotificationPipelineMetrics sInstance = new NotificationPipelineMetrics();
+
+    /**
+     * Notified of every ended span, on the thread that ended it.
+     */
+    public interface Listener {
+        void onNotificationPipelineSpan(NotificationPipelineSpan span);
+    }
+
+    private final long[][] samples = new long[NotificationPipelineSpan.Stage.values().length][SAMPLES_PER_STAGE];
+    private final long[] sampleCounts = new long[NotificationPipelineSpan.Stage.values().length];
+    private long droppedCount;
+    private long degradedCount;
+    private long coalescedCount;
+    private volatile Listener listener;
+
+    public static NotificationPipelineMetrics getInstance() {
+        return sInstance;
+    }
+
+    NotificationPipelineMetrics() {
+    }
+
+    long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Starts the span of a notification received at the given {@link SystemClock#elapsedRealtime()}.
+     */
+    NotificationPipelineSpan start(@Nullable String campaignId, long receivedAtMillis) {
+        return new NotificationPipelineSpan(this, campaignId, receivedAtMillis, NotificationPipelineSpan.DEFAULT_BUDGET_MS);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void record(NotificationPipelineSpan span) {
+        synchronized (this) {
+            if (!span.isShown()) droppedCount++;
+            if (span.isDegraded()) degradedCount++;
+            for (NotificationPipelineSpan.Stage stage : NotificationPipelineSpan.Stage.values()) {
+                long millis = span.getStageMillis(stage);
+                if (millis < 0) continue;
+                int i = stage.ordinal();
+                samples[i][(int) (sampleCounts[i] % SAMPLES_PER_STAGE)] = millis;
+                sampleCounts[i]++;
+            }
+        }
+        WonderPush.logDebug(span.toString());
+        Listener listener = this.listener;
+        if (listener != null) {
+            try {
+                listener.onNotificationPipelineSpan(span);
+            } catch (Exception e) {
+                Log.e(WonderPush.TAG, "Notification pipeline span listener failed", e);
+            }
+        }
+    }
+
+    synchronized void notificationCoalesced() {
+        coalescedCount++;
+    }
+
+    /**
+     * Returns the number of timings kept for the given stage.
+     */
+    public synchronized int getSampleCount(NotificationPipelineSpan.Stage stage) {
+        return (int) Math.min(sampleCounts[stage.ordinal()], SAMPLES_PER_STAGE);
+    }
+
+    /**
+     * Returns the number of received notifications that were not shown.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the number of notifications degraded to meet their deadline.
+     */
+    public synchronized long getDegradedCount() {
+        return degradedCount;
+    }
+
+    /**
+     * Returns the number of waiting posts replaced by a newer update of the same notification.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Returns the given percentile of the recent timings of the given stage, using the nearest rank method.
+     *
+     * @param percentile Between 0 and 100
+     * @return The timing in milliseconds, or -1 without any timing for this stage
+     */
+    public long getPercentileMillis(NotificationPipelineSpan.Stage stage, double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            int count = getSampleCount(stage);
+            if (count == 0) return -1;
+            sorted = Arrays.copyOf(samples[stage.ordinal()], count);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("NotificationPipelineMetrics{");
+        for (NotificationPipelineSpan.Stage stage : NotificationPipelineSpan.Stage.values()) {
+            if (getSampleCount(stage) == 0) continue;
+            sb.append(stage)
+                    .append("={p50=").append(getPercentileMillis(stage, 50))
+                    .append(", p90=").append(getPercentileMillis(stage, 90))
+                    .append(", p99=").append(getPercentileMillis(stage, 99))
+                    .append("}, ");
+        }
+        return sb.append("dropped=").append(getDroppedCount())
+                .append(", degraded=").append(getDegradedCount())
+                .append(", coalesced=").append(getCoalescedCount())
+                .append('}').toString();
+    }
+
+}
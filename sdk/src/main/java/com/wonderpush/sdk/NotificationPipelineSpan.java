@@ -0,0 +1,229 @@
+package com.wonderpush.sdk;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timings of the stages a received notification goes through, from the push service to it being shown,
+ * and the deadline they share.
+ *
+ * <p>Times are {@link android.os.SystemClock#elapsedRealtime()} milliseconds, so that the span can be
+ * parcelled along with the work handed to {@link WonderPushResourcesService}.</p>
+ *
+ * @hide
+ */
+public class NotificationPipelineSpan {
+
+    /**
+     * Time given to a notification to be shown, counted from its reception.
+     */
+    public static final long DEFAULT_BUDGET_MS = 30 * 1000;
+    /**
+     * Time kept to build and show the notification, fetches stop waiting once only this much remains.
+     */
+    static final long BUILD_RESERVE_MS = 1000;
+    /**
+     * Below this remaining time when fetching starts, the big picture is not downloaded.
+     */
+    static final long BIG_PICTURE_MIN_REMAINING_MS = 5000;
+
+    public enum Stage {
+        /** From the push service receiving the message to the SDK handling it, including parsing. */
+        RECEIVE,
+        /** Running receive actions, tracking the reception and calling the delegate. */
+        HANDLE,
+        /** Waiting for the resources service to start. */
+        QUEUE,
+        /** Downloading resources. */
+        FETCH,
+        /** Decoding the fetched resources into the notification. */
+        RESOLVE,
+        /** Building the notification. */
+        BUILD,
+        /** Waiting for the system rate limit, then posting the notification to the system. */
+        NOTIFY,
+        /** From the reception to the notification being posted, or dropped. */
+        TOTAL,
+    }
+
+    private final NotificationPipelineMetrics metrics;
+    @Nullable private final String campaignId;
+    private final long startMillis;
+    private long deadlineMillis;
+    private long markMillis;
+    private final long[] stageMillis;
+    private final List<String> degradations = new ArrayList<>();
+    private boolean shown;
+    private boolean ended;
+
+    NotificationPipelineSpan(NotificationPipelineMetrics metrics, @Nullable String campaignId, long startMillis, long budgetMillis) {
+        this.metrics = metrics;
+        this.campaignId = campaignId;
+        this.startMillis = startMillis;
+        this.deadlineMillis = startMillis + budgetMillis;
+        this.markMillis = startMillis;
+        this.stageMillis = new long[Stage.values().length];
+        Arrays.fill(stageMillis, -1);
+    }
+
+    /**
+     * Restores a span read from a parcel.
+     */
+    NotificationPipelineSpan(NotificationPipelineMetrics metrics, @Nullable String campaignId, long startMillis, long deadlineMillis, long markMillis, long[] stageMillis) {
+        this.metrics = metrics;
+        this.campaignId = campaignId;
+        long now = metrics.elapsedRealtime();
+        if (markMillis > now) {
+            // The device rebooted meanwhile, start over with the same budget
+            long shift = markMillis - now;
+            startMillis -= shift;
+            deadlineMillis -= shift;
+            markMillis = now;
+        }
+        this.startMillis = startMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.markMillis = markMillis;
+        this.stageMillis = stageMillis.length == Stage.values().length ? stageMillis.clone() : new long[Stage.values().length];
+        if (stageMillis.length != Stage.values().length) Arrays.fill(this.stageMillis, -1);
+    }
+
+    /**
+     * Attributes the time elapsed since the previous stage ended to the given stage.
+     */
+    public synchronized void stageEnded(Stage stage) {
+        long now = metrics.elapsedRealtime();
+        int i = stage.ordinal();
+        stageMillis[i] = Math.max(0, stageMillis[i]) + Math.max(0, now - markMillis);
+        markMillis = now;
+    }
+
+    /**
+     * Returns the time left before the deadline, or 0 if it has passed.
+     */
+    public synchronized long getRemainingMillis() {
+        return Math.max(0, deadlineMillis - metrics.elapsedRealtime());
+    }
+
+    /**
+     * Returns how long resources can be fetched, keeping time to build and show the notification.
+     */
+    public long getFetchBudgetMillis() {
+        return Math.max(0, getRemainingMillis() - BUILD_RESERVE_MS);
+    }
+
+    /**
+     * Whether there is enough time left to download a big picture.
+     */
+    public boolean canFetchBigPicture() {
+        return getRemainingMillis() >= BIG_PICTURE_MIN_REMAINING_MS;
+    }
+
+    /**
+     * Gives the whole budget again from now, when the resources service starts the work.
+     * The system may start it long after the reception, and then gives it its own execution window.
+     */
+    public synchronized void restartBudget() {
+        deadlineMillis = metrics.elapsedRealtime() + DEFAULT_BUDGET_MS;
+    }
+
+    /**
+     * Moves the deadline to now, like when the system stops the work.
+     */
+    public synchronized void expire() {
+        deadlineMillis = Math.min(deadlineMillis, metrics.elapsedRealtime());
+    }
+
+    /**
+     * Records a compromise made to meet the deadline.
+     */
+    public synchronized void degraded(String reason) {
+        degradations.add(reason);
+        WonderPush.logDebug("Notification degraded with " + getRemainingMillis() + "ms left: " + reason);
+    }
+
+    /**
+     * Ends the span, once the notification has been shown or dropped.
+     */
+    public void ended(boolean shown) {
+        synchronized (this) {
+            if (ended) return;
+            ended = true;
+            this.shown = shown;
+            stageMillis[Stage.TOTAL.ordinal()] = markMillis - startMillis;
+        }
+        metrics.record(this);
+    }
+
+    @Nullable
+    public String getCampaignId() {
+        return campaignId;
+    }
+
+    public synchronized boolean isShown() {
+        return shown;
+    }
+
+    public synchronized boolean isDegraded() {
+        return !degradations.isEmpty();
+    }
+
+    public synchronized List<String> getDegradations() {
+        return new ArrayList<>(degradations);
+    }
+
+    /**
+     * Returns the time spent in the given stage, or -1 if the notification did not go through it.
+     */
+    public synchronized long getStageMillis(Stage stage) {
+        return stageMillis[stage.ordinal()];
+    }
+
+    synchronized long getStartMillis() {
+        return startMillis;
+    }
+
+    synchronized long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    synchronized long getMarkMillis() {
+        return markMillis;
+    }
+
+    synchronized long[] getStagesMillis() {
+        return stageMillis.clone();
+    }
+
+    public synchronized JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.putOpt("campaignId", campaignId);
+        json.put("shown", shown);
+        JSONObject stages = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            if (stageMillis[stage.ordinal()] >= 0) stages.put(stage.name(), stageMillis[stage.ordinal()]);
+        }
+        json.put("stagesMillis", stages);
+        if (!degradations.isEmpty()) json.put("degradations", new JSONArray(degradations));
+        return json;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("NotificationPipelineSpan{");
+        sb.append("campaign=").append(campaignId).append(", shown=").append(shown);
+        for (Stage stage : Stage.values()) {
+            long millis = stageMillis[stage.ordinal()];
+            if (millis >= 0) sb.append(", ").append(stage).append('=').append(millis).append("ms");
+        }
+        if (!degradations.isEmpty()) sb.append(", degraded=").append(degradations);
+        return sb.append('}').toString();
+    }
+
+}
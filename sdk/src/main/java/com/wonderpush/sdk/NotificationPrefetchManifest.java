@@ -0,0 +1,78 @@
+package com.wonderpush.sdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resources of upcoming notifications to download ahead of time.
+ *
+ * <p>A manifest is a JSON array of objects like
+ * {@code {"url": "https://…", "kind": "bigPicture", "expiresAt": 1700000000000}},
+ * where {@code kind} is one of {@code largeIcon}, {@code bigPicture} or {@code sound},
+ * and {@code expiresAt} is the date until which the resource is kept, in milliseconds.
+ * Resources come in decreasing priority.</p>
+ */
+class NotificationPrefetchManifest {
+
+    static final String KIND_LARGE_ICON = "largeIcon";
+    static final String KIND_BIG_PICTURE = "bigPicture";
+    static final String KIND_SOUND = "sound";
+    static final int MAX_RESOURCES = 20;
+    static final long DEFAULT_EXPIRATION_MS = TimeUnit.DAYS.toMillis(1);
+    static final long MAX_EXPIRATION_MS = TimeUnit.DAYS.toMillis(7);
+
+    static class Resource {
+        final String url;
+        final String kind;
+        final long expiresAt;
+
+        Resource(String url, String kind, long expiresAt) {
+            this.url = url;
+            this.kind = kind;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + url + " until " + expiresAt;
+        }
+    }
+
+    /**
+     * Returns the valid resources of the given manifest that have not expired yet, without duplicates,
+     * at most {@link #MAX_RESOURCES} of them, and kept at most {@link #MAX_EXPIRATION_MS}.
+     */
+    static List<Resource> parse(JSONArray manifest, long now) {
+        if (manifest == null) return Collections.emptyList();
+        Map<String, Resource> resources = new LinkedHashMap<>();
+        for (int i = 0; i < manifest.length() && resources.size() < MAX_RESOURCES; i++) {
+            JSONObject json = manifest.optJSONObject(i);
+            if (json == null) continue;
+            String url = JSONUtil.optString(json, "url");
+            String kind = JSONUtil.optString(json, "kind");
+            if (url == null || !isKnownKind(kind)) continue;
+            String lowerCaseUrl = url.toLowerCase(Locale.ROOT);
+            if (!lowerCaseUrl.startsWith("http://") && !lowerCaseUrl.startsWith("https://")) continue;
+            long expiresAt = json.optLong("expiresAt", now + DEFAULT_EXPIRATION_MS);
+            if (expiresAt <= now) continue;
+            expiresAt = Math.min(expiresAt, now + MAX_EXPIRATION_MS);
+            Resource previous = resources.get(kind + " " + url);
+            if (previous != null && previous.expiresAt >= expiresAt) continue;
+            resources.put(kind + " " + url, new Resource(url, kind, expiresAt));
+        }
+        return new ArrayList<>(resources.values());
+    }
+
+    private static boolean isKnownKind(String kind) {
+        return KIND_LARGE_ICON.equals(kind) || KIND_BIG_PICTURE.equals(kind) || KIND_SOUND.equals(kind);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.wonderpush.sdk;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.os.Process;
+
+import org.json.JSONArray;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads the media of upcoming notifications into {@link CacheUtil} ahead of time,
+ * so that displaying them only reads local files.
+ *
+ * <p>Manifests come from the remote config or from the {@code prefetchResources} receive action of a silent push.
+ * They are only honored on unmetered networks. Each resource is pinned in the cache of its kind
+ * until it expires, within a share of that cache.</p>
+ */
+class NotificationResourcePrefetcher {
+
+    private static final String LOG_PREFIX = "Prefetch";
+
+    // One resource at a time, to leave the fetching threads to the notifications being displayed
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "WonderPush-Prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static void prefetch(Context context, JSONArray manifest) {
+        if (manifest == null || manifest.length() == 0) return;
+        final Context applicationContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            List<NotificationPrefetchManifest.Resource> resources = NotificationPrefetchManifest.parse(manifest, System.currentTimeMillis());
+            if (resources.isEmpty()) return;
+            if (!isOnUnmeteredNetwork(applicationContext)) {
+                WonderPush.logDebug("Not prefetching " + resources.size() + " notification resources on a metered network");
+                return;
+            }
+            int pinned = 0;
+            for (NotificationPrefetchManifest.Resource resource : resources) {
+                CacheUtil.FetchWork work = fetchWork(resource);
+                if (CacheUtil.prefetch(work, resource.expiresAt)) {
+                    pinned++;
+                    WonderPush.logDebug("Prefetched " + work);
+                } else {
+                    WonderPush.logDebug("Could not prefetch " + resource);
+                }
+            }
+            WonderPush.logDebug("Prefetched " + pinned + " of " + resources.size() + " notification resources");
+        });
+    }
+
+    private static CacheUtil.FetchWork fetchWork(NotificationPrefetchManifest.Resource resource) {
+        Uri uri = Uri.parse(resource.url);
+        switch (resource.kind) {
+            case NotificationPrefetchManifest.KIND_LARGE_ICON:
+                return CacheUtil.largeIconWork(uri, LOG_PREFIX);
+            case NotificationPrefetchManifest.KIND_SOUND:
+                return CacheUtil.soundWork(uri, LOG_PREFIX);
+            case NotificationPrefetchManifest.KIND_BIG_PICTURE:
+            default:
+                return CacheUtil.bigPictureWork(uri, LOG_PREFIX);
+        }
+    }
+
+    private static boolean isOnUnmeteredNetwork(Context context) {
+        if (context.checkPermission(Manifest.permission.ACCESS_NETWORK_STATE, Process.myPid(), Process.myUid()) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return false;
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected() && !connectivityManager.isActiveNetworkMetered();
+    }
+
+}
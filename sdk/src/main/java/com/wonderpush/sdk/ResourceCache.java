@@ -0,0 +1,662 @@
+package com.wonderpush.sdk;
+
+import androidx.annotation.Nullable;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Disk cache of downloaded resources, keyed by the SHA-256 of their URL.
+ *
+ * <p>An index persisted next to the files keeps the size, validators and freshness of each entry,
+ * in least recently used order, so that eviction does not need to list the directory.
+ * It is written in the background, once for all the changes made meanwhile, and cache hits only update it in memory.
+ * Stale entries are revalidated using their ETag and Last-Modified validators.</p>
+ *
+ * <p>Downloads are streamed to a partial file, which is kept when interrupted
+ * and resumed with a range request the next time.
+ * Concurrent fetches of the same resource share a single download.</p>
+ *
+ * <p>Prefetched entries can be pinned until a given date, during which they are served without
+ * revalidation and evicted last. Pins are limited to a share of the cache, and expired pinned
+ * entries are deleted.</p>
+ */
+class ResourceCache {
+
+    static final String INDEX_FILE = ".index.json";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final long BUFFER_SIZE = 8192;
+    static final int MAX_PARTIALS = 4;
+    static final long DEFAULT_FRESHNESS_MS = TimeUnit.DAYS.toMillis(1);
+    static final long MAX_HEURISTIC_FRESHNESS_MS = TimeUnit.DAYS.toMillis(1);
+    static final int PINNED_PERCENT_OF_MAX_SIZE = 50;
+
+    static class Entry {
+        final String key;
+        long size;
+        @Nullable String etag;
+        @Nullable String lastModified;
+        long expiresAt;
+        long accessedAt;
+        long pinnedUntil;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("key", key);
+            json.put("size", size);
+            json.putOpt("etag", etag);
+            json.putOpt("lastModified", lastModified);
+            json.put("expiresAt", expiresAt);
+            json.put("accessedAt", accessedAt);
+            if (pinnedUntil > 0) json.put("pinnedUntil", pinnedUntil);
+            return json;
+        }
+
+        static Entry fromJSON(JSONObject json) {
+            Entry entry = new Entry(json.optString("key"));
+            entry.size = json.optLong("size");
+            entry.etag = JSONUtil.optString(json, "etag");
+            entry.lastModified = JSONUtil.optString(json, "lastModified");
+            entry.expiresAt = json.optLong("expiresAt");
+            entry.accessedAt = json.optLong("accessedAt");
+            entry.pinnedUntil = json.optLong("pinnedUntil");
+            return entry;
+        }
+    }
+
+    /**
+     * An interrupted download, that can be resumed if the resource still matches the validator.
+     */
+    static class Partial {
+        final String key;
+        final String validator;
+        long length;
+
+        Partial(String key, String validator, long length) {
+            this.key = key;
+            this.validator = validator;
+            this.length = length;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("key", key);
+            json.put("validator", validator);
+            json.put("length", length);
+            return json;
+        }
+    }
+
+    /**
+     * The outcome of {@link #fetch(String, int, String)}.
+     */
+    static class Result {
+        private final File file;
+        private final long downloadedBytes;
+        private final boolean joined;
+
+        Result(File file, long downloadedBytes) {
+            this(file, downloadedBytes, false);
+        }
+
+        private Result(File file, long downloadedBytes, boolean joined) {
+            this.file = file;
+            this.downloadedBytes = downloadedBytes;
+            this.joined = joined;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Number of bytes downloaded by this fetch, or -1 if the cached file was used.
+         */
+        public long getDownloadedBytes() {
+            return downloadedBytes;
+        }
+
+        /**
+         * Whether this fetch waited for the one of the same resource that was in progress.
+         */
+        public boolean isJoined() {
+            return joined;
+        }
+    }
+
+    /**
+     * Writes the indexes of all the caches, in the order their changes were made.
+     */
+    private static final Executor sIndexWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "WonderPush-ResourceCacheIndex");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File dir;
+    private final long maxSize;
+    private final OkHttpClient client;
+    private final Executor indexWriter;
+    // Access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Partial> partials = new LinkedHashMap<>();
+    // Fetches in progress, by key
+    private final ConcurrentHashMap<String, FutureTask<Result>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger joinedFetches = new AtomicInteger();
+    private long size;
+    private boolean loaded;
+    private boolean saveScheduled;
+
+    ResourceCache(File dir, long maxSize, OkHttpClient client) {
+        this(dir, maxSize, client, sIndexWriter);
+    }
+
+    ResourceCache(File dir, long maxSize, OkHttpClient client, Executor indexWriter) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.client = client;
+        this.indexWriter = indexWriter;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    static String key(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(url.getBytes(UTF8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available
+            throw new RuntimeException(e);
+        }
+    }
+
+    File getFile(String url) {
+        return new File(dir, key(url));
+    }
+
+    File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Replaces the content of an entry, like for a downsampled version of an image, keeping its freshness.
+     *
+     * <p>Its validators are dropped, as they describe the original content: once stale,
+     * the entry is downloaded again instead of being revalidated.</p>
+     *
+     * @return Whether the replacement was moved into the cache
+     */
+    synchronized boolean replace(String key, File replacement) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        long length = replacement.length();
+        if (entry == null || !replacement.renameTo(new File(dir, key))) return false;
+        size += length - entry.size;
+        entry.size = length;
+        entry.etag = null;
+        entry.lastModified = null;
+        scheduleSaveIndex();
+        return true;
+    }
+
+    synchronized long getSize() {
+        ensureLoaded();
+        return size;
+    }
+
+    synchronized long getPinnedSize() {
+        ensureLoaded();
+        long now = now();
+        long pinnedSize = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.pinnedUntil > now) pinnedSize += entry.size;
+        }
+        return pinnedSize;
+    }
+
+    /**
+     * Keeps the cached file of the given URL fresh until the given date.
+     *
+     * @return Whether the entry is cached and fits in the share of the cache reserved to pinned entries
+     */
+    synchronized boolean pin(String url, long until) {
+        ensureLoaded();
+        Entry entry = entries.get(key(url));
+        if (entry == null || until <= now()) return false;
+        long pinnedSize = getPinnedSize() - (entry.pinnedUntil > now() ? entry.size : 0);
+        if (pinnedSize + entry.size > maxSize * PINNED_PERCENT_OF_MAX_SIZE / 100) return false;
+        entry.pinnedUntil = Math.max(entry.pinnedUntil, until);
+        scheduleSaveIndex();
+        return true;
+    }
+
+    /**
+     * Returns the cached file of the given URL if it does not need revalidation.
+     */
+    @Nullable
+    synchronized File getFresh(String url) {
+        ensureLoaded();
+        Entry entry = entries.get(key(url));
+        if (entry == null || (entry.expiresAt <= now() && entry.pinnedUntil <= now())) return null;
+        File file = new File(dir, entry.key);
+        if (!file.exists()) {
+            remove(entry);
+            scheduleSaveIndex();
+            return null;
+        }
+        // The access order of the map is enough for eviction, the timestamp is persisted with the next write
+        entry.accessedAt = now();
+        return file;
+    }
+
+    /**
+     * Returns the file of the given URL, downloading or revalidating it if needed.
+     * A stale file is still returned if the network fails.
+     *
+     * @return The file, or {@code null} if it could not be obtained
+     */
+    @Nullable
+    Result fetch(String url, int maxFileSize, String logPrefix) {
+        String key = key(url);
+        FutureTask<Result> task = new FutureTask<>(() -> doFetch(url, key, maxFileSize, logPrefix));
+        FutureTask<Result> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return resultOf(task, url);
+        }
+        // Wait for the fetch in progress, without holding any lock, and share its result
+        joinedFetches.incrementAndGet();
+        WonderPush.logDebug(logPrefix + ": Joining the fetch in progress of " + url);
+        Result shared = resultOf(existing, url);
+        return shared == null ? null : new Result(shared.getFile(), -1, true);
+    }
+
+    @Nullable
+    private static Result resultOf(Future<Result> task, String url) {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            Log.e(WonderPush.TAG, "Error while fetching resource " + url, ex.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Number of fetches that waited for the one of the same resource in progress, instead of downloading it again.
+     */
+    int getJoinedFetchCount() {
+        return joinedFetches.get();
+    }
+
+    @Nullable
+    private Result doFetch(String url, String key, int maxFileSize, String logPrefix) {
+        File fresh = getFresh(url);
+        if (fresh != null) return new Result(fresh, -1);
+
+        Entry previous;
+        Partial partial;
+        synchronized (this) {
+            ensureLoaded();
+            previous = entries.get(key);
+            if (previous != null && !new File(dir, key).exists()) {
+                remove(previous);
+                previous = null;
+            }
+            partial = partials.get(key);
+            File partialFile = new File(dir, key + PARTIAL_SUFFIX);
+            if (partial != null && (!partialFile.exists() || partialFile.length() != partial.length)) {
+                removePartial(key);
+                partial = null;
+            }
+        }
+
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder().url(url);
+        if (partial != null) {
+            requestBuilder.header("Range", "bytes=" + partial.length + "-");
+            requestBuilder.header("If-Range", partial.validator);
+        } else if (previous != null) {
+            if (previous.etag != null) requestBuilder.header("If-None-Match", previous.etag);
+            if (previous.lastModified != null) requestBuilder.header("If-Modified-Since", previous.lastModified);
+        }
+
+        File partialFile = new File(dir, key + PARTIAL_SUFFIX);
+        // A partial download is kept until proven useless, so that network failures do not lose it
+        boolean keepPartial = partial != null;
+        try {
+            WonderPush.logDebug(logPrefix + ": Will open URL: " + url + (partial != null ? " from byte " + partial.length : ""));
+            try (Response response = client.newCall(requestBuilder.build()).execute()) {
+                long requestTime = now();
+
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                    WonderPush.logDebug(logPrefix + ": Not modified");
+                    synchronized (this) {
+                        // Marks the entry as recently used, unless it was evicted meanwhile
+                        if (entries.get(key) != previous) return null;
+                        previous.expiresAt = requestTime + freshnessLifetime(response, requestTime);
+                        if (response.header("ETag") != null) previous.etag = response.header("ETag");
+                        previous.accessedAt = requestTime;
+                        scheduleSaveIndex();
+                    }
+                    return new Result(new File(dir, key), -1);
+                }
+
+                long offset;
+                if (response.code() == HTTP_PARTIAL_CONTENT && partial != null
+                        && String.valueOf(response.header("Content-Range")).startsWith("bytes " + partial.length + "-")) {
+                    offset = partial.length;
+                    WonderPush.logDebug(logPrefix + ": Resuming after " + offset + " bytes");
+                } else if (response.code() == HttpURLConnection.HTTP_OK) {
+                    // Also when the resource changed since the partial download
+                    offset = 0;
+                } else {
+                    keepPartial = false;
+                    throw new IOException("Unexpected HTTP status " + response.code());
+                }
+
+                ResponseBody body = response.body();
+                if (body == null) throw new IOException("No response body");
+                long contentLength = body.contentLength();
+                WonderPush.logDebug(logPrefix + ": Content-Type: " + body.contentType());
+                WonderPush.logDebug(logPrefix + ": Content-Length: " + contentLength + " bytes");
+                if (contentLength >= 0 && offset + contentLength > maxFileSize) {
+                    keepPartial = false;
+                    throw new IOException(logPrefix + " file too large (" + (offset + contentLength) + " is over " + maxFileSize + " bytes)");
+                }
+
+                // Only resources with a strong validator can be resumed
+                String validator = response.header("ETag");
+                if (validator == null || validator.startsWith("W/")) validator = response.header("Last-Modified");
+                keepPartial = validator != null && response.networkResponse() != null;
+                synchronized (this) {
+                    partials.remove(key);
+                    if (keepPartial) {
+                        partials.put(key, new Partial(key, validator, offset));
+                        // Keep only a few of them
+                        Iterator<Partial> it = partials.values().iterator();
+                        while (partials.size() > MAX_PARTIALS && it.hasNext()) {
+                            Partial eldest = it.next();
+                            it.remove();
+                            new File(dir, eldest.key + PARTIAL_SUFFIX).delete();
+                        }
+                    }
+                }
+
+                dir.mkdirs();
+                long total = offset;
+                BufferedSource source = body.source();
+                try (BufferedSink sink = Okio.buffer(offset > 0 ? Okio.appendingSink(partialFile) : Okio.sink(partialFile))) {
+                    long read;
+                    while ((read = source.read(sink.buffer(), BUFFER_SIZE)) != -1) {
+                        total += read;
+                        if (total > maxFileSize) {
+                            keepPartial = false;
+                            throw new IOException(logPrefix + " file too large (max " + maxFileSize + " bytes allowed)");
+                        }
+                        sink.emitCompleteSegments();
+                    }
+                }
+                WonderPush.logDebug(logPrefix + ": Finished reading " + total + " bytes");
+
+                Entry entry = new Entry(key);
+                entry.size = total;
+                entry.etag = response.header("ETag");
+                entry.lastModified = response.header("Last-Modified");
+                entry.expiresAt = requestTime + freshnessLifetime(response, requestTime);
+                entry.accessedAt = requestTime;
+                File file = new File(dir, key);
+                synchronized (this) {
+                    if (!partialFile.renameTo(file)) {
+                        keepPartial = false;
+                        throw new IOException("Could not move " + partialFile + " to " + file);
+                    }
+                    keepPartial = false;
+                    Entry replaced = entries.remove(key);
+                    if (replaced != null) {
+                        size -= replaced.size;
+                        entry.pinnedUntil = replaced.pinnedUntil;
+                    }
+                    entries.put(key, entry);
+                    size += entry.size;
+                    evict(key);
+                }
+                return new Result(file, total - offset);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Log.e(WonderPush.TAG, "Error while fetching resource " + url, ex);
+            if (previous != null && new File(dir, key).exists()) {
+                WonderPush.logDebug(logPrefix + ": Using stale cached file");
+                return new Result(new File(dir, key), -1);
+            }
+            return null;
+        } finally {
+            synchronized (this) {
+                Partial resumable = partials.get(key);
+                if (keepPartial && resumable != null && partialFile.length() > 0) {
+                    resumable.length = partialFile.length();
+                    WonderPush.logDebug(logPrefix + ": Keeping " + resumable.length + " bytes to resume later");
+                } else {
+                    removePartial(key);
+                }
+                scheduleSaveIndex();
+            }
+        }
+    }
+
+    /**
+     * Returns how long a response stays fresh, honoring Cache-Control and Expires,
+     * and falling back to a fraction of the age of the resource.
+     */
+    static long freshnessLifetime(Response response, long now) {
+        CacheControl cacheControl = response.cacheControl();
+        if (cacheControl.noCache() || cacheControl.noStore()) return 0;
+        int maxAgeSeconds = cacheControl.sMaxAgeSeconds() >= 0 ? cacheControl.sMaxAgeSeconds() : cacheControl.maxAgeSeconds();
+        if (maxAgeSeconds >= 0) {
+            long age = 0;
+            try {
+                if (response.header("Age") != null) age = Long.parseLong(response.header("Age").trim());
+            } catch (NumberFormatException ignored) {
+            }
+            return Math.max(0, TimeUnit.SECONDS.toMillis(maxAgeSeconds - age));
+        }
+        Date date = response.headers().getDate("Date");
+        long dateMillis = date != null ? date.getTime() : now;
+        if (response.header("Expires") != null) {
+            Date expires = response.headers().getDate("Expires");
+            // An invalid date means already expired
+            return expires == null ? 0 : Math.max(0, expires.getTime() - dateMillis);
+        }
+        Date lastModified = response.headers().getDate("Last-Modified");
+        if (lastModified != null) {
+            return Math.max(0, Math.min(MAX_HEURISTIC_FRESHNESS_MS, (dateMillis - lastModified.getTime()) / 10));
+        }
+        return DEFAULT_FRESHNESS_MS;
+    }
+
+    private void removePartial(String key) {
+        partials.remove(key);
+        new File(dir, key + PARTIAL_SUFFIX).delete();
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key) != null) size -= entry.size;
+        new File(dir, entry.key).delete();
+    }
+
+    private void evict(String keep) {
+        long now = now();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.pinnedUntil > 0 && entry.pinnedUntil <= now && !entry.key.equals(keep)) {
+                it.remove();
+                size -= entry.size;
+                new File(dir, entry.key).delete();
+            }
+        }
+        // Unpinned entries first
+        for (boolean evictPinned : new boolean[]{false, true}) {
+            it = entries.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                Entry eldest = it.next();
+                if (eldest.key.equals(keep) || (eldest.pinnedUntil > 0) != evictPinned) continue;
+                it.remove();
+                size -= eldest.size;
+                new File(dir, eldest.key).delete();
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File indexFile = new File(dir, INDEX_FILE);
+        List<Entry> loadedEntries = new ArrayList<>();
+        if (indexFile.exists()) {
+            try (InputStream is = new FileInputStream(indexFile)) {
+                byte[] bytes = new byte[(int) indexFile.length()];
+                int offset = 0, read;
+                while (offset < bytes.length && (read = is.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                }
+                JSONObject index = new JSONObject(new String(bytes, 0, offset, UTF8));
+                JSONArray entriesJSON = index.optJSONArray("entries");
+                for (int i = 0; entriesJSON != null && i < entriesJSON.length(); i++) {
+                    JSONObject json = entriesJSON.optJSONObject(i);
+                    if (json != null) loadedEntries.add(Entry.fromJSON(json));
+                }
+                JSONArray partialsJSON = index.optJSONArray("partials");
+                for (int i = 0; partialsJSON != null && i < partialsJSON.length(); i++) {
+                    JSONObject json = partialsJSON.optJSONObject(i);
+                    if (json == null || !json.has("key") || !json.has("validator")) continue;
+                    Partial partial = new Partial(json.optString("key"), json.optString("validator"), json.optLong("length"));
+                    if (new File(dir, partial.key + PARTIAL_SUFFIX).length() == partial.length) {
+                        partials.put(partial.key, partial);
+                    }
+                }
+            } catch (IOException | JSONException ex) {
+                Log.e(WonderPush.TAG, "Could not read resource cache index " + indexFile, ex);
+            }
+        }
+        Collections.sort(loadedEntries, (a, b) -> Long.compare(a.accessedAt, b.accessedAt));
+        for (Entry entry : loadedEntries) {
+            if (entry.key.isEmpty() || !new File(dir, entry.key).exists()) continue;
+            entries.put(entry.key, entry);
+            size += entry.size;
+        }
+        // Remove files that are not indexed, like leftovers of interrupted downloads or of previous cache formats
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Set<String> keys = new HashSet<>(entries.keySet());
+            for (String key : partials.keySet()) keys.add(key + PARTIAL_SUFFIX);
+            for (File file : files) {
+                if (!file.getName().equals(INDEX_FILE) && !keys.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        evict(null);
+    }
+
+    /**
+     * Writes the index in the background, unless a write is already pending and will include the current changes.
+     */
+    private void scheduleSaveIndex() {
+        if (saveScheduled) return;
+        saveScheduled = true;
+        indexWriter.execute(this::saveIndex);
+    }
+
+    private void saveIndex() {
+        JSONObject index = new JSONObject();
+        synchronized (this) {
+            saveScheduled = false;
+            try {
+                JSONArray entriesJSON = new JSONArray();
+                for (Entry entry : entries.values()) {
+                    entriesJSON.put(entry.toJSON());
+                }
+                index.put("entries", entriesJSON);
+                JSONArray partialsJSON = new JSONArray();
+                for (Partial partial : partials.values()) {
+                    partialsJSON.put(partial.toJSON());
+                }
+                index.put("partials", partialsJSON);
+            } catch (JSONException ex) {
+                Log.e(WonderPush.TAG, "Could not serialize resource cache index", ex);
+                return;
+            }
+        }
+        dir.mkdirs();
+        File indexFile = new File(dir, INDEX_FILE);
+        File temp = new File(dir, INDEX_FILE + ".tmp");
+        try (OutputStream os = new FileOutputStream(temp)) {
+            os.write(index.toString().getBytes(UTF8));
+        } catch (IOException ex) {
+            Log.e(WonderPush.TAG, "Could not write resource cache index " + indexFile, ex);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(indexFile)) {
+            temp.delete();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.wonderpush.sdk;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated to resource downloads, so that they run in parallel and do not wait behind other SDK work.
+ */
+class ResourceFetchExecutor {
+
+    static final int THREADS = 4;
+    static final int QUEUE_CAPACITY = 32;
+    static final String THREAD_NAME_PREFIX = "WonderPush-Fetch-";
+
+    /**
+     * A download, timed from its submission.
+     */
+    abstract static class Task<T> {
+        private volatile long submittedNanos;
+        private volatile long startedNanos;
+        private volatile long finishedNanos;
+
+        protected abstract T run();
+
+        /**
+         * Runs this task on the calling thread.
+         */
+        public T execute() {
+            startedNanos = System.nanoTime();
+            if (submittedNanos == 0) submittedNanos = startedNanos;
+            try {
+                return run();
+            } finally {
+                finishedNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Time spent waiting for a fetching thread, or -1 if not started.
+         */
+        public long getQueuedMillis() {
+            return startedNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(startedNanos - submittedNanos);
+        }
+
+        /**
+         * Time spent fetching, or -1 if not finished.
+         */
+        public long getFetchMillis() {
+            return finishedNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(finishedNanos - startedNanos);
+        }
+    }
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+            new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    ResourceFetchExecutor() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the given task on a fetching thread.
+     *
+     * @throws RejectedExecutionException If all the threads are busy and {@link #QUEUE_CAPACITY} tasks already wait
+     */
+    <T> Future<T> submit(Task<T> task) throws RejectedExecutionException {
+        task.submittedNanos = System.nanoTime();
+        return executor.submit(task::execute);
+    }
+
+}
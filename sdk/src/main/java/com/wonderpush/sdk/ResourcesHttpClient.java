@@ -0,0 +1,55 @@
+package com.wonderpush.sdk;
+
+import android.content.Context;
+import android.net.TrafficStats;
+import android.os.Process;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+
+/**
+ * The HTTP client used to download notification and in-app resources.
+ *
+ * <p>Its connection pool and disk cache are shared by all the resource loaders,
+ * derive specialized clients using {@link OkHttpClient#newBuilder()}.</p>
+ *
+ * @hide
+ */
+public class ResourcesHttpClient {
+
+    static final String CACHE_DIRECTORY = "wonderpush-http";
+    static final long CACHE_MAX_SIZE = 30 * 1024 * 1024;
+    static final int CONNECT_TIMEOUT_MS = 10000;
+    static final int READ_TIMEOUT_MS = 20000;
+
+    private static volatile OkHttpClient sClient = null; // lazily initialized to avoid the cost during SDK's synchronous initialization
+
+    public static OkHttpClient get(Context context) {
+        if (sClient == null) {
+            synchronized (ResourcesHttpClient.class) {
+                if (sClient == null) {
+                    sClient = new OkHttpClient.Builder()
+                            .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY), CACHE_MAX_SIZE))
+                            .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .eventListener(new EventListener() {
+                                @Override
+                                public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                                    TrafficStats.setThreadStatsTag(Process.myTid());
+                                }
+                            })
+                            .build();
+                }
+            }
+        }
+        return sClient;
+    }
+
+}
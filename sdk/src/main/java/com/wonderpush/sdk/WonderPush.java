@@ -1763,6 +1763,14 @@ public class WonderPush {
                         WonderPushConfiguration.setMaximumCollapsedLastBuiltinTrackedEventsCount(configData.optInt(Constants.REMOTE_CONFIG_TRACKED_EVENTS_COLLAPSED_LAST_BUILTIN_MAXIMUM_COUNT_KEY, WonderPushConfiguration.DEFAULT_MAXIMUM_COLLAPSED_LAST_BUILTIN_TRACKED_EVENTS_COUNT));
                         WonderPushConfiguration.setMaximumCollapsedLastCustomTrackedEventsCount(configData.optInt(Constants.REMOTE_CONFIG_TRACKED_EVENTS_COLLAPSED_LAST_CUSTOM_MAXIMUM_COUNT_KEY, WonderPushConfiguration.DEFAULT_MAXIMUM_COLLAPSED_LAST_CUSTOM_TRACKED_EVENTS_COUNT));
                         WonderPushConfiguration.setMaximumCollapsedOtherTrackedEventsCount(configData.optInt(Constants.REMOTE_CONFIG_TRACKED_EVENTS_COLLAPSED_OTHER_MAXIMUM_COUNT_KEY, WonderPushConfiguration.DEFAULT_MAXIMUM_COLLAPSED_OTHER_TRACKED_EVENTS_COUNT));
+
+                        NotificationResourcePrefetcher.prefetch(context, configData.optJSONArray(Constants.REMOTE_CONFIG_NOTIFICATION_PREFETCH_KEY));
+
+                        // Refresh the events that trigger in-apps without waiting for one to reach the in-app pipeline
+                        final InAppMessaging.PrivateController inAppController = sInAppMessagingPrivateController;
+                        if (inAppController != null) {
+                            safeDefer(() -> inAppController.onInAppConfigChanged(configData.optJSONObject("inAppConfig"), config.getVersion()), 0);
+                        }
                     }
                 };
 
@@ -1973,16 +1981,16 @@ public class WonderPush {
                 }
 
                 @Override
-                public void fetchInAppConfig(InAppMessaging.JSONObjectHandler handler) {
+                public void fetchInAppConfig(InAppMessaging.InAppConfigHandler handler) {
                     if (sRemoteConfigManager == null) {
-                        handler.handle(null, null);
+                        handler.handle(null, null, null);
                         return;
                     }
                     safeDeferWithConsent(new Runnable() {
                         @Override
                         public void run() {
                             sRemoteConfigManager.read((RemoteConfig config, Throwable error) -> {
-                                handler.handle(config != null ? config.getData().optJSONObject("inAppConfig") : null, error);
+                                handler.handle(config != null ? config.getData().optJSONObject("inAppConfig") : null, config != null ? config.getVersion() : null, error);
                             });
                         }
                     }, null);
@@ -4,12 +4,14 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.wonderpush.sdk.segmentation.SegmentMembershipCache;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -92,10 +94,12 @@ public class WonderPushConfiguration {
     private static int maximumCollapsedOtherTrackedEventsCount = DEFAULT_MAXIMUM_COLLAPSED_OTHER_TRACKED_EVENTS_COUNT;
     private static int maximumUncollapsedTrackedEventsCount = DEFAULT_MAXIMUM_UNCOLLAPSED_TRACKED_EVENTS_COUNT;
     private static long maximumUncollapsedTrackedEventsAgeMs = DEFAULT_MAXIMUM_UNCOLLAPSED_TRACKED_EVENTS_AGE_MS;
-    private static WeakReference<List<JSONObject>> cachedTrackedEvents = new WeakReference<>(null);
+    private static final Object trackedEventsSnapshotLock = new Object();
+    private static List<JSONObject> trackedEventsSnapshot;
 
     public static void initialize(Context context) {
         sContext = context.getApplicationContext();
+        forgetTrackedEventsSnapshot();
     }
 
     protected static boolean isInitialized() {
@@ -197,6 +201,8 @@ public class WonderPushConfiguration {
         } catch (JSONException e) {
             setTrackedEvents(null);
         }
+        // Segment membership was computed for the previous user
+        SegmentMembershipCache.getInstance().invalidateAll();
     }
 
     static void clearForUserId(String userId) {
@@ -238,6 +244,8 @@ public class WonderPushConfiguration {
                 editor.remove(STORED_TRACKED_EVENTS_PREF_NAME);
                 editor.apply();
             }
+            forgetTrackedEventsSnapshot();
+            SegmentMembershipCache.getInstance().invalidateAll();
         }
     }
 
@@ -251,6 +259,8 @@ public class WonderPushConfiguration {
             editor.remove(key);
         }
         editor.apply();
+        forgetTrackedEventsSnapshot();
+        SegmentMembershipCache.getInstance().invalidateAll();
     }
 
     static JSONObject dumpState() {
@@ -1095,6 +1105,9 @@ public class WonderPushConfiguration {
         List<JSONObject> collapsedLastCustomEvents = new ArrayList<>(); // collapsing.equals("last") && !type.startsWith("@")
         List<JSONObject> collapsedOtherEvents = new ArrayList<>(); // collapsing != null && !collapsing.equals("last") // ie. collapsing.equals("campaign"), as of this writing
 
+        // The new event, and the events of any type dropped along the way
+        SegmentMembershipCache.EventTypeChanges eventTypeChanges = new SegmentMembershipCache.EventTypeChanges();
+        eventTypeChanges.add(type);
         long now = TimeSync.getTime();
         long getMaximumUncollapsedTrackedEventsAgeMs = getMaximumUncollapsedTrackedEventsAgeMs();
         for (JSONObject oldTrackedEvent : oldTrackedEvents) {
@@ -1116,6 +1129,7 @@ public class WonderPushConfiguration {
             }
             // Filter out old uncollapsed events
             if (oldTrackedEventCollapsing == null && now - oldTrackedEvent.optLong("actionDate", now) >= getMaximumUncollapsedTrackedEventsAgeMs) {
+                eventTypeChanges.removed(oldTrackedEvent);
                 continue;
             }
             // TODO We may want to filter out old collapsing=campaign (or any non-null value other than "last") events too
@@ -1180,10 +1194,10 @@ public class WonderPushConfiguration {
         WonderPushCompatibilityHelper.sort(collapsedOtherEvents, eventActionDateComparator);
 
         // Impose a limit on the maximum number of tracked events
-        uncollapsedEvents = removeExcessEventsFromStart(uncollapsedEvents, getMaximumUncollapsedTrackedEventsCount());
-        collapsedLastBuiltinEvents = removeExcessEventsFromStart(collapsedLastBuiltinEvents, getMaximumCollapsedLastBuiltinTrackedEventsCount());
-        collapsedLastCustomEvents = removeExcessEventsFromStart(collapsedLastCustomEvents, getMaximumCollapsedLastCustomTrackedEventsCount());
-        collapsedOtherEvents = removeExcessEventsFromStart(collapsedOtherEvents, getMaximumCollapsedOtherTrackedEventsCount());
+        uncollapsedEvents = eventTypeChanges.removeExcessFromStart(uncollapsedEvents, getMaximumUncollapsedTrackedEventsCount());
+        collapsedLastBuiltinEvents = eventTypeChanges.removeExcessFromStart(collapsedLastBuiltinEvents, getMaximumCollapsedLastBuiltinTrackedEventsCount());
+        collapsedLastCustomEvents = eventTypeChanges.removeExcessFromStart(collapsedLastCustomEvents, getMaximumCollapsedLastCustomTrackedEventsCount());
+        collapsedOtherEvents = eventTypeChanges.removeExcessFromStart(collapsedOtherEvents, getMaximumCollapsedOtherTrackedEventsCount());
 
         long last1days=0L, last3days=0L, last7days=0L, last15days=0L, last30days=0L, last60days=0L, last90days=0L;
 
@@ -1233,14 +1247,10 @@ public class WonderPushConfiguration {
 
         // Store the new list
         setTrackedEvents(storeTrackedEvents);
+        SegmentMembershipCache.getInstance().invalidateEventTypes(eventTypeChanges);
         return occurrences;
     }
 
-    private static <T> List<T> removeExcessEventsFromStart(List<T> list, int max) {
-        int excessEvents = list.size() - max;
-        return list.subList(Math.max(0, excessEvents), list.size());
-    }
-
     static int getMaximumCollapsedLastBuiltinTrackedEventsCount() {
         return maximumCollapsedLastBuiltinTrackedEventsCount;
     }
@@ -1283,15 +1293,31 @@ public class WonderPushConfiguration {
 
     static void setTrackedEvents(List<JSONObject> trackedEvents) {
         JSONArray storedTrackedEvents = trackedEvents == null ? null : new JSONArray(trackedEvents);
-        putJSONArray(STORED_TRACKED_EVENTS_PREF_NAME, storedTrackedEvents);
+        synchronized (trackedEventsSnapshotLock) {
+            putJSONArray(STORED_TRACKED_EVENTS_PREF_NAME, storedTrackedEvents);
+            trackedEventsSnapshot = trackedEvents == null ? null : Collections.unmodifiableList(new ArrayList<>(trackedEvents));
+        }
+    }
+
+    private static void forgetTrackedEventsSnapshot() {
+        synchronized (trackedEventsSnapshotLock) {
+            trackedEventsSnapshot = null;
+        }
     }
 
+    /**
+     * Returns an immutable snapshot of the tracked events.
+     *
+     * The same list is returned until the tracked events change, so it can be shared between readers.
+     * Neither the list nor the events it contains must be modified.
+     */
     public static List<JSONObject> getTrackedEvents() {
-        List<JSONObject> result = cachedTrackedEvents.get();
-        if (result == null) {
-            result = getTrackedEventsFromStoredJSONArray(getJSONArray(STORED_TRACKED_EVENTS_PREF_NAME));
+        synchronized (trackedEventsSnapshotLock) {
+            if (trackedEventsSnapshot == null) {
+                trackedEventsSnapshot = Collections.unmodifiableList(getTrackedEventsFromStoredJSONArray(getJSONArray(STORED_TRACKED_EVENTS_PREF_NAME)));
+            }
+            return trackedEventsSnapshot;
         }
-        return result;
     }
 
     static List<JSONObject> getTrackedEventsFromStoredJSONArray(JSONArray storedTrackedEvents) {
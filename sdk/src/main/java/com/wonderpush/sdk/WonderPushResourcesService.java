@@ -8,6 +8,10 @@ import androidx.annotation.NonNull;
 import androidx.core.app.WonderPushJobIntentService;
 import android.util.Log;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Utility class to fetch images and update notifications accordingly.
  */
@@ -16,7 +20,10 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
     private static final String TAG = WonderPush.TAG;
 
     static final int JOB_ID = 0x64C2EAE9; // CRC32("WonderPushNotificationResourceFetcherAndDisplayerJobIntentService")
-    static final long TIMEOUT_MS = 30 * 1000;
+    static final long TIMEOUT_MS = NotificationPipelineSpan.DEFAULT_BUDGET_MS;
+    static final int MAX_CONCURRENT_WORK = 3;
+
+    private final Set<NotificationPipelineSpan> currentSpans = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     public static void enqueueWork(Context context, Work work) {
         Intent intent = new Intent();
@@ -25,11 +32,27 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
     }
 
 
+    @Override
+    protected int getMaxConcurrentWork() {
+        // A burst of notifications must not wait for the resources of each other
+        return MAX_CONCURRENT_WORK;
+    }
+
     @Override
     protected void onHandleWork(@NonNull Intent intent) {
         try {
             Work work = intent.getParcelableExtra("work");
-            NotificationManager.fetchResourcesAndDisplay(this, work, TIMEOUT_MS);
+            NotificationPipelineSpan span = work.getSpan();
+            currentSpans.add(span);
+            try {
+                span.stageEnded(NotificationPipelineSpan.Stage.QUEUE);
+                span.restartBudget();
+                NotificationManager.fetchResourcesAndDisplay(this, work, TIMEOUT_MS);
+            } finally {
+                currentSpans.remove(span);
+                // No-op once the notification was shown or dropped, covers an unexpected error
+                span.ended(false);
+            }
         } catch (Exception ex) {
             Log.e(TAG, "Unexpected error while handling intent " + intent, ex);
         }
@@ -37,15 +60,26 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
 
     @Override
     public boolean onStopCurrentWork() {
+        // Stop waiting for resources
+        for (NotificationPipelineSpan span : currentSpans) {
+            span.expire();
+        }
         return false; // do not reschedule, a degraded notification has been shown
     }
 
     static class Work implements Parcelable {
 
+        /**
+         * Written after the fields of the first version, to tell apart the parcels that carry the pipeline span.
+         * Reading past the end of a parcel yields 0, and the marker is unlikely to match whatever value follows.
+         */
+        static final int PARCEL_VERSION_WITH_SPAN = 0x57500002;
+
         private final NotificationModel notif;
         private final String tag;
         private final int localNotificationId;
         private final Intent pushIntent;
+        private final NotificationPipelineSpan span;
 
         public static final Creator<Work> CREATOR = new Creator<Work>() {
             @Override
@@ -59,11 +93,12 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
             }
         };
 
-        Work(NotificationModel notif, String tag, int localNotificationId, Intent pushIntent) {
+        Work(NotificationModel notif, String tag, int localNotificationId, Intent pushIntent, NotificationPipelineSpan span) {
             this.notif = notif;
             this.tag = tag;
             this.localNotificationId = localNotificationId;
             this.pushIntent = pushIntent;
+            this.span = span;
         }
 
         protected Work(Parcel in) {
@@ -71,6 +106,19 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
             tag = in.readString();
             localNotificationId = in.readInt();
             pushIntent = in.readParcelable(getClass().getClassLoader());
+            NotificationPipelineMetrics metrics = NotificationPipelineMetrics.getInstance();
+            int position = in.dataPosition();
+            if (in.readInt() == PARCEL_VERSION_WITH_SPAN) {
+                long startMillis = in.readLong();
+                long deadlineMillis = in.readLong();
+                long markMillis = in.readLong();
+                long[] stagesMillis = in.createLongArray();
+                span = new NotificationPipelineSpan(metrics, notif == null ? null : notif.getCampaignId(), startMillis, deadlineMillis, markMillis, stagesMillis);
+            } else {
+                // Parcelled by a previous version, leave what follows for its owner
+                in.setDataPosition(position);
+                span = metrics.start(notif == null ? null : notif.getCampaignId(), metrics.elapsedRealtime());
+            }
         }
 
         @Override
@@ -84,6 +132,11 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
             parcel.writeString(tag);
             parcel.writeInt(localNotificationId);
             parcel.writeParcelable(pushIntent, 0);
+            parcel.writeInt(PARCEL_VERSION_WITH_SPAN);
+            parcel.writeLong(span.getStartMillis());
+            parcel.writeLong(span.getDeadlineMillis());
+            parcel.writeLong(span.getMarkMillis());
+            parcel.writeLongArray(span.getStagesMillis());
         }
 
         public NotificationModel getNotif() {
@@ -102,6 +155,10 @@ public class WonderPushResourcesService extends WonderPushJobIntentService {
             return pushIntent;
         }
 
+        public NotificationPipelineSpan getSpan() {
+            return span;
+        }
+
         public NotificationManager.PendingIntentBuilder getPendingIntentBuilder(Context context) {
             return new NotificationManager.PendingIntentBuilder(notif, localNotificationId, pushIntent, context);
         }
@@ -24,7 +24,10 @@ import com.wonderpush.sdk.inappmessaging.internal.DeveloperListenerManager;
 import com.wonderpush.sdk.inappmessaging.internal.DisplayCallbacksFactory;
 import com.wonderpush.sdk.inappmessaging.internal.InAppMessageStreamManager;
 import com.wonderpush.sdk.inappmessaging.internal.Logging;
+import com.wonderpush.sdk.inappmessaging.internal.ParsedCampaigns;
 import com.wonderpush.sdk.inappmessaging.internal.ProgramaticContextualTriggers;
+import com.wonderpush.sdk.inappmessaging.internal.TriggerLatencyMetrics;
+import com.wonderpush.sdk.inappmessaging.internal.TriggerSpan;
 import com.wonderpush.sdk.inappmessaging.internal.injection.components.AppComponent;
 import com.wonderpush.sdk.inappmessaging.internal.injection.components.DaggerAppComponent;
 import com.wonderpush.sdk.inappmessaging.internal.injection.components.DaggerUniversalComponent;
@@ -56,6 +59,7 @@ public class InAppMessaging {
   private final DisplayCallbacksFactory displayCallbacksFactory;
   private final DeveloperListenerManager developerListenerManager;
   private final ProgramaticContextualTriggers programaticContextualTriggers;
+  private final TriggerLatencyMetrics triggerLatencyMetrics;
   private boolean isPaused;
 
   private boolean areMessagesSuppressed;
@@ -77,6 +81,13 @@ public class InAppMessaging {
         isPaused = false;
       }
     }
+
+    /**
+     * Must be called off the main thread.
+     */
+    public void onInAppConfigChanged(@Nullable JSONObject inAppConfig, @Nullable String configVersion) {
+      inAppMessageStreamManager.onInAppConfigChanged(inAppConfig, configVersion);
+    }
   }
   PrivateController mPrivateController = new PrivateController();
 
@@ -85,8 +96,10 @@ public class InAppMessaging {
       InAppMessageStreamManager inAppMessageStreamManager,
       @ProgrammaticTrigger ProgramaticContextualTriggers programaticContextualTriggers,
       DisplayCallbacksFactory displayCallbacksFactory,
-      DeveloperListenerManager developerListenerManager) {
+      DeveloperListenerManager developerListenerManager,
+      TriggerLatencyMetrics triggerLatencyMetrics) {
     this.inAppMessageStreamManager = inAppMessageStreamManager;
+    this.triggerLatencyMetrics = triggerLatencyMetrics;
     this.programaticContextualTriggers = programaticContextualTriggers;
     this.areMessagesSuppressed = false;
     this.displayCallbacksFactory = displayCallbacksFactory;
@@ -125,9 +138,17 @@ public class InAppMessaging {
     void handle(@Nullable JSONObject jsonObject, @Nullable Throwable error);
   }
 
+  public interface InAppConfigHandler {
+    /**
+     * @param inAppConfig The in-app config, kept as the same instance until the config changes
+     * @param configVersion The version of the remote config holding the in-app config
+     */
+    void handle(@Nullable JSONObject inAppConfig, @Nullable String configVersion, @Nullable Throwable error);
+  }
+
   public interface InAppMessagingDelegate {
     boolean inAppViewedReceipts();
-    void fetchInAppConfig(JSONObjectHandler handler);
+    void fetchInAppConfig(InAppConfigHandler handler);
     void onReady(PrivateController privateController);
     PresenceManager getPresenceManager();
   }
@@ -190,6 +211,14 @@ public class InAppMessaging {
     return this.iamDisplay;
   }
 
+  /**
+   * Returns the timings of recent triggers, from the event to the message being visible.
+   * Use {@link TriggerLatencyMetrics#setListener(TriggerLatencyMetrics.Listener)} to be notified of each trigger.
+   */
+  public TriggerLatencyMetrics getTriggerLatencyMetrics() {
+    return triggerLatencyMetrics;
+  }
+
   /**
    * Called to set a new message display component for IAM SDK. This is the method used
    * by both the default IAM display SDK or any app wanting to customize the message
@@ -201,6 +230,15 @@ public class InAppMessaging {
     this.iamDisplay = messageDisplay;
   }
 
+  /**
+   * Sets the listener notified whenever a new campaign config is parsed.
+   *
+   * @hide
+   */
+  public void setParsedCampaignsListener(@Nullable ParsedCampaigns.Listener listener) {
+    inAppMessageStreamManager.setParsedCampaignsListener(listener);
+  }
+
   /**
    * Remove previously registered display listeners.
    */
@@ -330,9 +368,13 @@ public class InAppMessaging {
   }
 
   private void triggerInAppMessage(TriggeredInAppMessage inAppMessage) {
-    if (this.iamDisplay != null) {
+    TriggerSpan triggerSpan = inAppMessage.getTriggerSpan();
+    if (triggerSpan != null) triggerSpan.stageEnded(TriggerSpan.Stage.DELIVERY);
+    if (this.iamDisplay == null) {
+      if (triggerSpan != null) triggerSpan.discarded();
+    } else {
       InAppMessagingDisplayCallbacks displayCallbacks = displayCallbacksFactory.generateDisplayCallback(
-              inAppMessage.getInAppMessage(), inAppMessage.getTriggeringEvent());
+              inAppMessage.getInAppMessage(), inAppMessage.getTriggeringEvent(), triggerSpan);
       boolean handled = iamDisplay.displayMessage(
           inAppMessage.getInAppMessage(),
           displayCallbacks,
@@ -18,6 +18,7 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.Application;
 import android.content.res.Configuration;
+import android.os.SystemClock;
 import androidx.annotation.*;
 
 import android.text.TextUtils;
@@ -31,6 +32,8 @@ import com.wonderpush.sdk.SafeDeferProvider;
 import com.wonderpush.sdk.inappmessaging.InAppMessaging;
 import com.wonderpush.sdk.inappmessaging.InAppMessagingDisplayCallbacks;
 import com.wonderpush.sdk.inappmessaging.InAppMessagingDisplayCallbacks.InAppMessagingDismissType;
+import com.wonderpush.sdk.inappmessaging.internal.DisplayCallbacksImpl;
+import com.wonderpush.sdk.inappmessaging.internal.TriggerSpan;
 import com.wonderpush.sdk.inappmessaging.display.internal.*;
 import com.wonderpush.sdk.inappmessaging.display.internal.bindingwrappers.BindingWrapper;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.components.AppComponent;
@@ -53,6 +56,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -81,6 +85,9 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
 
   private final Map<String, Provider<InAppMessageLayoutConfig>> layoutConfigs;
   private final IamImageLoader imageLoader;
+  private final IamImageCacheMetrics imageCacheMetrics;
+  private final InAppWebViewPool webViewPool;
+  private final InAppWebViewResourceCache webViewResourceCache;
   private final RenewableTimer impressionTimer;
   private final RenewableTimer autoDismissTimer;
   private final IamWindowManager windowManager;
@@ -93,6 +100,9 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
   private boolean impressionDetected;
   private boolean activityForeground;
   private BindingWrapper bindingWrapper;
+  private InAppWebViewPool.Kind webViewKind;
+  private long triggerUptimeMillis;
+  @Nullable private TriggerSpan triggerSpan;
   private InAppMessagingDisplayCallbacks callbacks;
   private com.wonderpush.sdk.inappmessaging.InAppMessagingDisplay inAppMessagingDisplay;
 
@@ -114,6 +124,10 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
           InAppMessaging headlessInAppMessaging,
           Map<String, Provider<InAppMessageLayoutConfig>> layoutConfigs,
           IamImageLoader imageLoader,
+          IamImagePrefetcher imagePrefetcher,
+          IamImageCacheMetrics imageCacheMetrics,
+          InAppWebViewPool webViewPool,
+          InAppWebViewResourceCache webViewResourceCache,
           RenewableTimer impressionTimer,
           RenewableTimer autoDismissTimer,
           IamWindowManager windowManager,
@@ -124,12 +138,21 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     this.headlessInAppMessaging = headlessInAppMessaging;
     this.layoutConfigs = layoutConfigs;
     this.imageLoader = imageLoader;
+    this.imageCacheMetrics = imageCacheMetrics;
+    this.webViewPool = webViewPool;
+    this.webViewResourceCache = webViewResourceCache;
     this.impressionTimer = impressionTimer;
     this.autoDismissTimer = autoDismissTimer;
     this.windowManager = windowManager;
     this.application = application;
     this.bindingWrapperFactory = bindingWrapperFactory;
     this.animator = animator;
+
+    // Warm up the image cache and the pooled WebView whenever new campaigns arrive
+    headlessInAppMessaging.setParsedCampaignsListener(parsedCampaigns -> {
+      imagePrefetcher.prefetch(parsedCampaigns);
+      webViewPool.preload(parsedCampaigns);
+    });
   }
 
   /**
@@ -162,6 +185,24 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     return instance;
   }
 
+  /**
+   * Returns how in-app images were obtained, prefetched or not.
+   *
+   * @hide
+   */
+  public IamImageCacheMetrics getImageCacheMetrics() {
+    return imageCacheMetrics;
+  }
+
+  /**
+   * Returns the pool of WebViews, along with trigger-to-visible latencies of web view in-apps.
+   *
+   * @hide
+   */
+  public InAppWebViewPool getWebViewPool() {
+    return webViewPool;
+  }
+
   private static int getScreenOrientation(Application app) {
     return app.getResources().getConfiguration().orientation;
   }
@@ -179,6 +220,7 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     this.inAppMessage = inAppMessage;
     this.impressionDetected = false;
     this.callbacks = callbacks;
+    this.triggerSpan = null;
     showActiveIam(activity);
   }
 
@@ -230,6 +272,7 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
   public void onActivityResumed(Activity activity) {
     super.onActivityResumed(activity);
     activityForeground = true;
+    webViewPool.warmUp();
 
     // Register IAM listener with the headless sdk.
     this.inAppMessagingDisplay = (iam, cb, delay) -> {
@@ -237,11 +280,14 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
       // messages will be fired when the corresponding events happen the next time.
       if (inAppMessage != null || headlessInAppMessaging.areMessagesSuppressed()) {
         Logging.logd("Active IAM exists. Skipping trigger");
+        TriggerSpan skippedSpan = triggerSpanOf(cb);
+        if (skippedSpan != null) skippedSpan.discarded();
         return true;
       }
       inAppMessage = iam;
       impressionDetected = false;
       callbacks = cb;
+      triggerSpan = triggerSpanOf(cb);
 
       if (delay > 0) {
         activity.findViewById(android.R.id.content).postDelayed(
@@ -268,6 +314,11 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     }
   }
 
+  @Nullable
+  private static TriggerSpan triggerSpanOf(InAppMessagingDisplayCallbacks callbacks) {
+    return callbacks instanceof DisplayCallbacksImpl ? ((DisplayCallbacksImpl) callbacks).getTriggerSpan() : null;
+  }
+
   // The current IAM might be null
   @VisibleForTesting
   InAppMessage getCurrentInAppMessage() {
@@ -293,6 +344,8 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     // Create bindingWrapper if necessary and avoid creating 2 bindingWrappers
     // This method might be called multiple times if a new activity is created while waiting for the delay of an in-app
     if (bindingWrapper == null) {
+      triggerUptimeMillis = SystemClock.uptimeMillis();
+      if (triggerSpan != null) triggerSpan.stageEnded(TriggerSpan.Stage.DELAY);
       InAppMessageLayoutConfig config =
               layoutConfigs
                       .get(
@@ -314,7 +367,9 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
           bindingWrapper = bindingWrapperFactory.createCardBindingWrapper(activity, config, inAppMessage);
           break;
         case WEBVIEW:
-          bindingWrapper = bindingWrapperFactory.createWebViewBindingWrapper(activity, config, inAppMessage);
+          String webViewUrl = extractWebViewUrlOf(inAppMessage);
+          webViewKind = webViewPool.peekKind(webViewUrl);
+          bindingWrapper = bindingWrapperFactory.createWebViewBindingWrapper(activity, config, inAppMessage, webViewPool.acquire(activity, webViewUrl));
           break;
         default:
           Logging.loge("No bindings found for this message type");
@@ -401,6 +456,7 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     }
 
     final OnGlobalLayoutListener layoutListener = bindingWrapper.inflate(actionListeners, dismissListener);
+    if (triggerSpan != null) triggerSpan.stageEnded(TriggerSpan.Stage.INFLATE);
 
     if (layoutListener != null && bindingWrapper.getImageView() != null)
     {
@@ -433,6 +489,11 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
         }
       }
 
+      if (triggerSpan != null) {
+        triggerSpan.discarded();
+        triggerSpan = null;
+      }
+
       // Reset ourselves
       inAppMessage = null;
       impressionDetected = false;
@@ -440,8 +501,11 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
       bindingWrapper = null;
     };
 
+    final InAppWebViewController controller = new InAppWebViewController(inAppMessage, bindingWrapper.getWebView(), activity, this.safeDeferProvider, this.trackEventProvider, this.webViewResourceCache);
+
     // onSuccess loading resources
     Runnable onSuccess = () -> {
+      if (triggerSpan != null) triggerSpan.stageEnded(TriggerSpan.Stage.MEDIA_LOAD);
       // Setup dismiss on touch outside
       if (bindingWrapper.getDismissView() != null) {
         bindingWrapper
@@ -499,6 +563,18 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
                 @Override
                 public void run() {
                   windowManager.show(bindingWrapper, activity);
+                  controller.onDisplayed();
+                  // Measured from the trigger when known, otherwise from the end of the campaign delay
+                  long displayLatencyMillis = SystemClock.uptimeMillis() - triggerUptimeMillis;
+                  if (triggerSpan != null) {
+                    triggerSpan.displayed();
+                    displayLatencyMillis = TimeUnit.NANOSECONDS.toMillis(triggerSpan.getStageNanos(TriggerSpan.Stage.TOTAL));
+                    triggerSpan = null;
+                  }
+                  if (inAppMessage != null && inAppMessage.getMessageType() == MessageType.WEBVIEW && webViewKind != null) {
+                    webViewPool.recordDisplayLatency(webViewKind, displayLatencyMillis);
+                    webViewKind = null;
+                  }
                   if (bindingWrapper.getEntryAnimation() != null) {
                     animator.executeEntryAnimation(bindingWrapper.getEntryAnimation(), application, bindingWrapper.getRootView(), null);
                   }
@@ -507,7 +583,6 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
     };
 
     // Load web view
-    final InAppWebViewController controller = new InAppWebViewController(inAppMessage, bindingWrapper.getWebView(), activity, this.safeDeferProvider, this.trackEventProvider);
     controller.setOnClick((String buttonLabel) -> {
       if (callbacks != null) {
         callbacks.trackClick(buttonLabel);
@@ -518,7 +593,7 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
       callbacks.messageDismissed(InAppMessagingDismissType.CLICK);
       dismissIam(activity);
     });
-    controller.load(extractWebViewUrlOf(inAppMessage), () -> {
+    Runnable onWebViewLoaded = () -> {
       // Load image
       new MediaLoader(this.imageLoader)
               .loadImage(
@@ -528,7 +603,12 @@ public class InAppMessagingDisplay extends InAppMessagingDisplayImpl {
                       onSuccess,
                       onError);
 
-    }, onError);
+    };
+    if (webViewKind == InAppWebViewPool.Kind.PRELOADED) {
+      controller.attach(extractWebViewUrlOf(inAppMessage), onWebViewLoaded, onError);
+    } else {
+      controller.load(extractWebViewUrlOf(inAppMessage), onWebViewLoaded, onError);
+    }
 
   }
 
@@ -17,7 +17,12 @@ package com.wonderpush.sdk.inappmessaging.display.internal;
 import android.app.Activity;
 
 import android.view.Gravity;
+import android.webkit.WebView;
+
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.inappmessaging.display.internal.bindingwrappers.BindingWrapper;
+import com.wonderpush.sdk.inappmessaging.display.internal.bindingwrappers.WebViewBindingWrapper;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.components.DaggerInAppMessageComponent;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.components.InAppMessageComponent;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.modules.InflaterModule;
@@ -46,6 +51,11 @@ public class BindingWrapperFactory {
 
   public BindingWrapper createWebViewBindingWrapper(
           Activity activity, InAppMessageLayoutConfig config, InAppMessage inAppMessage) {
+    return createWebViewBindingWrapper(activity, config, inAppMessage, null);
+  }
+
+  public BindingWrapper createWebViewBindingWrapper(
+          Activity activity, InAppMessageLayoutConfig config, InAppMessage inAppMessage, @Nullable WebView pooledWebView) {
     InAppMessageLayoutConfig updatedConfig = config;
     try {
       updatedConfig = new InAppMessageLayoutConfig.Builder(config).setWindowDimAmount(0f).build();
@@ -55,7 +65,9 @@ public class BindingWrapperFactory {
             DaggerInAppMessageComponent.builder()
                     .inflaterModule(new InflaterModule(inAppMessage, updatedConfig, activity))
                     .build();
-    return inAppMessageComponent.webViewBindingWrapper();
+    WebViewBindingWrapper bindingWrapper = inAppMessageComponent.webViewBindingWrapper();
+    bindingWrapper.setPooledWebView(pooledWebView);
+    return bindingWrapper;
   }
 
   public BindingWrapper createModalBindingWrapper(
@@ -0,0 +1,116 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessagingScope;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Counts how in-app message images are obtained, to measure the effect of prefetching.
+ *
+ * Display loads that never reach the HTTP layer were served by the Picasso memory cache.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class IamImageCacheMetrics implements Interceptor {
+
+  private final AtomicLong displayLoads = new AtomicLong();
+  private final AtomicLong displayDiskCacheHits = new AtomicLong();
+  private final AtomicLong displayRevalidatedHits = new AtomicLong();
+  private final AtomicLong displayNetworkLoads = new AtomicLong();
+  private final AtomicLong prefetchedImages = new AtomicLong();
+  private final AtomicLong prefetchedBytes = new AtomicLong();
+  private final AtomicLong prefetchSkippedImages = new AtomicLong();
+
+  @Inject
+  IamImageCacheMetrics() {
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    Response response = chain.proceed(request);
+    // Prefetches are accounted for by the prefetcher
+    if (request.tag(IamImagePrefetchTask.class) != null) return response;
+    if (response.networkResponse() == null) {
+      if (response.cacheResponse() != null) displayDiskCacheHits.incrementAndGet();
+    } else if (response.cacheResponse() != null) {
+      displayRevalidatedHits.incrementAndGet();
+    } else {
+      displayNetworkLoads.incrementAndGet();
+    }
+    return response;
+  }
+
+  void recordDisplayLoad() {
+    displayLoads.incrementAndGet();
+  }
+
+  void recordPrefetch(long bytes) {
+    prefetchedImages.incrementAndGet();
+    prefetchedBytes.addAndGet(bytes);
+  }
+
+  void recordPrefetchSkipped() {
+    prefetchSkippedImages.incrementAndGet();
+  }
+
+  public long getDisplayLoads() {
+    return displayLoads.get();
+  }
+
+  public long getDisplayMemoryCacheHits() {
+    return Math.max(0, displayLoads.get() - displayDiskCacheHits.get() - displayRevalidatedHits.get() - displayNetworkLoads.get());
+  }
+
+  public long getDisplayDiskCacheHits() {
+    return displayDiskCacheHits.get();
+  }
+
+  /**
+   * Returns the number of display loads served from the disk cache after a conditional request.
+   */
+  public long getDisplayRevalidatedHits() {
+    return displayRevalidatedHits.get();
+  }
+
+  public long getDisplayNetworkLoads() {
+    return displayNetworkLoads.get();
+  }
+
+  public long getPrefetchedImages() {
+    return prefetchedImages.get();
+  }
+
+  public long getPrefetchedBytes() {
+    return prefetchedBytes.get();
+  }
+
+  /**
+   * Returns the number of images not prefetched because they would exceed the byte budget.
+   */
+  public long getPrefetchSkippedImages() {
+    return prefetchSkippedImages.get();
+  }
+
+  @Override
+  public String toString() {
+    return "IamImageCacheMetrics{"
+        + "displayLoads=" + getDisplayLoads()
+        + ", memoryHits=" + getDisplayMemoryCacheHits()
+        + ", diskHits=" + getDisplayDiskCacheHits()
+        + ", revalidatedHits=" + getDisplayRevalidatedHits()
+        + ", networkLoads=" + getDisplayNetworkLoads()
+        + ", prefetchedImages=" + getPrefetchedImages()
+        + ", prefetchedBytes=" + getPrefetchedBytes()
+        + ", prefetchSkippedImages=" + getPrefetchSkippedImages()
+        + '}';
+  }
+}
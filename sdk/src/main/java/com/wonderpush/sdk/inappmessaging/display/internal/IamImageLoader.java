@@ -34,13 +34,16 @@ import dagger.Lazy;
 @InAppMessagingScope
 public class IamImageLoader {
   private final Lazy<Picasso> picasso;
+  private final IamImageCacheMetrics metrics;
 
   @Inject
-  IamImageLoader(Lazy<Picasso> picasso) {
+  IamImageLoader(Lazy<Picasso> picasso, IamImageCacheMetrics metrics) {
     this.picasso = picasso;
+    this.metrics = metrics;
   }
 
   public IamImageRequestCreator load(@Nullable String imageUrl) {
+    metrics.recordDisplayLoad();
     return new IamImageRequestCreator(picasso.get().load(imageUrl));
   }
 
@@ -0,0 +1,132 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Downloads in-app message images into the HTTP disk cache, in priority order and within a byte budget.
+ *
+ * Kept apart from {@link IamImagePrefetcher}, which picks the images from the campaigns and checks the network.
+ */
+class IamImagePrefetchTask implements Runnable {
+
+  /**
+   * The images of a campaign.
+   */
+  static class CampaignImages {
+    final long endTimeMillis;
+    @Nullable final String portraitImageUrl;
+    @Nullable final String landscapeImageUrl;
+
+    /**
+     * @param endTimeMillis 0 if the campaign does not end
+     * @param portraitImageUrl The image of the message, if it has a single one
+     */
+    CampaignImages(long endTimeMillis, @Nullable String portraitImageUrl, @Nullable String landscapeImageUrl) {
+      this.endTimeMillis = endTimeMillis;
+      this.portraitImageUrl = portraitImageUrl;
+      this.landscapeImageUrl = landscapeImageUrl;
+    }
+  }
+
+  private final OkHttpClient client;
+  private final IamImageCacheMetrics metrics;
+  private final List<String> imageUrls;
+  private final long budgetBytes;
+
+  IamImagePrefetchTask(OkHttpClient client, IamImageCacheMetrics metrics, List<String> imageUrls, long budgetBytes) {
+    this.client = client;
+    this.metrics = metrics;
+    this.imageUrls = imageUrls;
+    this.budgetBytes = budgetBytes;
+  }
+
+  /**
+   * Lists the image urls of the campaigns that have not ended, from the most important campaigns to the least.
+   *
+   * @param campaignsByPriority The campaigns, most important first, a campaign may appear several times
+   * @param landscape Whether the image of the landscape orientation comes first, the other one is a fallback
+   */
+  static List<String> imageUrlsByPriority(List<? extends Collection<CampaignImages>> campaignsByPriority, long now, boolean landscape) {
+    Set<String> imageUrls = new LinkedHashSet<>();
+    for (Collection<CampaignImages> campaigns : campaignsByPriority) {
+      for (CampaignImages campaign : campaigns) {
+        if (campaign.endTimeMillis != 0 && campaign.endTimeMillis < now) continue;
+        addImageUrl(imageUrls, landscape ? campaign.landscapeImageUrl : campaign.portraitImageUrl);
+        addImageUrl(imageUrls, landscape ? campaign.portraitImageUrl : campaign.landscapeImageUrl);
+      }
+    }
+    return new ArrayList<>(imageUrls);
+  }
+
+  private static void addImageUrl(Set<String> imageUrls, @Nullable String imageUrl) {
+    if (imageUrl != null && !imageUrl.isEmpty()) imageUrls.add(imageUrl);
+  }
+
+  @Override
+  public void run() {
+    long remainingBytes = budgetBytes;
+    for (String imageUrl : imageUrls) {
+      if (remainingBytes <= 0) {
+        metrics.recordPrefetchSkipped();
+        continue;
+      }
+      remainingBytes -= prefetchImage(imageUrl, remainingBytes);
+    }
+  }
+
+  /**
+   * Downloads the given image unless it is bigger than the given budget.
+   *
+   * @return The number of bytes downloaded from the network
+   */
+  private long prefetchImage(String imageUrl, long remainingBytes) {
+    Request request;
+    try {
+      request = new Request.Builder().url(imageUrl).tag(IamImagePrefetchTask.class, this).build();
+    } catch (IllegalArgumentException e) {
+      Logging.logd("Not prefetching invalid image url " + imageUrl);
+      return 0;
+    }
+    try (Response response = client.newCall(request).execute()) {
+      ResponseBody body = response.body();
+      if (!response.isSuccessful() || body == null) return 0;
+      // Already in the disk cache
+      if (response.networkResponse() == null) return 0;
+      if (body.contentLength() > remainingBytes) {
+        metrics.recordPrefetchSkipped();
+        return 0;
+      }
+      // The cache only stores the response once fully read, closing it early aborts the entry
+      long read = 0;
+      BufferedSource source = body.source();
+      while (!source.exhausted()) {
+        long chunk = source.buffer().size();
+        source.skip(chunk);
+        read += chunk;
+        if (read > remainingBytes) {
+          metrics.recordPrefetchSkipped();
+          return read;
+        }
+      }
+      metrics.recordPrefetch(read);
+      Logging.logd("Prefetched in-app image " + imageUrl + " (" + read + " bytes)");
+      return read;
+    } catch (IOException e) {
+      Logging.logd("Could not prefetch in-app image " + imageUrl + ": " + e.getMessage());
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Process;
+
+import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessagingScope;
+import com.wonderpush.sdk.inappmessaging.internal.InAppMessageStreamManager;
+import com.wonderpush.sdk.inappmessaging.internal.ParsedCampaigns;
+import com.wonderpush.sdk.inappmessaging.model.Campaign;
+import com.wonderpush.sdk.inappmessaging.model.CardMessage;
+import com.wonderpush.sdk.inappmessaging.model.InAppMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+
+import dagger.Lazy;
+import okhttp3.OkHttpClient;
+
+/**
+ * Downloads the images of in-app messages into the HTTP disk cache used by Picasso,
+ * so that they are available when a message triggers.
+ *
+ * <p>Runs whenever a new campaign config is parsed, only on unmetered networks, within a byte budget.
+ * Images of campaigns triggered on app launch or foreground come first.
+ * Applications that want prefetching declare the {@code ACCESS_NETWORK_STATE} permission.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class IamImagePrefetcher {
+  static final long PREFETCH_BUDGET_BYTES = 5 * 1024 * 1024;
+
+  private final Application application;
+  private final Lazy<OkHttpClient> client;
+  private final IamImageCacheMetrics metrics;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @Inject
+  IamImagePrefetcher(Application application, Lazy<OkHttpClient> client, IamImageCacheMetrics metrics) {
+    this.application = application;
+    this.client = client;
+    this.metrics = metrics;
+  }
+
+  public void prefetch(ParsedCampaigns parsedCampaigns) {
+    List<String> imageUrls = imageUrlsByPriority(parsedCampaigns, System.currentTimeMillis(),
+        application.getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE);
+    if (imageUrls.isEmpty()) return;
+    executor.execute(() -> {
+      if (!isOnUnmeteredNetwork()) {
+        Logging.logd("Not prefetching in-app images on a metered network");
+        return;
+      }
+      new IamImagePrefetchTask(client.get(), metrics, imageUrls, PREFETCH_BUDGET_BYTES).run();
+    });
+  }
+
+  /**
+   * Lists the image urls of the active campaigns, those triggered on app launch or foreground first.
+   */
+  static List<String> imageUrlsByPriority(ParsedCampaigns parsedCampaigns, long now, boolean landscape) {
+    List<List<IamImagePrefetchTask.CampaignImages>> campaignsByPriority = new ArrayList<>();
+    campaignsByPriority.add(imagesOf(parsedCampaigns.getCampaignsTriggeredBy(InAppMessageStreamManager.APP_LAUNCH)));
+    campaignsByPriority.add(imagesOf(parsedCampaigns.getCampaignsTriggeredBy(InAppMessageStreamManager.ON_FOREGROUND)));
+    campaignsByPriority.add(imagesOf(parsedCampaigns.getCampaigns()));
+    return IamImagePrefetchTask.imageUrlsByPriority(campaignsByPriority, now, landscape);
+  }
+
+  private static List<IamImagePrefetchTask.CampaignImages> imagesOf(List<Campaign> campaigns) {
+    List<IamImagePrefetchTask.CampaignImages> rtn = new ArrayList<>(campaigns.size());
+    for (Campaign campaign : campaigns) {
+      InAppMessage message = campaign.getContent();
+      if (message instanceof CardMessage) {
+        rtn.add(new IamImagePrefetchTask.CampaignImages(campaign.getCampaignEndTimeMillis(),
+            ((CardMessage) message).getPortraitImageUrl(), ((CardMessage) message).getLandscapeImageUrl()));
+      } else if (message instanceof InAppMessage.InAppMessageWithImage) {
+        rtn.add(new IamImagePrefetchTask.CampaignImages(campaign.getCampaignEndTimeMillis(),
+            ((InAppMessage.InAppMessageWithImage) message).getImageUrl(), null));
+      }
+    }
+    return rtn;
+  }
+
+  private boolean isOnUnmeteredNetwork() {
+    if (application.checkPermission(Manifest.permission.ACCESS_NETWORK_STATE, Process.myPid(), Process.myUid()) != PackageManager.PERMISSION_GRANTED) {
+      return false;
+    }
+    ConnectivityManager connectivityManager = (ConnectivityManager) application.getSystemService(Context.CONNECTIVITY_SERVICE);
+    if (connectivityManager == null) return false;
+    NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+    return networkInfo != null && networkInfo.isConnected() && !connectivityManager.isActiveNetworkMetered();
+  }
+}
@@ -12,6 +12,7 @@ import androidx.annotation.Nullable;
 
 public class InAppWebView extends WebView {
     private Rect clipPath;
+    @Nullable private InAppWebViewBridge preloadBridge;
     public InAppWebView(@NonNull Context context) {
         super(context);
     }
@@ -36,6 +37,18 @@ public class InAppWebView extends WebView {
         this.clipPath = clipPath;
     }
 
+    /**
+     * The bridge the pre-loaded page was loaded with, waiting for the controller of the message it is displayed for.
+     */
+    @Nullable
+    InAppWebViewBridge getPreloadBridge() {
+        return preloadBridge;
+    }
+
+    void setPreloadBridge(@Nullable InAppWebViewBridge preloadBridge) {
+        this.preloadBridge = preloadBridge;
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         DisplayMetrics metrics = getResources().getDisplayMetrics();
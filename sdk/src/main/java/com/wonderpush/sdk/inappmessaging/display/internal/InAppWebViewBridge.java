@@ -14,6 +14,8 @@ import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class InAppWebViewBridge {
 
@@ -30,12 +32,136 @@ public class InAppWebViewBridge {
         void callMethod(String methodName, String methodArg);
         void setClipPath(Rect clipPath);
         JSONObject getPayload();
+        void evaluateJavascript(String script);
+    }
+
+    /**
+     * The SDK calls pages can make, replaced in tests.
+     */
+    interface Sdk {
+        void subscribeToNotifications();
+        void unsubscribeFromNotifications();
+        boolean isSubscribedToNotifications();
+        String getUserId();
+        String getInstallationId();
+        String getCountry();
+        String getCurrency();
+        String getLocale();
+        String getTimeZone();
+        void addTag(String... tags);
+        void removeTag(String... tags);
+        void removeAllTags();
+        boolean hasTag(String tag);
+        Set<String> getTags();
+        Object getPropertyValue(String field);
+        List<Object> getPropertyValues(String field);
+        void addProperty(String field, Object value);
+        void removeProperty(String field, Object value);
+        void setProperty(String field, Object value);
+        void unsetProperty(String field);
+        void putProperties(JSONObject properties);
+        JSONObject getProperties();
+    }
+
+    private static final Sdk WONDERPUSH = new Sdk() {
+        @Override public void subscribeToNotifications() { WonderPush.subscribeToNotifications(); }
+        @Override public void unsubscribeFromNotifications() { WonderPush.unsubscribeFromNotifications(); }
+        @Override public boolean isSubscribedToNotifications() { return WonderPush.isSubscribedToNotifications(); }
+        @Override public String getUserId() { return WonderPush.getUserId(); }
+        @Override public String getInstallationId() { return WonderPush.getInstallationId(); }
+        @Override public String getCountry() { return WonderPush.getCountry(); }
+        @Override public String getCurrency() { return WonderPush.getCurrency(); }
+        @Override public String getLocale() { return WonderPush.getLocale(); }
+        @Override public String getTimeZone() { return WonderPush.getTimeZone(); }
+        @Override public void addTag(String... tags) { WonderPush.addTag(tags); }
+        @Override public void removeTag(String... tags) { WonderPush.removeTag(tags); }
+        @Override public void removeAllTags() { WonderPush.removeAllTags(); }
+        @Override public boolean hasTag(String tag) { return WonderPush.hasTag(tag); }
+        @Override public Set<String> getTags() { return WonderPush.getTags(); }
+        @Override public Object getPropertyValue(String field) { return WonderPush.getPropertyValue(field); }
+        @Override public List<Object> getPropertyValues(String field) { return WonderPush.getPropertyValues(field); }
+        @Override public void addProperty(String field, Object value) { WonderPush.addProperty(field, value); }
+        @Override public void removeProperty(String field, Object value) { WonderPush.removeProperty(field, value); }
+        @Override public void setProperty(String field, Object value) { WonderPush.setProperty(field, value); }
+        @Override public void unsetProperty(String field) { WonderPush.unsetProperty(field); }
+        @Override public void putProperties(JSONObject properties) { WonderPush.putProperties(properties); }
+        @Override public JSONObject getProperties() { return WonderPush.getProperties(); }
+    };
+
+    /**
+     * Methods that change the installation, after which the state snapshot of the page is refreshed.
+     */
+    private static final Set<String> STATE_CHANGING_METHODS = new HashSet<>(Arrays.asList(
+            "subscribeToNotifications",
+            "unsubscribeFromNotifications",
+            "addTag",
+            "removeTag",
+            "removeAllTags",
+            "addProperty",
+            "removeProperty",
+            "setProperty",
+            "unsetProperty",
+            "putProperties"));
+
+    /**
+     * Runs the calls posted by pages in order, away from their JavaScript thread.
+     */
+    private static final ExecutorService messageExecutor = Executors.newSingleThreadExecutor();
+
+    private final Sdk sdk;
+    private volatile WeakReference<Controller> controllerRef;
+
+    /**
+     * Batches posted by a pre-loaded page before it is displayed, {@code null} once a controller is attached. Guarded by {@code this}.
+     */
+    @Nullable private List<JSONArray> heldMessages;
+
+    /**
+     * @param controller {@code null} for a page pre-loaded off-screen, whose calls are held until {@link #attach(Controller)}
+     */
+    public InAppWebViewBridge(@Nullable Controller controller) {
+        this(controller, WONDERPUSH);
+    }
+
+    InAppWebViewBridge(@Nullable Controller controller, Sdk sdk) {
+        this.sdk = sdk;
+        this.controllerRef = new WeakReference<>(controller);
+        this.heldMessages = controller == null ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Binds the page to the message it is displayed for, then runs the calls it posted while off-screen
+     * and sends it a fresh state snapshot.
+     */
+    void attach(Controller controller) {
+        List<JSONArray> held;
+        synchronized (this) {
+            controllerRef = new WeakReference<>(controller);
+            held = heldMessages;
+            heldMessages = null;
+        }
+        if (held != null) {
+            for (JSONArray messages : held) run(messages);
+        }
+        refreshState();
     }
 
-    private final WeakReference<Controller> controllerRef;
-
-    public InAppWebViewBridge(Controller controller) {
-        this.controllerRef = new WeakReference<>(controller);
+    /**
+     * Sends a fresh state snapshot to the page, after the calls already posted.
+     */
+    void refreshState() {
+        messageExecutor.execute(() -> {
+            Controller controller = controllerRef.get();
+            if (controller == null) return;
+            try {
+                JSONObject response = new JSONObject()
+                        .put("replies", new JSONArray())
+                        .put("state", getStateSnapshot());
+                controller.evaluateJavascript("window._wpiamReceive && window._wpiamReceive(" + response.toString() + ")");
+            } catch (JSONException e) {
+                Logging.loge("Could not encode state", e);
+            }
+        });
     }
 
     private @Nullable String toJavascriptResult(Object o) {
@@ -159,47 +285,47 @@ public class InAppWebViewBridge {
 
     @JavascriptInterface
     public void subscribeToNotifications() {
-        WonderPush.subscribeToNotifications();
+        sdk.subscribeToNotifications();
     }
 
     @JavascriptInterface
     public void unsubscribeFromNotifications() {
-        WonderPush.unsubscribeFromNotifications();
+        sdk.unsubscribeFromNotifications();
     }
 
     @JavascriptInterface
     public boolean isSubscribedToNotifications() {
-        return WonderPush.isSubscribedToNotifications();
+        return sdk.isSubscribedToNotifications();
     }
 
     @JavascriptInterface
     public String getUserId() {
-        return toJavascriptResult(WonderPush.getUserId());
+        return toJavascriptResult(sdk.getUserId());
     }
 
     @JavascriptInterface
     public String getInstallationId() {
-        return toJavascriptResult(WonderPush.getInstallationId());
+        return toJavascriptResult(sdk.getInstallationId());
     }
 
     @JavascriptInterface
     public String getCountry() {
-        return toJavascriptResult(WonderPush.getCountry());
+        return toJavascriptResult(sdk.getCountry());
     }
 
     @JavascriptInterface
     public String getCurrency() {
-        return toJavascriptResult(WonderPush.getCurrency());
+        return toJavascriptResult(sdk.getCurrency());
     }
 
     @JavascriptInterface
     public String getLocale() {
-        return toJavascriptResult(WonderPush.getLocale());
+        return toJavascriptResult(sdk.getLocale());
     }
 
     @JavascriptInterface
     public String getTimeZone() {
-        return toJavascriptResult(WonderPush.getTimeZone());
+        return toJavascriptResult(sdk.getTimeZone());
     }
 
     @JavascriptInterface
@@ -233,7 +359,7 @@ public class InAppWebViewBridge {
         JSONArray tags = argToJSONArray(t1);
         String[] tagArray = new String[tags.length()];
         for (int i = 0; i < tags.length(); i++) tagArray[i] = tags.optString(i);
-        WonderPush.addTag(tagArray);
+        sdk.addTag(tagArray);
     }
 
     @JavascriptInterface
@@ -241,24 +367,24 @@ public class InAppWebViewBridge {
         JSONArray tags = argToJSONArray(t1);
         String[] tagArray = new String[tags.length()];
         for (int i = 0; i < tags.length(); i++) tagArray[i] = tags.optString(i);
-        WonderPush.removeTag(tagArray);
+        sdk.removeTag(tagArray);
     }
 
     @JavascriptInterface
     public void removeAllTags() {
-        WonderPush.removeAllTags();
+        sdk.removeAllTags();
     }
 
     @JavascriptInterface
     public @Nullable String hasTag(String tagArg) {
         String tag = argToString(tagArg);
         if (tag == null) return toJavascriptError("Tag cannot be null");
-        return toJavascriptResult(WonderPush.hasTag(tag));
+        return toJavascriptResult(sdk.hasTag(tag));
     }
 
     @JavascriptInterface
     public String getTags() {
-        Set<String> tags = WonderPush.getTags();
+        Set<String> tags = sdk.getTags();
         return toJavascriptResult(new JSONArray(tags));
     }
 
@@ -266,14 +392,14 @@ public class InAppWebViewBridge {
     public String getPropertyValue(String fieldArg) {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
-        return toJavascriptResult(WonderPush.getPropertyValue(field));
+        return toJavascriptResult(sdk.getPropertyValue(field));
     }
 
     @JavascriptInterface
     public String getPropertyValues(String fieldArg) {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
-        return toJavascriptResult(WonderPush.getPropertyValues(field));
+        return toJavascriptResult(sdk.getPropertyValues(field));
     }
 
     @JavascriptInterface
@@ -281,7 +407,7 @@ public class InAppWebViewBridge {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
         Object val = argToObject(valString, null);
-        WonderPush.addProperty(field, val);
+        sdk.addProperty(field, val);
         return null;
     }
 
@@ -290,7 +416,7 @@ public class InAppWebViewBridge {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
         Object val = argToObject(encodedValue, null);
-        WonderPush.removeProperty(field, val);
+        sdk.removeProperty(field, val);
         return null;
     }
 
@@ -299,7 +425,7 @@ public class InAppWebViewBridge {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
         Object val = argToObject(encodedValue, null);
-        WonderPush.setProperty(field, val);
+        sdk.setProperty(field, val);
         return null;
     }
 
@@ -307,7 +433,7 @@ public class InAppWebViewBridge {
     public @Nullable String unsetProperty(String fieldArg) {
         String field = argToString(fieldArg);
         if (field == null) return toJavascriptError("Field cannot be null");
-        WonderPush.unsetProperty(field);
+        sdk.unsetProperty(field);
         return null;
     }
 
@@ -315,13 +441,13 @@ public class InAppWebViewBridge {
     public @Nullable String putProperties(String encodedProperties) {
         JSONObject properties = argToJSONObject(encodedProperties);
         if (properties == null) return toJavascriptError("Properties cannot be null");
-        WonderPush.putProperties(properties);
+        sdk.putProperties(properties);
         return null;
     }
 
     @JavascriptInterface
     public String getProperties() {
-        return toJavascriptResult(WonderPush.getProperties());
+        return toJavascriptResult(sdk.getProperties());
     }
 
     @JavascriptInterface
@@ -391,4 +517,146 @@ public class InAppWebViewBridge {
             controller.setClipPath(clipPath);
         }
     }
+
+    /**
+     * Returns what pages can read without calling the native layer,
+     * injected along with the JavaScript SDK when the page loads, and sent again when it is displayed.
+     */
+    JSONObject getStateSnapshot() {
+        JSONObject state = new JSONObject();
+        try {
+            state.put("userId", orNull(sdk.getUserId()));
+            state.put("installationId", orNull(sdk.getInstallationId()));
+            state.put("country", orNull(sdk.getCountry()));
+            state.put("currency", orNull(sdk.getCurrency()));
+            state.put("locale", orNull(sdk.getLocale()));
+            state.put("timeZone", orNull(sdk.getTimeZone()));
+            state.put("devicePlatform", "Android");
+            state.put("subscribedToNotifications", sdk.isSubscribedToNotifications());
+            state.put("tags", new JSONArray(sdk.getTags()));
+            JSONObject properties = sdk.getProperties();
+            state.put("properties", properties != null ? properties : new JSONObject());
+            Controller controller = controllerRef.get();
+            JSONObject payload = controller != null ? controller.getPayload() : null;
+            state.put("payload", orNull(payload));
+        } catch (Exception e) {
+            Logging.loge("Could not build the in-app state snapshot", e);
+        }
+        return state;
+    }
+
+    /**
+     * Receives a batch of calls from the page, as a JSON array of {@code {id, method, args}} objects
+     * where {@code args} are encoded like the arguments of the synchronous methods.
+     *
+     * <p>Returns immediately. The calls are run in order on a background thread, then their results are sent
+     * back together to {@code window._wpiamReceive}, along with a fresh state snapshot if the installation changed.
+     * The calls of a pre-loaded page only run once it is displayed, and never if it is not.
+     */
+    @JavascriptInterface
+    public void postMessages(String encodedMessages) {
+        final JSONArray messages;
+        try {
+            messages = new JSONArray(encodedMessages);
+        } catch (JSONException e) {
+            Logging.loge("Could not decode messages", e);
+            return;
+        }
+        synchronized (this) {
+            if (heldMessages != null) {
+                heldMessages.add(messages);
+                return;
+            }
+        }
+        run(messages);
+    }
+
+    private void run(JSONArray messages) {
+        messageExecutor.execute(() -> {
+            JSONArray replies = new JSONArray();
+            boolean stateChanged = false;
+            for (int i = 0; i < messages.length(); i++) {
+                JSONObject message = messages.optJSONObject(i);
+                if (message == null) continue;
+                String method = message.optString("method");
+                JSONArray argsJson = message.optJSONArray("args");
+                String[] args = new String[argsJson != null ? argsJson.length() : 0];
+                for (int j = 0; j < args.length; j++) args[j] = argsJson.optString(j, "{}");
+                String result;
+                try {
+                    result = call(method, args);
+                } catch (Exception e) {
+                    result = toJavascriptError(e.getMessage());
+                }
+                stateChanged = stateChanged || STATE_CHANGING_METHODS.contains(method);
+                try {
+                    replies.put(new JSONObject()
+                            .put("id", message.opt("id"))
+                            .put("result", result != null ? result : JSONObject.NULL));
+                } catch (JSONException e) {
+                    Logging.loge("Could not encode reply", e);
+                }
+            }
+            Controller controller = controllerRef.get();
+            if (controller == null) return;
+            try {
+                JSONObject response = new JSONObject().put("replies", replies);
+                if (stateChanged) response.put("state", getStateSnapshot());
+                controller.evaluateJavascript("window._wpiamReceive && window._wpiamReceive(" + response.toString() + ")");
+            } catch (JSONException e) {
+                Logging.loge("Could not encode replies", e);
+            }
+        });
+    }
+
+    private static Object orNull(@Nullable Object value) {
+        return value != null ? value : JSONObject.NULL;
+    }
+
+    private static String arg(String[] args, int index) {
+        return index < args.length ? args[index] : "{}";
+    }
+
+    /**
+     * Calls the synchronous method of the given name, returning its encoded result.
+     */
+    @Nullable
+    String call(String method, String[] args) {
+        switch (method) {
+            case "dismiss": dismiss(); return null;
+            case "trackClick": return trackClick(arg(args, 0));
+            case "getPayload": return getPayload();
+            case "openExternalUrl": return openExternalUrl(arg(args, 0));
+            case "openDeepLink": return openDeepLink(arg(args, 0));
+            case "subscribeToNotifications": subscribeToNotifications(); return null;
+            case "unsubscribeFromNotifications": unsubscribeFromNotifications(); return null;
+            case "isSubscribedToNotifications": return toJavascriptResult(isSubscribedToNotifications());
+            case "getUserId": return getUserId();
+            case "getInstallationId": return getInstallationId();
+            case "getCountry": return getCountry();
+            case "getCurrency": return getCurrency();
+            case "getLocale": return getLocale();
+            case "getTimeZone": return getTimeZone();
+            case "getDevicePlatform": return getDevicePlatform();
+            case "trackEvent": return args.length > 1 ? trackEvent(args[0], args[1]) : trackEvent(arg(args, 0));
+            case "addTag": addTag(arg(args, 0)); return null;
+            case "removeTag": removeTag(arg(args, 0)); return null;
+            case "removeAllTags": removeAllTags(); return null;
+            case "hasTag": return hasTag(arg(args, 0));
+            case "getTags": return getTags();
+            case "getPropertyValue": return getPropertyValue(arg(args, 0));
+            case "getPropertyValues": return getPropertyValues(arg(args, 0));
+            case "addProperty": return addProperty(arg(args, 0), arg(args, 1));
+            case "removeProperty": return removeProperty(arg(args, 0), arg(args, 1));
+            case "setProperty": return setProperty(arg(args, 0), arg(args, 1));
+            case "unsetProperty": return unsetProperty(arg(args, 0));
+            case "putProperties": return putProperties(arg(args, 0));
+            case "getProperties": return getProperties();
+            case "triggerLocationPrompt": return triggerLocationPrompt();
+            case "openAppRating": return openAppRating();
+            case "callMethod": return args.length > 1 ? callMethod(args[0], args[1]) : callMethod(arg(args, 0));
+            case "setClipPath": setClipPath(arg(args, 0)); return null;
+            default: return toJavascriptError("Unknown method " + method);
+        }
+    }
 }
@@ -37,7 +37,10 @@ import com.wonderpush.sdk.inappmessaging.model.WebViewMessage;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
 import java.lang.ref.WeakReference;
 import java.util.*;
 
@@ -58,19 +61,22 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
     private Consumer<String> onClick;
     final private SafeDeferProvider safeDeferProvider;
     final private InAppMessagingDisplay.TrackEventProvider trackEventProvider;
-    final private InAppWebViewBridge bridge = new InAppWebViewBridge(this);
+    private InAppWebViewBridge bridge = new InAppWebViewBridge(this);
+    @Nullable final private InAppWebViewResourceCache resourceCache;
 
     public InAppWebViewController(
             InAppMessage inAppMessage,
             WebView webView,
             Activity activity,
             SafeDeferProvider safeDeferProvider,
-            InAppMessagingDisplay.TrackEventProvider trackEventProvider) {
+            InAppMessagingDisplay.TrackEventProvider trackEventProvider,
+            @Nullable InAppWebViewResourceCache resourceCache) {
         webViewMessage = inAppMessage instanceof WebViewMessage ? (WebViewMessage) inAppMessage : null;
         webViewRef = new WeakReference<>(webView);
         activityRef = new WeakReference<>(activity);
         this.safeDeferProvider = safeDeferProvider;
         this.trackEventProvider = trackEventProvider;
+        this.resourceCache = resourceCache;
     }
 
     public void setOnDismiss(Runnable r) {
@@ -81,6 +87,38 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
         this.onClick = c;
     }
 
+    /**
+     * Takes over the page pre-loaded by {@link InAppWebViewPool}, which is displayed as-is without loading it again.
+     *
+     * <p>Falls back to {@link #load(String, Runnable, Consumer)} if the WebView holds no pre-loaded page.
+     */
+    public void attach(String url, Runnable onSuccess, Consumer<Exception> onError) {
+        WebView webView = webViewRef.get();
+        InAppWebViewBridge preloadBridge = webView instanceof InAppWebView ? ((InAppWebView) webView).getPreloadBridge() : null;
+        final Activity activity = activityRef.get();
+        if (preloadBridge == null || activity == null) {
+            load(url, onSuccess, onError);
+            return;
+        }
+        ((InAppWebView) webView).setPreloadBridge(null);
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                bridge = preloadBridge;
+                // The client handles the navigations and sub-resources from now on, the initial load is already done
+                BaseClient client = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? new ModernClient(null, null, activity.getResources()) : new LegacyClient(null, null, activity.getResources());
+                client.initialLoadSuccess();
+                webView.setWebViewClient(client);
+                setUpWindows(webView);
+                preloadBridge.attach(this);
+                onSuccess.run();
+            }
+            catch (Exception exception) {
+                Logging.loge("Unexpected error attaching pre-loaded webView", exception);
+                if (onError != null) onError.accept(exception);
+            }
+        });
+    }
+
     public void load(String url, Runnable onSuccess, Consumer<Exception> onError) {
         WebView webView = webViewRef.get();
         if (url == null || webView == null) {
@@ -99,22 +137,7 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
                 WebViewClient client = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? new ModernClient(onSuccess, onError, activity.getResources()) : new LegacyClient(onSuccess, onError, activity.getResources());
                 webView.setWebViewClient(client);
                 webView.addJavascriptInterface(bridge, JAVASCRIPT_INTERFACE_NAME);
-                // Support target="_blank"
-                webView.getSettings().setSupportMultipleWindows(true);
-                webView.setWebChromeClient(new WebChromeClient() {
-                    @Override
-                    public boolean onCreateWindow(WebView view, boolean isDialog, boolean isUserGesture, Message resultMsg) {
-                        if (!isDialog && isUserGesture) {
-                            WebView.HitTestResult hitTestResult = view.getHitTestResult();
-                            if (hitTestResult.getType() == WebView.HitTestResult.SRC_ANCHOR_TYPE) {
-                                String url = hitTestResult.getExtra();
-                                openExternalUrl(url);
-                                return true;
-                            }
-                        }
-                        return false;
-                    }
-                });
+                setUpWindows(webView);
                 webView.loadUrl(url);
             }
             catch (Exception exception) {
@@ -125,6 +148,46 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
 
     }
 
+    /**
+     * Sends the page the state at display time, which may have changed since it loaded.
+     */
+    public void onDisplayed() {
+        if (webViewRef.get() != null) bridge.refreshState();
+    }
+
+    private void setUpWindows(WebView webView) {
+        // Support target="_blank"
+        webView.getSettings().setSupportMultipleWindows(true);
+        webView.setWebChromeClient(new WebChromeClient() {
+            @Override
+            public boolean onCreateWindow(WebView view, boolean isDialog, boolean isUserGesture, Message resultMsg) {
+                if (!isDialog && isUserGesture) {
+                    WebView.HitTestResult hitTestResult = view.getHitTestResult();
+                    if (hitTestResult.getType() == WebView.HitTestResult.SRC_ANCHOR_TYPE) {
+                        String url = hitTestResult.getExtra();
+                        openExternalUrl(url);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Returns the JavaScript SDK along with a snapshot of the state pages can read without blocking calls,
+     * both wrapped in a closure so that the snapshot is only reachable through the SDK.
+     */
+    static InputStream getJavascriptSDKInputStream(Resources resources, InAppWebViewBridge bridge) {
+        Charset utf8 = Charset.forName("UTF-8");
+        String prefix = "(function () {\nvar _wpiamInitialState = " + bridge.getStateSnapshot().toString() + ";\n";
+        String suffix = "\n})();\n";
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(prefix.getBytes(utf8)),
+                resources.openRawResource(R.raw.wonderpush_inapp_sdk),
+                new ByteArrayInputStream(suffix.getBytes(utf8)))));
+    }
+
     @Override
     public void sendError(String msg) {
         final WebView webView = webViewRef.get();
@@ -307,6 +370,14 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
         trackEventProvider.trackInAppEvent(type, eventData, attributes);
     }
 
+    @Override
+    public void evaluateJavascript(String script) {
+        final WebView webView = webViewRef.get();
+        if (webView != null) {
+            webView.post(() -> webView.evaluateJavascript(script, null));
+        }
+    }
+
     @Override
     public void setClipPath(Rect clipPath) {
         WebView webView = this.webViewRef.get();
@@ -374,7 +445,26 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
         }
 
         protected InputStream getJavascriptSDKInputStream() {
-            return this.resources.openRawResource(R.raw.wonderpush_inapp_sdk);
+            return InAppWebViewController.getJavascriptSDKInputStream(resources, bridge);
+        }
+
+        /**
+         * Serves the static assets of the in-app from the SDK cache, so that displaying it again needs no network for them.
+         *
+         * @return {@code null} to let the WebView load the resource itself
+         */
+        @Nullable
+        protected WebResourceResponse getCachedResource(String url, @Nullable String method, Map<String, String> requestHeaders) {
+            if (resourceCache == null || webViewMessage == null || url == null) return null;
+            if (method != null && !"GET".equals(method)) return null;
+            if (!InAppWebViewResourceCache.isCacheable(url)) return null;
+            NotificationMetadata metadata = webViewMessage.getNotificationMetadata();
+            // Test messages are edited without changing their version
+            if (metadata == null || metadata.getIsTestMessage() || metadata.getCampaignId() == null) return null;
+            String version = metadata.getNotificationId() + "|" + webViewMessage.getWebViewUrl();
+            InAppWebViewResourceCache.Resource resource = resourceCache.get(metadata.getCampaignId(), version, url, requestHeaders);
+            if (resource == null) return null;
+            return new WebResourceResponse(resource.getMimeType(), resource.getEncoding(), resource.getStatusCode(), resource.getReasonPhrase(), resource.getHeaders(), resource.getData());
         }
 
         @Override
@@ -420,6 +510,11 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
             if (request != null && request.getUrl() != null && request.getUrl().toString().startsWith(HTML_INAPP_SDK_URL)) {
                 return new WebResourceResponse("text/javascript", "utf-8", getJavascriptSDKInputStream());
             }
+            if (request != null && request.getUrl() != null) {
+                WebResourceResponse cached = getCachedResource(request.getUrl().toString(), request.getMethod(),
+                        request.getRequestHeaders() != null ? request.getRequestHeaders() : Collections.emptyMap());
+                if (cached != null) return cached;
+            }
             return super.shouldInterceptRequest(view, request);
         }
 
@@ -483,6 +578,8 @@ public class InAppWebViewController implements InAppWebViewBridge.Controller {
             if (url != null && url.startsWith(HTML_INAPP_SDK_URL)) {
                 return new WebResourceResponse("text/javascript", "utf-8", getJavascriptSDKInputStream());
             }
+            WebResourceResponse cached = getCachedResource(url, null, Collections.emptyMap());
+            if (cached != null) return cached;
             return super.shouldInterceptRequest(view, url);
         }
 
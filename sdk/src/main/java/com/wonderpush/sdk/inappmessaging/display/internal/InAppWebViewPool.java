@@ -0,0 +1,340 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import android.annotation.SuppressLint;
+import android.app.Application;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.WonderPushSettings;
+import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessagingScope;
+import com.wonderpush.sdk.inappmessaging.internal.InAppMessageStreamManager;
+import com.wonderpush.sdk.inappmessaging.internal.ParsedCampaigns;
+import com.wonderpush.sdk.inappmessaging.model.Campaign;
+import com.wonderpush.sdk.inappmessaging.model.InAppMessage;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+/**
+ * Keeps a WebView initialized ahead of time for web view in-app messages, so that the WebView
+ * creation cost is not paid between the trigger and the display.
+ *
+ * <p>The WebView is created the first time the main thread goes idle after launch, and replaced
+ * whenever it is handed out. In pre-load mode, it also loads the page of the campaign most likely
+ * to trigger off-screen, so that it is displayed as-is. Until then, the calls of the page to the SDK are held back,
+ * and its requests to other origins are blocked. A page that needed any of those is loaded again at display time.
+ *
+ * <p>Both are opt-in, see {@link #isEnabled()} and {@link #isPreloadEnabled()}.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class InAppWebViewPool {
+
+  public enum Kind {
+    /** The WebView was created at display time. */
+    COLD,
+    /** The WebView came from the pool. */
+    POOLED,
+    /** The WebView came from the pool with the page of the message pre-loaded, and is displayed as-is. */
+    PRELOADED,
+  }
+
+  private final Application application;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final LatencyStats[] latencyStats = new LatencyStats[Kind.values().length];
+
+  // Read from any thread
+  private volatile Boolean enabled;
+  private volatile Boolean preloadEnabled;
+  // Main thread only
+  private final InAppWebViewPoolSlot<InAppWebView> slot = new InAppWebViewPoolSlot<>();
+  @Nullable private String preloadUrl;
+
+  @Inject
+  InAppWebViewPool(Application application) {
+    this.application = application;
+    for (Kind kind : Kind.values()) {
+      latencyStats[kind.ordinal()] = new LatencyStats();
+    }
+  }
+
+  /**
+   * Whether a WebView is kept ready, configured with the {@code wonderpush_inAppWebViewPool} setting.
+   */
+  public boolean isEnabled() {
+    if (enabled == null) {
+      Boolean value = WonderPushSettings.getBoolean("WONDERPUSH_INAPP_WEBVIEW_POOL", "wonderpush_inAppWebViewPool", "com.wonderpush.sdk.inAppWebViewPool");
+      enabled = value != null && value;
+    }
+    return enabled;
+  }
+
+  /**
+   * Whether the pooled WebView pre-loads the page of the next likely campaign,
+   * configured with the {@code wonderpush_inAppWebViewPreload} setting.
+   */
+  public boolean isPreloadEnabled() {
+    if (preloadEnabled == null) {
+      Boolean value = WonderPushSettings.getBoolean("WONDERPUSH_INAPP_WEBVIEW_PRELOAD", "wonderpush_inAppWebViewPreload", "com.wonderpush.sdk.inAppWebViewPreload");
+      preloadEnabled = value != null && value && isEnabled();
+    }
+    return preloadEnabled;
+  }
+
+  /**
+   * Creates the pooled WebView the next time the main thread is idle, if necessary.
+   */
+  @MainThread
+  public void warmUp() {
+    if (!isEnabled() || !slot.scheduleFill()) return;
+    Looper.myQueue().addIdleHandler(() -> {
+      fill();
+      return false;
+    });
+  }
+
+  /**
+   * Chooses the page to pre-load among the given campaigns. Can be called from any thread.
+   */
+  public void preload(ParsedCampaigns parsedCampaigns) {
+    if (!isPreloadEnabled()) return;
+    List<String> urls = webViewUrlsByPriority(parsedCampaigns, System.currentTimeMillis());
+    String url = urls.isEmpty() ? null : urls.get(0);
+    mainHandler.post(() -> {
+      preloadUrl = url;
+      if (slot.shouldPreload(url)) {
+        load(url);
+      }
+    });
+  }
+
+  /**
+   * Lists the web view urls of the active campaigns, those triggered on app launch or foreground first.
+   */
+  static List<String> webViewUrlsByPriority(ParsedCampaigns parsedCampaigns, long now) {
+    Set<Campaign> campaigns = new LinkedHashSet<>();
+    campaigns.addAll(parsedCampaigns.getCampaignsTriggeredBy(InAppMessageStreamManager.APP_LAUNCH));
+    campaigns.addAll(parsedCampaigns.getCampaignsTriggeredBy(InAppMessageStreamManager.ON_FOREGROUND));
+    campaigns.addAll(parsedCampaigns.getCampaigns());
+    Set<String> urls = new LinkedHashSet<>();
+    for (Campaign campaign : campaigns) {
+      if (campaign.getCampaignEndTimeMillis() != 0 && campaign.getCampaignEndTimeMillis() < now) continue;
+      InAppMessage message = campaign.getContent();
+      if (message instanceof InAppMessage.InAppMessageWithWebView) {
+        String url = ((InAppMessage.InAppMessageWithWebView) message).getWebViewUrl();
+        if (url != null && !url.isEmpty()) urls.add(url);
+      }
+    }
+    return new ArrayList<>(urls);
+  }
+
+  /**
+   * Tells which kind of WebView {@link #acquire(Context)} would hand out to display the given page.
+   */
+  @MainThread
+  public Kind peekKind(@Nullable String url) {
+    if (!slot.hasWebView()) return Kind.COLD;
+    return slot.isPreloaded(url) ? Kind.PRELOADED : Kind.POOLED;
+  }
+
+  /**
+   * Hands out the pooled WebView, bound to the given context, and schedules its replacement.
+   *
+   * <p>When {@link #peekKind(String)} said {@link Kind#PRELOADED}, the page is left in place to be
+   * taken over with {@link InAppWebViewController#attach}, otherwise the WebView must be loaded.
+   *
+   * @return The pooled WebView, or {@code null} if none is ready
+   */
+  @Nullable
+  @MainThread
+  public WebView acquire(Context context, @Nullable String url) {
+    boolean preloaded = slot.isPreloaded(url);
+    InAppWebView webView = slot.take();
+    if (webView == null) return null;
+    if (!preloaded) webView.setPreloadBridge(null);
+    ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+    webView.setWebViewClient(new WebViewClient());
+    webView.onResume();
+    warmUp();
+    return webView;
+  }
+
+  @MainThread
+  private void fill() {
+    InAppWebView webView;
+    try {
+      webView = new InAppWebView(new MutableContextWrapper(application));
+    } catch (Exception e) {
+      // WebView can be missing or being updated
+      Logging.loge("Could not create pooled WebView", e);
+      slot.fillFailed();
+      return;
+    }
+    slot.filled(webView);
+    if (preloadUrl != null && isPreloadEnabled()) {
+      load(preloadUrl);
+    }
+  }
+
+  @SuppressLint({"SetJavaScriptEnabled", "AddJavascriptInterface"})
+  @MainThread
+  private void load(String url) {
+    InAppWebView webView = slot.getWebView();
+    if (webView == null) return;
+    int generation = slot.preloadStarted(url);
+    // Calls are held until the page is displayed
+    InAppWebViewBridge bridge = new InAppWebViewBridge(null);
+    webView.setPreloadBridge(bridge);
+    webView.addJavascriptInterface(bridge, InAppWebViewController.JAVASCRIPT_INTERFACE_NAME);
+    webView.getSettings().setJavaScriptEnabled(true);
+    webView.getSettings().setDomStorageEnabled(true);
+    // Nothing must play while off-screen
+    webView.getSettings().setMediaPlaybackRequiresUserGesture(true);
+    webView.setWebViewClient(new PreloadClient(generation, Uri.parse(url), bridge));
+    webView.onResume();
+    webView.loadUrl(url);
+  }
+
+  /**
+   * Keeps pre-loaded pages from having any effect until displayed: serves them the WonderPush SDK with calls held back,
+   * blocks their requests to other origins, and pauses them once rendered.
+   */
+  private class PreloadClient extends WebViewClient {
+
+    private final int generation;
+    private final Uri pageUri;
+    private final InAppWebViewBridge bridge;
+
+    PreloadClient(int generation, Uri pageUri, InAppWebViewBridge bridge) {
+      this.generation = generation;
+      this.pageUri = pageUri;
+      this.bridge = bridge;
+    }
+
+    @Nullable
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+      if (request == null || request.getUrl() == null) return super.shouldInterceptRequest(view, request);
+      Uri uri = request.getUrl();
+      if (uri.toString().startsWith(InAppWebViewController.HTML_INAPP_SDK_URL)) {
+        return new WebResourceResponse("text/javascript", "utf-8", InAppWebViewController.getJavascriptSDKInputStream(application.getResources(), bridge));
+      }
+      if (!sameOrigin(uri)) {
+        // Trackers and other third parties only see the page once displayed, which then loads it again
+        mainHandler.post(() -> slot.preloadIncomplete(generation));
+        return new WebResourceResponse("text/plain", "utf-8", 204, "No Content", Collections.emptyMap(), new ByteArrayInputStream(new byte[0]));
+      }
+      return super.shouldInterceptRequest(view, request);
+    }
+
+    private boolean sameOrigin(Uri uri) {
+      return TextUtils.equals(uri.getScheme(), pageUri.getScheme())
+          && TextUtils.equals(uri.getHost(), pageUri.getHost())
+          && uri.getPort() == pageUri.getPort();
+    }
+
+    @Override
+    public boolean shouldOverrideUrlLoading(WebView view, String url) {
+      // No navigation away from the pre-loaded page
+      return true;
+    }
+
+    @Override
+    public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+      super.onReceivedError(view, request, error);
+      slot.preloadIncomplete(generation);
+    }
+
+    @Override
+    public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
+      super.onReceivedHttpError(view, request, errorResponse);
+      slot.preloadIncomplete(generation);
+    }
+
+    @Override
+    public void onPageFinished(WebView view, String url) {
+      super.onPageFinished(view, url);
+      slot.preloadFinished(generation);
+      view.onPause();
+    }
+  }
+
+  /**
+   * Records the time between the trigger of a web view in-app message and its display.
+   */
+  public void recordDisplayLatency(Kind kind, long millis) {
+    latencyStats[kind.ordinal()].record(millis);
+    Logging.logd("Web view in-app displayed " + millis + "ms after its trigger (" + kind + " WebView)");
+  }
+
+  public LatencyStats getLatencyStats(Kind kind) {
+    return latencyStats[kind.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("InAppWebViewPool{");
+    for (Kind kind : Kind.values()) {
+      if (kind.ordinal() > 0) sb.append(", ");
+      sb.append(kind).append('=').append(latencyStats[kind.ordinal()]);
+    }
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Trigger-to-visible latencies of the in-app messages displayed with one {@link Kind} of WebView.
+   */
+  public static class LatencyStats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    void record(long millis) {
+      count.incrementAndGet();
+      totalMillis.addAndGet(millis);
+      long max;
+      do {
+        max = maxMillis.get();
+      } while (millis > max && !maxMillis.compareAndSet(max, millis));
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getAverageMillis() {
+      long count = this.count.get();
+      return count == 0 ? 0 : totalMillis.get() / count;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+      return "{count=" + getCount() + ", avgMillis=" + getAverageMillis() + ", maxMillis=" + getMaxMillis() + '}';
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The state of the WebView kept by {@link InAppWebViewPool}, apart from the WebView itself so that its transitions can be tested.
+ *
+ * <p>A page only counts as pre-loaded once it finished loading without any request being held back,
+ * it can then be displayed as-is. Otherwise the WebView is handed out as a blank one and the page loaded again.
+ */
+class InAppWebViewPoolSlot<W> {
+
+  enum State {
+    /** No WebView. */
+    EMPTY,
+    /** The WebView will be created the next time the main thread is idle. */
+    FILL_SCHEDULED,
+    /** The WebView is ready, without any page. */
+    IDLE,
+    /** The WebView is loading a page off-screen. */
+    PRELOADING,
+    /** The WebView holds a page that loaded completely, ready to be displayed as-is. */
+    PRELOADED,
+  }
+
+  private State state = State.EMPTY;
+  @Nullable private W webView;
+  @Nullable private String url;
+  private int generation;
+  private boolean complete;
+
+  State getState() {
+    return state;
+  }
+
+  @Nullable
+  String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return {@code false} if a WebView is already there or scheduled
+   */
+  boolean scheduleFill() {
+    if (state != State.EMPTY) return false;
+    state = State.FILL_SCHEDULED;
+    return true;
+  }
+
+  void filled(W webView) {
+    this.webView = webView;
+    this.url = null;
+    state = State.IDLE;
+  }
+
+  void fillFailed() {
+    if (state == State.FILL_SCHEDULED) state = State.EMPTY;
+  }
+
+  /**
+   * Tells whether the WebView should start loading the given page.
+   */
+  boolean shouldPreload(@Nullable String url) {
+    return webView != null && url != null && !url.equals(this.url);
+  }
+
+  /**
+   * @return The generation to pass to the callbacks of this load, those of previous loads are ignored
+   */
+  int preloadStarted(String url) {
+    this.url = url;
+    complete = true;
+    state = State.PRELOADING;
+    return ++generation;
+  }
+
+  /**
+   * Records that a request of the page was held back or failed, so that it must be loaded again to be displayed.
+   */
+  void preloadIncomplete(int generation) {
+    if (generation != this.generation) return;
+    complete = false;
+    // The page also made such a request after it finished loading
+    if (state == State.PRELOADED) state = State.IDLE;
+  }
+
+  void preloadFinished(int generation) {
+    if (generation != this.generation || state != State.PRELOADING) return;
+    if (complete) {
+      state = State.PRELOADED;
+    } else {
+      // Keep the url so that the same page is not pre-loaded again in a loop
+      state = State.IDLE;
+    }
+  }
+
+  @Nullable
+  W getWebView() {
+    return webView;
+  }
+
+  boolean hasWebView() {
+    return webView != null;
+  }
+
+  /**
+   * Tells whether the given page is pre-loaded and can be displayed without loading it again.
+   */
+  boolean isPreloaded(@Nullable String url) {
+    return state == State.PRELOADED && url != null && url.equals(this.url);
+  }
+
+  /**
+   * Hands out the WebView and empties the slot.
+   */
+  @Nullable
+  W take() {
+    W taken = webView;
+    webView = null;
+    url = null;
+    generation++;
+    if (state != State.FILL_SCHEDULED) state = State.EMPTY;
+    return taken;
+  }
+
+}
@@ -0,0 +1,584 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import android.app.Application;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessagingScope;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Disk cache of the resources loaded by web view in-app messages, so that showing a message again
+ * does not hit the network.
+ *
+ * <p>Only static assets are handled, see {@link #isCacheable(String)}, the page itself and its API calls
+ * are left to the WebView along with its cookies.
+ * Resource contents are stored once per SHA-256, and referenced by url for each campaign.
+ * The resources of a campaign are dropped when its version changes.
+ * Contents are evicted in least recently used order to stay within a size bound.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class InAppWebViewResourceCache {
+  static final String CACHE_DIRECTORY = "wonderpush-iam-webview";
+  static final long CACHE_MAX_SIZE = 20 * 1024 * 1024;
+  private static final String INDEX_FILE = "index.json";
+  private static final String BLOBS_DIRECTORY = "blobs";
+  private static final Set<String> CACHEABLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+      "css", "js", "mjs", "json",
+      "png", "jpg", "jpeg", "gif", "webp", "svg", "ico", "avif",
+      "woff", "woff2", "ttf", "otf", "eot"));
+  /**
+   * Response headers that do not describe the decoded body handed to the WebView, or that the WebView ignores.
+   */
+  private static final Set<String> DROPPED_HEADERS = new HashSet<>(Arrays.asList(
+      "content-encoding", "content-length", "transfer-encoding", "connection", "keep-alive", "set-cookie"));
+
+  /**
+   * A resource ready to be handed to the WebView.
+   */
+  public static class Resource {
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final String mimeType;
+    @Nullable private final String encoding;
+    private final Map<String, String> headers;
+    private final InputStream data;
+
+    Resource(String mimeType, @Nullable String encoding, Map<String, String> headers, InputStream data) {
+      this(200, "OK", mimeType, encoding, headers, data);
+    }
+
+    Resource(int statusCode, String reasonPhrase, String mimeType, @Nullable String encoding, Map<String, String> headers, InputStream data) {
+      this.statusCode = statusCode;
+      this.reasonPhrase = reasonPhrase;
+      this.mimeType = mimeType;
+      this.encoding = encoding;
+      this.headers = headers;
+      this.data = data;
+    }
+
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    public String getReasonPhrase() {
+      return reasonPhrase;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    @Nullable
+    public String getEncoding() {
+      return encoding;
+    }
+
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+
+    public InputStream getData() {
+      return data;
+    }
+  }
+
+  private static class CachedUrl {
+    final String hash;
+    final String mimeType;
+    @Nullable final String encoding;
+    final Map<String, String> headers;
+
+    CachedUrl(String hash, String mimeType, @Nullable String encoding, Map<String, String> headers) {
+      this.hash = hash;
+      this.mimeType = mimeType;
+      this.encoding = encoding;
+      this.headers = headers;
+    }
+  }
+
+  private static class CachedCampaign {
+    final String version;
+    final Map<String, CachedUrl> urls = new HashMap<>();
+
+    CachedCampaign(String version) {
+      this.version = version;
+    }
+  }
+
+  private final File directory;
+  private final File blobsDirectory;
+  private final long maxBytes;
+  private final Provider<OkHttpClient> clientProvider;
+  private final Executor indexWriter;
+  private OkHttpClient client;
+
+  // Guarded by this
+  private boolean loaded;
+  private boolean saveScheduled;
+  private final Map<String, CachedCampaign> campaigns = new HashMap<>();
+  // Blob hash to size, in access order
+  private final LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong networkLoads = new AtomicLong();
+
+  @Inject
+  InAppWebViewResourceCache(Application application, Provider<OkHttpClient> imageHttpClient) {
+    this(new File(application.getCacheDir(), CACHE_DIRECTORY), CACHE_MAX_SIZE, () -> {
+      // Share connections with the image client, but neither its HTTP cache nor its interceptors.
+      // Redirects are followed here, the WebView does not accept them from intercepted requests
+      OkHttpClient.Builder builder = imageHttpClient.get().newBuilder()
+          .cache(null)
+          .followRedirects(true)
+          .followSslRedirects(true);
+      builder.interceptors().clear();
+      return builder.build();
+    }, Executors.newSingleThreadExecutor());
+  }
+
+  InAppWebViewResourceCache(File directory, long maxBytes, Provider<OkHttpClient> clientProvider, Executor indexWriter) {
+    this.directory = directory;
+    this.blobsDirectory = new File(directory, BLOBS_DIRECTORY);
+    this.maxBytes = maxBytes;
+    this.clientProvider = clientProvider;
+    this.indexWriter = indexWriter;
+  }
+
+  /**
+   * Tells whether the given url is a static asset this cache handles, judging from its extension.
+   */
+  public static boolean isCacheable(@Nullable String url) {
+    if (url == null || (!url.startsWith("http:") && !url.startsWith("https:"))) return false;
+    int end = url.length();
+    int fragment = url.indexOf('#');
+    if (fragment >= 0) end = fragment;
+    int query = url.indexOf('?');
+    if (query >= 0 && query < end) end = query;
+    int slash = url.lastIndexOf('/', end - 1);
+    int dot = url.lastIndexOf('.', end - 1);
+    if (dot <= slash) return false;
+    return CACHEABLE_EXTENSIONS.contains(url.substring(dot + 1, end).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns the given resource of the given campaign, from the disk cache or from the network.
+   *
+   * <p>Blocks on I/O, to be called from a background thread such as the ones calling
+   * {@link android.webkit.WebViewClient#shouldInterceptRequest}.
+   *
+   * @param campaignId The campaign displaying the resource
+   * @param version The version of the campaign, resources of other versions are discarded
+   * @param url The url of the resource
+   * @param requestHeaders Headers to send when loading from the network
+   * @return The resource, possibly an error response passed through as-is,
+   * or {@code null} if it is not {@link #isCacheable(String) cacheable} or could not be loaded, and must be loaded by the WebView itself
+   */
+  @Nullable
+  public Resource get(String campaignId, String version, String url, Map<String, String> requestHeaders) {
+    if (!isCacheable(url)) return null;
+    Resource cached = getCached(campaignId, version, url);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    try {
+      return fetch(campaignId, version, url, requestHeaders);
+    } catch (IOException | IllegalArgumentException e) {
+      Logging.logd("Could not cache in-app resource " + url + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private synchronized Resource getCached(String campaignId, String version, String url) {
+    CachedCampaign campaign = campaignOfVersion(campaignId, version);
+    CachedUrl cachedUrl = campaign.urls.get(url);
+    if (cachedUrl == null) return null;
+    try {
+      InputStream data = new FileInputStream(blobFile(cachedUrl.hash));
+      blobs.get(cachedUrl.hash); // Mark as recently used
+      return new Resource(cachedUrl.mimeType, cachedUrl.encoding, cachedUrl.headers, data);
+    } catch (IOException e) {
+      // Deleted behind our back
+      campaign.urls.remove(url);
+      return null;
+    }
+  }
+
+  @Nullable
+  private Resource fetch(String campaignId, String version, String url, Map<String, String> requestHeaders) throws IOException {
+    Request.Builder requestBuilder = new Request.Builder().url(url);
+    for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+      // Let OkHttp negotiate compression, so that the body is decoded
+      if ("accept-encoding".equalsIgnoreCase(header.getKey())) continue;
+      requestBuilder.header(header.getKey(), header.getValue());
+    }
+    Response response = client().newCall(requestBuilder.build()).execute();
+    boolean handedOut = false;
+    try {
+      ResponseBody body = response.body();
+      if (body == null) return null;
+      // The WebView rejects redirects, like a 304 answering its own validators
+      if (response.code() >= 300 && response.code() < 400) return null;
+
+      MediaType contentType = body.contentType();
+      String mimeType = contentType != null ? contentType.type() + "/" + contentType.subtype() : "application/octet-stream";
+      String encoding = contentType != null && contentType.charset() != null ? contentType.charset().name() : null;
+      Map<String, String> headers = Collections.unmodifiableMap(passedHeaders(response));
+
+      long limit = maxBytes / 4;
+      if (response.code() != 200 || response.cacheControl().noStore() || body.contentLength() > limit) {
+        // Served as-is without being stored, rather than making the WebView load it again
+        handedOut = true;
+        return new Resource(response.code(), reasonPhrase(response), mimeType, encoding, headers, body.byteStream());
+      }
+
+      networkLoads.incrementAndGet();
+      if (!blobsDirectory.isDirectory() && !blobsDirectory.mkdirs()) {
+        throw new IOException("Could not create " + blobsDirectory);
+      }
+      File tempFile = new File(blobsDirectory, UUID.randomUUID().toString() + ".tmp");
+      MessageDigest digest = sha256();
+      long size = 0;
+      InputStream input = body.byteStream();
+      try (OutputStream output = new FileOutputStream(tempFile)) {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+          output.write(buffer, 0, read);
+          size += read;
+          if (size > limit) break;
+        }
+      } catch (IOException e) {
+        tempFile.delete();
+        throw e;
+      }
+      if (size > limit) {
+        // Bigger than announced, too big to be worth evicting everything else: serve what was read followed by the rest
+        handedOut = true;
+        return new Resource(mimeType, encoding, headers, new SequenceInputStream(new DeleteOnCloseInputStream(tempFile), input));
+      }
+      return store(campaignId, version, url, tempFile, toHex(digest.digest()), size, mimeType, encoding, headers);
+    } finally {
+      if (!handedOut) response.close();
+    }
+  }
+
+  private Resource store(String campaignId, String version, String url, File tempFile, String hash, long size,
+                         String mimeType, @Nullable String encoding, Map<String, String> headers) throws IOException {
+    File blobFile = blobFile(hash);
+    synchronized (this) {
+      if (blobFile.exists()) {
+        tempFile.delete();
+      } else if (!tempFile.renameTo(blobFile)) {
+        tempFile.delete();
+        throw new IOException("Could not store " + blobFile);
+      }
+      if (!blobs.containsKey(hash)) {
+        blobs.put(hash, size);
+        totalBytes += size;
+      }
+      campaignOfVersion(campaignId, version).urls.put(url, new CachedUrl(hash, mimeType, encoding, headers));
+      evict(hash);
+      scheduleSaveIndex();
+      return new Resource(mimeType, encoding, headers, new FileInputStream(blobFile));
+    }
+  }
+
+  private static Map<String, String> passedHeaders(Response response) {
+    Map<String, String> headers = new HashMap<>();
+    for (String name : response.headers().names()) {
+      if (DROPPED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) continue;
+      StringBuilder value = new StringBuilder();
+      for (String part : response.headers(name)) {
+        if (value.length() > 0) value.append(", ");
+        value.append(part);
+      }
+      headers.put(name, value.toString());
+    }
+    return headers;
+  }
+
+  private static String reasonPhrase(Response response) {
+    // Mandatory for the WebView, and empty over HTTP/2
+    String message = response.message();
+    return message == null || message.isEmpty() ? (response.code() == 200 ? "OK" : "HTTP " + response.code()) : message;
+  }
+
+  private synchronized OkHttpClient client() {
+    if (client == null) client = clientProvider.get();
+    return client;
+  }
+
+  /**
+   * Returns the cached resources of the given campaign, dropping them if they are of another version.
+   */
+  private CachedCampaign campaignOfVersion(String campaignId, String version) {
+    load();
+    CachedCampaign campaign = campaigns.get(campaignId);
+    if (campaign == null || !campaign.version.equals(version)) {
+      boolean hadOtherVersion = campaign != null;
+      campaign = new CachedCampaign(version);
+      campaigns.put(campaignId, campaign);
+      if (hadOtherVersion) {
+        deleteUnreferencedBlobs();
+        scheduleSaveIndex();
+      }
+    }
+    return campaign;
+  }
+
+  /**
+   * Evicts the least recently used contents, except the given one, until the cache fits its size bound.
+   */
+  private void evict(String keptHash) {
+    Iterator<Map.Entry<String, Long>> it = blobs.entrySet().iterator();
+    Set<String> evicted = new HashSet<>();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Long> blob = it.next();
+      if (blob.getKey().equals(keptHash)) continue;
+      it.remove();
+      totalBytes -= blob.getValue();
+      blobFile(blob.getKey()).delete();
+      evicted.add(blob.getKey());
+    }
+    if (evicted.isEmpty()) return;
+    for (CachedCampaign campaign : campaigns.values()) {
+      Iterator<CachedUrl> urls = campaign.urls.values().iterator();
+      while (urls.hasNext()) {
+        if (evicted.contains(urls.next().hash)) urls.remove();
+      }
+    }
+  }
+
+  private void deleteUnreferencedBlobs() {
+    Set<String> referenced = new HashSet<>();
+    for (CachedCampaign campaign : campaigns.values()) {
+      for (CachedUrl cachedUrl : campaign.urls.values()) {
+        referenced.add(cachedUrl.hash);
+      }
+    }
+    Iterator<Map.Entry<String, Long>> it = blobs.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Long> blob = it.next();
+      if (referenced.contains(blob.getKey())) continue;
+      it.remove();
+      totalBytes -= blob.getValue();
+      blobFile(blob.getKey()).delete();
+    }
+  }
+
+  private File blobFile(String hash) {
+    return new File(blobsDirectory, hash);
+  }
+
+  private void load() {
+    if (loaded) return;
+    loaded = true;
+    File indexFile = new File(directory, INDEX_FILE);
+    if (indexFile.exists()) {
+      try (InputStream input = new FileInputStream(indexFile)) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+          content.write(buffer, 0, read);
+        }
+        readIndex(new JSONObject(content.toString("UTF-8")));
+      } catch (IOException | JSONException e) {
+        Logging.logd("Could not read the in-app resource cache index: " + e.getMessage());
+        campaigns.clear();
+        blobs.clear();
+        totalBytes = 0;
+      }
+    }
+    // Drop what the index does not know about, like the leftovers of an interrupted download
+    File[] files = blobsDirectory.listFiles();
+    for (int i = 0; files != null && i < files.length; i++) {
+      if (!blobs.containsKey(files[i].getName())) files[i].delete();
+    }
+  }
+
+  private void readIndex(JSONObject index) throws JSONException {
+    JSONArray blobsJson = index.getJSONArray("blobs");
+    for (int i = 0; i < blobsJson.length(); i++) {
+      JSONObject blob = blobsJson.getJSONObject(i);
+      String hash = blob.getString("hash");
+      long size = blob.getLong("size");
+      if (!blobFile(hash).exists()) continue;
+      blobs.put(hash, size);
+      totalBytes += size;
+    }
+    JSONObject campaignsJson = index.getJSONObject("campaigns");
+    Iterator<String> campaignIds = campaignsJson.keys();
+    while (campaignIds.hasNext()) {
+      String campaignId = campaignIds.next();
+      JSONObject campaignJson = campaignsJson.getJSONObject(campaignId);
+      CachedCampaign campaign = new CachedCampaign(campaignJson.getString("version"));
+      JSONObject urlsJson = campaignJson.getJSONObject("urls");
+      Iterator<String> urls = urlsJson.keys();
+      while (urls.hasNext()) {
+        String url = urls.next();
+        JSONObject urlJson = urlsJson.getJSONObject(url);
+        String hash = urlJson.getString("hash");
+        if (!blobs.containsKey(hash)) continue;
+        Map<String, String> headers = new HashMap<>();
+        JSONObject headersJson = urlJson.optJSONObject("headers");
+        Iterator<String> headerNames = headersJson != null ? headersJson.keys() : Collections.<String>emptyIterator();
+        while (headerNames.hasNext()) {
+          String name = headerNames.next();
+          headers.put(name, headersJson.getString(name));
+        }
+        campaign.urls.put(url, new CachedUrl(hash, urlJson.getString("mimeType"),
+            urlJson.isNull("encoding") ? null : urlJson.optString("encoding", null),
+            Collections.unmodifiableMap(headers)));
+      }
+      campaigns.put(campaignId, campaign);
+    }
+  }
+
+  /**
+   * Writes the index in the background, once for all the changes made meanwhile.
+   */
+  private void scheduleSaveIndex() {
+    if (saveScheduled) return;
+    saveScheduled = true;
+    indexWriter.execute(this::saveIndex);
+  }
+
+  private void saveIndex() {
+    JSONObject index;
+    synchronized (this) {
+      saveScheduled = false;
+      try {
+        index = indexJSON();
+      } catch (JSONException e) {
+        Logging.loge("Could not save the in-app resource cache index", e);
+        return;
+      }
+    }
+    try {
+      // Write atomically, a partial index would be discarded along with all the contents
+      File indexFile = new File(directory, INDEX_FILE);
+      File tempFile = new File(directory, INDEX_FILE + ".tmp");
+      try (OutputStream output = new FileOutputStream(tempFile)) {
+        output.write(index.toString().getBytes("UTF-8"));
+      }
+      if (!tempFile.renameTo(indexFile)) {
+        throw new IOException("Could not rename " + tempFile);
+      }
+    } catch (IOException e) {
+      Logging.loge("Could not save the in-app resource cache index", e);
+    }
+  }
+
+  private JSONObject indexJSON() throws JSONException {
+    JSONArray blobsJson = new JSONArray();
+    for (Map.Entry<String, Long> blob : blobs.entrySet()) {
+      blobsJson.put(new JSONObject().put("hash", blob.getKey()).put("size", blob.getValue()));
+    }
+    JSONObject campaignsJson = new JSONObject();
+    for (Map.Entry<String, CachedCampaign> campaign : campaigns.entrySet()) {
+      JSONObject urlsJson = new JSONObject();
+      for (Map.Entry<String, CachedUrl> url : campaign.getValue().urls.entrySet()) {
+        CachedUrl cachedUrl = url.getValue();
+        urlsJson.put(url.getKey(), new JSONObject()
+            .put("hash", cachedUrl.hash)
+            .put("mimeType", cachedUrl.mimeType)
+            .put("encoding", cachedUrl.encoding)
+            .put("headers", new JSONObject(cachedUrl.headers)));
+      }
+      campaignsJson.put(campaign.getKey(), new JSONObject()
+          .put("version", campaign.getValue().version)
+          .put("urls", urlsJson));
+    }
+    return new JSONObject().put("blobs", blobsJson).put("campaigns", campaignsJson);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getNetworkLoads() {
+    return networkLoads.get();
+  }
+
+  public synchronized long getSize() {
+    load();
+    return totalBytes;
+  }
+
+  private static class DeleteOnCloseInputStream extends FilterInputStream {
+    private final File file;
+
+    DeleteOnCloseInputStream(File file) throws IOException {
+      super(new FileInputStream(file));
+      this.file = file;
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      file.delete();
+    }
+  }
+
+}
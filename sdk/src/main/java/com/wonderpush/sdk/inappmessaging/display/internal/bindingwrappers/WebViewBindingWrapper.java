@@ -11,6 +11,7 @@ import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.webkit.WebView;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
@@ -19,6 +20,7 @@ import androidx.annotation.RestrictTo;
 
 import com.wonderpush.sdk.R;
 import com.wonderpush.sdk.inappmessaging.display.internal.InAppMessageLayoutConfig;
+import com.wonderpush.sdk.inappmessaging.display.internal.InAppWebView;
 import com.wonderpush.sdk.inappmessaging.display.internal.Logging;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessageScope;
 import com.wonderpush.sdk.inappmessaging.display.internal.layout.IamRelativeLayout;
@@ -44,6 +46,7 @@ public class WebViewBindingWrapper extends BindingWrapper {
 
     private WebView webView;
     private Button collapseButton;
+    @Nullable private WebView pooledWebView;
 
     @Inject
     @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
@@ -51,6 +54,13 @@ public class WebViewBindingWrapper extends BindingWrapper {
         super(displayBounds, config, inflater, message);
     }
 
+    /**
+     * Uses the given ready-made WebView instead of creating a new one.
+     */
+    public void setPooledWebView(@Nullable WebView pooledWebView) {
+        this.pooledWebView = pooledWebView;
+    }
+
     @Nullable
     @Override
     public View getDismissView() {
@@ -95,7 +105,11 @@ public class WebViewBindingWrapper extends BindingWrapper {
         try {
             View v = inflater.inflate(R.layout.wonderpush_android_sdk_webview, null);
             webViewRoot = v.findViewById(R.id.webview_root);
-            webView = (WebView) v.findViewById(R.id.webview);
+            FrameLayout webViewContainer = v.findViewById(R.id.webview_container);
+            webView = pooledWebView != null ? pooledWebView : new InAppWebView(inflater.getContext());
+            webViewContainer.addView(webView, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.MATCH_PARENT));
             webView.setBackgroundColor(Color.TRANSPARENT);
             collapseButton = v.findViewById(R.id.collapse_button);
 
@@ -15,22 +15,21 @@
 package com.wonderpush.sdk.inappmessaging.display.internal.injection.modules;
 
 import android.app.Application;
-import android.net.TrafficStats;
-import android.os.Process;
 
 import com.squareup.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
+import com.wonderpush.sdk.ResourcesHttpClient;
+import com.wonderpush.sdk.inappmessaging.display.internal.IamImageCacheMetrics;
 import com.wonderpush.sdk.inappmessaging.display.internal.PicassoErrorListener;
 import com.wonderpush.sdk.inappmessaging.display.internal.injection.scopes.InAppMessagingScope;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
 
 import dagger.Module;
 import dagger.Provides;
-import okhttp3.Call;
-import okhttp3.EventListener;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.Cache;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Response;
@@ -38,12 +37,26 @@ import okhttp3.Response;
 /** @hide */
 @Module
 public class PicassoModule {
+  // Images used to have their own cache, before sharing the one of notification resources
+  static final String LEGACY_IMAGE_CACHE_DIRECTORY = "wonderpush-iam-images";
+
+  /**
+   * The client used to load in-app images, its disk cache is shared by Picasso, the image prefetcher
+   * and the notification resources.
+   */
   @Provides
   @InAppMessagingScope
-  Picasso providesIamController(
-      Application application, PicassoErrorListener picassoErrorListener) {
-    OkHttpClient client =
-        new OkHttpClient.Builder()
+  OkHttpClient providesImageHttpClient(Application application, IamImageCacheMetrics metrics) {
+    File legacyCacheDirectory = new File(application.getCacheDir(), LEGACY_IMAGE_CACHE_DIRECTORY);
+    Schedulers.io().scheduleDirect(() -> {
+      try {
+        if (legacyCacheDirectory.exists()) new Cache(legacyCacheDirectory, 1).delete();
+      } catch (IOException ignored) {
+      }
+    });
+    return
+        ResourcesHttpClient.get(application).newBuilder()
+            .addInterceptor(metrics)
             .addInterceptor(
                 new Interceptor() {
                   @Override
@@ -53,14 +66,13 @@ public class PicassoModule {
                   }
                 }
             )
-            .eventListener(new EventListener() {
-                @Override
-                public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
-                    TrafficStats.setThreadStatsTag(Process.myTid());
-                }
-            })
             .build();
+  }
 
+  @Provides
+  @InAppMessagingScope
+  Picasso providesIamController(
+      Application application, PicassoErrorListener picassoErrorListener, OkHttpClient client) {
     Picasso.Builder builder = new Picasso.Builder(application);
     builder.listener(picassoErrorListener).downloader(new OkHttp3Downloader(client));
     return builder.build();
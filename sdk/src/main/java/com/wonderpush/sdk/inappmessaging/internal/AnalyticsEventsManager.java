@@ -20,21 +20,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.text.TextUtils;
 
 import com.wonderpush.sdk.WonderPush;
 import com.wonderpush.sdk.inappmessaging.internal.injection.scopes.InAppMessagingScope;
-import com.wonderpush.sdk.inappmessaging.model.Campaign;
-import com.wonderpush.sdk.inappmessaging.model.CommonTypesProto;
 import com.wonderpush.sdk.inappmessaging.model.EventOccurrence;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 import javax.inject.Inject;
 
 import io.reactivex.BackpressureStrategy;
@@ -51,14 +44,15 @@ import io.reactivex.flowables.ConnectableFlowable;
 @InAppMessagingScope
 public class AnalyticsEventsManager {
   private final ConnectableFlowable<EventOccurrence> flowable;
-  private Set<String> analyticsEventNames;
+  private final ContextualTriggerFilter contextualTriggerFilter = new ContextualTriggerFilter();
   private Application application;
 
   @Inject
   public AnalyticsEventsManager(Application application) {
     this.application = application;
     AnalyticsFlowableSubscriber subscriber = new AnalyticsFlowableSubscriber();
-    flowable = Flowable.<EventOccurrence>create(subscriber, BackpressureStrategy.BUFFER).publish();
+    // Bounding and coalescing happen in the TriggerQueue, which consumes events as they come
+    flowable = Flowable.<EventOccurrence>create(subscriber, BackpressureStrategy.DROP).publish();
 
     // We ignore the subscription since this connected flowable is expected to last the lifetime of
     // the app, but this calls the 'subscribe' method of the subscriber, which registers the handle
@@ -69,23 +63,17 @@ public class AnalyticsEventsManager {
     return flowable;
   }
 
-  //@VisibleForTesting
-  static Set<String> extractAnalyticsEventNames(List<Campaign> campaigns) {
-    Set<String> analyticsEvents = new HashSet<>();
-    for (Campaign campaign : campaigns) {
-      for (CommonTypesProto.TriggeringCondition condition : campaign.getTriggeringConditions()) {
-        if (condition.getEvent() != null && !TextUtils.isEmpty(condition.getEvent().getName())) {
-          analyticsEvents.add(condition.getEvent().getName());
-        }
-      }
-    }
-    return analyticsEvents;
+  public void updateContextualTriggers(ParsedCampaigns parsedCampaigns) {
+    contextualTriggerFilter.update(parsedCampaigns.getAnalyticsEventNames());
+    Logging.logd(
+            "Updating contextual triggers for the following analytics events: " + parsedCampaigns.getAnalyticsEventNames());
   }
 
-  public void updateContextualTriggers(List<Campaign> campaigns) {
-    Logging.logd(
-            "Updating contextual triggers for the following analytics events: " + analyticsEventNames);
-    analyticsEventNames = extractAnalyticsEventNames(campaigns);
+  /**
+   * Tells whether some campaign listens to the given event, events that are not are dropped before entering the pipeline.
+   */
+  boolean isContextualTrigger(String eventType) {
+    return contextualTriggerFilter.accepts(eventType);
   }
 
   private class AnalyticsFlowableSubscriber implements FlowableOnSubscribe<EventOccurrence> {
@@ -100,6 +88,7 @@ public class AnalyticsEventsManager {
                 @Override
                 public void onReceive(Context context, Intent intent) {
                   String eventType = intent.getStringExtra(WonderPush.INTENT_EVENT_TRACKED_EVENT_TYPE);
+                  if (!isContextualTrigger(eventType)) return;
                   EventOccurrence occurrence = new EventOccurrence();
                   occurrence.eventType = eventType;
                   occurrence.allTimeOccurrences = 0L;
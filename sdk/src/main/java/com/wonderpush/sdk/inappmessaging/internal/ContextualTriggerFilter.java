@@ -0,0 +1,27 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import androidx.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * Tells which analytics events some campaign listens to, so that the others are dropped before entering the pipeline.
+ *
+ * Kept up to date whenever campaigns are parsed, including when the remote config changes
+ * before any event reached the pipeline.
+ */
+class ContextualTriggerFilter {
+
+  // Null until the campaigns are known, all events are let through until then
+  private volatile Set<String> analyticsEventNames;
+
+  void update(Set<String> analyticsEventNames) {
+    this.analyticsEventNames = analyticsEventNames;
+  }
+
+  boolean accepts(@Nullable String eventType) {
+    Set<String> names = analyticsEventNames;
+    return names == null || names.contains(eventType);
+  }
+
+}
@@ -14,6 +14,8 @@
 
 package com.wonderpush.sdk.inappmessaging.internal;
 
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.inappmessaging.InAppMessagingDisplayCallbacks;
 import com.wonderpush.sdk.inappmessaging.internal.injection.qualifiers.AppForeground;
 import com.wonderpush.sdk.inappmessaging.internal.time.Clock;
@@ -43,6 +45,11 @@ public class DisplayCallbacksFactory {
 
   public InAppMessagingDisplayCallbacks generateDisplayCallback(
           InAppMessage inAppMessage, String triggeringEvent) {
+    return generateDisplayCallback(inAppMessage, triggeringEvent, null);
+  }
+
+  public InAppMessagingDisplayCallbacks generateDisplayCallback(
+          InAppMessage inAppMessage, String triggeringEvent, @Nullable TriggerSpan triggerSpan) {
 
     return new DisplayCallbacksImpl(
         impressionStorageClient,
@@ -50,6 +57,7 @@ public class DisplayCallbacksFactory {
         appForegroundRateLimit,
         metricsLoggerClient,
         inAppMessage,
-        triggeringEvent);
+        triggeringEvent,
+        triggerSpan);
   }
 }
@@ -35,6 +35,7 @@ public class DisplayCallbacksImpl implements InAppMessagingDisplayCallbacks {
   private final MetricsLoggerClient metricsLoggerClient;
   private final InAppMessage inAppMessage;
   private final String triggeringEvent;
+  @Nullable private final TriggerSpan triggerSpan;
 
   private static boolean wasImpressed;
   private static final String MESSAGE_CLICK = "message click to metrics logger";
@@ -45,18 +46,28 @@ public class DisplayCallbacksImpl implements InAppMessagingDisplayCallbacks {
       RateLimit appForegroundRateLimit,
       MetricsLoggerClient metricsLoggerClient,
       InAppMessage inAppMessage,
-      String triggeringEvent) {
+      String triggeringEvent,
+      @Nullable TriggerSpan triggerSpan) {
     this.impressionStorageClient = impressionStorageClient;
     this.clock = clock;
     this.appForegroundRateLimit = appForegroundRateLimit;
     this.metricsLoggerClient = metricsLoggerClient;
     this.inAppMessage = inAppMessage;
     this.triggeringEvent = triggeringEvent;
+    this.triggerSpan = triggerSpan;
 
     // just to be explicit
     wasImpressed = false;
   }
 
+  /**
+   * Returns the timings of the trigger of the message, to be completed by the display layer.
+   */
+  @Nullable
+  public TriggerSpan getTriggerSpan() {
+    return triggerSpan;
+  }
+
   @Override
   public void impressionDetected() {
 
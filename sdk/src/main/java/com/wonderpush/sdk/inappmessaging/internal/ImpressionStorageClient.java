@@ -19,6 +19,10 @@ import com.wonderpush.sdk.inappmessaging.model.Campaign;
 import com.wonderpush.sdk.inappmessaging.model.CampaignImpression;
 import com.wonderpush.sdk.inappmessaging.model.CampaignImpressionList;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -29,55 +33,112 @@ import io.reactivex.Single;
 /**
  * Class to store and retrieve in app message impressions
  *
+ * <p>Impressions are kept in memory by campaign id, loaded once from file storage in the background.
+ * Changes are persisted after a short delay, grouping the impressions happening meanwhile.
+ *
  * @hide
  */
 @Singleton
 public class ImpressionStorageClient {
+  static final long PERSIST_DELAY_MS = 1000;
+
   private final ProtoStorageClient storageClient;
-  private Maybe<CampaignImpressionList> cachedImpressionsMaybe = Maybe.empty();
+  private final Schedulers schedulers;
+  // Guarded by this
+  private final Map<String, CampaignImpression> impressionsByCampaignId = new HashMap<>();
+  private boolean persistScheduled;
+  // Completes once the stored impressions are merged into memory, even if they could not be read
+  private final Completable loaded;
 
   @Inject
-  ImpressionStorageClient(@ImpressionStore ProtoStorageClient storageClient) {
+  ImpressionStorageClient(@ImpressionStore ProtoStorageClient storageClient, Schedulers schedulers) {
     this.storageClient = storageClient;
+    this.schedulers = schedulers;
+    this.loaded =
+        storageClient
+            .read(CampaignImpressionList.class)
+            .subscribeOn(schedulers.io())
+            .doOnSuccess(this::mergeStoredImpressions)
+            .doOnError(e -> Logging.logw("Impression store read fail: " + e.getMessage()))
+            .ignoreElement()
+            .onErrorComplete()
+            .cache();
+    // Start loading right away
+    loaded.subscribe();
   }
 
-  private static CampaignImpressionList appendImpression(
-      CampaignImpressionList campaignImpressions, CampaignImpression impression) {
-    CampaignImpressionList rtn = new CampaignImpressionList(campaignImpressions);
-    // Collapse impressions by campaign ID
-    boolean campaignIdFound = false;
-    String campaignId = impression.getCampaignId();
-    for (int i = 0; i < rtn.getAlreadySeenCampaignsCount(); i++) {
-      CampaignImpression currentImpression = rtn.getAlreadySeenCampaigns(i);
-      if (campaignId != null && campaignId.equals(currentImpression.getCampaignId())) {
-        campaignIdFound = true;
-        impression.setImpressionCount(impression.getImpressionCount() + currentImpression.getImpressionCount());
-        rtn.setAlreadySeenCampaigns(i, impression);
-        break;
+  private synchronized void mergeStoredImpressions(CampaignImpressionList storedImpressions) {
+    for (CampaignImpression stored : storedImpressions.getCampaignImpressionList()) {
+      String campaignId = stored.getCampaignId();
+      if (campaignId == null) continue;
+      // Impressions stored in memory meanwhile happened after the stored ones
+      CampaignImpression impression = impressionsByCampaignId.get(campaignId);
+      if (impression == null) {
+        impressionsByCampaignId.put(campaignId, copy(stored));
+      } else {
+        impression.setImpressionCount(impression.getImpressionCount() + stored.getImpressionCount());
+        impression.setImpressionTimestampMillis(Math.max(impression.getImpressionTimestampMillis(), stored.getImpressionTimestampMillis()));
       }
     }
-    if (!campaignIdFound) {
-      rtn.addAlreadySeenCampaigns(impression);
-    }
+  }
+
+  private static CampaignImpression copy(CampaignImpression impression) {
+    CampaignImpression rtn = new CampaignImpression();
+    rtn.setCampaignId(impression.getCampaignId());
+    rtn.setImpressionCount(impression.getImpressionCount());
+    rtn.setImpressionTimestampMillis(impression.getImpressionTimestampMillis());
     return rtn;
   }
 
-  /** Stores the provided {@link CampaignImpression} to file storage */
+  /**
+   * Records an impression of the given campaign.
+   *
+   * <p>Completes once the impression is taken into account by {@link #isCapped(Campaign)},
+   * file storage is updated shortly after.
+   */
   public Completable storeImpression(String campaignId) {
-    CampaignImpression impression = new CampaignImpression();
-    impression.setImpressionCount(1);
-    impression.setCampaignId(campaignId);
-    impression.setImpressionTimestampMillis(System.currentTimeMillis());
-    return getAllImpressions()
-        .defaultIfEmpty(new CampaignImpressionList())
-        .flatMapCompletable(
-            storedImpressions -> {
-              CampaignImpressionList appendedImpressions =
-                  appendImpression(storedImpressions, impression);
-              return storageClient
-                  .write(appendedImpressions)
-                  .doOnComplete(() -> initInMemCache(appendedImpressions));
-            });
+    return Completable.fromAction(
+        () -> {
+          if (campaignId == null) return;
+          synchronized (this) {
+            CampaignImpression impression = impressionsByCampaignId.get(campaignId);
+            if (impression == null) {
+              impression = new CampaignImpression();
+              impression.setCampaignId(campaignId);
+              impressionsByCampaignId.put(campaignId, impression);
+            }
+            impression.setImpressionCount(impression.getImpressionCount() + 1);
+            impression.setImpressionTimestampMillis(System.currentTimeMillis());
+            schedulePersist();
+          }
+        });
+  }
+
+  // Must be called while holding the lock
+  private void schedulePersist() {
+    if (persistScheduled) return;
+    persistScheduled = true;
+    // Never write before the stored impressions are merged, or they would be lost
+    loaded
+        .andThen(Completable.timer(PERSIST_DELAY_MS, TimeUnit.MILLISECONDS, schedulers.io()))
+        // The snapshot is taken by the storage client while it holds its write lock, so that writes land in order
+        .andThen(Completable.defer(() -> storageClient.write(() -> takeSnapshotForPersistence().toJSON())))
+        .subscribe(
+            () -> Logging.logd("Impression store persisted"),
+            e -> Logging.loge("Impression store write failure: " + e.getMessage()));
+  }
+
+  private synchronized CampaignImpressionList takeSnapshotForPersistence() {
+    persistScheduled = false;
+    return takeSnapshot();
+  }
+
+  private synchronized CampaignImpressionList takeSnapshot() {
+    CampaignImpressionList rtn = new CampaignImpressionList();
+    for (CampaignImpression impression : impressionsByCampaignId.values()) {
+      rtn.addAlreadySeenCampaigns(copy(impression));
+    }
+    return rtn;
   }
 
   /**
@@ -87,40 +148,33 @@ public class ImpressionStorageClient {
    * corrupt.
    */
   public Maybe<CampaignImpressionList> getAllImpressions() {
-    return cachedImpressionsMaybe
-        .switchIfEmpty(
-            storageClient.read(CampaignImpressionList.class).doOnSuccess(this::initInMemCache))
-        .doOnError(ignored -> clearInMemCache());
+    return loaded.andThen(
+        Maybe.fromCallable(
+            () -> {
+              CampaignImpressionList impressions = takeSnapshot();
+              return impressions.getAlreadySeenCampaignsCount() > 0 ? impressions : null;
+            }));
   }
 
-  private void initInMemCache(CampaignImpressionList campaignImpressions) {
-    cachedImpressionsMaybe = Maybe.just(campaignImpressions);
+  /** Returns {@code Single.just(true)} if the campaign has been impressed */
+  public Single<Boolean> isCapped(Campaign campaign) {
+    return isCapped(campaign.getNotificationMetadata().getCampaignId(), campaign.getCapping());
   }
 
-  private void clearInMemCache() {
-    cachedImpressionsMaybe = Maybe.empty();
+  Single<Boolean> isCapped(String campaignId, Campaign.Capping capping) {
+    // Only waits for the initial load, without blocking a thread
+    return loaded.andThen(Single.fromCallable(() -> isCappedNow(campaignId, capping)));
   }
 
-  /** Returns {@code Single.just(true)} if the campaign has been impressed */
-  public Single<Boolean> isCapped(Campaign campaign) {
-    String campaignId = campaign.getNotificationMetadata().getCampaignId();
-    CampaignImpressionList campaignImpressionList = getAllImpressions().blockingGet();
-    long now = System.currentTimeMillis();
-    if (campaignId != null && campaignImpressionList != null) {
-      for (CampaignImpression impression : campaignImpressionList.getCampaignImpressionList()) {
-        if (campaignId.equals(impression.getCampaignId())) {
-          // enforce maxImpressions
-          if (impression.getImpressionCount() >= campaign.getCapping().getMaxImpressions()) {
-            return Single.just(true);
-          }
-          // enforce snooze
-          if (now - impression.getImpressionTimestampMillis() <  campaign.getCapping().getSnoozeTime()) {
-            return Single.just(true);
-          }
-          break;
-        }
-      }
+  private synchronized boolean isCappedNow(String campaignId, Campaign.Capping capping) {
+    if (campaignId == null) return false;
+    CampaignImpression impression = impressionsByCampaignId.get(campaignId);
+    if (impression == null) return false;
+    // enforce maxImpressions
+    if (impression.getImpressionCount() >= capping.getMaxImpressions()) {
+      return true;
     }
-    return Single.just(false);
+    // enforce snooze
+    return System.currentTimeMillis() - impression.getImpressionTimestampMillis() < capping.getSnoozeTime();
   }
 }
@@ -14,9 +14,10 @@
 
 package com.wonderpush.sdk.inappmessaging.internal;
 
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.JSONSyncInstallation;
 import com.wonderpush.sdk.PresenceManager;
-import com.wonderpush.sdk.WonderPush;
 import com.wonderpush.sdk.WonderPushConfiguration;
 import com.wonderpush.sdk.inappmessaging.InAppMessaging;
 import com.wonderpush.sdk.inappmessaging.internal.injection.qualifiers.AppForeground;
@@ -27,7 +28,6 @@ import com.wonderpush.sdk.inappmessaging.model.*;
 import com.wonderpush.sdk.inappmessaging.model.Campaign;
 import com.wonderpush.sdk.inappmessaging.model.CommonTypesProto.TriggeringCondition;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -35,6 +35,7 @@ import javax.inject.Inject;
 
 import com.wonderpush.sdk.ratelimiter.RateLimit;
 import com.wonderpush.sdk.ratelimiter.RateLimiter;
+import com.wonderpush.sdk.segmentation.SegmentMembershipCache;
 import com.wonderpush.sdk.segmentation.Segmenter;
 import com.wonderpush.sdk.segmentation.parser.*;
 import io.reactivex.Flowable;
@@ -42,7 +43,6 @@ import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.reactivex.flowables.ConnectableFlowable;
 import io.reactivex.functions.Function;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -64,6 +64,10 @@ public class InAppMessageStreamManager {
   private final RateLimit appForegroundRateLimit;
   private final AnalyticsEventsManager analyticsEventsManager;
   private final InAppMessaging.InAppMessagingDelegate inAppMessagingDelegate;
+  private final TriggerLatencyMetrics triggerLatencyMetrics;
+  private final TriggerQueue triggerQueue;
+  private ParsedCampaigns parsedCampaigns = ParsedCampaigns.EMPTY;
+  private volatile ParsedCampaigns.Listener parsedCampaignsListener;
 
   @Inject
   public InAppMessageStreamManager(
@@ -74,7 +78,9 @@ public class InAppMessageStreamManager {
           Schedulers schedulers,
           ImpressionStorageClient impressionStorageClient,
           @AppForeground RateLimit appForegroundRateLimit,
-          InAppMessaging.InAppMessagingDelegate inAppMessagingDelegate) {
+          InAppMessaging.InAppMessagingDelegate inAppMessagingDelegate,
+          TriggerLatencyMetrics triggerLatencyMetrics,
+          TriggerQueue triggerQueue) {
     this.appForegroundEventFlowable = appForegroundEventFlowable;
     this.programmaticTriggerEventFlowable = programmaticTriggerEventFlowable;
     this.clock = clock;
@@ -83,6 +89,8 @@ public class InAppMessageStreamManager {
     this.impressionStorageClient = impressionStorageClient;
     this.appForegroundRateLimit = appForegroundRateLimit;
     this.inAppMessagingDelegate = inAppMessagingDelegate;
+    this.triggerLatencyMetrics = triggerLatencyMetrics;
+    this.triggerQueue = triggerQueue;
   }
 
   private static boolean containsTriggeringCondition(EventOccurrence event, Campaign campaign) {
@@ -103,18 +111,67 @@ public class InAppMessageStreamManager {
     return false;
   }
 
-  private static boolean matchesSegment(Segmenter segmenter, Campaign campaign) {
+  private static boolean matchesSegment(Segmenter segmenter, ParsedCampaigns parsedCampaigns, Campaign campaign, TriggerSpan span) {
+    long start = span.nanoTime();
+    boolean matches = matchesSegment(segmenter, parsedCampaigns, campaign);
+    span.add(TriggerSpan.Stage.SEGMENTATION, span.nanoTime() - start);
+    return matches;
+  }
+
+  private static boolean matchesSegment(Segmenter segmenter, ParsedCampaigns parsedCampaigns, Campaign campaign) {
       // No segment means match all
       if (campaign.getSegment() == null) return true;
       // No segmenter means we can't perform segmentation
       if (segmenter == null) return false;
+      // Segments are parsed once per config version, and keep their memberships in the SegmentMembershipCache
+      ASTCriterionNode parsedInstallationSegment = parsedCampaigns.getParsedSegment(campaign);
+      // Unparsable segments match nobody
+      if (parsedInstallationSegment == null) return false;
+      return segmenter.matchesInstallation(parsedInstallationSegment);
+  }
+
+  /**
+   * Returns the campaigns of the given in-app config, parsing them only if the config version changed.
+   */
+  private ParsedCampaigns getParsedCampaigns(JSONObject config, String configVersion) {
+    ParsedCampaigns current;
+    synchronized (this) {
+      current = parsedCampaigns;
+    }
+    if (current.isParsedFrom(config, configVersion)) return current;
+    ParsedCampaigns parsed = ParsedCampaigns.parse(config, configVersion);
+    Logging.logi(
+            String.format(
+                    Locale.US,
+                    "Parsed %d messages from config version %s",
+                    parsed.getCampaigns().size(),
+                    configVersion));
+    analyticsEventsManager.updateContextualTriggers(parsed);
+    synchronized (this) {
+      parsedCampaigns = parsed;
+    }
+    ParsedCampaigns.Listener listener = parsedCampaignsListener;
+    if (listener != null) {
       try {
-          ASTCriterionNode parsedInstallationSegment = Segmenter.parseInstallationSegment(campaign.getSegment());
-          return segmenter.matchesInstallation(parsedInstallationSegment);
+        listener.onParsedCampaigns(parsed);
       } catch (Exception e) {
-          Logging.loge(String.format("Could not parse segment %s", campaign.getSegment().toString()), e);
-          return false;
+        Logging.loge("Parsed campaigns listener failed", e);
       }
+    }
+    return parsed;
+  }
+
+  /**
+   * Parses the campaigns of a new in-app config right away,
+   * so that the events triggering its new campaigns are not dropped until another event refreshes them.
+   * Must be called off the main thread.
+   */
+  public void onInAppConfigChanged(@Nullable JSONObject config, @Nullable String configVersion) {
+    getParsedCampaigns(config, configVersion);
+  }
+
+  public void setParsedCampaignsListener(ParsedCampaigns.Listener listener) {
+    parsedCampaignsListener = listener;
   }
 
   private static long delayForEvent(String event, Campaign campaign) {
@@ -158,19 +215,25 @@ public class InAppMessageStreamManager {
   }
 
   public Flowable<TriggeredInAppMessage> createInAppMessageStream() {
-    return Flowable.merge(
+    Flowable<EventOccurrence> events = Flowable.merge(
             appForegroundEventFlowable,
             analyticsEventsManager.getAnalyticsEventsFlowable(),
             programmaticTriggerEventFlowable)
-        .doOnNext(e -> Logging.logd("Event Triggered: " + e))
-        .observeOn(schedulers.io())
+        .doOnNext(e -> Logging.logd("Event Triggered: " + e));
+    // Events wait in a bounded queue, where bursts are coalesced, and are only taken one at a time
+    return triggerQueue.bound(events, schedulers.io())
         .concatMap(
             event -> {
+              if (triggerQueue.dropIfStale(event)) return Flowable.empty();
+              TriggerSpan span = triggerLatencyMetrics.start(event);
+              span.stageEnded(TriggerSpan.Stage.QUEUED);
 
               Function<Campaign, Maybe<Campaign>> filterTooImpressed =
-                  campaign ->
-                          impressionStorageClient
+                  campaign -> {
+                    long cappingStart = span.nanoTime();
+                    return impressionStorageClient
                             .isCapped(campaign)
+                            .doOnSuccess(isCapped -> span.add(TriggerSpan.Stage.CAPPING, span.nanoTime() - cappingStart))
                             .doOnError(
                                 e ->
                                     Logging.logw("Impression store read fail: " + e.getMessage()))
@@ -179,6 +242,7 @@ public class InAppMessageStreamManager {
                             .doOnSuccess(isCapped -> logCappedStatus(campaign, isCapped))
                             .filter(isCapped -> !isCapped)
                             .map(isCapped -> campaign);
+                  };
 
               Function<Campaign, Maybe<Campaign>> appForegroundRateLimitFilter =
                   content -> getContentIfNotRateLimited(event.eventType, content);
@@ -190,7 +254,7 @@ public class InAppMessageStreamManager {
                       return Maybe.empty();
                   };
 
-              Function<List<Campaign>, Maybe<TriggeredInAppMessage>>
+              Function<ParsedCampaigns, Maybe<TriggeredInAppMessage>>
                   selectCampaign =
                       response ->
                           getTriggeredInAppMessageMaybe(
@@ -198,24 +262,21 @@ public class InAppMessageStreamManager {
                               filterTooImpressed,
                               appForegroundRateLimitFilter,
                               filterDisplayable,
-                              response);
+                              response,
+                              span);
 
-              Maybe<List<Campaign>> serviceFetch =
-                      Maybe.<List<Campaign>>create(
+              Maybe<ParsedCampaigns> serviceFetch =
+                      Maybe.<ParsedCampaigns>create(
                               emitter -> {
-                                  inAppMessagingDelegate.fetchInAppConfig((JSONObject config, Throwable error) -> {
+                                  inAppMessagingDelegate.fetchInAppConfig((JSONObject config, String configVersion, Throwable error) -> {
                                       try {
-                                          if (error != null) emitter.onError(error);
-                                          else {
-                                              JSONArray campaignsJson = config != null ? config.optJSONArray("campaigns") : null;
-                                              List<Campaign> messages = new ArrayList<>();
-                                              for (int i = 0; campaignsJson != null && i < campaignsJson.length(); i++) {
-                                                  JSONObject campaignJson = campaignsJson.optJSONObject(i);
-                                                  if (campaignJson == null) continue;
-                                                  Campaign campaign = Campaign.fromJSON(campaignJson);
-                                                  if (campaign != null) messages.add(campaign);
-                                              }
-                                              emitter.onSuccess(messages);
+                                          span.stageEnded(TriggerSpan.Stage.CONFIG_FETCH);
+                                          if (error != null) {
+                                            emitter.onError(error);
+                                          } else {
+                                            ParsedCampaigns parsed = getParsedCampaigns(config, configVersion);
+                                            span.stageEnded(TriggerSpan.Stage.PARSE);
+                                            emitter.onSuccess(parsed);
                                           }
                                           emitter.onComplete();
                                       } catch (Throwable t) {
@@ -225,20 +286,21 @@ public class InAppMessageStreamManager {
                               })
                               .doOnSuccess(
                                       resp ->
-                                              Logging.logi(
+                                              Logging.logd(
                                                       String.format(
                                                               Locale.US,
-                                                              "Successfully fetched %d messages from backend",
-                                                              resp.size())))
-                              .doOnSuccess(analyticsEventsManager::updateContextualTriggers)
+                                                              "Selecting among %d messages",
+                                                              resp.getCampaigns().size())))
                               //.doOnSuccess(abtIntegrationHelper::updateRunningExperiments)
                               .doOnError(e -> Logging.loge("Service fetch error: ", e))
                               .onErrorResumeNext(Maybe.empty()); // Absorb service failures
 
               return serviceFetch
                       .flatMap(selectCampaign)
+                      .doOnSuccess(triggered -> span.mark())
+                      .doOnComplete(span::discarded)
                       .toFlowable();
-            })
+            }, 1)
         .observeOn(schedulers.mainThread()); // Updates are delivered on the main thread
   }
 
@@ -268,43 +330,52 @@ public class InAppMessageStreamManager {
           Function<Campaign, Maybe<Campaign>> filterAlreadyImpressed,
           Function<Campaign, Maybe<Campaign>> appForegroundRateLimitFilter,
           Function<Campaign, Maybe<Campaign>> filterDisplayable,
-          List<Campaign> campaigns) {
+          ParsedCampaigns parsedCampaigns,
+          TriggerSpan span) {
+    List<Campaign> triggeredCampaigns = parsedCampaigns.getCampaignsTriggeredBy(event.eventType);
+    // Avoid building the segmenter data when no campaign is triggered
+    if (triggeredCampaigns.isEmpty()) return Maybe.empty();
+    SegmentMembershipCache segmentMembershipCache = SegmentMembershipCache.getInstance();
+    long segmentMembershipCacheGeneration = segmentMembershipCache.getGeneration();
+    long segmenterDataStart = span.nanoTime();
     Segmenter.Data segmenterData = null;
     try {
-      JSONObject installation = JSONSyncInstallation.forCurrentUser().getSdkState();
-      installation.putOpt("userId", WonderPush.getUserId());
+      // Installation, including the userId, shared until it changes
+      JSONObject installation = JSONSyncInstallation.forCurrentUser().getSdkStateSnapshot();
 
-      // Tracked events
+      // Tracked events, shared until they change
       List<JSONObject> trackedEvents = WonderPushConfiguration.getTrackedEvents();
 
       // Presence info
       PresenceManager.PresencePayload lastPresencePayload = inAppMessagingDelegate.getPresenceManager().getLastPresencePayload();
       Segmenter.PresenceInfo presenceInfo = lastPresencePayload == null ? null : new Segmenter.PresenceInfo(lastPresencePayload.getFromDate().getTime(), lastPresencePayload.getUntilDate().getTime(), lastPresencePayload.getElapsedTime());
 
-      // Build segmenter data
-      segmenterData = new Segmenter.Data(installation, trackedEvents, presenceInfo, WonderPushConfiguration.getLastAppOpenDate());
+      // Build segmenter data, without copying the snapshots
+      segmenterData = Segmenter.Data.fromSnapshots(installation, trackedEvents, presenceInfo, WonderPushConfiguration.getLastAppOpenDate());
     } catch (JSONException e) {
       Logging.loge("Could not create segmenter data", e);
     }
-    final Segmenter segmenter = segmenterData == null ? null : new Segmenter(segmenterData);
-    return Flowable.fromIterable(campaigns)
+    final Segmenter segmenter = segmenterData == null ? null : new Segmenter(segmenterData, segmentMembershipCache, segmentMembershipCacheGeneration);
+    span.add(TriggerSpan.Stage.SEGMENTATION, span.nanoTime() - segmenterDataStart);
+    return Flowable.fromIterable(triggeredCampaigns)
         .filter(campaign -> isActive(clock, campaign))
         .filter(campaign -> containsTriggeringCondition(event, campaign))
-        .filter(campaign -> matchesSegment(segmenter, campaign))
+        .filter(campaign -> matchesSegment(segmenter, parsedCampaigns, campaign, span))
         .flatMapMaybe(filterAlreadyImpressed)
         .flatMapMaybe(appForegroundRateLimitFilter)
         .flatMapMaybe(filterDisplayable)
         .sorted(InAppMessageStreamManager::compareByPriority)
         .firstElement()
-        .flatMap(campaign -> triggeredInAppMessage(campaign, event.eventType, delayForEvent(event.eventType, campaign)));
+        .flatMap(campaign -> triggeredInAppMessage(campaign, event.eventType, delayForEvent(event.eventType, campaign), span));
   }
 
-  private Maybe<TriggeredInAppMessage> triggeredInAppMessage(Campaign campaign, String event, long delay) {
+  private Maybe<TriggeredInAppMessage> triggeredInAppMessage(Campaign campaign, String event, long delay, TriggerSpan span) {
     InAppMessage inAppMessage = campaign.getContent();
     if (inAppMessage.getMessageType() == null || inAppMessage.getMessageType().equals(MessageType.UNSUPPORTED)) {
       return Maybe.empty();
     }
 
-    return Maybe.just(new TriggeredInAppMessage(inAppMessage, event, delay));
+    span.setCampaignId(campaign.getNotificationMetadata() != null ? campaign.getNotificationMetadata().getCampaignId() : null);
+    return Maybe.just(new TriggeredInAppMessage(inAppMessage, event, delay, span));
   }
 }
@@ -0,0 +1,158 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.inappmessaging.model.Campaign;
+import com.wonderpush.sdk.inappmessaging.model.CommonTypesProto;
+import com.wonderpush.sdk.segmentation.Segmenter;
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable set of campaigns parsed from one version of the in-app config, along with their parsed segments
+ * and an index of the campaigns each event type or in-app trigger can trigger.
+ *
+ * Shared across events until the config version changes.
+ *
+ * @hide
+ */
+public class ParsedCampaigns {
+
+  /**
+   * Notified on a background thread whenever a new campaign config is parsed.
+   */
+  public interface Listener {
+    void onParsedCampaigns(ParsedCampaigns parsedCampaigns);
+  }
+
+  public static final ParsedCampaigns EMPTY = new ParsedCampaigns(null, null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+  @Nullable private final String configVersion;
+  @Nullable private final JSONObject inAppConfig;
+  private final List<Campaign> campaigns;
+  private final Map<Campaign, ASTCriterionNode> parsedSegments;
+  private final Map<String, List<Campaign>> campaignsByTrigger;
+  private final Set<String> analyticsEventNames;
+
+  private ParsedCampaigns(@Nullable String configVersion, @Nullable JSONObject inAppConfig, List<Campaign> campaigns, Map<Campaign, ASTCriterionNode> parsedSegments, Map<String, List<Campaign>> campaignsByTrigger, Set<String> analyticsEventNames) {
+    this.configVersion = configVersion;
+    this.inAppConfig = inAppConfig;
+    this.campaigns = campaigns;
+    this.parsedSegments = parsedSegments;
+    this.campaignsByTrigger = campaignsByTrigger;
+    this.analyticsEventNames = analyticsEventNames;
+  }
+
+  /**
+   * Parses every campaign of the given in-app config, along with their segments.
+   */
+  public static ParsedCampaigns parse(@Nullable JSONObject inAppConfig, @Nullable String configVersion) {
+    JSONArray campaignsJson = inAppConfig != null ? inAppConfig.optJSONArray("campaigns") : null;
+    List<Campaign> campaigns = new ArrayList<>();
+    Map<Campaign, ASTCriterionNode> parsedSegments = new IdentityHashMap<>();
+    for (int i = 0; campaignsJson != null && i < campaignsJson.length(); i++) {
+      JSONObject campaignJson = campaignsJson.optJSONObject(i);
+      if (campaignJson == null) continue;
+      Campaign campaign = Campaign.fromJSON(campaignJson);
+      if (campaign == null) continue;
+      campaigns.add(campaign);
+      if (campaign.getSegment() != null) {
+        try {
+          parsedSegments.put(campaign, Segmenter.parseInstallationSegment(campaign.getSegment()));
+        } catch (Exception e) {
+          Logging.loge(String.format("Could not parse segment %s", campaign.getSegment().toString()), e);
+        }
+      }
+    }
+    Map<String, List<Campaign>> campaignsByTrigger = new HashMap<>();
+    Set<String> analyticsEventNames = new HashSet<>();
+    for (Campaign campaign : campaigns) {
+      for (CommonTypesProto.TriggeringCondition condition : campaign.getTriggeringConditions()) {
+        if (condition.getEvent() != null && condition.getEvent().getName() != null && !condition.getEvent().getName().isEmpty()) {
+          analyticsEventNames.add(condition.getEvent().getName());
+          addToIndex(campaignsByTrigger, condition.getEvent().getName(), campaign);
+        }
+        CommonTypesProto.Trigger iamTrigger = condition.getIamTrigger();
+        if (iamTrigger == CommonTypesProto.Trigger.APP_LAUNCH || iamTrigger == CommonTypesProto.Trigger.ON_FOREGROUND) {
+          addToIndex(campaignsByTrigger, iamTrigger.toString(), campaign);
+        }
+      }
+    }
+    for (Map.Entry<String, List<Campaign>> entry : campaignsByTrigger.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    return new ParsedCampaigns(configVersion, inAppConfig, Collections.unmodifiableList(campaigns), parsedSegments, campaignsByTrigger, Collections.unmodifiableSet(analyticsEventNames));
+  }
+
+  private static void addToIndex(Map<String, List<Campaign>> index, String trigger, Campaign campaign) {
+    List<Campaign> triggered = index.get(trigger);
+    if (triggered == null) {
+      triggered = new ArrayList<>();
+      index.put(trigger, triggered);
+    }
+    // Conditions of a campaign are listed together, only check the last one added
+    if (triggered.isEmpty() || triggered.get(triggered.size() - 1) != campaign) {
+      triggered.add(campaign);
+    }
+  }
+
+  /**
+   * Tells whether this set was parsed from the given in-app config.
+   *
+   * Configs are compared by version when known, and by identity otherwise.
+   */
+  public boolean isParsedFrom(@Nullable JSONObject inAppConfig, @Nullable String configVersion) {
+    if (configVersion != null && this.configVersion != null) {
+      return configVersion.equals(this.configVersion);
+    }
+    return configVersion == null && this.configVersion == null && inAppConfig == this.inAppConfig;
+  }
+
+  @Nullable
+  public String getConfigVersion() {
+    return configVersion;
+  }
+
+  public List<Campaign> getCampaigns() {
+    return campaigns;
+  }
+
+  /**
+   * Returns the campaigns having a triggering condition on the given event type or in-app trigger, in config order.
+   *
+   * Conditions like minimum occurrences must still be checked on each returned campaign.
+   */
+  public List<Campaign> getCampaignsTriggeredBy(@Nullable String eventType) {
+    if (eventType == null) return Collections.emptyList();
+    List<Campaign> triggered = campaignsByTrigger.get(eventType);
+    return triggered != null ? triggered : Collections.emptyList();
+  }
+
+  /**
+   * Returns the names of the analytics events at least one campaign listens to.
+   */
+  public Set<String> getAnalyticsEventNames() {
+    return analyticsEventNames;
+  }
+
+  /**
+   * Returns the parsed segment of the given campaign,
+   * or {@code null} if it has no segment or if its segment could not be parsed.
+   */
+  @Nullable
+  public ASTCriterionNode getParsedSegment(Campaign campaign) {
+    return parsedSegments.get(campaign);
+  }
+
+}
@@ -22,73 +22,143 @@ import com.wonderpush.sdk.JSONSerializable;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
-
-import static android.content.Context.MODE_PRIVATE;
+import io.reactivex.Scheduler;
+import io.reactivex.subjects.CompletableSubject;
 
 /**
- * File backed storage client for protos. Reads and writes are non atomic, but thread safe.
+ * File backed storage client for protos. Reads and writes are atomic and thread safe.
+ *
+ * <p>Writes go to a temporary file that replaces the store once complete, so that the store
+ * always holds the last complete write. Writes happening within a short window are coalesced,
+ * only the last value is written.
  *
- * <p>The client confers locking semantics per client read/written.
+ * <p>Values are stored as gzipped JSON. Plain JSON stores from previous versions are still read.
  *
  * <p>Creating multiple clients that read/write to the same file will violate the principles of this
  * thread safety
  *
- * <p>In the future we can consider using Android/Support's AtomicFile to provide atomic reads and
- * writes
- *
  * @hide
  */
 //@ThreadSafe
 public class ProtoStorageClient {
-  private final Application application;
-  private final String fileName;
+  static final long COALESCING_WINDOW_MS = 100;
+  private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+  private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+
+  private final File file;
+  private final File tempFile;
+  private final Scheduler scheduler;
+  private final long coalescingWindowMs;
+
+  // Guarded by this
+  private JSONSerializable pendingValue;
+  private CompletableSubject pendingWrite;
 
   public ProtoStorageClient(Application application, String fileName) {
-    this.application = application;
-    this.fileName = fileName;
+    this(new File(application.getFilesDir(), fileName), io.reactivex.schedulers.Schedulers.io(), COALESCING_WINDOW_MS);
+  }
+
+  ProtoStorageClient(File file, Scheduler scheduler, long coalescingWindowMs) {
+    this.file = file;
+    this.tempFile = new File(file.getPath() + ".tmp");
+    this.scheduler = scheduler;
+    this.coalescingWindowMs = coalescingWindowMs;
   }
 
   /**
    * Write the proto to a file in the app' s file directory.
    *
-   * <p>Writes are non atomic.
-   *
-   * <p>Readers are expected to deal with corrupt data resulting from faulty writes
+   * <p>The value is serialized when the write actually happens, at the end of the coalescing window.
+   * The returned completable completes once this value, or a value written after it, is stored.
    *
    * @param value
-   * @throws IOException
    */
   public Completable write(JSONSerializable value) {
-    return Completable.fromCallable(
+    return Completable.defer(
         () -> {
-          // reads / writes are synchronized per client instance
           synchronized (this) {
-            try (FileOutputStream output = application.openFileOutput(fileName, MODE_PRIVATE)) {
-              output.write(value.toJSON().toString().getBytes("UTF-8"));
-              return value;
+            pendingValue = value;
+            CompletableSubject write = pendingWrite;
+            if (write == null) {
+              write = pendingWrite = CompletableSubject.create();
+              Completable.timer(coalescingWindowMs, TimeUnit.MILLISECONDS, scheduler)
+                  .subscribe(this::flush);
             }
+            return write;
           }
         });
   }
 
+  private void flush() {
+    JSONSerializable value;
+    CompletableSubject write;
+    synchronized (this) {
+      value = pendingValue;
+      write = pendingWrite;
+      pendingValue = null;
+      pendingWrite = null;
+    }
+    if (write == null) return;
+    try {
+      synchronized (file) {
+        writeAtomically(value.toJSON());
+      }
+    } catch (Throwable t) {
+      write.onError(t);
+      return;
+    }
+    write.onComplete();
+  }
+
+  private void writeAtomically(JSONObject json) throws IOException {
+    try (OutputStream output = openTempFileOutput(tempFile)) {
+      try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+        gzip.write(json.toString().getBytes("UTF-8"));
+      }
+    }
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  // Overridden in tests to inject failures
+  OutputStream openTempFileOutput(File tempFile) throws IOException {
+    return new FileOutputStream(tempFile) {
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        // Make sure the data is on disk before the file replaces the store
+        getFD().sync();
+        super.close();
+      }
+    };
+  }
+
   /**
-   * Read the contents of the file into a proto object using the parser. Since writes are not
-   * atomic, the caller will receive {@link Maybe#empty()} when data is corrupt.
+   * Read the contents of the file into a proto object using the parser. A value still waiting to be
+   * written is returned instead.
    *
-   * <p>Some valid scenarios that can lead to corrupt data :
-   *
-   * <ul>
-   *   <li>Out of disk space while writing
-   *   <li>Power outage while writing
-   *   <li>Process killed while writing
-   * </ul>
+   * <p>The caller will receive {@link Maybe#empty()} when nothing was stored, or when data written by
+   * a previous, non atomic, version is corrupt.
    *
    * @param clazz
    * @param <T>
@@ -96,20 +166,50 @@ public class ProtoStorageClient {
   public <T extends JSONDeserializable> Maybe<T> read(Class<T> clazz) {
     return Maybe.fromCallable(
         () -> {
-          // reads / writes are synchronized per client instance
+          JSONObject json;
           synchronized (this) {
-            try (FileInputStream inputStream = application.openFileInput(fileName)) {
-                byte[] buf = new byte[(int) inputStream.getChannel().size()];
-                int read = inputStream.read(buf);
-                JSONObject json = new JSONObject(new String(buf, 0, read, "UTF-8"));
-                T rtn = clazz.newInstance();
-                rtn.fromJSON(json);
-                return rtn;
-            } catch (FileNotFoundException|JSONException e) {
-              Logging.logi("Recoverable exception while reading cache: " + e.getMessage());
-              return null;
+            json = pendingValue != null ? pendingValue.toJSON() : null;
+          }
+          try {
+            if (json == null) {
+              synchronized (file) {
+                // A leftover temporary file was never completed
+                tempFile.delete();
+                json = new JSONObject(readFile());
+              }
             }
+            T rtn = clazz.newInstance();
+            rtn.fromJSON(json);
+            return rtn;
+          } catch (FileNotFoundException|JSONException e) {
+            Logging.logi("Recoverable exception while reading cache: " + e.getMessage());
+            return null;
+          } catch (IOException e) {
+            Logging.logw("Corrupt cache: " + e.getMessage());
+            return null;
           }
         });
   }
+
+  private String readFile() throws IOException {
+    try (InputStream input = new FileInputStream(file)) {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      int read;
+      while ((read = input.read(chunk)) != -1) {
+        buf.write(chunk, 0, read);
+      }
+      byte[] bytes = buf.toByteArray();
+      if (bytes.length >= 2 && (bytes[0] & 0xff) == GZIP_MAGIC_FIRST_BYTE && (bytes[1] & 0xff) == GZIP_MAGIC_SECOND_BYTE) {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+          buf.reset();
+          while ((read = gzip.read(chunk)) != -1) {
+            buf.write(chunk, 0, read);
+          }
+          bytes = buf.toByteArray();
+        }
+      }
+      return new String(bytes, "UTF-8");
+    }
+  }
 }
@@ -0,0 +1,149 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import com.wonderpush.sdk.inappmessaging.internal.injection.scopes.InAppMessagingScope;
+import com.wonderpush.sdk.inappmessaging.model.EventOccurrence;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+
+/**
+ * Collects the {@link TriggerSpan} of in-app triggers, keeping the most recent timings of each stage
+ * in memory to compute percentiles.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class TriggerLatencyMetrics {
+  static final int SAMPLES_PER_STAGE = 256;
+
+  /**
+   * Notified of every ended span, on the thread that ended it.
+   */
+  public interface Listener {
+    void onTriggerSpan(TriggerSpan span);
+  }
+
+  private final long[][] samples = new long[TriggerSpan.Stage.values().length][SAMPLES_PER_STAGE];
+  private final long[] sampleCounts = new long[TriggerSpan.Stage.values().length];
+  private long discardedCount;
+  private long coalescedCount;
+  private long droppedCount;
+  private volatile Listener listener;
+
+  @Inject
+  public TriggerLatencyMetrics() {
+  }
+
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Starts the span of the given event, dated from its occurrence.
+   */
+  public TriggerSpan start(EventOccurrence event) {
+    return new TriggerSpan(this, event.eventType, event.occurrenceNanos);
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  void record(TriggerSpan span) {
+    synchronized (this) {
+      if (!span.isDisplayed()) discardedCount++;
+      for (TriggerSpan.Stage stage : TriggerSpan.Stage.values()) {
+        long nanos = span.getStageNanos(stage);
+        if (nanos < 0) continue;
+        int i = stage.ordinal();
+        samples[i][(int) (sampleCounts[i] % SAMPLES_PER_STAGE)] = nanos;
+        sampleCounts[i]++;
+      }
+    }
+    Logging.logd(span.toString());
+    Listener listener = this.listener;
+    if (listener != null) {
+      try {
+        listener.onTriggerSpan(span);
+      } catch (Exception e) {
+        Logging.loge("Trigger span listener failed", e);
+      }
+    }
+  }
+
+  synchronized void triggerCoalesced() {
+    coalescedCount++;
+  }
+
+  synchronized void triggerDropped() {
+    droppedCount++;
+  }
+
+  /**
+   * Returns the number of timings kept for the given stage.
+   */
+  public synchronized int getSampleCount(TriggerSpan.Stage stage) {
+    return (int) Math.min(sampleCounts[stage.ordinal()], SAMPLES_PER_STAGE);
+  }
+
+  /**
+   * Returns the number of triggers that did not lead to any display.
+   */
+  public synchronized long getDiscardedCount() {
+    return discardedCount;
+  }
+
+  /**
+   * Returns the number of events merged into a waiting event of the same type.
+   */
+  public synchronized long getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /**
+   * Returns the number of events dropped because the trigger queue was full or because they were too old.
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Returns the given percentile of the recent timings of the given stage, using the nearest rank method.
+   *
+   * @param percentile Between 0 and 100
+   * @return The timing in milliseconds, or -1 without any timing for this stage
+   */
+  public double getPercentileMillis(TriggerSpan.Stage stage, double percentile) {
+    long[] sorted;
+    synchronized (this) {
+      int count = getSampleCount(stage);
+      if (count == 0) return -1;
+      sorted = Arrays.copyOf(samples[stage.ordinal()], count);
+    }
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * sorted.length);
+    return sorted[Math.max(0, rank - 1)] / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("TriggerLatencyMetrics{");
+    boolean first = true;
+    for (TriggerSpan.Stage stage : TriggerSpan.Stage.values()) {
+      if (getSampleCount(stage) == 0) continue;
+      if (!first) sb.append(", ");
+      first = false;
+      sb.append(stage)
+          .append("={p50=").append(getPercentileMillis(stage, 50))
+          .append(", p90=").append(getPercentileMillis(stage, 90))
+          .append(", p99=").append(getPercentileMillis(stage, 99))
+          .append('}');
+    }
+    return sb.append(", discarded=").append(getDiscardedCount())
+        .append(", coalesced=").append(getCoalescedCount())
+        .append(", dropped=").append(getDroppedCount())
+        .append('}').toString();
+  }
+
+}
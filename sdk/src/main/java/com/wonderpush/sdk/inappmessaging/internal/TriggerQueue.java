@@ -0,0 +1,198 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.inappmessaging.internal.injection.scopes.InAppMessagingScope;
+import com.wonderpush.sdk.inappmessaging.model.EventOccurrence;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Bounded queue of the events waiting to be evaluated against campaigns.
+ *
+ * Events of a type that is already waiting, and that occurred within the coalescing window of it, are merged into it.
+ * When full, the oldest event is dropped. Events older than the maximum age are dropped instead of being evaluated,
+ * so that bursts never trigger in-apps long after the fact.
+ *
+ * @hide
+ */
+@InAppMessagingScope
+public class TriggerQueue {
+  static final int DEFAULT_CAPACITY = 32;
+  static final long DEFAULT_COALESCING_WINDOW_MILLIS = 1000;
+  static final long DEFAULT_MAX_AGE_MILLIS = 5000;
+
+  private final TriggerLatencyMetrics metrics;
+  private final int capacity;
+  private final long coalescingWindowNanos;
+  private final long maxAgeNanos;
+  private final ArrayDeque<EventOccurrence> queue = new ArrayDeque<>();
+  private final Map<String, EventOccurrence> pendingByType = new HashMap<>();
+
+  @Inject
+  public TriggerQueue(TriggerLatencyMetrics metrics) {
+    this(metrics, DEFAULT_CAPACITY, DEFAULT_COALESCING_WINDOW_MILLIS, DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  TriggerQueue(TriggerLatencyMetrics metrics, int capacity, long coalescingWindowMillis, long maxAgeMillis) {
+    this.metrics = metrics;
+    this.capacity = capacity;
+    this.coalescingWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalescingWindowMillis);
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+  }
+
+  /**
+   * Enqueues the given event, or merges it into a waiting event of the same type.
+   *
+   * @return Whether the event was enqueued
+   */
+  public synchronized boolean offer(EventOccurrence event) {
+    EventOccurrence pending = pendingByType.get(event.eventType);
+    if (pending != null && event.occurrenceNanos - pending.occurrenceNanos <= coalescingWindowNanos) {
+      // Keep the most recent occurrence, counts only grow
+      pending.allTimeOccurrences = Math.max(pending.allTimeOccurrences, event.allTimeOccurrences);
+      pending.occurrenceNanos = Math.max(pending.occurrenceNanos, event.occurrenceNanos);
+      metrics.triggerCoalesced();
+      return false;
+    }
+    if (queue.size() >= capacity) {
+      EventOccurrence dropped = queue.pollFirst();
+      forget(dropped);
+      metrics.triggerDropped();
+      Logging.logd("Trigger queue full, dropping event " + dropped.eventType);
+    }
+    queue.addLast(event);
+    pendingByType.put(event.eventType, event);
+    return true;
+  }
+
+  /**
+   * Returns the oldest event that is not stale, dropping stale ones.
+   */
+  @Nullable
+  public synchronized EventOccurrence poll() {
+    EventOccurrence event;
+    while ((event = queue.pollFirst()) != null) {
+      forget(event);
+      if (!dropIfStale(event)) return event;
+    }
+    return null;
+  }
+
+  public synchronized int size() {
+    return queue.size();
+  }
+
+  /**
+   * Drops the given event if it is older than the maximum age.
+   *
+   * @return Whether the event was dropped
+   */
+  public boolean dropIfStale(EventOccurrence event) {
+    if (metrics.nanoTime() - event.occurrenceNanos <= maxAgeNanos) return false;
+    metrics.triggerDropped();
+    Logging.logd("Dropping stale event " + event.eventType);
+    return true;
+  }
+
+  private void forget(EventOccurrence event) {
+    if (pendingByType.get(event.eventType) == event) pendingByType.remove(event.eventType);
+  }
+
+  /**
+   * Routes the given events through this queue, emitting them on the given scheduler as they are requested.
+   * Only one subscription at a time is supported.
+   */
+  public Flowable<EventOccurrence> bound(Flowable<EventOccurrence> upstream, Scheduler scheduler) {
+    return Flowable.fromPublisher(subscriber -> {
+      Drain drain = new Drain(subscriber, scheduler.createWorker());
+      subscriber.onSubscribe(drain);
+      drain.setUpstream(upstream.subscribe(
+          event -> {
+            if (offer(event)) drain.schedule();
+          },
+          drain::error));
+    });
+  }
+
+  private final class Drain implements Subscription, Runnable {
+    private final Subscriber<? super EventOccurrence> downstream;
+    private final Scheduler.Worker worker;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile Disposable upstream;
+    private volatile boolean cancelled;
+
+    Drain(Subscriber<? super EventOccurrence> downstream, Scheduler.Worker worker) {
+      this.downstream = downstream;
+      this.worker = worker;
+    }
+
+    void setUpstream(Disposable upstream) {
+      this.upstream = upstream;
+      if (cancelled) upstream.dispose();
+    }
+
+    void schedule() {
+      if (wip.getAndIncrement() == 0) worker.schedule(this);
+    }
+
+    void error(Throwable e) {
+      worker.schedule(() -> {
+        if (!cancelled) downstream.onError(e);
+      });
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) return;
+      long current;
+      do {
+        current = requested.get();
+      } while (current != Long.MAX_VALUE && !requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      worker.dispose();
+      Disposable upstream = this.upstream;
+      if (upstream != null) upstream.dispose();
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      while (true) {
+        long wanted = requested.get();
+        long emitted = 0;
+        while (emitted != wanted) {
+          if (cancelled) return;
+          EventOccurrence event = poll();
+          if (event == null) break;
+          downstream.onNext(event);
+          emitted++;
+        }
+        if (emitted != 0 && wanted != Long.MAX_VALUE) requested.addAndGet(-emitted);
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) return;
+      }
+    }
+  }
+
+}
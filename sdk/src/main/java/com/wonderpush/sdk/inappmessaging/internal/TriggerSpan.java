@@ -0,0 +1,164 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Timings of the stages an in-app trigger goes through, from the event to the message being visible.
+ *
+ * Sequential stages are closed with {@link #stageEnded(Stage)}, which attributes the time elapsed
+ * since the previous mark. Interleaved stages are measured separately and {@link #add(Stage, long) added}.
+ *
+ * @hide
+ */
+public class TriggerSpan {
+
+  public enum Stage {
+    /** From the event to its processing, including scheduler hops and the backlog of previous events. */
+    QUEUED,
+    /** Reading the remote config. */
+    CONFIG_FETCH,
+    /** Parsing campaigns, when the config changed. */
+    PARSE,
+    /** Building the segmenter data and evaluating segments. */
+    SEGMENTATION,
+    /** Checking impression capping. */
+    CAPPING,
+    /** From the selection of a message to the display layer, on the main thread. */
+    DELIVERY,
+    /** From the display layer receiving the message to starting to show it, including any campaign delay. */
+    DELAY,
+    /** Creating and inflating the layout. */
+    INFLATE,
+    /** Loading images and web pages. */
+    MEDIA_LOAD,
+    /** Adding the layout to the window. */
+    SHOW,
+    /** From the event to the message being visible. */
+    TOTAL,
+  }
+
+  private final TriggerLatencyMetrics metrics;
+  private final String eventType;
+  private final long startNanos;
+  private final long[] stageNanos = new long[Stage.values().length];
+  private long markNanos;
+  @Nullable private String campaignId;
+  private boolean displayed;
+  private boolean ended;
+
+  TriggerSpan(TriggerLatencyMetrics metrics, String eventType, long startNanos) {
+    this.metrics = metrics;
+    this.eventType = eventType;
+    this.startNanos = startNanos;
+    this.markNanos = startNanos;
+    for (int i = 0; i < stageNanos.length; i++) stageNanos[i] = -1;
+  }
+
+  long nanoTime() {
+    return metrics.nanoTime();
+  }
+
+  /**
+   * Attributes the time elapsed since the previous mark to the given stage.
+   */
+  public synchronized void stageEnded(Stage stage) {
+    long now = nanoTime();
+    addLocked(stage, now - markNanos);
+    markNanos = now;
+  }
+
+  /**
+   * Starts the next sequential stage now, without attributing the elapsed time.
+   */
+  public synchronized void mark() {
+    markNanos = nanoTime();
+  }
+
+  public synchronized void add(Stage stage, long nanos) {
+    addLocked(stage, nanos);
+  }
+
+  private void addLocked(Stage stage, long nanos) {
+    int i = stage.ordinal();
+    stageNanos[i] = Math.max(0, stageNanos[i]) + Math.max(0, nanos);
+  }
+
+  synchronized void setCampaignId(@Nullable String campaignId) {
+    this.campaignId = campaignId;
+  }
+
+  /**
+   * Ends the span once the message is visible.
+   */
+  public void displayed() {
+    synchronized (this) {
+      if (ended) return;
+      stageEnded(Stage.SHOW);
+      stageNanos[Stage.TOTAL.ordinal()] = markNanos - startNanos;
+      displayed = true;
+      ended = true;
+    }
+    metrics.record(this);
+  }
+
+  /**
+   * Ends the span of an event that did not lead to any display.
+   */
+  public void discarded() {
+    synchronized (this) {
+      if (ended) return;
+      ended = true;
+    }
+    metrics.record(this);
+  }
+
+  public String getEventType() {
+    return eventType;
+  }
+
+  @Nullable
+  public synchronized String getCampaignId() {
+    return campaignId;
+  }
+
+  public synchronized boolean isDisplayed() {
+    return displayed;
+  }
+
+  /**
+   * Returns the time spent in the given stage, or -1 if the trigger did not go through it.
+   */
+  public synchronized long getStageNanos(Stage stage) {
+    return stageNanos[stage.ordinal()];
+  }
+
+  public synchronized JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("eventType", eventType);
+    json.putOpt("campaignId", campaignId);
+    json.put("displayed", displayed);
+    JSONObject stages = new JSONObject();
+    for (Stage stage : Stage.values()) {
+      if (stageNanos[stage.ordinal()] >= 0) stages.put(stage.name(), stageNanos[stage.ordinal()] / 1e6);
+    }
+    json.put("stagesMillis", stages);
+    return json;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder("TriggerSpan{event=").append(eventType);
+    if (campaignId != null) sb.append(", campaign=").append(campaignId);
+    for (Stage stage : Stage.values()) {
+      long nanos = stageNanos[stage.ordinal()];
+      if (nanos >= 0) sb.append(", ").append(stage).append('=').append(String.format(Locale.US, "%.1fms", nanos / 1e6));
+    }
+    return sb.append('}').toString();
+  }
+
+}
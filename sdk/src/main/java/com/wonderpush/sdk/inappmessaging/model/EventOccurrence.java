@@ -3,4 +3,5 @@ package com.wonderpush.sdk.inappmessaging.model;
 public class EventOccurrence {
     public String eventType;
     public long allTimeOccurrences;
+    public long occurrenceNanos = System.nanoTime();
 }
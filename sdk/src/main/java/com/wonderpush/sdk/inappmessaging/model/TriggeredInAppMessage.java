@@ -14,16 +14,26 @@
 
 package com.wonderpush.sdk.inappmessaging.model;
 
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.inappmessaging.internal.TriggerSpan;
+
 /** @hide */
 public class TriggeredInAppMessage {
   private InAppMessage inAppMessage;
   private String triggeringEvent;
   private long delay;
+  @Nullable private TriggerSpan triggerSpan;
 
   public TriggeredInAppMessage(InAppMessage inAppMessage, String triggeringEvent, long delay) {
+    this(inAppMessage, triggeringEvent, delay, null);
+  }
+
+  public TriggeredInAppMessage(InAppMessage inAppMessage, String triggeringEvent, long delay, @Nullable TriggerSpan triggerSpan) {
     this.inAppMessage = inAppMessage;
     this.triggeringEvent = triggeringEvent;
     this.delay = delay;
+    this.triggerSpan = triggerSpan;
   }
 
   public InAppMessage getInAppMessage() {
@@ -35,4 +45,6 @@ public class TriggeredInAppMessage {
     return triggeringEvent;
   }
   public long getDelay() { return delay; }
+  @Nullable
+  public TriggerSpan getTriggerSpan() { return triggerSpan; }
 }
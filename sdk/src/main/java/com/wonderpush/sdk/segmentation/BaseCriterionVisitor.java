@@ -2,9 +2,10 @@ package com.wonderpush.sdk.segmentation;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.JSONUtil;
 import com.wonderpush.sdk.TimeSync;
-import com.wonderpush.sdk.WonderPush;
 import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
 import com.wonderpush.sdk.segmentation.parser.ASTCriterionVisitor;
 import com.wonderpush.sdk.segmentation.parser.ASTValueNode;
@@ -12,6 +13,7 @@ import com.wonderpush.sdk.segmentation.parser.ASTValueVisitor;
 import com.wonderpush.sdk.segmentation.parser.DataSourceVisitor;
 import com.wonderpush.sdk.segmentation.parser.DefaultValueNodeParser;
 import com.wonderpush.sdk.segmentation.parser.FieldPath;
+import com.wonderpush.sdk.segmentation.parser.ISO8601Duration;
 import com.wonderpush.sdk.segmentation.parser.criteria.ASTUnknownCriterionNode;
 import com.wonderpush.sdk.segmentation.parser.criteria.AllCriterionNode;
 import com.wonderpush.sdk.segmentation.parser.criteria.AndCriterionNode;
@@ -63,12 +65,31 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
 
     public static final String TAG = "WonderPush.Segm.Visitor";
 
-    protected final boolean debug;
     protected final Segmenter.Data data;
+    protected final ResultValidity validity;
+    @Nullable protected final SegmentEvaluationTrace.Recorder trace;
 
     public BaseCriterionVisitor(Segmenter.Data data) {
-        this.debug = WonderPush.getLogging();
+        this(data, new ResultValidity(TimeSync.getTime()), null);
+    }
+
+    /**
+     * @param trace Records a trace tree in explain mode, {@code null} otherwise
+     */
+    BaseCriterionVisitor(Segmenter.Data data, ResultValidity validity, @Nullable SegmentEvaluationTrace.Recorder trace) {
         this.data = data;
+        this.validity = validity;
+        this.trace = trace;
+    }
+
+    /**
+     * Evaluates a criterion node with this visitor, recording it in explain mode.
+     *
+     * Explanations are only built in explain mode, keeping the normal path free of string building.
+     */
+    boolean evaluate(ASTCriterionNode node) {
+        if (trace == null) return node.accept(this);
+        return trace.evaluate(node, this);
     }
 
     ///
@@ -93,6 +114,8 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
 
     @Override
     public Object visitRelativeDateValueNode(RelativeDateValueNode node) {
+        // Only comparisons can anticipate when a relative date will change their result
+        validity.expireNow();
         return node.duration.applyTo(TimeSync.getTime());
     }
 
@@ -142,39 +165,34 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
 
     @Override
     public Boolean visitMatchAllCriterionNode(MatchAllCriterionNode node) {
-        if (debug) Log.d(TAG, "[visitMatchAllCriterionNode] return true");
         return true;
     }
 
     @Override
     public Boolean visitAndCriterionNode(AndCriterionNode node) {
         for (ASTCriterionNode child : node.children) {
-            if (!child.accept(this)) {
-                if (debug) Log.d(TAG, "[visitAndCriterionNode] return false because " + child + " is false.");
+            if (!evaluate(child)) {
+                if (trace != null) trace.explain("false because " + child.getClass().getSimpleName() + " is false");
                 return false;
             }
         }
-        if (debug) Log.d(TAG, "[visitAndCriterionNode] return true");
         return true;
     }
 
     @Override
     public Boolean visitOrCriterionNode(OrCriterionNode node) {
         for (ASTCriterionNode child : node.children) {
-            if (child.accept(this)) {
-                if (debug) Log.d(TAG, "[visitOrCriterionNode] return true because " + child + " is true.");
+            if (evaluate(child)) {
+                if (trace != null) trace.explain("true because " + child.getClass().getSimpleName() + " is true");
                 return true;
             }
         }
-        if (debug) Log.d(TAG, "[visitOrCriterionNode] return false");
         return false;
     }
 
     @Override
     public Boolean visitNotCriterionNode(NotCriterionNode node) {
-        Boolean rtn = !node.child.accept(this);
-        if (debug) Log.d(TAG, "[visitNotCriterionNode] return " + rtn);
-        return rtn;
+        return !evaluate(node.child);
     }
 
     @Override
@@ -198,40 +216,42 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
             status = SubscriptionStatusCriterionNode.SubscriptionStatus.optIn;
         }
         boolean rtn = node.subscriptionStatus == status;
-        if (debug) Log.d(TAG, "[visitSubscriptionStatusCriterionNode] return " + rtn + " because we are " + status);
+        if (trace != null) trace.explain("we are " + status);
         return rtn;
     }
 
     @Override
     public Boolean visitLastActivityDateCriterionNode(LastActivityDateCriterionNode node) {
-        Boolean rtn;
         if (node.dateComparison == null) {
-            rtn = this.data.lastAppOpenDate > 0;
-        } else {
-            rtn = node.dateComparison.accept(this);
+            return this.data.lastAppOpenDate > 0;
         }
-        if (debug) Log.d(TAG, "[visitLastActivityDateCriterionNode] return " + rtn);
-        return rtn;
+        return evaluate(node.dateComparison);
     }
 
     @Override
     public Boolean visitPresenceCriterionNode(PresenceCriterionNode node) {
         // Are we present right now?
         boolean present = this.data.presenceInfo == null || (this.data.presenceInfo.untilDate >= TimeSync.getTime() && this.data.presenceInfo.fromDate <= TimeSync.getTime());
+        if (this.data.presenceInfo != null) {
+            if (present) {
+                validity.expireAt(this.data.presenceInfo.untilDate + 1);
+            } else if (this.data.presenceInfo.fromDate > validity.now) {
+                validity.expireAt(this.data.presenceInfo.fromDate);
+            }
+        }
         if (present != node.present) {
-            if (debug) Log.d(TAG, "[visitPresenceCriterionNode] return false because presence mismatch, expected " + node.present);
+            if (trace != null) trace.explain("false because presence mismatch, expected " + node.present);
             return false;
         }
 
-        if (node.elapsedTimeComparison != null && !node.elapsedTimeComparison.accept(this)) {
-            if (debug) Log.d(TAG, "[visitPresenceCriterionNode] return false because elapsedTime mismatch");
+        if (node.elapsedTimeComparison != null && !evaluate(node.elapsedTimeComparison)) {
+            if (trace != null) trace.explain("false because elapsedTime mismatch");
             return false;
         }
-        if (node.sinceDateComparison != null && !node.sinceDateComparison.accept(this)) {
-            if (debug) Log.d(TAG, "[visitPresenceCriterionNode] return false because sinceDate mismatch");
+        if (node.sinceDateComparison != null && !evaluate(node.sinceDateComparison)) {
+            if (trace != null) trace.explain("false because sinceDate mismatch");
             return false;
         }
-        if (debug) Log.d(TAG, "[visitPresenceCriterionNode] return true");
         return true;
     }
 
@@ -239,20 +259,18 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
     public Boolean visitJoinCriterionNode(JoinCriterionNode node) {
         if (node.context.dataSource instanceof EventSource) {
             for (JSONObject event : this.data.allEvents) {
-                EventVisitor eventVisitor = new EventVisitor(data, event);
-                if (node.child.accept(eventVisitor)) {
-                    if (debug) Log.d(TAG, "[visitJoinCriterionNode] return true for event " + event);
+                if (trace != null) trace.visited(1);
+                EventVisitor eventVisitor = new EventVisitor(data, event, validity, trace);
+                if (eventVisitor.evaluate(node.child)) {
+                    if (trace != null) trace.explain("true for event " + event);
                     return true;
                 }
             }
-            if (debug) Log.d(TAG, "[visitJoinCriterionNode] return false for all events");
             return false;
         }
         if (node.context.dataSource instanceof InstallationSource) {
-            InstallationVisitor installationVisitor = new InstallationVisitor(data);
-            Boolean rtn = node.child.accept(installationVisitor);
-            if (debug) Log.d(TAG, "[visitJoinCriterionNode] return " + rtn + " for installation");
-            return rtn;
+            InstallationVisitor installationVisitor = new InstallationVisitor(data, validity, trace);
+            return installationVisitor.evaluate(node.child);
         }
         Log.w(TAG, "[visitJoinCriterionNode] return false for unsupported " + node.context.dataSource.getClass().getSimpleName());
         return false;
@@ -263,11 +281,13 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
         List<Object> dataSourceValues = node.context.dataSource.accept(this);
         Object actualValue = node.value.accept(this);
         boolean result;
+        int visited = 0;
         if (actualValue == null || actualValue == JSONObject.NULL) {
             result = dataSourceValues.isEmpty();
         } else {
             result = false;
             for (Object dataSourceValue : dataSourceValues) {
+                ++visited;
                 if (actualValue instanceof Number) {
                     if (!(dataSourceValue instanceof Number)) {
                         result = false;
@@ -283,35 +303,46 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
                 if (result) break;
             }
         }
-        if (debug) Log.d(TAG, "[visitEqualityCriterionNode] return " + result + " because " + dataSourceValues + " " + (result ? "==" : "!=") + " " + actualValue);
+        if (trace != null) {
+            trace.visited(visited);
+            trace.explain(dataSourceValues + " " + (result ? "==" : "!=") + " " + actualValue);
+        }
         return result;
     }
 
     @Override
     public Boolean visitAnyCriterionNode(AnyCriterionNode node) {
         List<Object> dataSourceValues = node.context.dataSource.accept(this);
+        int visited = 0;
+        boolean result = false;
+        outer:
         for (ASTValueNode<Object> value : node.values) {
             Object actualValue = value.accept(this);
             if (actualValue == null || actualValue == JSONObject.NULL) {
                 if (dataSourceValues.isEmpty()) {
-                    if (debug) Log.d(TAG, "[visitAnyCriterionNode] return true for " + dataSourceValues);
-                    return true;
+                    result = true;
+                    break;
                 }
             }
             for (Object dataSourceValue : dataSourceValues) {
+                ++visited;
                 if (actualValue.equals(dataSourceValue)) {
-                    if (debug) Log.d(TAG, "[visitAnyCriterionNode] return true for " + dataSourceValues);
-                    return true;
+                    result = true;
+                    break outer;
                 }
             }
         }
-        if (debug) Log.d(TAG, "[visitAnyCriterionNode] return false for " + dataSourceValues);
-        return false;
+        if (trace != null) {
+            trace.visited(visited);
+            trace.explain(dataSourceValues + (result ? " contains " : " contains none of ") + node.values.size() + " values");
+        }
+        return result;
     }
 
     @Override
     public Boolean visitAllCriterionNode(AllCriterionNode node) {
         List<Object> dataSourceValues = node.context.dataSource.accept(this);
+        int visited = 0;
         for (ASTValueNode<Object> value : node.values) {
             boolean found = false;
             Object actualValue = value.accept(this);
@@ -321,6 +352,7 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
                 }
             } else {
                 for (Object dataSourceValue : dataSourceValues) {
+                    ++visited;
                     if (actualValue.equals(dataSourceValue)) {
                         found = true;
                         break;
@@ -328,11 +360,14 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
                 }
             }
             if (!found) {
-                if (debug) Log.d(TAG, "[visitAllCriterionNode] return false because " + actualValue + " in not contained in " + dataSourceValues);
+                if (trace != null) {
+                    trace.visited(visited);
+                    trace.explain(actualValue + " is not contained in " + dataSourceValues);
+                }
                 return false;
             }
         }
-        if (debug) Log.d(TAG, "[visitAllCriterionNode] return true for " + dataSourceValues);
+        if (trace != null) trace.visited(visited);
         return true;
     }
 
@@ -369,8 +404,23 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
     public Boolean visitComparisonCriterionNode(ComparisonCriterionNode node) {
         List<Object> dataSourceValues = node.context.dataSource.accept(this);
         boolean result = false;
-        Object actualValue = node.value.accept(this);
+        Object actualValue;
+        ASTValueNode<?> value = node.value;
+        if (value instanceof RelativeDateValueNode) {
+            // Evaluate relative dates against our own clock reading, to know when the comparison can change
+            ISO8601Duration duration = ((RelativeDateValueNode) value).duration;
+            actualValue = duration.applyTo(validity.now);
+            for (Object dataSourceValue : dataSourceValues) {
+                if (dataSourceValue instanceof Number) {
+                    validity.expireAt(dateWhenRelativeDateReaches(duration, validity.now, ((Number) dataSourceValue).longValue()));
+                }
+            }
+        } else {
+            actualValue = node.value.accept(this);
+        }
+        int visited = 0;
         for (Object dataSourceValue : dataSourceValues) {
+            ++visited;
             try {
                 switch (node.comparator) {
                     case gt:
@@ -391,10 +441,30 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
                 break;
             }
         }
-        if (debug) Log.d(TAG, "[visitComparisonCriterionNode] return " + result + " because " + dataSourceValues + (result ? " is " : " is not ") + node.comparator.name() + " " + actualValue);
+        if (trace != null) {
+            trace.visited(visited);
+            trace.explain(dataSourceValues + (result ? " is " : " is not ") + node.comparator.name() + " " + actualValue);
+        }
         return result;
     }
 
+    /**
+     * Returns the earliest date at which {@code duration.applyTo(date)} reaches {@code target},
+     * erring on the early side, or {@link Long#MAX_VALUE} if it already has.
+     */
+    static long dateWhenRelativeDateReaches(ISO8601Duration duration, long now, long target) {
+        long current = duration.applyTo(now);
+        if (current > target) return Long.MAX_VALUE; // relative dates only move forward
+        long date = now + (target - current);
+        // Calendar durations (months, years) do not shift dates by a constant amount, step back until we are early
+        for (int i = 0; i < 8 && date > now; i++) {
+            long reached = duration.applyTo(date);
+            if (reached <= target) return date;
+            date -= reached - target;
+        }
+        return date > now && duration.applyTo(date) <= target ? date : now;
+    }
+
     @Override
     public Boolean visitPrefixCriterionNode(PrefixCriterionNode node) {
         List<Object> dataSourceValues = node.context.dataSource.accept(this);
@@ -404,7 +474,9 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
             return false;
         }
         boolean result = false;
+        int visited = 0;
         for (Object dataSourceValue : dataSourceValues) {
+            ++visited;
             if (!(dataSourceValue instanceof String)) {
                 Log.w(TAG, "[visitPrefixCriterionNode] value " + dataSourceValue + " is not a string");
                 continue;
@@ -412,7 +484,10 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
             result = ((String) dataSourceValue).startsWith((String) actualValue);
             if (result) break;
         }
-        if (debug) Log.d(TAG, "[visitPrefixCriterionNode] return " + result + " because " + dataSourceValues + " " + (result ? "starts with" : "does not start with") + " " + actualValue);
+        if (trace != null) {
+            trace.visited(visited);
+            trace.explain(dataSourceValues + " " + (result ? "starts with" : "does not start with") + " " + actualValue);
+        }
         return result;
     }
 
@@ -504,6 +579,9 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
     @Override
     public List<Object> visitPresenceSinceDateSource(PresenceSinceDateSource dataSource) {
         // Note: with in-apps, if we're running this, we're present.
+        if (dataSource.present && this.data.presenceInfo == null) {
+            validity.expireNow();
+        }
         if (dataSource.present) {
             // When presence info is missing, assume the user just got here.
             return Collections.singletonList(this.data.presenceInfo == null ? TimeSync.getTime() : this.data.presenceInfo.fromDate);
@@ -515,6 +593,7 @@ abstract class BaseCriterionVisitor implements ASTValueVisitor<Object>, ASTCrite
     @Override
     public List<Object> visitPresenceElapsedTimeSource(PresenceElapsedTimeSource dataSource) {
         if (dataSource.present) {
+            if (this.data.presenceInfo != null) validity.expireNow();
             return Collections.singletonList(this.data.presenceInfo == null ? 0 : Math.max(0, TimeSync.getTime() - this.data.presenceInfo.fromDate));
         }
         return Collections.singletonList(this.data.presenceInfo == null ? 0 : this.data.presenceInfo.elapsedTime);
@@ -1,5 +1,7 @@
 package com.wonderpush.sdk.segmentation;
 
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.segmentation.parser.datasource.FieldSource;
 
 import org.json.JSONObject;
@@ -15,6 +17,11 @@ class EventVisitor extends BaseCriterionVisitor {
         this.event = event;
     }
 
+    EventVisitor(Segmenter.Data data, JSONObject event, ResultValidity validity, @Nullable SegmentEvaluationTrace.Recorder trace) {
+        super(data, validity, trace);
+        this.event = event;
+    }
+
     @Override
     public List<Object> visitFieldSource(FieldSource dataSource) {
         return this.visitFieldSourceWithObject(dataSource, this.event);
@@ -1,5 +1,7 @@
 package com.wonderpush.sdk.segmentation;
 
+import androidx.annotation.Nullable;
+
 import com.wonderpush.sdk.segmentation.parser.datasource.FieldSource;
 
 import java.util.List;
@@ -10,6 +12,10 @@ class InstallationVisitor extends BaseCriterionVisitor {
         super(data);
     }
 
+    InstallationVisitor(Segmenter.Data data, ResultValidity validity, @Nullable SegmentEvaluationTrace.Recorder trace) {
+        super(data, validity, trace);
+    }
+
     @Override
     public List<Object> visitFieldSource(FieldSource dataSource) {
         return this.visitFieldSourceWithObject(dataSource, this.data.installation);
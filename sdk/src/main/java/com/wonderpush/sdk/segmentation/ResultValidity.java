@@ -0,0 +1,37 @@
+package com.wonderpush.sdk.segmentation;
+
+/**
+ * Tracks until when the result of an evaluation holds, assuming the evaluated data does not change.
+ *
+ * Shared by all the visitors of one evaluation, joins included.
+ */
+class ResultValidity {
+
+    final long now;
+    private long validUntil = Long.MAX_VALUE;
+
+    ResultValidity(long now) {
+        this.now = now;
+    }
+
+    /**
+     * Notes that a part of the result may change at the given date.
+     */
+    void expireAt(long date) {
+        if (date < validUntil) {
+            validUntil = Math.max(now, date);
+        }
+    }
+
+    /**
+     * Notes that a part of the result depends on the current time in a way we cannot anticipate.
+     */
+    void expireNow() {
+        validUntil = now;
+    }
+
+    long getValidUntil() {
+        return validUntil;
+    }
+
+}
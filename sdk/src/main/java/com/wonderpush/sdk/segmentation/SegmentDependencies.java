@@ -0,0 +1,348 @@
+package com.wonderpush.sdk.segmentation;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionVisitor;
+import com.wonderpush.sdk.segmentation.parser.ASTValueNode;
+import com.wonderpush.sdk.segmentation.parser.DataSource;
+import com.wonderpush.sdk.segmentation.parser.DataSourceVisitor;
+import com.wonderpush.sdk.segmentation.parser.criteria.ASTUnknownCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.AllCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.AndCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.AnyCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.ComparisonCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.EqualityCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.GeoCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.InsideCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.JoinCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.LastActivityDateCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.MatchAllCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.NotCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.OrCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.PrefixCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.PresenceCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.SubscriptionStatusCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.datasource.EventSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.FieldSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.GeoDateSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.GeoLocationSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.InstallationSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.LastActivityDateSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.PresenceElapsedTimeSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.PresenceSinceDateSource;
+import com.wonderpush.sdk.segmentation.parser.datasource.UserSource;
+import com.wonderpush.sdk.segmentation.parser.value.RelativeDateValueNode;
+import com.wonderpush.sdk.segmentation.parser.value.StringValueNode;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The data a parsed segment reads: installation field paths, tracked event types and time.
+ *
+ * Computed once per parsed segment, it lets {@link SegmentMembershipCache} keep a membership result
+ * until something the segment actually depends on changes.
+ */
+public class SegmentDependencies {
+
+    /**
+     * Dotted paths of the installation fields read by the segment.
+     */
+    public final Set<String> installationFieldPaths;
+
+    /**
+     * Types of the tracked events the segment can match, only meaningful if {@link #anyEventType} is {@code false}.
+     */
+    public final Set<String> eventTypes;
+
+    /**
+     * Whether the segment reads tracked events without restricting their type.
+     */
+    public final boolean anyEventType;
+
+    /**
+     * Whether the segment compares against relative dates or presence durations, hence can change over time alone.
+     */
+    public final boolean timeDependent;
+
+    public final boolean dependsOnPresence;
+
+    public final boolean dependsOnLastActivityDate;
+
+    private SegmentDependencies(Set<String> installationFieldPaths, Set<String> eventTypes, boolean anyEventType, boolean timeDependent, boolean dependsOnPresence, boolean dependsOnLastActivityDate) {
+        this.installationFieldPaths = Collections.unmodifiableSet(installationFieldPaths);
+        this.eventTypes = Collections.unmodifiableSet(eventTypes);
+        this.anyEventType = anyEventType;
+        this.timeDependent = timeDependent;
+        this.dependsOnPresence = dependsOnPresence;
+        this.dependsOnLastActivityDate = dependsOnLastActivityDate;
+    }
+
+    public static SegmentDependencies of(ASTCriterionNode node) {
+        Collector collector = new Collector();
+        node.accept(collector);
+        return new SegmentDependencies(collector.installationFieldPaths, collector.eventTypes, collector.anyEventType, collector.timeDependent, collector.dependsOnPresence, collector.dependsOnLastActivityDate);
+    }
+
+    public boolean dependsOnEvents() {
+        return anyEventType || !eventTypes.isEmpty();
+    }
+
+    public boolean dependsOnEventType(String type) {
+        return anyEventType || eventTypes.contains(type);
+    }
+
+    /**
+     * Tells whether a change at the given dotted path can affect one of the read installation fields.
+     * A change of a parent object or of a sub-field of a read field both count.
+     */
+    public boolean dependsOnInstallationPath(String changedPath) {
+        for (String path : installationFieldPaths) {
+            if (isSameOrDescendant(path, changedPath) || isSameOrDescendant(changedPath, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameOrDescendant(String path, String ancestor) {
+        return path.startsWith(ancestor) && (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '.');
+    }
+
+    private static class Collector implements ASTCriterionVisitor<Void>, DataSourceVisitor<Void> {
+
+        final Set<String> installationFieldPaths = new LinkedHashSet<>();
+        final Set<String> eventTypes = new LinkedHashSet<>();
+        boolean anyEventType;
+        boolean timeDependent;
+        boolean dependsOnPresence;
+        boolean dependsOnLastActivityDate;
+
+        private void visitChild(@Nullable ASTCriterionNode child) {
+            if (child != null) child.accept(this);
+        }
+
+        private void visitValue(ASTValueNode<?> value) {
+            if (value instanceof RelativeDateValueNode) {
+                timeDependent = true;
+            }
+        }
+
+        @Override
+        public Void visitMatchAllCriterionNode(MatchAllCriterionNode node) {
+            return null;
+        }
+
+        @Override
+        public Void visitAndCriterionNode(AndCriterionNode node) {
+            for (ASTCriterionNode child : node.children) visitChild(child);
+            return null;
+        }
+
+        @Override
+        public Void visitOrCriterionNode(OrCriterionNode node) {
+            for (ASTCriterionNode child : node.children) visitChild(child);
+            return null;
+        }
+
+        @Override
+        public Void visitNotCriterionNode(NotCriterionNode node) {
+            visitChild(node.child);
+            return null;
+        }
+
+        @Override
+        public Void visitGeoCriterionNode(GeoCriterionNode node) {
+            // Geo is not supported by the visitors, which always return false
+            return null;
+        }
+
+        @Override
+        public Void visitSubscriptionStatusCriterionNode(SubscriptionStatusCriterionNode node) {
+            installationFieldPaths.add("pushToken.data");
+            installationFieldPaths.add("preferences.subscriptionStatus");
+            return null;
+        }
+
+        @Override
+        public Void visitLastActivityDateCriterionNode(LastActivityDateCriterionNode node) {
+            dependsOnLastActivityDate = true;
+            visitChild(node.dateComparison);
+            return null;
+        }
+
+        @Override
+        public Void visitPresenceCriterionNode(PresenceCriterionNode node) {
+            dependsOnPresence = true;
+            timeDependent = true;
+            visitChild(node.sinceDateComparison);
+            visitChild(node.elapsedTimeComparison);
+            return null;
+        }
+
+        @Override
+        public Void visitJoinCriterionNode(JoinCriterionNode node) {
+            if (node.context.dataSource instanceof EventSource) {
+                Set<String> restriction = eventTypeRestriction(node.child);
+                if (restriction == null) {
+                    anyEventType = true;
+                } else {
+                    eventTypes.addAll(restriction);
+                }
+            }
+            visitChild(node.child);
+            return null;
+        }
+
+        private void visitDataSource(DataSource dataSource) {
+            dataSource.accept(this);
+        }
+
+        @Override
+        public Void visitEqualityCriterionNode(EqualityCriterionNode node) {
+            visitDataSource(node.context.dataSource);
+            visitValue(node.value);
+            return null;
+        }
+
+        @Override
+        public Void visitAnyCriterionNode(AnyCriterionNode node) {
+            visitDataSource(node.context.dataSource);
+            for (ASTValueNode<Object> value : node.values) visitValue(value);
+            return null;
+        }
+
+        @Override
+        public Void visitAllCriterionNode(AllCriterionNode node) {
+            visitDataSource(node.context.dataSource);
+            for (ASTValueNode<Object> value : node.values) visitValue(value);
+            return null;
+        }
+
+        @Override
+        public Void visitComparisonCriterionNode(ComparisonCriterionNode node) {
+            visitDataSource(node.context.dataSource);
+            visitValue(node.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPrefixCriterionNode(PrefixCriterionNode node) {
+            visitDataSource(node.context.dataSource);
+            return null;
+        }
+
+        @Override
+        public Void visitInsideCriterionNode(InsideCriterionNode node) {
+            return null;
+        }
+
+        @Override
+        public Void visitASTUnknownCriterionNode(ASTUnknownCriterionNode node) {
+            return null;
+        }
+
+        @Override
+        public Void visitUserSource(UserSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitInstallationSource(InstallationSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitEventSource(EventSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitFieldSource(FieldSource dataSource) {
+            // Event fields are covered by event types, user fields are not supported by the visitors
+            if (dataSource.getRootDataSource() instanceof InstallationSource) {
+                installationFieldPaths.add(FieldSource.join(".", dataSource.fullPath().parts));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLastActivityDateSource(LastActivityDateSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitPresenceSinceDateSource(PresenceSinceDateSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitPresenceElapsedTimeSource(PresenceElapsedTimeSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitGeoLocationSource(GeoLocationSource dataSource) {
+            return null;
+        }
+
+        @Override
+        public Void visitGeoDateSource(GeoDateSource dataSource) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Returns the event types an event must have to match the given criterion, or {@code null} if any type can match.
+     */
+    @Nullable
+    static Set<String> eventTypeRestriction(ASTCriterionNode node) {
+        if (node instanceof EqualityCriterionNode) {
+            EqualityCriterionNode equality = (EqualityCriterionNode) node;
+            ASTValueNode<?> value = equality.value;
+            if (isEventTypeField(equality.context.dataSource) && value instanceof StringValueNode) {
+                return Collections.singleton(((StringValueNode) value).getValue());
+            }
+        } else if (node instanceof AnyCriterionNode) {
+            AnyCriterionNode any = (AnyCriterionNode) node;
+            if (!isEventTypeField(any.context.dataSource)) return null;
+            Set<String> rtn = new HashSet<>();
+            for (ASTValueNode<?> value : any.values) {
+                if (!(value instanceof StringValueNode)) return null;
+                rtn.add(((StringValueNode) value).getValue());
+            }
+            return rtn;
+        } else if (node instanceof AndCriterionNode) {
+            // Any restricting child restricts the whole conjunction
+            for (ASTCriterionNode child : ((AndCriterionNode) node).children) {
+                Set<String> restriction = eventTypeRestriction(child);
+                if (restriction != null) return restriction;
+            }
+        } else if (node instanceof OrCriterionNode) {
+            List<ASTCriterionNode> children = ((OrCriterionNode) node).children;
+            if (children.isEmpty()) return null;
+            Set<String> rtn = new HashSet<>();
+            for (ASTCriterionNode child : children) {
+                Set<String> restriction = eventTypeRestriction(child);
+                if (restriction == null) return null;
+                rtn.addAll(restriction);
+            }
+            return rtn;
+        }
+        return null;
+    }
+
+    private static boolean isEventTypeField(DataSource dataSource) {
+        if (!(dataSource instanceof FieldSource) || !(dataSource.getRootDataSource() instanceof EventSource)) {
+            return false;
+        }
+        String[] parts = ((FieldSource) dataSource).fullPath().parts;
+        return parts.length == 1 && "type".equals(parts[0]);
+    }
+
+}
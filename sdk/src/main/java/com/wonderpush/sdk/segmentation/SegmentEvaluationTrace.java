@@ -0,0 +1,140 @@
+package com.wonderpush.sdk.segmentation;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of evaluating a criterion node in explain mode, along with the evaluation of its sub-criteria.
+ *
+ * Obtained with {@link Segmenter#explainInstallation(ASTCriterionNode)}.
+ * Timings include the evaluation of children, and the cost of tracing itself.
+ */
+public class SegmentEvaluationTrace {
+
+    public final ASTCriterionNode node;
+    private final List<SegmentEvaluationTrace> children = new ArrayList<>();
+    private boolean result;
+    private long elapsedNanos;
+    private int visitedCount;
+    @Nullable private String explanation;
+
+    SegmentEvaluationTrace(ASTCriterionNode node) {
+        this.node = node;
+    }
+
+    public boolean getResult() {
+        return result;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of items this node went through: values read from its data source, events for joins.
+     */
+    public int getVisitedCount() {
+        return visitedCount;
+    }
+
+    @Nullable
+    public String getExplanation() {
+        return explanation;
+    }
+
+    public List<SegmentEvaluationTrace> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public JSONObject toJSON() {
+        JSONObject rtn = new JSONObject();
+        try {
+            rtn.put("node", node.getClass().getSimpleName());
+            rtn.put("result", result);
+            rtn.put("elapsedNanos", elapsedNanos);
+            rtn.put("visited", visitedCount);
+            if (explanation != null) rtn.put("explanation", explanation);
+            if (!children.isEmpty()) {
+                JSONArray childrenJson = new JSONArray();
+                for (SegmentEvaluationTrace child : children) {
+                    childrenJson.put(child.toJSON());
+                }
+                rtn.put("children", childrenJson);
+            }
+        } catch (JSONException ignored) {}
+        return rtn;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, 0);
+        return sb.toString();
+    }
+
+    private void appendTo(StringBuilder sb, int depth) {
+        for (int i = 0; i < depth; i++) sb.append("  ");
+        sb.append(node.getClass().getSimpleName())
+                .append(' ').append(result)
+                .append(" in ").append(elapsedNanos / 1000).append("us")
+                .append(", visited ").append(visitedCount);
+        if (explanation != null) sb.append(": ").append(explanation);
+        sb.append('\n');
+        for (SegmentEvaluationTrace child : children) {
+            child.appendTo(sb, depth + 1);
+        }
+    }
+
+    /**
+     * Builds the trace tree as visitors evaluate nodes.
+     *
+     * Shared by all the visitors of one evaluation, joins included.
+     */
+    static class Recorder {
+
+        private final List<SegmentEvaluationTrace> stack = new ArrayList<>();
+        @Nullable private SegmentEvaluationTrace root;
+
+        boolean evaluate(ASTCriterionNode node, BaseCriterionVisitor visitor) {
+            SegmentEvaluationTrace trace = new SegmentEvaluationTrace(node);
+            if (stack.isEmpty()) {
+                if (root == null) root = trace;
+            } else {
+                stack.get(stack.size() - 1).children.add(trace);
+            }
+            stack.add(trace);
+            long start = System.nanoTime();
+            try {
+                trace.result = node.accept(visitor);
+            } finally {
+                trace.elapsedNanos = System.nanoTime() - start;
+                stack.remove(stack.size() - 1);
+            }
+            return trace.result;
+        }
+
+        void visited(int count) {
+            if (!stack.isEmpty()) stack.get(stack.size() - 1).visitedCount += count;
+        }
+
+        void explain(String explanation) {
+            if (!stack.isEmpty()) stack.get(stack.size() - 1).explanation = explanation;
+        }
+
+        @Nullable
+        SegmentEvaluationTrace getRoot() {
+            return root;
+        }
+
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.wonderpush.sdk.segmentation;
+
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.TimeSync;
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers installation segment membership results, keyed by parsed segment.
+ *
+ * An entry is dropped when an installation diff touches a field the segment reads,
+ * when an event of a type it reads is tracked, or when a relative date boundary it compares against passes.
+ * Presence and last activity date are part of {@link Segmenter.Data} and are checked on lookup.
+ */
+public class SegmentMembershipCache {
+
+    private static final SegmentMembershipCache instance = new SegmentMembershipCache();
+
+    public static SegmentMembershipCache getInstance() {
+        return instance;
+    }
+
+    private static class Entry {
+        final SegmentDependencies dependencies;
+        boolean valid;
+        boolean result;
+        long validUntil;
+        long lastAppOpenDate;
+        @Nullable Segmenter.PresenceInfo presenceInfo;
+
+        Entry(SegmentDependencies dependencies) {
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * Collects the types of the events added or removed while the tracked events are rewritten,
+     * so that the results depending on any of them are dropped at once.
+     */
+    public static class EventTypeChanges {
+        private final Set<String> types = new HashSet<>();
+
+        public void add(String type) {
+            types.add(type);
+        }
+
+        public void removed(JSONObject event) {
+            types.add(event.optString("type"));
+        }
+
+        /**
+         * Keeps the last {@code max} events of the given list, recording the types of the removed ones.
+         */
+        public List<JSONObject> removeExcessFromStart(List<JSONObject> events, int max) {
+            int excessEvents = Math.max(0, events.size() - max);
+            for (JSONObject event : events.subList(0, excessEvents)) {
+                removed(event);
+            }
+            return events.subList(excessEvents, events.size());
+        }
+
+        Set<String> getTypes() {
+            return types;
+        }
+    }
+
+    private final Map<ASTCriterionNode, Entry> entries = new WeakHashMap<>();
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns a counter that changes on each invalidation.
+     * Read it before taking a data snapshot to later store a result computed from this snapshot.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized SegmentDependencies getDependencies(ASTCriterionNode segment) {
+        return getEntry(segment).dependencies;
+    }
+
+    private Entry getEntry(ASTCriterionNode segment) {
+        Entry entry = entries.get(segment);
+        if (entry == null) {
+            entry = new Entry(SegmentDependencies.of(segment));
+            entries.put(segment, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the cached membership of the given segment, or {@code null} if it must be evaluated.
+     */
+    @Nullable
+    public synchronized Boolean get(ASTCriterionNode segment, Segmenter.Data data) {
+        Entry entry = entries.get(segment);
+        if (entry == null || !entry.valid
+                || TimeSync.getTime() >= entry.validUntil
+                || entry.dependencies.dependsOnLastActivityDate && entry.lastAppOpenDate != data.lastAppOpenDate
+                || entry.dependencies.dependsOnPresence && !samePresenceInfo(entry.presenceInfo, data.presenceInfo)) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.result;
+    }
+
+    /**
+     * Stores a membership result, unless an invalidation happened since the given generation was read.
+     */
+    synchronized void put(ASTCriterionNode segment, Segmenter.Data data, boolean result, long validUntil, long generation) {
+        if (generation != this.generation) return;
+        Entry entry = getEntry(segment);
+        entry.valid = true;
+        entry.result = result;
+        entry.validUntil = validUntil;
+        entry.lastAppOpenDate = data.lastAppOpenDate;
+        entry.presenceInfo = data.presenceInfo;
+    }
+
+    /**
+     * Drops the results depending on the installation fields touched by the given diff.
+     *
+     * @param diff The diff applied to the installation, or {@code null} if the installation was replaced wholesale.
+     */
+    public synchronized void invalidateInstallationDiff(@Nullable JSONObject diff) {
+        ++generation;
+        if (diff == null) {
+            invalidateAll();
+            return;
+        }
+        List<String> changedPaths = new ArrayList<>();
+        collectPaths(diff, null, changedPaths);
+        for (Entry entry : entries.values()) {
+            if (!entry.valid) continue;
+            for (String changedPath : changedPaths) {
+                if (entry.dependencies.dependsOnInstallationPath(changedPath)) {
+                    entry.valid = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results depending on events of the given type.
+     */
+    public synchronized void invalidateEventType(String type) {
+        ++generation;
+        for (Entry entry : entries.values()) {
+            if (entry.valid && entry.dependencies.dependsOnEventType(type)) {
+                entry.valid = false;
+            }
+        }
+    }
+
+    /**
+     * Drops the results depending on events of any of the given types.
+     */
+    public synchronized void invalidateEventTypes(EventTypeChanges changes) {
+        ++generation;
+        for (Entry entry : entries.values()) {
+            if (!entry.valid) continue;
+            for (String type : changes.getTypes()) {
+                if (entry.dependencies.dependsOnEventType(type)) {
+                    entry.valid = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        ++generation;
+        for (Entry entry : entries.values()) {
+            entry.valid = false;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private static void collectPaths(JSONObject diff, @Nullable String prefix, List<String> paths) {
+        Iterator<String> it = diff.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            String path = prefix == null ? key : prefix + "." + key;
+            Object value = diff.opt(key);
+            if (value instanceof JSONObject && ((JSONObject) value).length() > 0) {
+                collectPaths((JSONObject) value, path, paths);
+            } else {
+                // Leaves, nulls, empty objects and arrays replace the whole value
+                paths.add(path);
+            }
+        }
+    }
+
+    private static boolean samePresenceInfo(@Nullable Segmenter.PresenceInfo a, @Nullable Segmenter.PresenceInfo b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return a.fromDate == b.fromDate && a.untilDate == b.untilDate && a.elapsedTime == b.elapsedTime;
+    }
+
+}
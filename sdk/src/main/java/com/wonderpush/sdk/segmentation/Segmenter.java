@@ -1,5 +1,8 @@
 package com.wonderpush.sdk.segmentation;
 
+import androidx.annotation.Nullable;
+
+import com.wonderpush.sdk.TimeSync;
 import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
 import com.wonderpush.sdk.segmentation.parser.BadInputError;
 import com.wonderpush.sdk.segmentation.parser.SegmentationFactory;
@@ -34,17 +37,43 @@ public class Segmenter {
         public final long lastAppOpenDate;
 
         public Data(JSONObject installation, List<JSONObject> allEvents, PresenceInfo presenceInfo, long lastAppOpenDate) {
+            this(installation, allEvents, presenceInfo, lastAppOpenDate, true);
+        }
+
+        private Data(JSONObject installation, List<JSONObject> allEvents, PresenceInfo presenceInfo, long lastAppOpenDate, boolean copyEvents) {
             this.installation = installation;
-            this.allEvents = Collections.unmodifiableList(new ArrayList<>(allEvents));
+            this.allEvents = copyEvents ? Collections.unmodifiableList(new ArrayList<>(allEvents)) : allEvents;
             this.presenceInfo = presenceInfo;
             this.lastAppOpenDate = lastAppOpenDate;
         }
+
+        /**
+         * Builds data around immutable snapshots, without copying them.
+         *
+         * @param installation A snapshot that nobody modifies, like {@code JSONSync.getSdkStateSnapshot()}
+         * @param allEvents An unmodifiable list that nobody modifies, like {@code WonderPushConfiguration.getTrackedEvents()}
+         */
+        public static Data fromSnapshots(JSONObject installation, List<JSONObject> allEvents, PresenceInfo presenceInfo, long lastAppOpenDate) {
+            return new Data(installation, allEvents, presenceInfo, lastAppOpenDate, false);
+        }
     }
 
     protected Data data;
+    @Nullable protected final SegmentMembershipCache cache;
+    protected final long cacheGeneration;
 
     public Segmenter(Data data) {
+        this(data, null, 0);
+    }
+
+    /**
+     * @param cache Cache to read and store membership results in
+     * @param cacheGeneration Value of {@link SegmentMembershipCache#getGeneration()} read before building {@code data}
+     */
+    public Segmenter(Data data, @Nullable SegmentMembershipCache cache, long cacheGeneration) {
         this.data = data;
+        this.cache = cache;
+        this.cacheGeneration = cacheGeneration;
     }
 
     public static ASTCriterionNode parseInstallationSegment(JSONObject segmentInput) throws BadInputError, UnknownValueError, UnknownCriterionError {
@@ -52,7 +81,27 @@ public class Segmenter {
     }
 
     public boolean matchesInstallation(ASTCriterionNode parsedInstallationSegment) {
-        return parsedInstallationSegment.accept(new InstallationVisitor(data));
+        if (cache != null) {
+            Boolean cached = cache.get(parsedInstallationSegment, data);
+            if (cached != null) return cached;
+        }
+        ResultValidity validity = new ResultValidity(TimeSync.getTime());
+        boolean result = new InstallationVisitor(data, validity, null).evaluate(parsedInstallationSegment);
+        if (cache != null) {
+            cache.put(parsedInstallationSegment, data, result, validity.getValidUntil(), cacheGeneration);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the given segment, bypassing the cache, and returns the result of each node with its timing.
+     *
+     * Tracing has a cost, use {@link #matchesInstallation(ASTCriterionNode)} for normal evaluations.
+     */
+    public SegmentEvaluationTrace explainInstallation(ASTCriterionNode parsedInstallationSegment) {
+        SegmentEvaluationTrace.Recorder recorder = new SegmentEvaluationTrace.Recorder();
+        new InstallationVisitor(data, new ResultValidity(TimeSync.getTime()), recorder).evaluate(parsedInstallationSegment);
+        return recorder.getRoot();
     }
 
 }
@@ -3,10 +3,47 @@ package com.wonderpush.sdk.segmentation.parser;
 public abstract class ASTCriterionNode {
 
     public final ParsingContext context;
+    private int hashCode;
 
     public ASTCriterionNode(ParsingContext context) {
         this.context = context;
     }
 
     public abstract <T> T accept(ASTCriterionVisitor<T> visitor);
+
+    /**
+     * Nodes are equal when they have the same type, apply to equal data sources within equal parent data sources,
+     * and have equal children.
+     * The rest of the parsing context is not taken into account.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ASTCriterionNode that = (ASTCriterionNode) o;
+
+        return context.hasSameDataSourcesAs(that.context);
+    }
+
+    /**
+     * Returns the hash code computed by {@link #computeHashCode()} on the first call.
+     * Nodes are immutable, caching spares rehashing whole trees each time they are looked up.
+     */
+    @Override
+    public final int hashCode() {
+        int result = hashCode;
+        if (result == 0) {
+            result = computeHashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    protected int computeHashCode() {
+        int result = getClass().getName().hashCode();
+        result = 31 * result + context.dataSourcesHashCode();
+        return result;
+    }
+
 }
@@ -0,0 +1,36 @@
+package com.wonderpush.sdk.segmentation.parser;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps a canonical instance of structurally equal AST nodes, so that identical sub-criteria
+ * and values shared by many segments are only kept once in memory.
+ *
+ * Canonical instances are only weakly referenced, and forgotten once no segment uses them.
+ */
+public class ASTNodeInterner {
+
+    private final Map<Object, WeakReference<Object>> canonicals = new WeakHashMap<>();
+
+    /**
+     * Returns the canonical instance equal to the given node, registering it if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T intern(T node) {
+        if (node == null) return null;
+        WeakReference<Object> ref = canonicals.get(node);
+        Object canonical = ref == null ? null : ref.get();
+        if (canonical != null) {
+            return (T) canonical;
+        }
+        canonicals.put(node, new WeakReference<>(node));
+        return node;
+    }
+
+    public synchronized int size() {
+        return canonicals.size();
+    }
+
+}
@@ -4,6 +4,7 @@ public abstract class ASTValueNode<T> {
 
     public final ParsingContext context;
     private final T value;
+    private int hashCode;
 
     public ASTValueNode(ParsingContext context, T value) {
         this.context = context;
@@ -16,6 +17,43 @@ public abstract class ASTValueNode<T> {
         return value;
     }
 
+    /**
+     * Nodes are equal when they have the same type, apply to equal data sources within equal parent data sources,
+     * and hold equal values.
+     * The rest of the parsing context is not taken into account.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ASTValueNode<?> that = (ASTValueNode<?>) o;
+
+        if (!context.hasSameDataSourcesAs(that.context)) return false;
+        return value != null ? value.equals(that.value) : that.value == null;
+    }
+
+    /**
+     * Returns the hash code computed by {@link #computeHashCode()} on the first call.
+     * Nodes are immutable, caching spares rehashing whole trees each time they are looked up.
+     */
+    @Override
+    public final int hashCode() {
+        int result = hashCode;
+        if (result == 0) {
+            result = computeHashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    protected int computeHashCode() {
+        int result = getClass().getName().hashCode();
+        result = 31 * result + context.dataSourcesHashCode();
+        result = 31 * result + (value != null ? value.hashCode() : 0);
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     public static ASTValueNode<Object> castToObject(ASTValueNode<?> node) {
         if (node == null) return null;
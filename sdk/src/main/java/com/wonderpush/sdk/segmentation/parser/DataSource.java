@@ -6,6 +6,7 @@ public abstract class DataSource {
 
     @Nullable
     public final DataSource parent;
+    private int hashCode;
 
     public DataSource(@Nullable DataSource parent) {
         this.parent = parent;
@@ -21,4 +22,35 @@ public abstract class DataSource {
     }
 
     abstract public <T> T accept(DataSourceVisitor<T> visitor);
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DataSource that = (DataSource) o;
+
+        return parent != null ? parent.equals(that.parent) : that.parent == null;
+    }
+
+    /**
+     * Returns the hash code computed by {@link #computeHashCode()} on the first call.
+     * Data sources are immutable, caching spares rehashing whole trees each time they are looked up.
+     */
+    @Override
+    public final int hashCode() {
+        int result = hashCode;
+        if (result == 0) {
+            result = computeHashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    protected int computeHashCode() {
+        int result = getClass().getName().hashCode();
+        result = 31 * result + (parent != null ? parent.hashCode() : 0);
+        return result;
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.wonderpush.sdk.segmentation.parser;
 
+import java.util.Arrays;
+
 public class FieldPath {
 
     public final String[] parts;
@@ -12,4 +14,19 @@ public class FieldPath {
         return new FieldPath(dottedPath.split("\\.", -1));
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FieldPath fieldPath = (FieldPath) o;
+
+        return Arrays.equals(parts, fieldPath.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(parts);
+    }
+
 }
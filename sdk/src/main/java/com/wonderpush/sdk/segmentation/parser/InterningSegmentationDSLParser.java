@@ -0,0 +1,32 @@
+package com.wonderpush.sdk.segmentation.parser;
+
+import com.wonderpush.sdk.segmentation.parser.criteria.UnknownCriterionError;
+
+import org.json.JSONObject;
+
+/**
+ * A parser that replaces every parsed node with its canonical instance.
+ *
+ * As parsing is bottom-up, the children of a node are interned before the node itself,
+ * hence identical subtrees of different segments end up being the same objects.
+ */
+public class InterningSegmentationDSLParser extends SegmentationDSLParser {
+
+    public final ASTNodeInterner interner;
+
+    public InterningSegmentationDSLParser(ParserConfig parserConfig, ASTNodeInterner interner) {
+        super(parserConfig);
+        this.interner = interner;
+    }
+
+    @Override
+    public ASTCriterionNode parseCriterion(ParsingContext context, JSONObject input) throws BadInputError, UnknownCriterionError, UnknownValueError {
+        return this.interner.intern(super.parseCriterion(context, input));
+    }
+
+    @Override
+    public ASTValueNode<Object> parseValue(ParsingContext context, Object input) throws BadInputError, UnknownValueError {
+        return this.interner.intern(super.parseValue(context, input));
+    }
+
+}
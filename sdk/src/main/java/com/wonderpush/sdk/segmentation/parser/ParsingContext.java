@@ -19,4 +19,23 @@ public class ParsingContext {
         return new ParsingContext(this.parser, this, dataSource);
     }
 
+    @Nullable
+    private DataSource getParentDataSource() {
+        return this.parentContext == null ? null : this.parentContext.dataSource;
+    }
+
+    /**
+     * Tells whether both contexts have equal data sources, and equal parent data sources.
+     */
+    public boolean hasSameDataSourcesAs(ParsingContext other) {
+        if (!this.dataSource.equals(other.dataSource)) return false;
+        DataSource parentDataSource = this.getParentDataSource();
+        return parentDataSource != null ? parentDataSource.equals(other.getParentDataSource()) : other.getParentDataSource() == null;
+    }
+
+    public int dataSourcesHashCode() {
+        DataSource parentDataSource = this.getParentDataSource();
+        return 31 * this.dataSource.hashCode() + (parentDataSource != null ? parentDataSource.hashCode() : 0);
+    }
+
 }
@@ -2,6 +2,8 @@ package com.wonderpush.sdk.segmentation.parser;
 
 public class SegmentationFactory {
 
+    // Shared by the default parsers, so that identical nodes of all parsed segments are only kept once
+    private static final ASTNodeInterner interner = new ASTNodeInterner();
     private static volatile SegmentationDSLParser defaultParser = null;
     private static volatile SegmentationDSLParser defaultThrowingParser = null;
 
@@ -10,7 +12,7 @@ public class SegmentationFactory {
             synchronized (SegmentationFactory.class) {
                 if (defaultParser == null) {
                     try {
-                        defaultParser = new SegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser()));
+                        defaultParser = new InterningSegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser()), interner);
                     } catch (ValueParserAlreadyExistsForKey | CriterionParserAlreadyExistsForKey ex) {
                         throw new RuntimeException("Failed to construct the default SegmentationDSLParser", ex);
                     }
@@ -25,7 +27,7 @@ public class SegmentationFactory {
             synchronized (SegmentationFactory.class) {
                 if (defaultThrowingParser == null) {
                     try {
-                        defaultThrowingParser = new SegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser(), true, true));
+                        defaultThrowingParser = new InterningSegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser(), true, true), interner);
                     } catch (ValueParserAlreadyExistsForKey | CriterionParserAlreadyExistsForKey ex) {
                         throw new RuntimeException("Failed to construct the default SegmentationDSLParser", ex);
                     }
@@ -35,4 +37,8 @@ public class SegmentationFactory {
         return defaultThrowingParser;
     }
 
+    public static ASTNodeInterner getInterner() {
+        return interner;
+    }
+
 }
@@ -15,6 +15,26 @@ public class ASTUnknownCriterionNode extends ASTCriterionNode {
         this.value = value;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        ASTUnknownCriterionNode that = (ASTUnknownCriterionNode) o;
+
+        if (!key.equals(that.key)) return false;
+        return value != null ? value.equals(that.value) : that.value == null;
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + key.hashCode();
+        result = 31 * result + (value != null ? value.hashCode() : 0);
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitASTUnknownCriterionNode(this);
@@ -18,6 +18,24 @@ public class AllCriterionNode extends ASTCriterionNode {
         this.values = Collections.unmodifiableList(new ArrayList<>(values));
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        AllCriterionNode that = (AllCriterionNode) o;
+
+        return values.equals(that.values);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + values.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitAllCriterionNode(this);
@@ -17,6 +17,24 @@ public class AndCriterionNode extends ASTCriterionNode {
         this.children = Collections.unmodifiableList(new ArrayList<>(children));
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        AndCriterionNode that = (AndCriterionNode) o;
+
+        return children.equals(that.children);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + children.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitAndCriterionNode(this);
@@ -23,6 +23,26 @@ public class ComparisonCriterionNode extends ASTCriterionNode {
         this.value = value;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        ComparisonCriterionNode that = (ComparisonCriterionNode) o;
+
+        if (!comparator.equals(that.comparator)) return false;
+        return value.equals(that.value);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + comparator.hashCode();
+        result = 31 * result + value.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitComparisonCriterionNode(this);
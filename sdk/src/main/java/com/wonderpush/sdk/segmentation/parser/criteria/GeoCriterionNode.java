@@ -15,6 +15,26 @@ public class GeoCriterionNode extends ASTCriterionNode {
         this.dateComparison = dateComparison;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        GeoCriterionNode that = (GeoCriterionNode) o;
+
+        if (locationComparison != null ? !locationComparison.equals(that.locationComparison) : that.locationComparison != null) return false;
+        return dateComparison != null ? dateComparison.equals(that.dateComparison) : that.dateComparison == null;
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + (locationComparison != null ? locationComparison.hashCode() : 0);
+        result = 31 * result + (dateComparison != null ? dateComparison.hashCode() : 0);
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitGeoCriterionNode(this);
@@ -13,6 +13,24 @@ public class LastActivityDateCriterionNode extends ASTCriterionNode {
         this.dateComparison = dateComparison;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        LastActivityDateCriterionNode that = (LastActivityDateCriterionNode) o;
+
+        return dateComparison.equals(that.dateComparison);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + dateComparison.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitLastActivityDateCriterionNode(this);
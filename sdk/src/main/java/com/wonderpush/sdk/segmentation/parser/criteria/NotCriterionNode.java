@@ -13,6 +13,24 @@ public class NotCriterionNode extends ASTCriterionNode {
         this.child = child;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        NotCriterionNode that = (NotCriterionNode) o;
+
+        return child.equals(that.child);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + child.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitNotCriterionNode(this);
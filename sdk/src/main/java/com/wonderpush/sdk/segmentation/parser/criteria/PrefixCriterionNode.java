@@ -14,6 +14,24 @@ public class PrefixCriterionNode extends ASTCriterionNode {
         this.value = value;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        PrefixCriterionNode that = (PrefixCriterionNode) o;
+
+        return value.equals(that.value);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + value.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitPrefixCriterionNode(this);
@@ -17,6 +17,28 @@ public class PresenceCriterionNode extends ASTCriterionNode {
         this.elapsedTimeComparison = elapsedTimeComparison;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        PresenceCriterionNode that = (PresenceCriterionNode) o;
+
+        if (present != that.present) return false;
+        if (sinceDateComparison != null ? !sinceDateComparison.equals(that.sinceDateComparison) : that.sinceDateComparison != null) return false;
+        return elapsedTimeComparison != null ? elapsedTimeComparison.equals(that.elapsedTimeComparison) : that.elapsedTimeComparison == null;
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + (present ? 1 : 0);
+        result = 31 * result + (sinceDateComparison != null ? sinceDateComparison.hashCode() : 0);
+        result = 31 * result + (elapsedTimeComparison != null ? elapsedTimeComparison.hashCode() : 0);
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitPresenceCriterionNode(this);
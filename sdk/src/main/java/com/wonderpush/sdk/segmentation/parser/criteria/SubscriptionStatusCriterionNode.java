@@ -19,6 +19,24 @@ public class SubscriptionStatusCriterionNode extends ASTCriterionNode {
         this.subscriptionStatus = subscriptionStatus;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        SubscriptionStatusCriterionNode that = (SubscriptionStatusCriterionNode) o;
+
+        return subscriptionStatus.equals(that.subscriptionStatus);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + subscriptionStatus.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTCriterionVisitor<T> visitor) {
         return visitor.visitSubscriptionStatusCriterionNode(this);
@@ -62,6 +62,24 @@ public class FieldSource extends DataSource {
         return new FieldPath(parts.toArray(new String[0]));
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        FieldSource that = (FieldSource) o;
+
+        return path.equals(that.path);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + path.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(DataSourceVisitor<T> visitor) {
         return visitor.visitFieldSource(this);
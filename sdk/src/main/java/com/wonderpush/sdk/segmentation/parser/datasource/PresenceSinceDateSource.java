@@ -19,6 +19,24 @@ public class PresenceSinceDateSource extends DataSource {
         return "presence.sinceDate";
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        PresenceSinceDateSource that = (PresenceSinceDateSource) o;
+
+        return present == that.present;
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + (present ? 1 : 0);
+        return result;
+    }
+
     @Override
     public <T> T accept(DataSourceVisitor<T> visitor) {
         return visitor.visitPresenceSinceDateSource(this);
@@ -13,6 +13,24 @@ public class ASTUnknownValueNode extends ASTValueNode<Object> {
         this.key = key;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        ASTUnknownValueNode that = (ASTUnknownValueNode) o;
+
+        return key.equals(that.key);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + key.hashCode();
+        return result;
+    }
+
     @Override
     public <T> T accept(ASTValueVisitor<T> visitor) {
         return visitor.visitASTUnknownValueNode(this);
@@ -20,6 +20,24 @@ public class RelativeDateValueNode extends ASTValueNode<Number> {
         return this.duration.applyTo(TimeSync.getTime());
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        RelativeDateValueNode that = (RelativeDateValueNode) o;
+
+        return duration.equals(that.duration);
+    }
+
+    @Override
+    protected int computeHashCode() {
+        int result = super.computeHashCode();
+        result = 31 * result + duration.hashCode();
+        return result;
+    }
+
     @Override
     public <U> U accept(ASTValueVisitor<U> visitor) {
         return visitor.visitRelativeDateValueNode(this);
@@ -29,41 +29,155 @@
   };
 
   /**
-   * Calls the provided func of the native layer:
+   * Decodes a result of the native layer
+   * @param result
+   * @returns {Promise<any>}
+   */
+  var decodeResult = function (result) {
+    if (result === null || result === undefined) {
+      return Promise.resolve();
+    }
+    if (typeof result === 'string') {
+      try {
+        var decoded = JSON.parse(result);
+        if ("result" in decoded) return Promise.resolve(decoded.result);
+        if ("error" in decoded) return Promise.reject(new Error(decoded.error));
+      } catch (e) {
+        console.error(e);
+        // Return result as-is.
+      }
+    }
+    return Promise.resolve(result);
+  };
+
+  /**
+   * State snapshot the native layer wraps this script with, refreshed at display and after calls that change it
+   */
+  var state = typeof _wpiamInitialState !== 'undefined' ? _wpiamInitialState : null;
+
+  /**
+   * Methods answered from the state snapshot, without calling the native layer
+   */
+  var stateGetters = {
+    getUserId: function (s) { return s.userId; },
+    getInstallationId: function (s) { return s.installationId; },
+    getCountry: function (s) { return s.country; },
+    getCurrency: function (s) { return s.currency; },
+    getLocale: function (s) { return s.locale; },
+    getTimeZone: function (s) { return s.timeZone; },
+    getDevicePlatform: function (s) { return s.devicePlatform; },
+    isSubscribedToNotifications: function (s) { return s.subscribedToNotifications; },
+    getPayload: function (s) { return s.payload; },
+    getTags: function (s) { return s.tags.slice(); },
+    hasTag: function (s, tag) { return s.tags.indexOf(tag) >= 0; },
+    getProperties: function (s) { return JSON.parse(JSON.stringify(s.properties)); },
+    getPropertyValue: function (s, field) {
+      var value = s.properties[field];
+      while (Array.isArray(value)) value = value.length ? value[0] : null;
+      return value === undefined ? null : value;
+    },
+    getPropertyValues: function (s, field) {
+      var value = s.properties[field];
+      if (value === undefined || value === null) return [];
+      return Array.isArray(value) ? value.slice() : [value];
+    },
+  };
+
+  /**
+   * Methods that change the state snapshot, the native layer sends a fresh one after they run
+   */
+  var stateChangingMethods = [
+    "subscribeToNotifications",
+    "unsubscribeFromNotifications",
+    "addTag",
+    "removeTag",
+    "removeAllTags",
+    "addProperty",
+    "removeProperty",
+    "setProperty",
+    "unsetProperty",
+    "putProperties",
+  ];
+
+  var nextMessageId = 1;
+  var queuedMessages = [];
+  var pendingReplies = {};
+  var pendingStateChanges = 0;
+
+  /**
+   * Sends the calls queued during the current task to the native layer, in a single batch
+   */
+  var flushMessages = function () {
+    var messages = queuedMessages;
+    queuedMessages = [];
+    try {
+      window._wpiam.postMessages(JSON.stringify(messages));
+    } catch (e) {
+      messages.forEach(function (message) {
+        var pending = pendingReplies[message.id];
+        delete pendingReplies[message.id];
+        if (pending.changesState) pendingStateChanges--;
+        pending.reject(e);
+      });
+    }
+  };
+
+  /**
+   * Receives the results of a batch of calls from the native layer
+   * @param response
+   */
+  window._wpiamReceive = function (response) {
+    if (response.state) state = response.state;
+    response.replies.forEach(function (reply) {
+      var pending = pendingReplies[reply.id];
+      if (!pending) return;
+      delete pendingReplies[reply.id];
+      if (pending.changesState) pendingStateChanges--;
+      decodeResult(reply.result).then(pending.resolve, pending.reject);
+    });
+  };
+
+  /**
+   * Calls the provided method of the native layer:
+   * - answers from the state snapshot when possible
+   * - otherwise queues the call, calls of the same task are sent together and run off the JavaScript thread
+   * - falls back to a synchronous call if the native layer does not support batches
    * - handles argument serialization
    * - handles result deserialization
    * - handles errors
-   * @param func
+   * @param method
    * @param args
    * @returns {Promise<any>}
    */
-  var callNativeLayer = function (func, args) {
+  var callNativeLayer = function (method, args) {
     try {
-      var result = func.apply(window._wpiam, convertArguments(args));
-      if (result === null || result === undefined) {
-        return Promise.resolve();
+      args = Array.from(args);
+      // Reads wait for pending changes, so that they see them
+      if (state && stateGetters[method] && pendingStateChanges === 0) {
+        return Promise.resolve(stateGetters[method].apply(null, [state].concat(args)));
       }
-      if (typeof result === 'string') {
-        try {
-          var decoded = JSON.parse(result);
-          if ("result" in decoded) return Promise.resolve(decoded.result);
-          if ("error" in decoded) return Promise.reject(new Error(decoded.error));
-        } catch (e) {
-          console.error(e);
-          // Return result as-is.
-        }
+      if (typeof window._wpiam.postMessages !== 'function') {
+        return decodeResult(window._wpiam[method].apply(window._wpiam, convertArguments(args)));
       }
-      return Promise.resolve(result);
+      var id = nextMessageId++;
+      var changesState = stateChangingMethods.indexOf(method) >= 0;
+      if (changesState) pendingStateChanges++;
+      if (!queuedMessages.length) Promise.resolve().then(flushMessages);
+      queuedMessages.push({id: id, method: method, args: convertArguments(args)});
+      return new Promise(function (res, rej) {
+        pendingReplies[id] = {resolve: res, reject: rej, changesState: changesState};
+      });
     } catch (e) {
       return Promise.reject(e);
     }
-  }
+  };
+
   /**
    * Send clipPath messages
    */
   var sendClipPathMessage = function () {
     var rect = document.body.getBoundingClientRect();
-    callNativeLayer(window._wpiam.setClipPath, [{rect: JSON.parse(JSON.stringify(rect))}]);
+    callNativeLayer('setClipPath', [{rect: JSON.parse(JSON.stringify(rect))}]);
   };
 
   window.WonderPushInAppSDK = window.WonderPushPopupSDK = new Proxy({}, new function () {
@@ -74,22 +188,22 @@
      */
     this.get = function (target, prop, receiver) {
       if (this.hasOwnProperty(prop)) return this[prop];
-      var func = window._wpiam[prop];
-      if (!func) {
+      if (!window._wpiam[prop] && !stateGetters[prop]) {
         return function () {
           return Promise.reject(new Error('Unknown method ' + prop));
         };
       }
       return function () {
+        var args = arguments;
         // Delay dismiss
         if (prop === 'dismiss') {
           return new Promise(function (res, rej) {
             setTimeout(function () {
-              callNativeLayer(func, arguments).then(res, rej);
+              callNativeLayer(prop, args).then(res, rej);
             }, 10);
           });
         }
-        return callNativeLayer(func, arguments);
+        return callNativeLayer(prop, args);
       };
     }.bind(this);
 
@@ -103,7 +217,7 @@
       // Flatten to accept variable arguments or an array of tags as first arg
       // always calling the native layer with a flat array of strings
       var tags = flatten(Array.from(arguments));
-      return callNativeLayer(window._wpiam.addTag, [tags]);
+      return callNativeLayer('addTag', [tags]);
     };
 
     /**
@@ -116,7 +230,7 @@
       // Flatten to accept variable arguments or an array of tags as first arg.
       // always calling the native layer with a flat array of strings
       var tags = flatten(Array.from(arguments));
-      return callNativeLayer(window._wpiam.removeTag, [tags]);
+      return callNativeLayer('removeTag', [tags]);
     };
 
   });
@@ -0,0 +1,100 @@
+package androidx.core.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WorkDispatcherTest {
+
+    private static final int BURST_SIZE = 6;
+
+    @Test
+    public void testItShouldRunABurstConcurrently() throws InterruptedException {
+        WorkDispatcher dispatcher = new WorkDispatcher(3, "Test");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger ran = new AtomicInteger();
+        CountDownLatch firstThreeStarted = new CountDownLatch(3);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < BURST_SIZE; i++) {
+                    dispatcher.dispatch(() -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        firstThreeStarted.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                        running.decrementAndGet();
+                        ran.incrementAndGet();
+                    });
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+
+        // The first works of the burst wait on their fetch together, instead of one after the other
+        assertThat(firstThreeStarted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(dispatcher.getInFlightCount(), is(3));
+
+        release.countDown();
+        producer.join(5000);
+        assertThat(producer.isAlive(), is(false));
+        assertThat(dispatcher.awaitIdle(5000), is(true));
+        assertThat(ran.get(), is(BURST_SIZE));
+        assertThat(maxRunning.get(), is(3));
+    }
+
+    @Test
+    public void testItShouldMakeTheCallerWaitWhileAllThreadsAreBusy() throws InterruptedException {
+        WorkDispatcher dispatcher = new WorkDispatcher(2, "Test");
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            dispatcher.dispatch(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+        assertThat(dispatcher.getInFlightCount(), is(2));
+        assertThat(dispatcher.awaitIdle(50), is(false));
+
+        Thread caller = new Thread(() -> {
+            try {
+                dispatcher.dispatch(() -> {});
+            } catch (InterruptedException ignored) {
+            }
+        });
+        caller.start();
+        caller.join(100);
+        assertThat(caller.isAlive(), is(true));
+
+        release.countDown();
+        caller.join(5000);
+        assertThat(caller.isAlive(), is(false));
+        assertThat(dispatcher.awaitIdle(5000), is(true));
+        assertThat(dispatcher.getInFlightCount(), is(0));
+    }
+
+    @Test
+    public void testItShouldReleaseTheThreadOfAFailingWork() throws InterruptedException {
+        WorkDispatcher dispatcher = new WorkDispatcher(1, "Test");
+        dispatcher.dispatch(() -> {
+            throw new RuntimeException("Expected");
+        });
+        assertThat(dispatcher.awaitIdle(5000), is(true));
+        AtomicInteger ran = new AtomicInteger();
+        dispatcher.dispatch(ran::incrementAndGet);
+        assertThat(dispatcher.awaitIdle(5000), is(true));
+        assertThat(ran.get(), is(1));
+    }
+
+}
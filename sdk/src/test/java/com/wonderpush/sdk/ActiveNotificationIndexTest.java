@@ -0,0 +1,117 @@
+package com.wonderpush.sdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ActiveNotificationIndexTest {
+
+    private ActiveNotificationIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ActiveNotificationIndex();
+    }
+
+    private static ActiveNotificationIndex.Entry entry(String tag, int id, long postTime, String group) {
+        ActiveNotificationIndex.Entry entry = new ActiveNotificationIndex.Entry(tag, id, postTime);
+        entry.group = group;
+        return entry;
+    }
+
+    private List<String> find(ActiveNotificationIndex.Query query) {
+        List<String> rtn = new ArrayList<>();
+        for (ActiveNotificationIndex.Entry entry : index.find(query)) {
+            rtn.add(entry.tag + "/" + entry.id);
+        }
+        return rtn;
+    }
+
+    @Test
+    public void testItShouldOnlyReindexPostedOrUpdatedNotifications() {
+        index.beginSync();
+        index.put(entry("a", 0, 1, "g"));
+        index.put(entry("b", 0, 1, "g"));
+        index.put(entry(null, 1, 1, null));
+        index.endSync();
+
+        index.beginSync();
+        assertThat(index.touch("a", 0, 1), is(true));
+        assertThat(index.touch("b", 0, 2), is(false)); // updated
+        index.put(entry("b", 0, 2, "h"));
+        assertThat(index.touch("c", 0, 2), is(false)); // posted
+        index.put(entry("c", 0, 2, "h"));
+        index.endSync();
+
+        // The tagless notification was dismissed, "b" moved to another group
+        assertThat(index.size(), is(3));
+        ActiveNotificationIndex.Query query = new ActiveNotificationIndex.Query();
+        query.hasGroup = true;
+        query.group = "h";
+        assertThat(find(query), is(Arrays.asList("b/0", "c/0")));
+        query.group = "g";
+        assertThat(find(query), is(Arrays.asList("a/0")));
+    }
+
+    @Test
+    public void testItShouldMatchEveryCriteria() {
+        ActiveNotificationIndex.Entry a = entry("a", 0, 1, "g");
+        a.channelId = "default";
+        a.category = "promo";
+        a.extras.put("kind", "1");
+        a.extras.put("nil", null);
+        index.put(a);
+        ActiveNotificationIndex.Entry b = entry("b", 0, 1, "g");
+        b.channelId = "news";
+        b.extras.put("kind", "2");
+        index.put(b);
+        index.put(entry(null, 3, 1, null));
+
+        ActiveNotificationIndex.Query query = new ActiveNotificationIndex.Query();
+        assertThat(find(query).size(), is(3));
+
+        query.hasChannel = true;
+        query.defaultChannelId = "default";
+        assertThat(find(query), is(Arrays.asList("a/0", "null/3")));
+        query.channelId = "news";
+        assertThat(find(query), is(Arrays.asList("b/0")));
+
+        query = new ActiveNotificationIndex.Query();
+        query.hasTag = true;
+        assertThat(find(query), is(Arrays.asList("null/3")));
+
+        query = new ActiveNotificationIndex.Query();
+        query.hasCategory = true;
+        query.category = "promo";
+        assertThat(find(query), is(Arrays.asList("a/0")));
+
+        query = new ActiveNotificationIndex.Query();
+        query.extras.put("kind", "2");
+        assertThat(find(query), is(Arrays.asList("b/0")));
+        // A null extra matches notifications without the key, even with a null value
+        query.extras.clear();
+        query.extras.put("nil", null);
+        assertThat(find(query), is(Arrays.asList("b/0", "null/3")));
+    }
+
+    @Test
+    public void testItShouldForgetRemovedNotifications() {
+        index.put(entry("a", 0, 1, "g"));
+        index.put(entry("b", 0, 1, "g"));
+        index.remove("a", 0);
+        ActiveNotificationIndex.Query query = new ActiveNotificationIndex.Query();
+        query.hasGroup = true;
+        query.group = "g";
+        assertThat(find(query), is(Arrays.asList("b/0")));
+        query.hasTag = true;
+        query.tag = "a";
+        assertThat(find(query).size(), is(0));
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.wonderpush.sdk;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+public class BitmapSamplingTest {
+
+    @Test
+    public void testItShouldKeepBothDimensionsAboveTheRequestedOnes() {
+        assertThat(BitmapSampling.computeInSampleSize(1000, 500, 1000, 500), is(1));
+        assertThat(BitmapSampling.computeInSampleSize(1999, 1000, 1000, 500), is(1));
+        assertThat(BitmapSampling.computeInSampleSize(2000, 1000, 1000, 500), is(2));
+        assertThat(BitmapSampling.computeInSampleSize(4000, 3000, 1080, 540), is(2));
+        assertThat(BitmapSampling.computeInSampleSize(8000, 6000, 1080, 540), is(4));
+        // The most constrained dimension wins
+        assertThat(BitmapSampling.computeInSampleSize(8000, 600, 1080, 540), is(1));
+        assertThat(BitmapSampling.computeInSampleSize(4096, 4096, 168, 168), is(16));
+        // Smaller images and unknown sizes are never upsampled
+        assertThat(BitmapSampling.computeInSampleSize(100, 100, 168, 168), is(1));
+        assertThat(BitmapSampling.computeInSampleSize(-1, -1, 168, 168), is(1));
+        assertThat(BitmapSampling.computeInSampleSize(1000, 1000, 0, 0), is(1));
+    }
+
+    @Test
+    public void testItShouldReducePeakMemoryOfLargeImages() {
+        // A 4000x3000 big picture on a 1080px wide screen
+        int inSampleSize = BitmapSampling.computeInSampleSize(4000, 3000, 1080, 540);
+        assertThat(inSampleSize, is(2));
+        assertThat(BitmapSampling.decodedDimension(4000, inSampleSize), is(2000));
+        assertThat(BitmapSampling.decodedDimension(3000, inSampleSize), is(1500));
+        assertThat(BitmapSampling.decodedBytes(4000, 3000, 1), is(48_000_000L));
+        assertThat(BitmapSampling.decodedBytes(4000, 3000, inSampleSize), is(12_000_000L));
+
+        // A 2048x2048 large icon rendered at 64dp on a xxhdpi screen
+        inSampleSize = BitmapSampling.computeInSampleSize(2048, 2048, 192, 192);
+        assertThat(inSampleSize, is(8));
+        assertThat(BitmapSampling.decodedDimension(2048, inSampleSize), is(256));
+        assertThat(BitmapSampling.decodedBytes(2048, 2048, inSampleSize), lessThan(BitmapSampling.decodedBytes(2048, 2048, 1) / 50));
+    }
+
+    @Test
+    public void testDecodedDimensionsShouldStayAboveTheRequestedOnes() {
+        int[][] cases = {
+                // width, height, requested width, requested height
+                {4000, 3000, 1080, 540},
+                {1999, 1000, 1000, 500},
+                {4097, 4095, 168, 168},
+                {8000, 600, 1080, 540},
+        };
+        for (int[] c : cases) {
+            int inSampleSize = BitmapSampling.computeInSampleSize(c[0], c[1], c[2], c[3]);
+            int width = BitmapSampling.decodedDimension(c[0], inSampleSize);
+            int height = BitmapSampling.decodedDimension(c[1], inSampleSize);
+            assertThat(width >= c[2] && height >= c[3], is(true));
+            // Sampling once more would have gone below
+            assertThat(c[0] / (inSampleSize * 2) < c[2] || c[1] / (inSampleSize * 2) < c[3], is(true));
+        }
+    }
+
+    @Test
+    public void testDecodedBytesShouldRoundPartialPixelsUp() {
+        assertThat(BitmapSampling.decodedBytes(5, 5, 2), is(3L * 3 * BitmapSampling.BYTES_PER_PIXEL));
+    }
+
+}
@@ -990,4 +990,26 @@ public class JSONSyncTest {
         JSONUtilTest.assertEquals(new JSONObject("{\"A\":1,\"AA\":2,\"B\":2,\"BB\":2,\"BBB\":2}"), sync.getSdkState());
     }
 
+    /* *********************** *
+     * Test sdkState snapshots *
+     * *********************** */
+
+    @Test
+    public void snapshotIsSharedUntilSdkStateChanges() throws JSONException {
+        sync.put(new JSONObject("{\"A\":1}"));
+        JSONObject snapshot = sync.getSdkStateSnapshot();
+        JSONUtilTest.assertEquals(new JSONObject("{\"A\":1}"), snapshot);
+        Assert.assertSame(snapshot, sync.getSdkStateSnapshot());
+
+        sync.put(new JSONObject("{\"B\":2}"));
+        JSONObject snapshot2 = sync.getSdkStateSnapshot();
+        Assert.assertNotSame(snapshot, snapshot2);
+        JSONUtilTest.assertEquals(new JSONObject("{\"A\":1}"), snapshot);
+        JSONUtilTest.assertEquals(new JSONObject("{\"A\":1,\"B\":2}"), snapshot2);
+
+        sync.receiveState(new JSONObject("{\"C\":3}"), true);
+        JSONUtilTest.assertEquals(new JSONObject("{\"C\":3}"), sync.getSdkStateSnapshot());
+        JSONUtilTest.assertEquals(new JSONObject("{\"A\":1,\"B\":2}"), snapshot2);
+    }
+
 }
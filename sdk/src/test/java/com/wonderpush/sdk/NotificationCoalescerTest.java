@@ -0,0 +1,203 @@
+package com.wonderpush.sdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class NotificationCoalescerTest {
+
+    private long now;
+    private NotificationPipelineMetrics metrics;
+    private NotificationCoalescer<String> coalescer;
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        metrics = new NotificationPipelineMetrics();
+        coalescer = new NotificationCoalescer<String>(metrics) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    private List<String> poll() {
+        List<String> rtn = new ArrayList<>();
+        for (NotificationCoalescer.Post<String> post : coalescer.poll()) {
+            rtn.add(post.content);
+        }
+        return rtn;
+    }
+
+    @Test
+    public void testItShouldPaceABurstUnderTheSystemRate() {
+        for (int i = 0; i < 12; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+        }
+        assertThat(poll(), is(Arrays.asList("n0", "n1", "n2", "n3", "n4")));
+        assertThat(coalescer.getNextDelayMillis(), is(1000L));
+        now += 999;
+        assertThat(poll().size(), is(0));
+        now += 1;
+        assertThat(poll(), is(Arrays.asList("n5", "n6", "n7", "n8", "n9")));
+        now += 1000;
+        assertThat(poll(), is(Arrays.asList("n10", "n11")));
+        assertThat(coalescer.getNextDelayMillis(), is(-1L));
+    }
+
+    @Test
+    public void testItShouldPostASingleSummaryAtTheEndOfABurst() {
+        for (int i = 0; i < 4; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+            coalescer.enqueue("group-GROUP_SUMMARY_NOTIFICATION", 0, true, "summary" + i);
+            now += 100;
+        }
+        assertThat(poll(), is(Arrays.asList("n0", "n1", "n2", "n3")));
+        assertThat(coalescer.getPendingCount(), is(1));
+        assertThat(metrics.getCoalescedCount(), is(3L));
+        // The summary is due one window after the first one was enqueued
+        assertThat(coalescer.getNextDelayMillis(), is(100L));
+        now += 100;
+        assertThat(poll(), is(Arrays.asList("summary3")));
+    }
+
+    @Test
+    public void testItShouldReplaceAWaitingUpdateOfTheSameNotification() {
+        for (int i = 0; i < 5; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+        }
+        poll();
+        coalescer.enqueue("tag", 1, false, "first");
+        coalescer.enqueue("tag", 2, false, "other");
+        coalescer.enqueue("tag", 1, false, "second");
+        assertThat(coalescer.getPendingCount(), is(2));
+        assertThat(metrics.getCoalescedCount(), is(1L));
+        now += 1000;
+        assertThat(poll(), is(Arrays.asList("second", "other")));
+    }
+
+    @Test
+    public void testItShouldNeverDropANotification() {
+        coalescer.enqueue("group-GROUP_SUMMARY_NOTIFICATION", 0, true, "summary");
+        for (int i = 0; i < 40; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+        }
+        assertThat(coalescer.getPendingCount(), is(41));
+        List<String> posted = new ArrayList<>();
+        while (coalescer.getNextDelayMillis() >= 0) {
+            now += coalescer.getNextDelayMillis();
+            posted.addAll(poll());
+        }
+        assertThat(posted.size(), is(41));
+        assertThat(posted.get(0), is("n0"));
+        assertThat(posted.contains("summary"), is(true));
+        assertThat(posted.get(40), is("n39"));
+    }
+
+    @Test
+    public void testItShouldWakeUpTheCallersWaitingForAPost() throws InterruptedException {
+        NotificationCoalescer.Post<String> post = coalescer.enqueue("tag", 0, false, "n");
+        assertThat(coalescer.await(post, 10), is(false));
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch returned = new CountDownLatch(1);
+        Thread caller = new Thread(() -> {
+            try {
+                done.set(coalescer.await(post, 5000));
+            } catch (InterruptedException ignored) {
+            }
+            returned.countDown();
+        });
+        caller.start();
+
+        List<NotificationCoalescer.Post<String>> polled = coalescer.poll();
+        assertThat(polled.size(), is(1));
+        coalescer.posted(polled.get(0), true);
+        assertThat(returned.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(done.get(), is(true));
+        assertThat(coalescer.isShown(post, "n"), is(true));
+    }
+
+    @Test
+    public void testItShouldNotCountAReplacedUpdateAsShown() {
+        for (int i = 0; i < 5; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+        }
+        poll();
+        String first = "first";
+        String second = "second";
+        NotificationCoalescer.Post<String> post = coalescer.enqueue("tag", 1, false, first);
+        assertThat(coalescer.enqueue("tag", 1, false, second), is(post));
+        now += 1000;
+        for (NotificationCoalescer.Post<String> polled : coalescer.poll()) {
+            coalescer.posted(polled, true);
+        }
+        assertThat(coalescer.isShown(post, first), is(false));
+        assertThat(coalescer.isShown(post, second), is(true));
+    }
+
+    @Test
+    public void testItShouldLetACallerOutOfTimeTakeItsPostOverTheRate() {
+        for (int i = 0; i < 5; i++) {
+            coalescer.enqueue("tag" + i, 0, false, "n" + i);
+        }
+        poll();
+        now += 500;
+        NotificationCoalescer.Post<String> post = coalescer.enqueue("late", 0, false, "late");
+        assertThat(poll().size(), is(0));
+        assertThat(coalescer.take(post), is(true));
+        assertThat(coalescer.getPendingCount(), is(0));
+        assertThat(coalescer.take(post), is(false));
+
+        // Counted against the rate of the next posts
+        now += 500;
+        for (int i = 0; i < 5; i++) {
+            coalescer.enqueue("next" + i, 0, false, "next" + i);
+        }
+        assertThat(poll().size(), is(4));
+    }
+
+    @Test
+    public void testOnlyTheLastCallerShouldWaitForTheSummary() {
+        coalescer.enter();
+        coalescer.enter();
+        coalescer.enqueue("tag1", 0, false, "n1");
+        NotificationCoalescer.Post<String> summary = coalescer.enqueue("group-GROUP_SUMMARY_NOTIFICATION", 0, true, "summary");
+        coalescer.enqueue("tag2", 0, false, "n2");
+        assertThat(poll(), is(Arrays.asList("n1", "n2")));
+
+        // Another caller is still running and will post the summary
+        assertThat(coalescer.leave(false), nullValue());
+        // The last one waits for it
+        assertThat(coalescer.leave(false), is(summary));
+        now += NotificationCoalescer.SUMMARY_WINDOW_MS;
+        assertThat(poll(), is(Arrays.asList("summary")));
+        assertThat(coalescer.leave(false), nullValue());
+
+        // A new caller is the last one again
+        coalescer.enter();
+        coalescer.enqueue("group-GROUP_SUMMARY_NOTIFICATION", 0, true, "summary");
+        assertThat(coalescer.leave(true), nullValue());
+        coalescer.enter();
+        assertThat(coalescer.leave(false), is(notNullValue()));
+    }
+
+    @Test
+    public void testItShouldNotCountAFailedPostAsShown() {
+        NotificationCoalescer.Post<String> post = coalescer.enqueue("tag", 0, false, "n");
+        coalescer.posted(coalescer.poll().get(0), false);
+        assertThat(coalescer.isShown(post, "n"), is(false));
+    }
+
+}
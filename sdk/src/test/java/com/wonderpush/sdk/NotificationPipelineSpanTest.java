@@ -0,0 +1,110 @@
+package com.wonderpush.sdk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class NotificationPipelineSpanTest {
+
+    private long now;
+    private NotificationPipelineMetrics metrics;
+    private final List<NotificationPipelineSpan> recorded = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        metrics = new NotificationPipelineMetrics() {
+            @Override
+            long elapsedRealtime() {
+                return now;
+            }
+        };
+        metrics.setListener(recorded::add);
+    }
+
+    @Test
+    public void testItShouldAttributeTimeToEachStage() {
+        NotificationPipelineSpan span = metrics.start("campaign", now - 50);
+        span.stageEnded(NotificationPipelineSpan.Stage.RECEIVE);
+        now += 20;
+        span.stageEnded(NotificationPipelineSpan.Stage.HANDLE);
+        now += 300;
+        span.stageEnded(NotificationPipelineSpan.Stage.FETCH);
+        now += 30;
+        span.stageEnded(NotificationPipelineSpan.Stage.BUILD);
+        span.ended(true);
+        span.ended(false);
+
+        assertThat(span.getStageMillis(NotificationPipelineSpan.Stage.RECEIVE), is(50L));
+        assertThat(span.getStageMillis(NotificationPipelineSpan.Stage.HANDLE), is(20L));
+        assertThat(span.getStageMillis(NotificationPipelineSpan.Stage.QUEUE), is(-1L));
+        assertThat(span.getStageMillis(NotificationPipelineSpan.Stage.TOTAL), is(400L));
+        assertThat(span.isShown(), is(true));
+        assertThat(recorded.size(), is(1));
+        assertThat(metrics.getPercentileMillis(NotificationPipelineSpan.Stage.FETCH, 50), is(300L));
+        assertThat(metrics.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testItShouldShrinkTheFetchBudgetAsTheDeadlineApproaches() {
+        NotificationPipelineSpan span = metrics.start(null, now);
+        assertThat(span.getFetchBudgetMillis(), is(NotificationPipelineSpan.DEFAULT_BUDGET_MS - NotificationPipelineSpan.BUILD_RESERVE_MS));
+        assertThat(span.canFetchBigPicture(), is(true));
+
+        now += NotificationPipelineSpan.DEFAULT_BUDGET_MS - NotificationPipelineSpan.BIG_PICTURE_MIN_REMAINING_MS + 1;
+        assertThat(span.canFetchBigPicture(), is(false));
+        assertThat(span.getFetchBudgetMillis() > 0, is(true));
+
+        span.expire();
+        assertThat(span.getRemainingMillis(), is(0L));
+        assertThat(span.getFetchBudgetMillis(), is(0L));
+
+        span.degraded("skipped big picture");
+        span.ended(false);
+        assertThat(metrics.getDegradedCount(), is(1L));
+        assertThat(metrics.getDroppedCount(), is(1L));
+        assertThat(recorded.get(0).getDegradations(), is(Arrays.asList("skipped big picture")));
+    }
+
+    @Test
+    public void testItShouldRestartTheBudgetWhenTheWorkStartsLate() {
+        NotificationPipelineSpan span = metrics.start(null, now);
+        span.stageEnded(NotificationPipelineSpan.Stage.HANDLE);
+        now += NotificationPipelineSpan.DEFAULT_BUDGET_MS + 5000;
+        assertThat(span.getFetchBudgetMillis(), is(0L));
+
+        span.stageEnded(NotificationPipelineSpan.Stage.QUEUE);
+        span.restartBudget();
+        assertThat(span.getFetchBudgetMillis(), is(NotificationPipelineSpan.DEFAULT_BUDGET_MS - NotificationPipelineSpan.BUILD_RESERVE_MS));
+        assertThat(span.canFetchBigPicture(), is(true));
+        // The time spent waiting is still accounted for
+        assertThat(span.getStageMillis(NotificationPipelineSpan.Stage.QUEUE), is(NotificationPipelineSpan.DEFAULT_BUDGET_MS + 5000));
+    }
+
+    @Test
+    public void testARestoredSpanShouldKeepItsDeadline() {
+        NotificationPipelineSpan span = metrics.start(null, now);
+        now += 100;
+        span.stageEnded(NotificationPipelineSpan.Stage.HANDLE);
+        NotificationPipelineSpan restored = new NotificationPipelineSpan(metrics, null,
+                span.getStartMillis(), span.getDeadlineMillis(), span.getMarkMillis(), span.getStagesMillis());
+        now += 400;
+        restored.stageEnded(NotificationPipelineSpan.Stage.QUEUE);
+        assertThat(restored.getStageMillis(NotificationPipelineSpan.Stage.HANDLE), is(100L));
+        assertThat(restored.getStageMillis(NotificationPipelineSpan.Stage.QUEUE), is(400L));
+        assertThat(restored.getRemainingMillis(), is(NotificationPipelineSpan.DEFAULT_BUDGET_MS - 500));
+
+        // After a reboot, the clock restarted
+        now = 10;
+        NotificationPipelineSpan rebooted = new NotificationPipelineSpan(metrics, null,
+                restored.getStartMillis(), restored.getDeadlineMillis(), restored.getMarkMillis(), restored.getStagesMillis());
+        assertThat(rebooted.getRemainingMillis(), is(NotificationPipelineSpan.DEFAULT_BUDGET_MS - 500));
+    }
+
+}
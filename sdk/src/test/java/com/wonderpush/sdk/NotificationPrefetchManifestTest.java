@@ -0,0 +1,63 @@
+package com.wonderpush.sdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class NotificationPrefetchManifestTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Test
+    public void testItShouldKeepValidResources() throws Exception {
+        List<NotificationPrefetchManifest.Resource> resources = NotificationPrefetchManifest.parse(new JSONArray("["
+                + "{\"url\": \"https://cdn.example.com/a.jpg\", \"kind\": \"bigPicture\", \"expiresAt\": " + (NOW + 1000) + "},"
+                + "{\"url\": \"https://cdn.example.com/b.png\", \"kind\": \"largeIcon\"},"
+                + "{\"url\": \"https://cdn.example.com/c.mp3\", \"kind\": \"sound\", \"expiresAt\": " + (NOW - 1) + "},"
+                + "{\"url\": \"https://cdn.example.com/d.jpg\", \"kind\": \"video\"},"
+                + "{\"url\": \"file:///sdcard/e.jpg\", \"kind\": \"bigPicture\"},"
+                + "{\"kind\": \"bigPicture\"},"
+                + "\"https://cdn.example.com/f.jpg\""
+                + "]"), NOW);
+        assertThat(resources.size(), is(2));
+        assertThat(resources.get(0).url, is("https://cdn.example.com/a.jpg"));
+        assertThat(resources.get(0).kind, is(NotificationPrefetchManifest.KIND_BIG_PICTURE));
+        assertThat(resources.get(0).expiresAt, is(NOW + 1000));
+        assertThat(resources.get(1).kind, is(NotificationPrefetchManifest.KIND_LARGE_ICON));
+        assertThat(resources.get(1).expiresAt, is(NOW + NotificationPrefetchManifest.DEFAULT_EXPIRATION_MS));
+    }
+
+    @Test
+    public void testItShouldBoundExpirationAndCount() throws Exception {
+        JSONArray manifest = new JSONArray();
+        for (int i = 0; i < NotificationPrefetchManifest.MAX_RESOURCES + 5; i++) {
+            manifest.put(new JSONObject()
+                    .put("url", "https://cdn.example.com/" + i + ".jpg")
+                    .put("kind", "bigPicture")
+                    .put("expiresAt", NOW + 30 * NotificationPrefetchManifest.MAX_EXPIRATION_MS));
+        }
+        List<NotificationPrefetchManifest.Resource> resources = NotificationPrefetchManifest.parse(manifest, NOW);
+        assertThat(resources.size(), is(NotificationPrefetchManifest.MAX_RESOURCES));
+        assertThat(resources.get(0).expiresAt, is(NOW + NotificationPrefetchManifest.MAX_EXPIRATION_MS));
+    }
+
+    @Test
+    public void testItShouldMergeDuplicates() throws Exception {
+        List<NotificationPrefetchManifest.Resource> resources = NotificationPrefetchManifest.parse(new JSONArray("["
+                + "{\"url\": \"https://cdn.example.com/a.jpg\", \"kind\": \"bigPicture\", \"expiresAt\": " + (NOW + 1000) + "},"
+                + "{\"url\": \"https://cdn.example.com/b.jpg\", \"kind\": \"bigPicture\"},"
+                + "{\"url\": \"https://cdn.example.com/a.jpg\", \"kind\": \"bigPicture\", \"expiresAt\": " + (NOW + 2000) + "},"
+                + "{\"url\": \"https://cdn.example.com/a.jpg\", \"kind\": \"largeIcon\"}"
+                + "]"), NOW);
+        assertThat(resources.size(), is(3));
+        assertThat(resources.get(0).url, is("https://cdn.example.com/a.jpg"));
+        assertThat(resources.get(0).expiresAt, is(NOW + 2000));
+        assertThat(resources.get(2).kind, is(NotificationPrefetchManifest.KIND_LARGE_ICON));
+    }
+
+}
@@ -0,0 +1,492 @@
+package com.wonderpush.sdk;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ResourceCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private long now = 1_600_000_000_000L;
+    private final Map<String, String> contents = new ConcurrentHashMap<>();
+    private final Map<String, String> cacheControls = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> notModified = new ConcurrentHashMap<>();
+    private final Map<String, String> ranges = new ConcurrentHashMap<>();
+    // Paths whose response is cut after that many bytes
+    private final Map<String, Integer> interruptions = new ConcurrentHashMap<>();
+    // Paths whose response waits for the latch to open, and counts down the arrival latch
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    private final Map<String, CountDownLatch> arrivals = new ConcurrentHashMap<>();
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            if (arrivals.containsKey(path)) arrivals.get(path).countDown();
+            if (gates.containsKey(path)) {
+                try {
+                    gates.get(path).await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            String content = contents.get(path);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            String etag = "\"" + Integer.toHexString(content.hashCode()) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            String cacheControl = cacheControls.get(path);
+            if (cacheControl != null) exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+            byte[] bytes = content.getBytes("UTF-8");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) ranges.put(path, range);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else if (range != null && etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (bytes.length - 1) + "/" + bytes.length);
+                exchange.sendResponseHeaders(206, bytes.length - start);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(bytes, start, bytes.length - start);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, bytes.length);
+                Integer interruption = interruptions.remove(path);
+                OutputStream output = exchange.getResponseBody();
+                output.write(bytes, 0, interruption != null ? interruption : bytes.length);
+                output.flush();
+                if (interruption != null) {
+                    // Failing the handler cuts the connection
+                    throw new IOException("Interrupted");
+                }
+                output.close();
+            }
+            exchange.close();
+        });
+        // Gated requests must not hold the others back
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private int requestCount(Map<String, AtomicInteger> counts, String path) {
+        AtomicInteger count = counts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private ResourceCache cache(long maxSize) {
+        return cache(maxSize, Runnable::run);
+    }
+
+    private ResourceCache cache(long maxSize, Executor indexWriter) {
+        return new ResourceCache(folder.getRoot(), maxSize, client, indexWriter) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    private static String read(ResourceCache.Result result) throws IOException {
+        return new String(Files.readAllBytes(result.getFile().toPath()), "UTF-8");
+    }
+
+    private static String content(char c, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private HashSet<String> files() {
+        return new HashSet<>(Arrays.asList(folder.getRoot().list()));
+    }
+
+    @Test
+    public void testKeysShouldBeSha256OfTheUrl() {
+        assertThat(ResourceCache.key("http://example.com/a.png"), is(ResourceCache.key("http://example.com/a.png")));
+        assertThat(ResourceCache.key("http://example.com/a.png"), not(ResourceCache.key("http://example.com/b.png")));
+        assertThat(ResourceCache.key(""), is("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"));
+    }
+
+    @Test
+    public void testItShouldServeFreshEntriesWithoutNetwork() throws Exception {
+        contents.put("/icon.png", "icon");
+        cacheControls.put("/icon.png", "public, max-age=60");
+        ResourceCache cache = cache(1000);
+        assertThat(cache.getFresh(url("/icon.png")), nullValue());
+
+        ResourceCache.Result result = cache.fetch(url("/icon.png"), 100, "Test");
+        assertThat(read(result), is("icon"));
+        assertThat(result.getDownloadedBytes(), is(4L));
+        assertThat(result.getFile().getName(), is(ResourceCache.key(url("/icon.png"))));
+
+        now += TimeUnit.SECONDS.toMillis(30);
+        assertThat(cache.getFresh(url("/icon.png")), is(result.getFile()));
+        assertThat(cache.fetch(url("/icon.png"), 100, "Test").getDownloadedBytes(), is(-1L));
+        // The index survives restarts
+        assertThat(cache(1000).getFresh(url("/icon.png")), is(result.getFile()));
+        assertThat(requestCount(requests, "/icon.png"), is(1));
+    }
+
+    @Test
+    public void testItShouldNotWriteTheIndexOnCacheHits() throws Exception {
+        contents.put("/a.png", "a");
+        contents.put("/b.png", "b");
+        List<Runnable> writes = new ArrayList<>();
+        ResourceCache cache = cache(1000, writes::add);
+        cache.fetch(url("/a.png"), 100, "Test");
+        cache.fetch(url("/b.png"), 100, "Test");
+        // Written once for both downloads
+        assertThat(writes.size(), is(1));
+        writes.remove(0).run();
+
+        now += 1000;
+        for (int i = 0; i < 10; i++) {
+            assertThat(cache.getFresh(url("/a.png")), notNullValue());
+        }
+        assertThat(writes.size(), is(0));
+
+        // The recency of the hits is persisted with the next write
+        contents.put("/c.png", "c");
+        cache.fetch(url("/c.png"), 100, "Test");
+        assertThat(writes.size(), is(1));
+        writes.remove(0).run();
+        JSONObject index = new JSONObject(new String(Files.readAllBytes(new File(folder.getRoot(), ResourceCache.INDEX_FILE).toPath()), "UTF-8"));
+        JSONArray entries = index.getJSONArray("entries");
+        long accessedAt = -1;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            if (entry.getString("key").equals(ResourceCache.key(url("/a.png")))) accessedAt = entry.getLong("accessedAt");
+        }
+        assertThat(accessedAt, is(now));
+    }
+
+    @Test
+    public void testSlowDownloadsShouldNotDelayOtherResources() throws Exception {
+        contents.put("/slow.png", "slow");
+        contents.put("/fast.png", "fast");
+        gates.put("/slow.png", new CountDownLatch(1));
+        arrivals.put("/slow.png", new CountDownLatch(1));
+        ResourceCache cache = cache(1000);
+        AtomicReference<ResourceCache.Result> slow = new AtomicReference<>();
+        Thread slowFetch = new Thread(() -> slow.set(cache.fetch(url("/slow.png"), 100, "Test")));
+        slowFetch.start();
+        assertThat(arrivals.get("/slow.png").await(5, TimeUnit.SECONDS), is(true));
+
+        // Completes while the other download is stuck
+        assertThat(read(cache.fetch(url("/fast.png"), 100, "Test")), is("fast"));
+        assertThat(slowFetch.isAlive(), is(true));
+
+        gates.get("/slow.png").countDown();
+        slowFetch.join(5000);
+        assertThat(read(slow.get()), is("slow"));
+    }
+
+    @Test
+    public void testConcurrentFetchesOfAResourceShouldShareOneDownload() throws Exception {
+        contents.put("/shared.png", "shared");
+        gates.put("/shared.png", new CountDownLatch(1));
+        arrivals.put("/shared.png", new CountDownLatch(1));
+        ResourceCache cache = cache(1000);
+        List<ResourceCache.Result> results = new ArrayList<>();
+        List<Thread> fetches = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread fetch = new Thread(() -> {
+                ResourceCache.Result result = cache.fetch(url("/shared.png"), 100, "Test");
+                synchronized (results) {
+                    results.add(result);
+                }
+            });
+            fetches.add(fetch);
+            fetch.start();
+        }
+        assertThat(arrivals.get("/shared.png").await(5, TimeUnit.SECONDS), is(true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getJoinedFetchCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(cache.getJoinedFetchCount(), is(2));
+
+        gates.get("/shared.png").countDown();
+        for (Thread fetch : fetches) {
+            fetch.join(5000);
+        }
+        assertThat(requestCount(requests, "/shared.png"), is(1));
+        assertThat(results.size(), is(3));
+        int downloaded = 0;
+        int joined = 0;
+        for (ResourceCache.Result result : results) {
+            assertThat(read(result), is("shared"));
+            assertThat(result.getFile(), is(results.get(0).getFile()));
+            if (result.getDownloadedBytes() >= 0) downloaded++;
+            if (result.isJoined()) joined++;
+        }
+        assertThat(downloaded, is(1));
+        assertThat(joined, is(2));
+    }
+
+    @Test
+    public void testItShouldRevalidateStaleEntries() throws Exception {
+        contents.put("/icon.png", "icon");
+        cacheControls.put("/icon.png", "max-age=60");
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/icon.png"), 100, "Test");
+
+        now += TimeUnit.SECONDS.toMillis(61);
+        assertThat(cache.getFresh(url("/icon.png")), nullValue());
+        ResourceCache.Result result = cache.fetch(url("/icon.png"), 100, "Test");
+        assertThat(read(result), is("icon"));
+        assertThat(result.getDownloadedBytes(), is(-1L));
+        assertThat(requestCount(notModified, "/icon.png"), is(1));
+        // Fresh again after revalidation
+        assertThat(cache.getFresh(url("/icon.png")), notNullValue());
+
+        // A changed resource is downloaded again
+        now += TimeUnit.SECONDS.toMillis(61);
+        contents.put("/icon.png", "new icon");
+        result = cache.fetch(url("/icon.png"), 100, "Test");
+        assertThat(read(result), is("new icon"));
+        assertThat(result.getDownloadedBytes(), is(8L));
+        assertThat(cache.getSize(), is(8L));
+        assertThat(requestCount(requests, "/icon.png"), is(3));
+    }
+
+    @Test
+    public void testNoCacheShouldRevalidateEveryTime() throws Exception {
+        contents.put("/sound.mp3", "sound");
+        cacheControls.put("/sound.mp3", "no-cache");
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/sound.mp3"), 100, "Test");
+        assertThat(cache.getFresh(url("/sound.mp3")), nullValue());
+        assertThat(read(cache.fetch(url("/sound.mp3"), 100, "Test")), is("sound"));
+        assertThat(requestCount(notModified, "/sound.mp3"), is(1));
+    }
+
+    @Test
+    public void testItShouldServeStaleEntriesWhenTheNetworkFails() throws Exception {
+        contents.put("/icon.png", "icon");
+        cacheControls.put("/icon.png", "max-age=60");
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/icon.png"), 100, "Test");
+        now += TimeUnit.SECONDS.toMillis(61);
+        String url = url("/icon.png");
+        server.stop(0);
+        ResourceCache.Result result = cache.fetch(url, 100, "Test");
+        assertThat(read(result), is("icon"));
+        assertThat(cache.fetch(url.replace("icon", "other"), 100, "Test"), nullValue());
+    }
+
+    @Test
+    public void testItShouldEvictLeastRecentlyUsedEntries() throws Exception {
+        for (char c = 'a'; c <= 'd'; c++) {
+            contents.put("/" + c, content(c, 300));
+            cacheControls.put("/" + c, "max-age=3600");
+        }
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/a"), 1000, "Test");
+        now++;
+        cache.fetch(url("/b"), 1000, "Test");
+        now++;
+        cache.fetch(url("/c"), 1000, "Test");
+        now++;
+        // Use a, so that b is the least recently used
+        assertThat(cache.getFresh(url("/a")), notNullValue());
+        now++;
+        cache.fetch(url("/d"), 1000, "Test");
+        assertThat(cache.getSize(), is(900L));
+        assertThat(cache.getFresh(url("/b")), nullValue());
+        assertThat(new File(folder.getRoot(), ResourceCache.key(url("/b"))).exists(), is(false));
+
+        // The order survives restarts
+        ResourceCache restarted = cache(1000);
+        assertThat(restarted.getSize(), is(900L));
+        now++;
+        contents.put("/e", content('e', 300));
+        restarted.fetch(url("/e"), 1000, "Test");
+        assertThat(restarted.getFresh(url("/c")), nullValue());
+        assertThat(restarted.getFresh(url("/a")), notNullValue());
+        assertThat(restarted.getFresh(url("/d")), notNullValue());
+        assertThat(restarted.getFresh(url("/e")), notNullValue());
+        assertThat(files().size(), is(4));
+    }
+
+    @Test
+    public void testItShouldRejectFilesAboveTheMaximumSize() throws Exception {
+        contents.put("/big", content('x', 200));
+        ResourceCache cache = cache(1000);
+        assertThat(cache.fetch(url("/big"), 100, "Test"), nullValue());
+        assertThat(cache.getSize(), is(0L));
+        assertThat(files(), is(new HashSet<>(Arrays.asList(ResourceCache.INDEX_FILE))));
+        assertThat(cache.fetch(url("/missing"), 100, "Test"), nullValue());
+    }
+
+    @Test
+    public void testItShouldRemoveFilesThatAreNotIndexed() throws Exception {
+        // Like files of the previous cache format
+        File legacy = new File(folder.getRoot(), Integer.toHexString(url("/icon.png").hashCode()));
+        Files.write(legacy.toPath(), "legacy".getBytes("UTF-8"));
+        contents.put("/icon.png", "icon");
+        ResourceCache cache = cache(1000);
+        assertThat(read(cache.fetch(url("/icon.png"), 100, "Test")), is("icon"));
+        assertThat(legacy.exists(), is(false));
+        assertThat(files().size(), is(2));
+    }
+
+    @Test
+    public void testItShouldResumeInterruptedDownloads() throws Exception {
+        String content = content('s', 100_000);
+        contents.put("/sound.mp3", content);
+        interruptions.put("/sound.mp3", 40_000);
+        ResourceCache cache = cache(1_000_000);
+        assertThat(cache.fetch(url("/sound.mp3"), 200_000, "Test"), nullValue());
+        File partial = new File(folder.getRoot(), ResourceCache.key(url("/sound.mp3")) + ".part");
+        assertThat(partial.exists(), is(true));
+        long kept = partial.length();
+
+        // Even after a restart
+        ResourceCache.Result result = cache(1_000_000).fetch(url("/sound.mp3"), 200_000, "Test");
+        assertThat(read(result), is(content));
+        assertThat(ranges.get("/sound.mp3"), is("bytes=" + kept + "-"));
+        assertThat(result.getDownloadedBytes(), is(100_000L - kept));
+        assertThat(partial.exists(), is(false));
+    }
+
+    @Test
+    public void testItShouldRestartWhenTheResourceChangedSinceTheInterruption() throws Exception {
+        contents.put("/sound.mp3", content('s', 100_000));
+        interruptions.put("/sound.mp3", 40_000);
+        ResourceCache cache = cache(1_000_000);
+        assertThat(cache.fetch(url("/sound.mp3"), 200_000, "Test"), nullValue());
+
+        contents.put("/sound.mp3", content('t', 50_000));
+        ResourceCache.Result result = cache.fetch(url("/sound.mp3"), 200_000, "Test");
+        assertThat(read(result), is(content('t', 50_000)));
+        assertThat(result.getDownloadedBytes(), is(50_000L));
+    }
+
+    @Test
+    public void testItShouldReplaceContentsDroppingValidators() throws Exception {
+        contents.put("/picture.jpg", content('p', 500));
+        cacheControls.put("/picture.jpg", "max-age=60");
+        ResourceCache cache = cache(1000);
+        File file = cache.fetch(url("/picture.jpg"), 1000, "Test").getFile();
+        File downsampled = folder.newFile("downsampled");
+        Files.write(downsampled.toPath(), "small".getBytes("UTF-8"));
+        assertThat(cache.replace(file.getName(), downsampled), is(true));
+        assertThat(cache.getSize(), is(5L));
+        assertThat(cache(1000).getSize(), is(5L));
+
+        // Served while fresh
+        now += TimeUnit.SECONDS.toMillis(30);
+        assertThat(read(cache.fetch(url("/picture.jpg"), 1000, "Test")), is("small"));
+
+        // Then downloaded again, the validators of the original must not vouch for the replacement
+        now += TimeUnit.SECONDS.toMillis(31);
+        ResourceCache.Result result = cache.fetch(url("/picture.jpg"), 1000, "Test");
+        assertThat(read(result), is(content('p', 500)));
+        assertThat(requestCount(notModified, "/picture.jpg"), is(0));
+        assertThat(requestCount(requests, "/picture.jpg"), is(2));
+    }
+
+    @Test
+    public void testPinnedEntriesShouldStayFreshUntilTheyExpire() throws Exception {
+        contents.put("/campaign.jpg", "campaign");
+        cacheControls.put("/campaign.jpg", "no-cache");
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/campaign.jpg"), 1000, "Test");
+        assertThat(cache.getFresh(url("/campaign.jpg")), nullValue());
+        assertThat(cache.pin(url("/campaign.jpg"), now + 1000), is(true));
+        assertThat(cache.getPinnedSize(), is(8L));
+
+        now += 500;
+        assertThat(cache(1000).getFresh(url("/campaign.jpg")), notNullValue());
+        assertThat(requestCount(requests, "/campaign.jpg"), is(1));
+
+        // Expired pinned entries are deleted
+        now += 500;
+        assertThat(cache(1000).getSize(), is(0L));
+        assertThat(files(), is(new HashSet<>(Arrays.asList(ResourceCache.INDEX_FILE))));
+    }
+
+    @Test
+    public void testPinsShouldStayWithinTheirShareOfTheCache() throws Exception {
+        contents.put("/a", content('a', 300));
+        contents.put("/b", content('b', 300));
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/a"), 1000, "Test");
+        cache.fetch(url("/b"), 1000, "Test");
+        assertThat(cache.pin(url("/a"), now + 1000), is(true));
+        assertThat(cache.pin(url("/b"), now + 1000), is(false));
+        assertThat(cache.pin(url("/missing"), now + 1000), is(false));
+        assertThat(cache.pin(url("/a"), now + 2000), is(true));
+        assertThat(cache.getPinnedSize(), is(300L));
+    }
+
+    @Test
+    public void testPinnedEntriesShouldBeEvictedLast() throws Exception {
+        contents.put("/pinned", content('p', 400));
+        contents.put("/a", content('a', 300));
+        contents.put("/b", content('b', 300));
+        contents.put("/c", content('c', 300));
+        ResourceCache cache = cache(1000);
+        cache.fetch(url("/pinned"), 1000, "Test");
+        cache.pin(url("/pinned"), now + 1000);
+        cache.fetch(url("/a"), 1000, "Test");
+        cache.fetch(url("/b"), 1000, "Test");
+        cache.fetch(url("/c"), 1000, "Test");
+        assertThat(cache.getFresh(url("/pinned")), notNullValue());
+        assertThat(cache.getFresh(url("/a")), nullValue());
+        assertThat(cache.getSize(), is(1000L));
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.wonderpush.sdk;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.fail;
+
+public class ResourceFetchExecutorTest {
+
+    private final ResourceFetchExecutor executor = new ResourceFetchExecutor();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Holds its fetching thread until released, returning the name of that thread.
+     */
+    private class BlockingTask extends ResourceFetchExecutor.Task<String> {
+        final CountDownLatch started;
+        final long fetchMillis;
+
+        BlockingTask(CountDownLatch started, long fetchMillis) {
+            this.started = started;
+            this.fetchMillis = fetchMillis;
+        }
+
+        @Override
+        protected String run() {
+            started.countDown();
+            try {
+                assertThat(release.await(5, TimeUnit.SECONDS), is(true));
+                Thread.sleep(fetchMillis);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return Thread.currentThread().getName();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    private List<Future<String>> occupyAllThreads() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(ResourceFetchExecutor.THREADS);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < ResourceFetchExecutor.THREADS; ++i) {
+            futures.add(executor.submit(new BlockingTask(started, 0)));
+        }
+        // Only reached if the fetches run in parallel
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        return futures;
+    }
+
+    @Test
+    public void testFetchesShouldRunInParallelOnDedicatedThreads() throws Exception {
+        List<Future<String>> futures = occupyAllThreads();
+        release.countDown();
+        for (Future<String> future : futures) {
+            String threadName = future.get(5, TimeUnit.SECONDS);
+            assertThat(threadName.startsWith(ResourceFetchExecutor.THREAD_NAME_PREFIX), is(true));
+            assertThat(threadName, not(Thread.currentThread().getName()));
+        }
+    }
+
+    @Test
+    public void testItShouldTimeTheWaitAndTheFetch() throws Exception {
+        occupyAllThreads();
+        BlockingTask task = new BlockingTask(new CountDownLatch(1), 50);
+        assertThat(task.getQueuedMillis(), is(-1L));
+        Future<String> future = executor.submit(task);
+        Thread.sleep(100);
+        assertThat(task.getQueuedMillis(), is(-1L));
+        assertThat(task.getFetchMillis(), is(-1L));
+
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertThat(task.getQueuedMillis(), greaterThanOrEqualTo(100L));
+        assertThat(task.getFetchMillis(), greaterThanOrEqualTo(50L));
+    }
+
+    @Test
+    public void testItShouldRejectFetchesBeyondTheQueueCapacity() throws Exception {
+        List<Future<String>> futures = occupyAllThreads();
+        for (int i = 0; i < ResourceFetchExecutor.QUEUE_CAPACITY; ++i) {
+            futures.add(executor.submit(new BlockingTask(new CountDownLatch(1), 0)));
+        }
+        try {
+            executor.submit(new BlockingTask(new CountDownLatch(1), 0));
+            fail("Expected the fetch to be rejected");
+        } catch (RejectedExecutionException ignored) {
+        }
+
+        release.countDown();
+        for (Future<String> future : futures) future.get(5, TimeUnit.SECONDS);
+        // Room is made once the queue drains
+        executor.submit(new BlockingTask(new CountDownLatch(1), 0)).get(5, TimeUnit.SECONDS);
+    }
+
+}
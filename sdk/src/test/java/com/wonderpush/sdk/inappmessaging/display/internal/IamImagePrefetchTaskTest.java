@@ -0,0 +1,134 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IamImagePrefetchTaskTest {
+
+  private static final int MB = 1024 * 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+  private OkHttpClient client;
+  private final IamImageCacheMetrics metrics = new IamImageCacheMetrics();
+  private final Map<String, Integer> sizes = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+      Integer size = sizes.get(path);
+      if (size == null) {
+        exchange.sendResponseHeaders(404, -1);
+        exchange.close();
+        return;
+      }
+      exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+      exchange.sendResponseHeaders(200, size);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(new byte[size]);
+      }
+    });
+    server.start();
+    client = new OkHttpClient.Builder()
+        .cache(new Cache(folder.newFolder("http"), 50 * MB))
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  private int requestCount(String path) {
+    AtomicInteger count = requests.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  private static IamImagePrefetchTask.CampaignImages images(long endTimeMillis, String portrait, String landscape) {
+    return new IamImagePrefetchTask.CampaignImages(endTimeMillis, portrait, landscape);
+  }
+
+  @Test
+  public void testItShouldListTheImagesOfTheMostImportantCampaignsFirst() {
+    IamImagePrefetchTask.CampaignImages launch = images(0, "launch.png", null);
+    IamImagePrefetchTask.CampaignImages foreground = images(0, "foreground-portrait.png", "foreground-landscape.png");
+    IamImagePrefetchTask.CampaignImages other = images(0, "other.png", null);
+    IamImagePrefetchTask.CampaignImages ended = images(999, "ended.png", null);
+    IamImagePrefetchTask.CampaignImages endsLater = images(2000, "ends-later.png", "");
+    List<List<IamImagePrefetchTask.CampaignImages>> campaignsByPriority = Arrays.asList(
+        Collections.singletonList(launch),
+        Collections.singletonList(foreground),
+        // All the campaigns, including the ones above
+        Arrays.asList(other, foreground, ended, launch, endsLater));
+
+    assertThat(IamImagePrefetchTask.imageUrlsByPriority(campaignsByPriority, 1000, false),
+        is(Arrays.asList("launch.png", "foreground-portrait.png", "foreground-landscape.png", "other.png", "ends-later.png")));
+    // The image of the current orientation comes first
+    assertThat(IamImagePrefetchTask.imageUrlsByPriority(campaignsByPriority, 1000, true),
+        is(Arrays.asList("launch.png", "foreground-landscape.png", "foreground-portrait.png", "other.png", "ends-later.png")));
+  }
+
+  @Test
+  public void testItShouldStopAtTheByteBudget() {
+    sizes.put("/a.png", 3 * MB);
+    sizes.put("/b.png", 3 * MB);
+    sizes.put("/c.png", 2 * MB);
+    sizes.put("/d.png", 1);
+    List<String> imageUrls = Arrays.asList(url("/a.png"), url("/b.png"), url("/c.png"), url("/d.png"));
+    new IamImagePrefetchTask(client, metrics, imageUrls, 5 * MB).run();
+
+    // The second image is bigger than what remains of the budget, the third one uses it all
+    assertThat(metrics.getPrefetchedImages(), is(2L));
+    assertThat(metrics.getPrefetchedBytes(), is(5L * MB));
+    assertThat(metrics.getPrefetchSkippedImages(), is(2L));
+    assertThat(requestCount("/b.png"), is(1));
+    assertThat(requestCount("/d.png"), is(0));
+
+    // Cached images are not downloaded again and do not count against the budget
+    new IamImagePrefetchTask(client, metrics, imageUrls, 5 * MB).run();
+    assertThat(requestCount("/a.png"), is(1));
+    assertThat(requestCount("/c.png"), is(1));
+    assertThat(requestCount("/d.png"), is(1));
+  }
+
+  @Test
+  public void testItShouldSkipInvalidAndMissingImages() {
+    sizes.put("/a.png", 10);
+    new IamImagePrefetchTask(client, metrics, Arrays.asList("not a url", url("/missing.png"), url("/a.png")), 5 * MB).run();
+    assertThat(metrics.getPrefetchedImages(), is(1L));
+    assertThat(metrics.getPrefetchedBytes(), is(10L));
+    assertThat(metrics.getPrefetchSkippedImages(), is(0L));
+  }
+
+}
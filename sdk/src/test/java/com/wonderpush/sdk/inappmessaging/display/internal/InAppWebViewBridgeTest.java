@@ -0,0 +1,240 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import android.graphics.Rect;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InAppWebViewBridgeTest {
+
+    private static final String RECEIVE_PREFIX = "window._wpiamReceive && window._wpiamReceive(";
+
+    private static class FakeSdk implements InAppWebViewBridge.Sdk {
+        final Set<String> tags = new LinkedHashSet<>();
+        final JSONObject properties = new JSONObject();
+        boolean subscribed;
+
+        @Override public void subscribeToNotifications() { subscribed = true; }
+        @Override public void unsubscribeFromNotifications() { subscribed = false; }
+        @Override public boolean isSubscribedToNotifications() { return subscribed; }
+        @Override public String getUserId() { return "user"; }
+        @Override public String getInstallationId() { return "installation"; }
+        @Override public String getCountry() { return "FR"; }
+        @Override public String getCurrency() { return "EUR"; }
+        @Override public String getLocale() { return "fr_FR"; }
+        @Override public String getTimeZone() { return "Europe/Paris"; }
+        @Override public void addTag(String... tags) { this.tags.addAll(Arrays.asList(tags)); }
+        @Override public void removeTag(String... tags) { this.tags.removeAll(Arrays.asList(tags)); }
+        @Override public void removeAllTags() { tags.clear(); }
+        @Override public boolean hasTag(String tag) { return tags.contains(tag); }
+        @Override public Set<String> getTags() { return new LinkedHashSet<>(tags); }
+        @Override public Object getPropertyValue(String field) { return properties.opt(field); }
+        @Override public List<Object> getPropertyValues(String field) { return Collections.singletonList(properties.opt(field)); }
+        @Override public void addProperty(String field, Object value) { setProperty(field, value); }
+        @Override public void removeProperty(String field, Object value) { unsetProperty(field); }
+        @Override public void setProperty(String field, Object value) {
+            try {
+                properties.put(field, value);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        @Override public void unsetProperty(String field) { properties.remove(field); }
+        @Override public void putProperties(JSONObject properties) {
+            for (String field : JSONObject.getNames(properties)) setProperty(field, properties.opt(field));
+        }
+        @Override public JSONObject getProperties() { return properties; }
+    }
+
+    private static class RecordingController implements InAppWebViewBridge.Controller {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        final BlockingQueue<JSONObject> received = new LinkedBlockingQueue<>();
+
+        @Override public void sendError(String msg) { calls.add("sendError " + msg); }
+        @Override public void openExternalUrl(String url) { calls.add("openExternalUrl " + url); }
+        @Override public void openDeepLink(String url) { calls.add("openDeepLink " + url); }
+        @Override public void triggerLocationPrompt() throws Exception { throw new Exception("No location"); }
+        @Override public void dismiss() { calls.add("dismiss"); }
+        @Override public void trackClick(String buttonLabel) { calls.add("trackClick " + buttonLabel); }
+        @Override public void openAppRating() { calls.add("openAppRating"); }
+        @Override public void trackEvent(String type) { calls.add("trackEvent " + type); }
+        @Override public void trackEvent(String type, JSONObject attributes) { calls.add("trackEvent " + type + " " + attributes); }
+        @Override public void callMethod(String methodName, String methodArg) { calls.add("callMethod " + methodName + " " + methodArg); }
+        @Override public void setClipPath(Rect clipPath) { calls.add("setClipPath " + clipPath); }
+        @Override public JSONObject getPayload() {
+            try {
+                return new JSONObject().put("key", "value");
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void evaluateJavascript(String script) {
+            assertThat(script.startsWith(RECEIVE_PREFIX), is(true));
+            try {
+                received.add(new JSONObject(script.substring(RECEIVE_PREFIX.length(), script.length() - 1)));
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        JSONObject nextResponse() throws InterruptedException {
+            JSONObject response = received.poll(5, TimeUnit.SECONDS);
+            assertThat(response, notNullValue());
+            return response;
+        }
+    }
+
+    private final FakeSdk sdk = new FakeSdk();
+    private final RecordingController controller = new RecordingController();
+
+    private static String value(Object value) throws JSONException {
+        return new JSONObject().put("value", value).toString();
+    }
+
+    private static Object result(String encoded) throws JSONException {
+        return new JSONObject(encoded).get("result");
+    }
+
+    private static String error(String encoded) throws JSONException {
+        return new JSONObject(encoded).getString("error");
+    }
+
+    private static JSONObject message(int id, String method, String... args) throws JSONException {
+        return new JSONObject().put("id", id).put("method", method).put("args", new JSONArray(Arrays.asList(args)));
+    }
+
+    private static List<Object> replyIds(JSONObject response) throws JSONException {
+        List<Object> ids = new ArrayList<>();
+        JSONArray replies = response.getJSONArray("replies");
+        for (int i = 0; i < replies.length(); i++) ids.add(replies.getJSONObject(i).get("id"));
+        return ids;
+    }
+
+    @Test
+    public void testItShouldDispatchByMethodName() throws Exception {
+        InAppWebViewBridge bridge = new InAppWebViewBridge(controller, sdk);
+        assertThat(bridge.call("dismiss", new String[0]), nullValue());
+        assertThat(bridge.call("openAppRating", new String[0]), nullValue());
+        assertThat(bridge.call("subscribeToNotifications", new String[0]), nullValue());
+        assertThat(sdk.subscribed, is(true));
+        assertThat(controller.calls, is(Arrays.asList("dismiss", "openAppRating")));
+
+        assertThat(result(bridge.call("getUserId", new String[0])), is((Object) "user"));
+        assertThat(result(bridge.call("getTimeZone", new String[0])), is((Object) "Europe/Paris"));
+        assertThat(result(bridge.call("getDevicePlatform", new String[0])), is((Object) "Android"));
+        assertThat(result(bridge.call("isSubscribedToNotifications", new String[0])), is((Object) true));
+        assertThat(new JSONObject(bridge.call("getPayload", new String[0])).getJSONObject("result").getString("key"), is("value"));
+
+        assertThat(error(bridge.call("triggerLocationPrompt", new String[0])), is("No location"));
+        assertThat(error(bridge.call("unknown", new String[0])), is("Unknown method unknown"));
+    }
+
+    @Test
+    public void testItShouldDecodeTheArguments() throws Exception {
+        InAppWebViewBridge bridge = new InAppWebViewBridge(controller, sdk);
+        assertThat(bridge.call("trackClick", new String[]{value("Ok")}), nullValue());
+        assertThat(bridge.call("trackEvent", new String[]{value("purchase")}), nullValue());
+        assertThat(bridge.call("trackEvent", new String[]{value("purchase"), value(new JSONObject().put("int_price", 3))}), nullValue());
+        assertThat(bridge.call("callMethod", new String[]{value("method"), value("arg")}), nullValue());
+        assertThat(bridge.call("callMethod", new String[]{value("method")}), nullValue());
+        assertThat(controller.calls, is(Arrays.asList(
+                "trackClick Ok",
+                "trackEvent purchase",
+                "trackEvent purchase {\"int_price\":3}",
+                "callMethod method arg",
+                "callMethod method null")));
+
+        bridge.call("addTag", new String[]{value(new JSONArray(Arrays.asList("a", "b")))});
+        assertThat(result(bridge.call("hasTag", new String[]{value("b")})), is((Object) true));
+        assertThat(result(bridge.call("getTags", new String[0])).toString(), is("[\"a\",\"b\"]"));
+        bridge.call("setProperty", new String[]{value("int_age"), value(42)});
+        assertThat(result(bridge.call("getPropertyValue", new String[]{value("int_age")})), is((Object) 42));
+        bridge.call("putProperties", new String[]{value(new JSONObject().put("string_name", "Jo"))});
+        assertThat(sdk.properties.getString("string_name"), is("Jo"));
+
+        // Missing and mistyped arguments are reported, not passed on
+        assertThat(error(bridge.call("trackEvent", new String[0])), is("Type cannot be null"));
+        assertThat(error(bridge.call("trackClick", new String[]{value(1)})), is("buttonLabel cannot be null"));
+        assertThat(error(bridge.call("setProperty", new String[]{"not json", value(1)})), is("Field cannot be null"));
+        assertThat(error(bridge.call("putProperties", new String[]{value("not an object")})), is("Properties cannot be null"));
+        assertThat(controller.calls.size(), is(5));
+    }
+
+    @Test
+    public void testItShouldRunTheHeldMessagesInOrderOnAttach() throws Exception {
+        InAppWebViewBridge bridge = new InAppWebViewBridge(null, sdk);
+        bridge.postMessages(new JSONArray().put(message(1, "trackEvent", value("first"))).put(message(2, "getUserId")).toString());
+        bridge.postMessages(new JSONArray().put(message(3, "trackEvent", value("second"))).toString());
+        // Nothing runs while the page is off-screen
+        Thread.sleep(50);
+        assertThat(controller.calls.isEmpty(), is(true));
+
+        bridge.attach(controller);
+        bridge.postMessages(new JSONArray().put(message(4, "trackEvent", value("third"))).toString());
+
+        JSONObject first = controller.nextResponse();
+        assertThat(replyIds(first), is(Arrays.<Object>asList(1, 2)));
+        assertThat(result(first.getJSONArray("replies").getJSONObject(1).getString("result")), is((Object) "user"));
+        assertThat(replyIds(controller.nextResponse()), is(Arrays.<Object>asList(3)));
+        // Then the state the page was loaded with is refreshed
+        JSONObject refresh = controller.nextResponse();
+        assertThat(replyIds(refresh).isEmpty(), is(true));
+        assertThat(refresh.getJSONObject("state").getString("userId"), is("user"));
+        assertThat(replyIds(controller.nextResponse()), is(Arrays.<Object>asList(4)));
+        assertThat(controller.calls, is(Arrays.asList("trackEvent first", "trackEvent second", "trackEvent third")));
+    }
+
+    @Test
+    public void testItShouldAttachTheStateAfterStateChangingMethods() throws Exception {
+        InAppWebViewBridge bridge = new InAppWebViewBridge(controller, sdk);
+        bridge.postMessages(new JSONArray().put(message(1, "getTags")).put(message(2, "hasTag", value("a"))).toString());
+        assertThat(controller.nextResponse().has("state"), is(false));
+
+        bridge.postMessages(new JSONArray().put(message(1, "addTag", value(new JSONArray().put("a")))).put(message(2, "getTags")).toString());
+        JSONObject state = controller.nextResponse().getJSONObject("state");
+        assertThat(state.getJSONArray("tags").toString(), is("[\"a\"]"));
+
+        bridge.postMessages(new JSONArray().put(message(1, "setProperty", value("string_name"), value("Jo"))).toString());
+        state = controller.nextResponse().getJSONObject("state");
+        assertThat(state.getJSONObject("properties").getString("string_name"), is("Jo"));
+
+        bridge.postMessages(new JSONArray().put(message(1, "subscribeToNotifications")).toString());
+        bridge.postMessages(new JSONArray().put(message(1, "unsubscribeFromNotifications")).toString());
+        assertThat(controller.nextResponse().getJSONObject("state").getBoolean("subscribedToNotifications"), is(true));
+        assertThat(controller.nextResponse().getJSONObject("state").getBoolean("subscribedToNotifications"), is(false));
+    }
+
+    @Test
+    public void testTheStateSnapshotShouldHoldWhatPagesRead() throws Exception {
+        sdk.addTag("a");
+        JSONObject state = new InAppWebViewBridge(controller, sdk).getStateSnapshot();
+        assertThat(state.getString("installationId"), is("installation"));
+        assertThat(state.getString("country"), is("FR"));
+        assertThat(state.getString("currency"), is("EUR"));
+        assertThat(state.getString("locale"), is("fr_FR"));
+        assertThat(state.getString("devicePlatform"), is("Android"));
+        assertThat(state.getJSONArray("tags").toString(), is("[\"a\"]"));
+        assertThat(state.getJSONObject("payload").getString("key"), is("value"));
+        assertThat(new InAppWebViewBridge(null, sdk).getStateSnapshot().isNull("payload"), is(true));
+    }
+
+}
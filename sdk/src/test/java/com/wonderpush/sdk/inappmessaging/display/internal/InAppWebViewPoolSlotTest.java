@@ -0,0 +1,119 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InAppWebViewPoolSlotTest {
+
+  private static final String URL = "https://example.com/campaign.html";
+  private static final String OTHER_URL = "https://example.com/other.html";
+
+  @Test
+  public void testItShouldScheduleASingleFill() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.EMPTY));
+    assertThat(slot.scheduleFill(), is(true));
+    assertThat(slot.scheduleFill(), is(false));
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.FILL_SCHEDULED));
+    assertThat(slot.hasWebView(), is(false));
+
+    slot.filled(new Object());
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.IDLE));
+    assertThat(slot.scheduleFill(), is(false));
+  }
+
+  @Test
+  public void testItShouldScheduleAgainAfterAFailedFill() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    slot.scheduleFill();
+    slot.fillFailed();
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.EMPTY));
+    assertThat(slot.scheduleFill(), is(true));
+  }
+
+  @Test
+  public void testItShouldOnlyCountACompleteLoadAsPreloaded() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    slot.filled(new Object());
+    assertThat(slot.shouldPreload(URL), is(true));
+    int generation = slot.preloadStarted(URL);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.PRELOADING));
+    assertThat(slot.shouldPreload(URL), is(false));
+    assertThat(slot.isPreloaded(URL), is(false));
+
+    slot.preloadFinished(generation);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.PRELOADED));
+    assertThat(slot.isPreloaded(URL), is(true));
+    assertThat(slot.isPreloaded(OTHER_URL), is(false));
+    assertThat(slot.isPreloaded(null), is(false));
+  }
+
+  @Test
+  public void testItShouldNotCountAPageWithHeldBackRequestsAsPreloaded() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    slot.filled(new Object());
+    int generation = slot.preloadStarted(URL);
+    slot.preloadIncomplete(generation);
+    slot.preloadFinished(generation);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.IDLE));
+    assertThat(slot.isPreloaded(URL), is(false));
+    // The same page is not loaded again in a loop
+    assertThat(slot.shouldPreload(URL), is(false));
+  }
+
+  @Test
+  public void testItShouldDowngradeAPageMakingHeldBackRequestsAfterLoading() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    slot.filled(new Object());
+    int generation = slot.preloadStarted(URL);
+    slot.preloadFinished(generation);
+    slot.preloadIncomplete(generation);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.IDLE));
+    assertThat(slot.isPreloaded(URL), is(false));
+  }
+
+  @Test
+  public void testItShouldIgnoreCallbacksOfAReplacedLoad() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    slot.filled(new Object());
+    int first = slot.preloadStarted(URL);
+    assertThat(slot.shouldPreload(OTHER_URL), is(true));
+    int second = slot.preloadStarted(OTHER_URL);
+
+    slot.preloadIncomplete(first);
+    slot.preloadFinished(first);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.PRELOADING));
+
+    slot.preloadFinished(second);
+    assertThat(slot.isPreloaded(OTHER_URL), is(true));
+    assertThat(slot.isPreloaded(URL), is(false));
+  }
+
+  @Test
+  public void testItShouldEmptyTheSlotWhenHandingOutTheWebView() {
+    InAppWebViewPoolSlot<Object> slot = new InAppWebViewPoolSlot<>();
+    Object webView = new Object();
+    slot.filled(webView);
+    int generation = slot.preloadStarted(URL);
+    slot.preloadFinished(generation);
+
+    assertThat(slot.take(), is(webView));
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.EMPTY));
+    assertThat(slot.hasWebView(), is(false));
+    assertThat(slot.getUrl(), is(nullValue()));
+    assertThat(slot.isPreloaded(URL), is(false));
+    assertThat(slot.shouldPreload(URL), is(false));
+    assertThat(slot.take(), is(nullValue()));
+
+    // Late callbacks of the handed out page do not affect the next WebView
+    slot.filled(new Object());
+    slot.preloadIncomplete(generation);
+    slot.preloadFinished(generation);
+    assertThat(slot.getState(), is(InAppWebViewPoolSlot.State.IDLE));
+    assertThat(slot.scheduleFill(), is(false));
+  }
+
+}
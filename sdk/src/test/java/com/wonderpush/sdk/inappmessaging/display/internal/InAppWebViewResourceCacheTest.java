@@ -0,0 +1,315 @@
+package com.wonderpush.sdk.inappmessaging.display.internal;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InAppWebViewResourceCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final Map<String, String> contents = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final OkHttpClient client = new OkHttpClient.Builder().followRedirects(false).build();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            String content = contents.get(path);
+            if (content == null) {
+                exchange.getResponseHeaders().set("X-Error", "missing");
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                byte[] bytes = content.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", path.endsWith(".css") ? "text/css; charset=utf-8" : "text/javascript; charset=utf-8");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().set("X-Custom", "custom");
+                if (path.startsWith("/nostore")) exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(bytes);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private int requestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private InAppWebViewResourceCache cache(long maxBytes) {
+        return new InAppWebViewResourceCache(folder.getRoot(), maxBytes, () -> client, Runnable::run);
+    }
+
+    private static String read(InAppWebViewResourceCache.Resource resource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = resource.getData()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toString("UTF-8");
+    }
+
+    private static String header(InAppWebViewResourceCache.Resource resource, String name) {
+        // The test server changes the case of header names
+        for (Map.Entry<String, String> header : resource.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    private static String content(char c, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    private String get(InAppWebViewResourceCache cache, String campaignId, String version, String path) throws IOException {
+        InAppWebViewResourceCache.Resource resource = cache.get(campaignId, version, url(path), Collections.emptyMap());
+        return resource == null ? null : read(resource);
+    }
+
+    private int blobCount() {
+        File[] files = new File(folder.getRoot(), "blobs").listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testItShouldServeRepeatDisplaysWithoutNetwork() throws Exception {
+        contents.put("/app.js", "var a;");
+        contents.put("/style.css", "body {}");
+        InAppWebViewResourceCache cache = cache(1024 * 1024);
+
+        InAppWebViewResourceCache.Resource html = cache.get("c1", "v1", url("/app.js"), Collections.emptyMap());
+        assertThat(html, notNullValue());
+        assertThat(html.getMimeType(), is("text/javascript"));
+        assertThat(html.getEncoding(), is("UTF-8"));
+        assertThat(read(html), is("var a;"));
+        assertThat(get(cache, "c1", "v1", "/style.css"), is("body {}"));
+
+        assertThat(get(cache, "c1", "v1", "/app.js"), is("var a;"));
+        assertThat(get(cache, "c1", "v1", "/style.css"), is("body {}"));
+        assertThat(requestCount("/app.js"), is(1));
+        assertThat(requestCount("/style.css"), is(1));
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.getNetworkLoads(), is(2L));
+
+        // The index survives restarts
+        InAppWebViewResourceCache restarted = cache(1024 * 1024);
+        assertThat(get(restarted, "c1", "v1", "/app.js"), is("var a;"));
+        assertThat(requestCount("/app.js"), is(1));
+        assertThat(restarted.getSize(), is((long) ("var a;".length() + "body {}".length())));
+        InAppWebViewResourceCache.Resource restored = restarted.get("c1", "v1", url("/style.css"), Collections.emptyMap());
+        assertThat(header(restored, "X-Custom"), is("custom"));
+        assertThat(header(restored, "Access-Control-Allow-Origin"), is("*"));
+        read(restored);
+    }
+
+    @Test
+    public void testItShouldStoreIdenticalContentsOnce() throws Exception {
+        contents.put("/a.css", "same");
+        contents.put("/b.css", "same");
+        InAppWebViewResourceCache cache = cache(1024 * 1024);
+        assertThat(get(cache, "c1", "v1", "/a.css"), is("same"));
+        assertThat(get(cache, "c2", "v1", "/b.css"), is("same"));
+        assertThat(get(cache, "c2", "v1", "/a.css"), is("same"));
+        assertThat(blobCount(), is(1));
+        assertThat(cache.getSize(), is(4L));
+    }
+
+    @Test
+    public void testItShouldDropResourcesOfPreviousCampaignVersions() throws Exception {
+        contents.put("/app.js", "old");
+        InAppWebViewResourceCache cache = cache(1024 * 1024);
+        assertThat(get(cache, "c1", "v1", "/app.js"), is("old"));
+
+        contents.put("/app.js", "new");
+        assertThat(get(cache, "c1", "v1", "/app.js"), is("old"));
+        assertThat(get(cache, "c1", "v2", "/app.js"), is("new"));
+        assertThat(requestCount("/app.js"), is(2));
+        // The old content is not referenced anymore
+        assertThat(blobCount(), is(1));
+        assertThat(get(cache(1024 * 1024), "c1", "v2", "/app.js"), is("new"));
+        assertThat(requestCount("/app.js"), is(2));
+    }
+
+    @Test
+    public void testItShouldEvictLeastRecentlyUsedContents() throws Exception {
+        for (char c = 'a'; c <= 'e'; c++) {
+            contents.put("/" + c + ".css", content(c, 250));
+        }
+        InAppWebViewResourceCache cache = cache(1000);
+        get(cache, "c1", "v1", "/a.css");
+        get(cache, "c1", "v1", "/b.css");
+        // Use a, so that b is the least recently used
+        get(cache, "c1", "v1", "/a.css");
+        get(cache, "c1", "v1", "/c.css");
+        get(cache, "c1", "v1", "/d.css");
+        assertThat(blobCount(), is(4));
+        get(cache, "c1", "v1", "/e.css");
+        assertThat(cache.getSize(), is(1000L));
+        assertThat(blobCount(), is(4));
+
+        for (char c : new char[]{'a', 'c', 'd', 'e'}) {
+            get(cache, "c1", "v1", "/" + c + ".css");
+            assertThat(requestCount("/" + c + ".css"), is(1));
+        }
+        get(cache, "c1", "v1", "/b.css");
+        assertThat(requestCount("/b.css"), is(2));
+    }
+
+    @Test
+    public void testItShouldOnlyHandleStaticAssets() throws Exception {
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/style.css"), is(true));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/app.JS?v=3#top"), is(true));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/fonts/a.woff2"), is(true));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/index.html"), is(false));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/api/track"), is(false));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/a.css/"), is(false));
+        assertThat(InAppWebViewResourceCache.isCacheable("https://example.com/track?file=a.css"), is(false));
+        assertThat(InAppWebViewResourceCache.isCacheable("data:text/css,body{}"), is(false));
+
+        // Left to the WebView, along with its cookies
+        contents.put("/index.html", "<html></html>");
+        assertThat(get(cache(1000), "c1", "v1", "/index.html"), nullValue());
+        assertThat(requestCount("/index.html"), is(0));
+    }
+
+    @Test
+    public void testItShouldPassUncacheableResponsesThroughWithoutStoringThem() throws Exception {
+        contents.put("/nostore.css", "secret");
+        InAppWebViewResourceCache cache = cache(1000);
+        assertThat(get(cache, "c1", "v1", "/nostore.css"), is("secret"));
+        assertThat(get(cache, "c1", "v1", "/nostore.css"), is("secret"));
+        assertThat(requestCount("/nostore.css"), is(2));
+
+        // Errors are served as-is, not loaded a second time by the WebView
+        InAppWebViewResourceCache.Resource missing = cache.get("c1", "v1", url("/missing.css"), Collections.emptyMap());
+        assertThat(missing, notNullValue());
+        assertThat(missing.getStatusCode(), is(404));
+        assertThat(header(missing, "X-Error"), is("missing"));
+        assertThat(read(missing), is(""));
+        assertThat(requestCount("/missing.css"), is(1));
+
+        // Served once but not kept when too big for the cache
+        contents.put("/big.css", content('x', 600));
+        assertThat(get(cache, "c1", "v1", "/big.css"), is(content('x', 600)));
+        get(cache, "c1", "v1", "/big.css");
+        assertThat(requestCount("/big.css"), is(2));
+        assertThat(blobCount(), is(0));
+    }
+
+    @Test
+    public void testItShouldServeBodiesAnnouncedTooBigWithoutDownloadingThemFirst() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean restSent = new AtomicBoolean();
+        server.createContext("/stream.css", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/css");
+            exchange.sendResponseHeaders(200, 600);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content('x', 300).getBytes("UTF-8"));
+                output.flush();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                restSent.set(true);
+                output.write(content('x', 300).getBytes("UTF-8"));
+            }
+            exchange.close();
+        });
+        InAppWebViewResourceCache.Resource resource = cache(1000).get("c1", "v1", url("/stream.css"), Collections.emptyMap());
+        assertThat(resource, notNullValue());
+        assertThat(restSent.get(), is(false));
+        release.countDown();
+        assertThat(read(resource), is(content('x', 600)));
+        assertThat(blobCount(), is(0));
+    }
+
+    @Test
+    public void testItShouldWriteTheIndexOnceForChangesMadeMeanwhile() throws Exception {
+        List<Runnable> writes = new ArrayList<>();
+        InAppWebViewResourceCache cache = new InAppWebViewResourceCache(folder.getRoot(), 1024 * 1024, () -> client, writes::add);
+        for (char c = 'a'; c <= 'c'; c++) {
+            contents.put("/" + c + ".css", content(c, 10));
+            get(cache, "c1", "v1", "/" + c + ".css");
+        }
+        assertThat(writes.size(), is(1));
+        writes.get(0).run();
+
+        InAppWebViewResourceCache restarted = cache(1024 * 1024);
+        for (char c = 'a'; c <= 'c'; c++) {
+            assertThat(get(restarted, "c1", "v1", "/" + c + ".css"), is(content(c, 10)));
+            assertThat(requestCount("/" + c + ".css"), is(1));
+        }
+
+        // Changes made after the write are written again
+        contents.put("/d.css", content('d', 10));
+        get(cache, "c1", "v1", "/d.css");
+        assertThat(writes.size(), is(2));
+    }
+
+    @Test
+    public void testItShouldForwardRequestHeaders() throws Exception {
+        Map<String, String> seen = new HashMap<>();
+        server.createContext("/headers.js", exchange -> {
+            seen.put("User-Agent", exchange.getRequestHeaders().getFirst("User-Agent"));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "TestAgent");
+        InAppWebViewResourceCache.Resource resource = cache(1000).get("c1", "v1", url("/headers.js"), headers);
+        assertThat(resource.getStatusCode(), is(204));
+        assertThat(seen.get("User-Agent"), is("TestAgent"));
+    }
+
+}
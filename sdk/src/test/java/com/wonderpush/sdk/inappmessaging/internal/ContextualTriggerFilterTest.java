@@ -0,0 +1,34 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ContextualTriggerFilterTest {
+
+  @Test
+  public void testItShouldLetEventsThroughUntilCampaignsAreKnown() {
+    ContextualTriggerFilter filter = new ContextualTriggerFilter();
+    assertThat(filter.accepts("anything"), is(true));
+    filter.update(Collections.emptySet());
+    assertThat(filter.accepts("anything"), is(false));
+  }
+
+  @Test
+  public void testItShouldLetTheFirstEventOfANewCampaignThrough() {
+    ContextualTriggerFilter filter = new ContextualTriggerFilter();
+    filter.update(new HashSet<>(Collections.singletonList("purchase")));
+    assertThat(filter.accepts("purchase"), is(true));
+    assertThat(filter.accepts("newsletter"), is(false));
+
+    // The remote config adds a campaign triggered by "newsletter", refreshed from the config change hook
+    filter.update(new HashSet<>(Arrays.asList("purchase", "newsletter")));
+    assertThat(filter.accepts("newsletter"), is(true));
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import com.wonderpush.sdk.inappmessaging.model.Campaign;
+import com.wonderpush.sdk.inappmessaging.model.CampaignImpression;
+import com.wonderpush.sdk.inappmessaging.model.CampaignImpressionList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImpressionStorageClientTest {
+
+    private static final Campaign.Capping ONCE = new Campaign.Capping(1, 0);
+
+    /**
+     * Counts the writes that reach the file.
+     */
+    private static class CountingStorageClient extends ProtoStorageClient {
+        int writes;
+
+        CountingStorageClient(File file, TestScheduler scheduler) {
+            super(file, scheduler, COALESCING_WINDOW_MS);
+        }
+
+        @Override
+        OutputStream openTempFileOutput(File tempFile) throws IOException {
+            ++writes;
+            return super.openTempFileOutput(tempFile);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "impressions");
+    }
+
+    private ImpressionStorageClient newClient(ProtoStorageClient storageClient) {
+        ImpressionStorageClient client = new ImpressionStorageClient(storageClient, new Schedulers(scheduler, scheduler, scheduler));
+        // Let the initial load run
+        scheduler.triggerActions();
+        return client;
+    }
+
+    /**
+     * Lets the debounced persist and the storage client's coalescing window elapse.
+     */
+    private void advancePastPersist() {
+        scheduler.advanceTimeBy(ImpressionStorageClient.PERSIST_DELAY_MS + ProtoStorageClient.COALESCING_WINDOW_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testItShouldCapBeforeTheImpressionIsPersisted() {
+        CountingStorageClient storageClient = new CountingStorageClient(file, scheduler);
+        ImpressionStorageClient client = newClient(storageClient);
+        assertThat(client.isCapped("campaign", ONCE).blockingGet(), is(false));
+
+        client.storeImpression("campaign").blockingAwait();
+        assertThat(client.isCapped("campaign", ONCE).blockingGet(), is(true));
+        assertThat(client.isCapped("other", ONCE).blockingGet(), is(false));
+        assertThat(storageClient.writes, is(0));
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void testItShouldPersistTheImpressionsOfAWindowInOneWrite() {
+        CountingStorageClient storageClient = new CountingStorageClient(file, scheduler);
+        ImpressionStorageClient client = newClient(storageClient);
+
+        client.storeImpression("campaign").blockingAwait();
+        scheduler.advanceTimeBy(ImpressionStorageClient.PERSIST_DELAY_MS / 2, TimeUnit.MILLISECONDS);
+        client.storeImpression("campaign").blockingAwait();
+        client.storeImpression("other").blockingAwait();
+        scheduler.advanceTimeBy(ImpressionStorageClient.PERSIST_DELAY_MS / 2 - 1, TimeUnit.MILLISECONDS);
+        assertThat(storageClient.writes, is(0));
+
+        advancePastPersist();
+        assertThat(storageClient.writes, is(1));
+
+        // The next impression schedules another write
+        client.storeImpression("campaign").blockingAwait();
+        advancePastPersist();
+        assertThat(storageClient.writes, is(2));
+    }
+
+    @Test
+    public void testItShouldReadThePersistedImpressions() {
+        ImpressionStorageClient client = newClient(new ProtoStorageClient(file, scheduler, ProtoStorageClient.COALESCING_WINDOW_MS));
+        client.storeImpression("campaign").blockingAwait();
+        client.storeImpression("campaign").blockingAwait();
+        client.storeImpression("other").blockingAwait();
+        advancePastPersist();
+
+        ImpressionStorageClient reloaded = newClient(new ProtoStorageClient(file, scheduler, ProtoStorageClient.COALESCING_WINDOW_MS));
+        CampaignImpressionList impressions = reloaded.getAllImpressions().blockingGet();
+        assertThat(impressions.getAlreadySeenCampaignsCount(), is(2));
+        for (CampaignImpression impression : impressions.getCampaignImpressionList()) {
+            assertThat(impression.getImpressionCount(), is("campaign".equals(impression.getCampaignId()) ? 2L : 1L));
+        }
+        assertThat(reloaded.isCapped("campaign", new Campaign.Capping(2, 0)).blockingGet(), is(true));
+        assertThat(reloaded.isCapped("campaign", new Campaign.Capping(3, 0)).blockingGet(), is(false));
+        assertThat(reloaded.isCapped("other", ONCE).blockingGet(), is(true));
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import com.wonderpush.sdk.JSONDeserializable;
+import com.wonderpush.sdk.JSONSerializable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ProtoStorageClientTest {
+
+    public static class Value implements JSONSerializable, JSONDeserializable {
+        String data;
+
+        public Value() {}
+
+        Value(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public JSONObject toJSON() throws JSONException {
+            return new JSONObject().put("data", data);
+        }
+
+        @Override
+        public void fromJSON(JSONObject json) {
+            data = json.optString("data", null);
+        }
+    }
+
+    /**
+     * Simulates the process dying after writing the given number of bytes to the temporary file.
+     */
+    private static class CrashingClient extends ProtoStorageClient {
+        private final int crashAfterBytes;
+
+        CrashingClient(File file, int crashAfterBytes) {
+            super(file, Schedulers.trampoline(), 0);
+            this.crashAfterBytes = crashAfterBytes;
+        }
+
+        @Override
+        OutputStream openTempFileOutput(File tempFile) throws IOException {
+            return new FilterOutputStream(new FileOutputStream(tempFile)) {
+                int written = 0;
+
+                @Override
+                public void write(int b) throws IOException {
+                    if (written++ >= crashAfterBytes) {
+                        // Leave the partial file as a killed process would
+                        out.flush();
+                        throw new IOException("Injected crash");
+                    }
+                    out.write(b);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (written > crashAfterBytes) {
+                        out.close();
+                        return;
+                    }
+                    super.close();
+                }
+            };
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "store");
+    }
+
+    private ProtoStorageClient client() {
+        return new ProtoStorageClient(file, Schedulers.trampoline(), 0);
+    }
+
+    private String read(ProtoStorageClient client) {
+        Value value = client.read(Value.class).blockingGet();
+        return value == null ? null : value.data;
+    }
+
+    private static String longData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) sb.append("campaign").append(i).append(',');
+        return sb.toString();
+    }
+
+    @Test
+    public void testItShouldReadWhatWasWritten() throws Exception {
+        ProtoStorageClient client = client();
+        assertThat(read(client), nullValue());
+        client.write(new Value("foo")).blockingAwait();
+        assertThat(read(client), is("foo"));
+        assertThat(read(client()), is("foo"));
+        assertThat(new File(file.getPath() + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void testItShouldStoreCompressedData() throws Exception {
+        String data = longData();
+        client().write(new Value(data)).blockingAwait();
+        try (FileInputStream input = new FileInputStream(file)) {
+            assertThat(input.read(), is(0x1f));
+            assertThat(input.read(), is(0x8b));
+        }
+        assertThat(file.length() < new Value(data).toJSON().toString().length(), is(true));
+        assertThat(read(client()), is(data));
+    }
+
+    @Test
+    public void testItShouldReadPlainJSONStores() throws Exception {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write("{\"data\":\"legacy\"}".getBytes("UTF-8"));
+        }
+        assertThat(read(client()), is("legacy"));
+    }
+
+    @Test
+    public void testItShouldCoalesceWritesWithinTheWindow() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        int[] writes = new int[1];
+        ProtoStorageClient client = new ProtoStorageClient(file, scheduler, 100) {
+            @Override
+            OutputStream openTempFileOutput(File tempFile) throws IOException {
+                writes[0]++;
+                return super.openTempFileOutput(tempFile);
+            }
+        };
+        TestObserver<Void> first = client.write(new Value("a")).test();
+        TestObserver<Void> second = client.write(new Value("b")).test();
+        TestObserver<Void> third = client.write(new Value("c")).test();
+        // The pending value is visible before it is written
+        assertThat(read(client), is("c"));
+        assertThat(file.exists(), is(false));
+
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        first.assertComplete();
+        second.assertComplete();
+        third.assertComplete();
+        assertThat(writes[0], is(1));
+        assertThat(read(client()), is("c"));
+
+        // A new window opens for the next write
+        client.write(new Value("d")).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertThat(writes[0], is(2));
+        assertThat(read(client()), is("d"));
+    }
+
+    @Test
+    public void testItShouldNeverCorruptTheStoreWhenCrashingMidWrite() throws Exception {
+        client().write(new Value("previous")).blockingAwait();
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        // Measure the size of a complete write, then crash at every possible point of it
+        String data = longData();
+        File probe = new File(folder.getRoot(), "probe");
+        new ProtoStorageClient(probe, Schedulers.trampoline(), 0).write(new Value(data)).blockingAwait();
+        long fullLength = probe.length();
+        assertThat(fullLength > 0, is(true));
+
+        for (int crashAfterBytes = 0; crashAfterBytes < fullLength; crashAfterBytes++) {
+            Completable write = new CrashingClient(file, crashAfterBytes).write(new Value(data));
+            Throwable error = write.blockingGet();
+            assertThat("crash after " + crashAfterBytes + " bytes", error, notNullValue());
+
+            // Upon restart, the previous value is read intact and the partial file is discarded
+            assertThat("crash after " + crashAfterBytes + " bytes", read(client()), is("previous"));
+            assertThat(tempFile.exists(), is(false));
+        }
+
+        // Writes work again after a crash
+        new CrashingClient(file, 3).write(new Value(data)).blockingGet();
+        ProtoStorageClient client = client();
+        client.write(new Value(data)).blockingAwait();
+        assertThat(read(client()), is(data));
+    }
+
+    @Test
+    public void testItShouldTreatCorruptStoresAsEmpty() throws Exception {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            // A truncated gzip stream, as left by a non atomic write of a previous version
+            output.write(new byte[]{(byte) 0x1f, (byte) 0x8b, 8, 0, 0});
+        }
+        assertThat(read(client()), nullValue());
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write("{\"data\":\"trunc".getBytes("UTF-8"));
+        }
+        assertThat(read(client()), nullValue());
+    }
+
+}
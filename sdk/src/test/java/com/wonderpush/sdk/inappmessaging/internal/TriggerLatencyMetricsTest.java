@@ -0,0 +1,136 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import com.wonderpush.sdk.inappmessaging.model.EventOccurrence;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TriggerLatencyMetricsTest {
+
+  private long now;
+  private TriggerLatencyMetrics metrics;
+  private final List<TriggerSpan> spans = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    now = 0;
+    metrics = new TriggerLatencyMetrics() {
+      @Override
+      long nanoTime() {
+        return now;
+      }
+    };
+    metrics.setListener(spans::add);
+  }
+
+  private void advanceMillis(long millis) {
+    now += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private TriggerSpan start(String eventType) {
+    EventOccurrence event = new EventOccurrence();
+    event.eventType = eventType;
+    event.occurrenceNanos = now;
+    return metrics.start(event);
+  }
+
+  @Test
+  public void testItShouldAttributeTimeToEachStage() throws Exception {
+    TriggerSpan span = start("purchase");
+    advanceMillis(2);
+    span.stageEnded(TriggerSpan.Stage.QUEUED);
+    advanceMillis(10);
+    span.stageEnded(TriggerSpan.Stage.CONFIG_FETCH);
+    span.mark();
+    span.add(TriggerSpan.Stage.SEGMENTATION, TimeUnit.MILLISECONDS.toNanos(1));
+    span.add(TriggerSpan.Stage.SEGMENTATION, TimeUnit.MILLISECONDS.toNanos(2));
+    advanceMillis(5);
+    span.setCampaignId("campaign");
+    span.mark();
+    advanceMillis(3);
+    span.stageEnded(TriggerSpan.Stage.DELIVERY);
+    advanceMillis(20);
+    span.stageEnded(TriggerSpan.Stage.INFLATE);
+    advanceMillis(1);
+    span.displayed();
+
+    assertThat(span.getStageNanos(TriggerSpan.Stage.QUEUED), is(TimeUnit.MILLISECONDS.toNanos(2)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.CONFIG_FETCH), is(TimeUnit.MILLISECONDS.toNanos(10)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.SEGMENTATION), is(TimeUnit.MILLISECONDS.toNanos(3)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.DELIVERY), is(TimeUnit.MILLISECONDS.toNanos(3)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.INFLATE), is(TimeUnit.MILLISECONDS.toNanos(20)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.SHOW), is(TimeUnit.MILLISECONDS.toNanos(1)));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.TOTAL), is(TimeUnit.MILLISECONDS.toNanos(41)));
+    // Stages the trigger did not go through
+    assertThat(span.getStageNanos(TriggerSpan.Stage.PARSE), is(-1L));
+    assertThat(span.getStageNanos(TriggerSpan.Stage.MEDIA_LOAD), is(-1L));
+
+    JSONObject json = span.toJSON();
+    assertThat(json.getString("campaignId"), is("campaign"));
+    assertThat(json.getBoolean("displayed"), is(true));
+    assertThat(json.getJSONObject("stagesMillis").getDouble("TOTAL"), is(41.0));
+    assertThat(json.getJSONObject("stagesMillis").has("PARSE"), is(false));
+  }
+
+  @Test
+  public void testItShouldRecordEachSpanOnce() {
+    TriggerSpan displayed = start("a");
+    displayed.displayed();
+    displayed.displayed();
+    displayed.discarded();
+    TriggerSpan discarded = start("b");
+    discarded.stageEnded(TriggerSpan.Stage.QUEUED);
+    discarded.discarded();
+    discarded.displayed();
+
+    assertThat(spans.size(), is(2));
+    assertThat(spans.get(0).isDisplayed(), is(true));
+    assertThat(spans.get(1).isDisplayed(), is(false));
+    assertThat(metrics.getDiscardedCount(), is(1L));
+    assertThat(metrics.getSampleCount(TriggerSpan.Stage.TOTAL), is(1));
+    assertThat(metrics.getSampleCount(TriggerSpan.Stage.QUEUED), is(1));
+  }
+
+  @Test
+  public void testItShouldComputePercentilesOfRecentTriggers() {
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 50), is(-1.0));
+    for (int i = 1; i <= 100; i++) {
+      TriggerSpan span = start("event");
+      advanceMillis(i);
+      span.displayed();
+    }
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 50), is(50.0));
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 90), is(90.0));
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 99), is(99.0));
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 100), is(100.0));
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 0), is(1.0));
+
+    // Only the most recent timings are kept
+    for (int i = 0; i < TriggerLatencyMetrics.SAMPLES_PER_STAGE; i++) {
+      TriggerSpan span = start("event");
+      advanceMillis(1000);
+      span.displayed();
+    }
+    assertThat(metrics.getSampleCount(TriggerSpan.Stage.TOTAL), is(TriggerLatencyMetrics.SAMPLES_PER_STAGE));
+    assertThat(metrics.getPercentileMillis(TriggerSpan.Stage.TOTAL, 0), is(1000.0));
+  }
+
+  @Test
+  public void testAFailingListenerShouldNotPreventRecording() {
+    metrics.setListener(span -> {
+      throw new RuntimeException("test");
+    });
+    TriggerSpan span = start("event");
+    span.displayed();
+    assertThat(metrics.getSampleCount(TriggerSpan.Stage.TOTAL), is(1));
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.wonderpush.sdk.inappmessaging.internal;
+
+import com.wonderpush.sdk.inappmessaging.model.EventOccurrence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TriggerQueueTest {
+
+  private long now;
+  private TriggerLatencyMetrics metrics;
+  private TriggerQueue queue;
+
+  @Before
+  public void setUp() {
+    now = TimeUnit.SECONDS.toNanos(100);
+    metrics = new TriggerLatencyMetrics() {
+      @Override
+      long nanoTime() {
+        return now;
+      }
+    };
+    queue = new TriggerQueue(metrics, 3, 1000, 5000);
+  }
+
+  private void advanceMillis(long millis) {
+    now += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private EventOccurrence event(String eventType, long allTimeOccurrences) {
+    EventOccurrence event = new EventOccurrence();
+    event.eventType = eventType;
+    event.allTimeOccurrences = allTimeOccurrences;
+    event.occurrenceNanos = now;
+    return event;
+  }
+
+  @Test
+  public void testItShouldCoalesceWaitingEventsOfTheSameType() {
+    assertThat(queue.offer(event("a", 1)), is(true));
+    advanceMillis(100);
+    assertThat(queue.offer(event("b", 1)), is(true));
+    advanceMillis(100);
+    assertThat(queue.offer(event("a", 2)), is(false));
+    assertThat(queue.offer(event("a", 3)), is(false));
+    assertThat(queue.size(), is(2));
+    assertThat(metrics.getCoalescedCount(), is(2L));
+
+    EventOccurrence a = queue.poll();
+    assertThat(a.eventType, is("a"));
+    assertThat(a.allTimeOccurrences, is(3L));
+    assertThat(a.occurrenceNanos, is(now));
+    // Once taken, an event type is enqueued again
+    assertThat(queue.offer(event("a", 4)), is(true));
+    assertThat(queue.poll().eventType, is("b"));
+    assertThat(queue.poll().allTimeOccurrences, is(4L));
+    assertThat(queue.poll(), nullValue());
+  }
+
+  @Test
+  public void testItShouldNotCoalesceOutsideTheWindow() {
+    queue.offer(event("a", 1));
+    advanceMillis(1500);
+    assertThat(queue.offer(event("a", 2)), is(true));
+    assertThat(queue.size(), is(2));
+    assertThat(metrics.getCoalescedCount(), is(0L));
+  }
+
+  @Test
+  public void testItShouldDropTheOldestEventsWhenFull() {
+    for (String eventType : new String[]{"a", "b", "c", "d", "e"}) {
+      queue.offer(event(eventType, 1));
+    }
+    assertThat(queue.size(), is(3));
+    assertThat(metrics.getDroppedCount(), is(2L));
+    assertThat(queue.poll().eventType, is("c"));
+    // A dropped event type is not coalesced anymore
+    assertThat(queue.offer(event("a", 2)), is(true));
+  }
+
+  @Test
+  public void testItShouldDropStaleEvents() {
+    queue.offer(event("a", 1));
+    advanceMillis(3000);
+    queue.offer(event("b", 1));
+    advanceMillis(3000);
+    assertThat(queue.poll().eventType, is("b"));
+    assertThat(metrics.getDroppedCount(), is(1L));
+
+    EventOccurrence c = event("c", 1);
+    assertThat(queue.dropIfStale(c), is(false));
+    advanceMillis(6000);
+    assertThat(queue.dropIfStale(c), is(true));
+    assertThat(metrics.getDroppedCount(), is(2L));
+  }
+
+  @Test
+  public void testItShouldEmitEventsAsTheyAreRequested() {
+    TestScheduler scheduler = new TestScheduler();
+    PublishProcessor<EventOccurrence> upstream = PublishProcessor.create();
+    TestSubscriber<EventOccurrence> subscriber = queue.bound(upstream, scheduler).test(1);
+
+    upstream.onNext(event("a", 1));
+    upstream.onNext(event("b", 1));
+    upstream.onNext(event("a", 2));
+    upstream.onNext(event("c", 1));
+    subscriber.assertNoValues();
+    scheduler.triggerActions();
+    subscriber.assertValueCount(1);
+    assertThat(subscriber.values().get(0).eventType, is("a"));
+    assertThat(queue.size(), is(2));
+
+    subscriber.requestMore(5);
+    scheduler.triggerActions();
+    subscriber.assertValueCount(3);
+    assertThat(subscriber.values().get(0).allTimeOccurrences, is(2L));
+    assertThat(subscriber.values().get(2).eventType, is("c"));
+
+    subscriber.cancel();
+    assertThat(upstream.hasSubscribers(), is(false));
+  }
+
+}
@@ -0,0 +1,75 @@
+package com.wonderpush.sdk.segmentation;
+
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.AndCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.AnyCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.EqualityCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.JoinCriterionNode;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentEvaluationTraceTest {
+
+    @Test
+    public void testItShouldTraceEachEvaluatedNode() throws Exception {
+        ASTCriterionNode segment = Segmenter.parseInstallationSegment(new JSONObject("{\".custom.string_foo\":{\"eq\":\"bar\"},\".custom.tags\":{\"any\":[\"x\",\"c\"]}}"));
+        Segmenter.Data data = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject("{\"custom\":{\"string_foo\":\"bar\",\"tags\":[\"a\",\"b\",\"c\"]}}"));
+        Segmenter segmenter = new Segmenter(data);
+
+        SegmentEvaluationTrace trace = segmenter.explainInstallation(segment);
+        assertThat(trace.getResult(), is(segmenter.matchesInstallation(segment)));
+        assertThat(trace.getResult(), is(true));
+        assertThat(trace.node, instanceOf(AndCriterionNode.class));
+        assertThat(trace.getChildren().size(), is(2));
+        long childrenNanos = 0;
+        for (SegmentEvaluationTrace child : trace.getChildren()) {
+            assertThat(child.getResult(), is(true));
+            childrenNanos += child.getElapsedNanos();
+        }
+        assertThat(trace.getElapsedNanos() >= childrenNanos, is(true));
+
+        SegmentEvaluationTrace eq = null;
+        SegmentEvaluationTrace any = null;
+        for (SegmentEvaluationTrace child : trace.getChildren()) {
+            if (child.node instanceof EqualityCriterionNode) eq = child;
+            if (child.node instanceof AnyCriterionNode) any = child;
+        }
+        assertThat(eq, notNullValue());
+        assertThat(eq.getVisitedCount(), is(1));
+        assertThat(eq.getExplanation(), is("[bar] == bar"));
+        assertThat(any, notNullValue());
+        // 3 tags compared against "x", then 3 against "c"
+        assertThat(any.getVisitedCount(), is(6));
+
+        JSONObject json = trace.toJSON();
+        assertThat(json.getString("node"), is("AndCriterionNode"));
+        assertThat(json.getBoolean("result"), is(true));
+        assertThat(json.getJSONArray("children").length(), is(2));
+    }
+
+    @Test
+    public void testItShouldTraceEventJoinsPerEvent() throws Exception {
+        ASTCriterionNode segment = Segmenter.parseInstallationSegment(new JSONObject("{\"event\":{\".type\":{\"eq\":\"purchase\"}}}"));
+        Segmenter.Data data = SegmenterTest.dataEmpty;
+        data = SegmenterTest.dataWithNewerEvent(data, new JSONObject("{\"type\":\"a\"}"));
+        data = SegmenterTest.dataWithNewerEvent(data, new JSONObject("{\"type\":\"purchase\"}"));
+        data = SegmenterTest.dataWithNewerEvent(data, new JSONObject("{\"type\":\"b\"}"));
+
+        SegmentEvaluationTrace trace = new Segmenter(data).explainInstallation(segment);
+        assertThat(trace.getResult(), is(true));
+        assertThat(trace.node, instanceOf(JoinCriterionNode.class));
+        // One child per event evaluated, stopping at the first match
+        assertThat(trace.getVisitedCount(), is(2));
+        assertThat(trace.getChildren().size(), is(2));
+        assertThat(trace.getChildren().get(0).getResult(), is(false));
+        assertThat(trace.getChildren().get(1).getResult(), is(true));
+        assertThat(trace.getChildren().get(1).getExplanation(), is("[purchase] == purchase"));
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.wonderpush.sdk.segmentation;
+
+import com.wonderpush.sdk.TimeSync;
+import com.wonderpush.sdk.segmentation.parser.ASTCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.BadInputError;
+import com.wonderpush.sdk.segmentation.parser.ISO8601Duration;
+import com.wonderpush.sdk.segmentation.parser.UnknownValueError;
+import com.wonderpush.sdk.segmentation.parser.criteria.UnknownCriterionError;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SegmentMembershipCacheTest {
+
+    private static ASTCriterionNode parse(String segment) throws JSONException, BadInputError, UnknownValueError, UnknownCriterionError {
+        return Segmenter.parseInstallationSegment(new JSONObject(segment));
+    }
+
+    private static boolean matches(SegmentMembershipCache cache, Segmenter.Data data, ASTCriterionNode segment) {
+        return new Segmenter(data, cache, cache.getGeneration()).matchesInstallation(segment);
+    }
+
+    @Test
+    public void testDependenciesOfInstallationFields() throws Exception {
+        SegmentDependencies deps = SegmentDependencies.of(parse("{\".custom.string_foo\":{\"eq\":\"bar\"},\"or\":[{\".custom.tags\":{\"any\":[\"a\"]}},{\"subscriptionStatus\":\"optIn\"}]}"));
+        assertThat(deps.installationFieldPaths, is(new HashSet<>(Arrays.asList("custom.string_foo", "custom.tags", "pushToken.data", "preferences.subscriptionStatus"))));
+        assertThat(deps.dependsOnEvents(), is(false));
+        assertThat(deps.timeDependent, is(false));
+        assertThat(deps.dependsOnInstallationPath("custom"), is(true));
+        assertThat(deps.dependsOnInstallationPath("custom.string_foo"), is(true));
+        assertThat(deps.dependsOnInstallationPath("custom.string_foo.bar"), is(true));
+        assertThat(deps.dependsOnInstallationPath("custom.string_foobar"), is(false));
+        assertThat(deps.dependsOnInstallationPath("custom.int_foo"), is(false));
+        assertThat(deps.dependsOnInstallationPath("application"), is(false));
+    }
+
+    @Test
+    public void testDependenciesOfEvents() throws Exception {
+        SegmentDependencies deps = SegmentDependencies.of(parse("{\"event\":{\".type\":{\"eq\":\"purchase\"}}}"));
+        assertThat(deps.eventTypes, is(Collections.singleton("purchase")));
+        assertThat(deps.anyEventType, is(false));
+        assertThat(deps.dependsOnEventType("purchase"), is(true));
+        assertThat(deps.dependsOnEventType("@APP_OPEN"), is(false));
+
+        deps = SegmentDependencies.of(parse("{\"event\":{\"or\":[{\".type\":{\"eq\":\"a\"}},{\".type\":{\"any\":[\"b\",\"c\"]}}]}}"));
+        assertThat(deps.eventTypes, is(new HashSet<>(Arrays.asList("a", "b", "c"))));
+
+        deps = SegmentDependencies.of(parse("{\"event\":{\".type\":{\"eq\":\"a\"},\".custom.int_amount\":{\"gt\":3}}}"));
+        assertThat(deps.eventTypes, is(Collections.singleton("a")));
+        assertThat(deps.installationFieldPaths.isEmpty(), is(true));
+
+        deps = SegmentDependencies.of(parse("{\"event\":{\"not\":{\".type\":{\"eq\":\"a\"}}}}"));
+        assertThat(deps.anyEventType, is(true));
+        assertThat(deps.dependsOnEventType("anything"), is(true));
+    }
+
+    @Test
+    public void testDependenciesOfTime() throws Exception {
+        assertThat(SegmentDependencies.of(parse("{\".custom.date_foo\":{\"gt\":{\"date\":\"-PT1H\"}}}")).timeDependent, is(true));
+        assertThat(SegmentDependencies.of(parse("{\".custom.date_foo\":{\"gt\":{\"date\":1000}}}")).timeDependent, is(false));
+        assertThat(SegmentDependencies.of(parse("{\"presence\":{\"present\":true}}")).dependsOnPresence, is(true));
+        assertThat(SegmentDependencies.of(parse("{\"lastActivityDate\":{\"gt\":{\"date\":1000}}}")).dependsOnLastActivityDate, is(true));
+    }
+
+    @Test
+    public void testItShouldCacheUntilADependentFieldChanges() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        ASTCriterionNode segment = parse("{\".custom.string_foo\":{\"eq\":\"bar\"}}");
+        Segmenter.Data matching = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject("{\"custom\":{\"string_foo\":\"bar\"}}"));
+        Segmenter.Data notMatching = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject("{\"custom\":{\"string_foo\":\"baz\"}}"));
+
+        assertThat(cache.get(segment, matching), nullValue());
+        assertThat(matches(cache, matching, segment), is(true));
+        assertThat(cache.get(segment, matching), is(true));
+
+        // Unrelated changes keep the result
+        cache.invalidateInstallationDiff(new JSONObject("{\"custom\":{\"string_other\":\"x\"}}"));
+        cache.invalidateEventType("purchase");
+        assertThat(cache.get(segment, notMatching), is(true));
+
+        // A change of the read field drops it
+        cache.invalidateInstallationDiff(new JSONObject("{\"custom\":{\"string_foo\":\"baz\"}}"));
+        assertThat(cache.get(segment, notMatching), nullValue());
+        assertThat(matches(cache, notMatching, segment), is(false));
+        assertThat(cache.get(segment, notMatching), is(false));
+
+        // So does a wholesale replacement
+        cache.invalidateInstallationDiff(null);
+        assertThat(cache.get(segment, notMatching), nullValue());
+    }
+
+    @Test
+    public void testItShouldNotStoreResultsComputedBeforeAnInvalidation() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        ASTCriterionNode segment = parse("{\".custom.string_foo\":{\"eq\":\"bar\"}}");
+        Segmenter.Data matching = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject("{\"custom\":{\"string_foo\":\"bar\"}}"));
+        long generation = cache.getGeneration();
+        cache.invalidateInstallationDiff(new JSONObject("{\"custom\":{\"string_foo\":\"baz\"}}"));
+        assertThat(new Segmenter(matching, cache, generation).matchesInstallation(segment), is(true));
+        assertThat(cache.get(segment, matching), nullValue());
+    }
+
+    @Test
+    public void testItShouldInvalidateOnRelevantEventTypes() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        ASTCriterionNode segment = parse("{\"event\":{\".type\":{\"eq\":\"purchase\"}}}");
+        Segmenter.Data data = SegmenterTest.dataEmpty;
+        assertThat(matches(cache, data, segment), is(false));
+        cache.invalidateEventType("@APP_OPEN");
+        cache.invalidateInstallationDiff(new JSONObject("{\"custom\":{\"string_foo\":\"bar\"}}"));
+        assertThat(cache.get(segment, data), is(false));
+
+        data = SegmenterTest.dataWithNewerEvent(data, new JSONObject("{\"type\":\"purchase\"}"));
+        cache.invalidateEventType("purchase");
+        assertThat(cache.get(segment, data), nullValue());
+        assertThat(matches(cache, data, segment), is(true));
+        assertThat(cache.get(segment, data), is(true));
+    }
+
+    @Test
+    public void testItShouldInvalidateTheTypesOfEventsEvictedByAnotherType() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        ASTCriterionNode segment = parse("{\"event\":{\".type\":{\"eq\":\"other\"}}}");
+        JSONObject other = new JSONObject("{\"type\":\"other\",\"actionDate\":1000}");
+        Segmenter.Data data = SegmenterTest.dataWithNewerEvent(SegmenterTest.dataEmpty, other);
+        assertThat(matches(cache, data, segment), is(true));
+        assertThat(cache.get(segment, data), is(true));
+
+        // Tracking a purchase hits the cap and evicts the older event of another type
+        SegmentMembershipCache.EventTypeChanges changes = new SegmentMembershipCache.EventTypeChanges();
+        changes.add("purchase");
+        List<JSONObject> events = new ArrayList<>(Arrays.asList(
+                other,
+                new JSONObject("{\"type\":\"purchase\",\"actionDate\":2000}"),
+                new JSONObject("{\"type\":\"purchase\",\"actionDate\":3000}")));
+        List<JSONObject> kept = changes.removeExcessFromStart(events, 2);
+        assertThat(kept.size(), is(2));
+        assertThat(kept.get(0).getString("type"), is("purchase"));
+        cache.invalidateEventTypes(changes);
+
+        Segmenter.Data evicted = SegmenterTest.dataWithAllEvents(SegmenterTest.dataEmpty, kept);
+        assertThat(cache.get(segment, evicted), nullValue());
+        assertThat(matches(cache, evicted, segment), is(false));
+    }
+
+    @Test
+    public void testItShouldInvalidateOnLastActivityDateAndPresenceChanges() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        ASTCriterionNode segment = parse("{\"lastActivityDate\":{\"gt\":{\"date\":1000}}}");
+        Segmenter.Data data = SegmenterTest.dataWithLastAppOpenDate(SegmenterTest.dataEmpty, 500);
+        assertThat(matches(cache, data, segment), is(false));
+        assertThat(cache.get(segment, data), is(false));
+        assertThat(cache.get(segment, SegmenterTest.dataWithLastAppOpenDate(data, 2000)), nullValue());
+
+        long now = TimeSync.getTime();
+        segment = parse("{\"presence\":{\"present\":true}}");
+        data = SegmenterTest.dataWithPresenceInfo(SegmenterTest.dataEmpty, new Segmenter.PresenceInfo(now - 1000, now + 60000, 1000));
+        assertThat(matches(cache, data, segment), is(true));
+        assertThat(cache.get(segment, data), is(true));
+        assertThat(cache.get(segment, SegmenterTest.dataWithPresenceInfo(data, new Segmenter.PresenceInfo(now - 1000, now + 120000, 1000))), nullValue());
+
+        // Presence ended, the result must not be served anymore
+        data = SegmenterTest.dataWithPresenceInfo(SegmenterTest.dataEmpty, new Segmenter.PresenceInfo(now - 1000, now - 1, 999));
+        assertThat(matches(cache, data, segment), is(false));
+        assertThat(cache.get(segment, data), is(false));
+    }
+
+    @Test
+    public void testItShouldExpireResultsWhenARelativeDateBoundaryPasses() throws Exception {
+        SegmentMembershipCache cache = new SegmentMembershipCache();
+        long now = TimeSync.getTime();
+        ASTCriterionNode segment = parse("{\".custom.date_foo\":{\"gt\":{\"date\":\"-PT1H\"}}}");
+        // Already past the boundary: relative dates only move forward, the result holds forever
+        Segmenter.Data old = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject().put("custom", new JSONObject().put("date_foo", now - 2 * 3600000)));
+        assertThat(matches(cache, old, segment), is(false));
+        assertThat(cache.get(segment, old), is(false));
+
+        // 100ms before the boundary: the result expires with it
+        cache.invalidateAll();
+        Segmenter.Data recent = SegmenterTest.dataWithInstallation(SegmenterTest.dataEmpty, new JSONObject().put("custom", new JSONObject().put("date_foo", now - 3600000 + 100)));
+        assertThat(matches(cache, recent, segment), is(true));
+        assertThat(cache.get(segment, recent), is(true));
+        Thread.sleep(200);
+        assertThat(cache.get(segment, recent), nullValue());
+        assertThat(matches(cache, recent, segment), is(false));
+    }
+
+    @Test
+    public void testDateWhenRelativeDateReaches() throws BadInputError {
+        long now = 1600000000000L; // 2020-09-13
+        ISO8601Duration minusOneHour = ISO8601Duration.parse("-PT1H");
+        assertThat(BaseCriterionVisitor.dateWhenRelativeDateReaches(minusOneHour, now, now - 7200000), is(Long.MAX_VALUE));
+        assertThat(BaseCriterionVisitor.dateWhenRelativeDateReaches(minusOneHour, now, now), is(now + 3600000));
+        ISO8601Duration minusOneMonth = ISO8601Duration.parse("-P1M");
+        long target = now + 5 * 86400000L;
+        long date = BaseCriterionVisitor.dateWhenRelativeDateReaches(minusOneMonth, now, target);
+        assertThat(date > now, is(true));
+        assertThat(minusOneMonth.applyTo(date) <= target, is(true));
+        assertThat(minusOneMonth.applyTo(date + 86400000L) > target, is(true));
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.wonderpush.sdk.segmentation.parser;
+
+import com.wonderpush.sdk.segmentation.parser.criteria.AndCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.criteria.EqualityCriterionNode;
+import com.wonderpush.sdk.segmentation.parser.datasource.InstallationSource;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ASTNodeInternerTest {
+
+    private static SegmentationDSLParser newInterningParser() throws ValueParserAlreadyExistsForKey, CriterionParserAlreadyExistsForKey {
+        return new InterningSegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser()), new ASTNodeInterner());
+    }
+
+    private static SegmentationDSLParser newParser() throws ValueParserAlreadyExistsForKey, CriterionParserAlreadyExistsForKey {
+        return new SegmentationDSLParser(new ParserConfig(new DefaultValueNodeParser(), new DefaultCriterionNodeParser()));
+    }
+
+    @Test
+    public void testStructuralEquality() throws Exception {
+        SegmentationDSLParser parser = newParser();
+        String segment = "{\"and\":[{\".custom.string_foo\":{\"eq\":\"bar\"}},{\"event\":{\".type\":{\"any\":[\"a\",\"b\"]}}},{\"presence\":{\"present\":true,\"sinceDate\":{\"gt\":{\"date\":\"-PT1H\"}}}}]}";
+        ASTCriterionNode a = parser.parse(new JSONObject(segment), new InstallationSource());
+        ASTCriterionNode b = parser.parse(new JSONObject(segment), new InstallationSource());
+        assertThat(a, not(sameInstance(b)));
+        assertThat(a.equals(b), is(true));
+        assertThat(a.hashCode(), is(b.hashCode()));
+
+        assertThat(a.equals(parser.parse(new JSONObject(segment.replace("bar", "baz")), new InstallationSource())), is(false));
+        assertThat(a.equals(parser.parse(new JSONObject(segment.replace("string_foo", "string_fo")), new InstallationSource())), is(false));
+        assertThat(a.equals(parser.parse(new JSONObject(segment.replace("-PT1H", "-PT2H")), new InstallationSource())), is(false));
+        assertThat(a.equals(parser.parse(new JSONObject(segment.replace("true", "false")), new InstallationSource())), is(false));
+    }
+
+    @Test
+    public void testValuesOfDifferentTypesAreDifferent() throws Exception {
+        SegmentationDSLParser parser = newParser();
+        ASTCriterionNode integer = parser.parse(new JSONObject("{\".foo\":{\"eq\":1}}"), new InstallationSource());
+        ASTCriterionNode string = parser.parse(new JSONObject("{\".foo\":{\"eq\":\"1\"}}"), new InstallationSource());
+        ASTCriterionNode date = parser.parse(new JSONObject("{\".foo\":{\"eq\":{\"date\":1}}}"), new InstallationSource());
+        assertThat(integer.equals(string), is(false));
+        assertThat(integer.equals(date), is(false));
+    }
+
+    @Test
+    public void testItShouldShareIdenticalSubtrees() throws Exception {
+        SegmentationDSLParser parser = newInterningParser();
+        AndCriterionNode a = (AndCriterionNode) parser.parse(new JSONObject("{\"and\":[{\".foo\":{\"eq\":\"bar\"}},{\".a\":{\"gt\":1}}]}"), new InstallationSource());
+        AndCriterionNode b = (AndCriterionNode) parser.parse(new JSONObject("{\"and\":[{\".foo\":{\"eq\":\"bar\"}},{\".b\":{\"gt\":1}}]}"), new InstallationSource());
+        assertThat(a, not(sameInstance(b)));
+        assertThat(a.children.get(0), sameInstance(b.children.get(0)));
+        assertThat(a.children.get(1), not(sameInstance(b.children.get(1))));
+
+        ASTCriterionNode c = parser.parse(new JSONObject("{\"and\":[{\".foo\":{\"eq\":\"bar\"}},{\".a\":{\"gt\":1}}]}"), new InstallationSource());
+        assertThat(c, sameInstance(a));
+
+        EqualityCriterionNode d = (EqualityCriterionNode) parser.parse(new JSONObject("{\".other\":{\"eq\":\"bar\"}}"), new InstallationSource());
+        EqualityCriterionNode e = (EqualityCriterionNode) a.children.get(0);
+        assertThat(d.value, not(sameInstance(e.value))); // different data sources
+    }
+
+    @Test
+    public void testItShouldComputeTheHashCodeOnce() throws Exception {
+        final int[] computations = {0};
+        ParsingContext context = new ParsingContext(newParser(), null, new InstallationSource());
+        ASTCriterionNode child = new AndCriterionNode(context, Collections.<ASTCriterionNode>emptyList()) {
+            @Override
+            protected int computeHashCode() {
+                ++computations[0];
+                return super.computeHashCode();
+            }
+        };
+        AndCriterionNode parent = new AndCriterionNode(context, Arrays.asList(child, child));
+        int hashCode = parent.hashCode();
+        assertThat(computations[0], is(1));
+        assertThat(parent.hashCode(), is(hashCode));
+        assertThat(child.hashCode(), is(child.hashCode()));
+        assertThat(computations[0], is(1));
+    }
+
+    @Test
+    public void testTheDefaultParsersIntern() throws Exception {
+        JSONObject segment = new JSONObject("{\".foo\":{\"eq\":\"interned\"}}");
+        ASTCriterionNode a = SegmentationFactory.getDefaultParser().parse(segment, new InstallationSource());
+        ASTCriterionNode b = SegmentationFactory.getDefaultParser().parse(new JSONObject(segment.toString()), new InstallationSource());
+        assertThat(a, sameInstance(b));
+    }
+
+}